@@ -0,0 +1,33 @@
+package live.omnisource.tessera.catalog;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled row of {@code tessera.query_catalog}.
+ *
+ * <p>{@code jdbcSql} is the entry's SQL with named parameters replaced by
+ * positional ones, fixed per entry so the driver's statement cache keeps one
+ * server-side prepared statement per connection; {@code bindOrder} names the
+ * parameter behind each placeholder.</p>
+ *
+ * @param cacheTtlSeconds per-entry result TTL; {@code null} uses the catalog default,
+ *                        {@code 0} disables caching
+ * @param readsFeatures   whether results depend on ingested features, and so are
+ *                        evicted on ingest
+ */
+public record CatalogEntry(
+        String name,
+        String description,
+        String category,
+        Map<String, CatalogParameter> parameters,
+        int timeoutMs,
+        boolean streaming,
+        Integer cacheTtlSeconds,
+        List<String> tags,
+        Instant updatedAt,
+        String jdbcSql,
+        List<String> bindOrder,
+        boolean readsFeatures
+) {}
@@ -0,0 +1,126 @@
+package live.omnisource.tessera.catalog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import live.omnisource.tessera.exceptions.CatalogParameterException;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * One property of a catalog entry's {@code param_schema}, compiled into a
+ * validator that turns a request value into a JDBC bind value.
+ *
+ * <p>Supports the subset of JSON Schema the catalog uses: {@code type}
+ * ({@code string}, {@code number}, {@code integer}, {@code boolean}),
+ * {@code nullable}, {@code default}, {@code minimum}, {@code maximum} and
+ * {@code format: date-time}. A parameter without a default that is not
+ * nullable is required.</p>
+ *
+ * @param sqlType JDBC type the value is bound with, so nulls are typed too
+ */
+public record CatalogParameter(
+        String name,
+        Type type,
+        boolean nullable,
+        Object defaultValue,
+        Double minimum,
+        Double maximum,
+        boolean dateTime,
+        int sqlType
+) {
+
+    public enum Type { STRING, NUMBER, INTEGER, BOOLEAN }
+
+    static CatalogParameter compile(String name, JsonNode schema) {
+        Type type = switch (schema.path("type").asText("string")) {
+            case "number" -> Type.NUMBER;
+            case "integer" -> Type.INTEGER;
+            case "boolean" -> Type.BOOLEAN;
+            default -> Type.STRING;
+        };
+        boolean dateTime = type == Type.STRING && "date-time".equals(schema.path("format").asText());
+        int sqlType = switch (type) {
+            case NUMBER -> Types.DOUBLE;
+            case INTEGER -> Types.BIGINT;
+            case BOOLEAN -> Types.BOOLEAN;
+            case STRING -> dateTime ? Types.TIMESTAMP : Types.VARCHAR;
+        };
+
+        var parameter = new CatalogParameter(name, type,
+                schema.path("nullable").asBoolean(false), null,
+                schema.hasNonNull("minimum") ? schema.get("minimum").asDouble() : null,
+                schema.hasNonNull("maximum") ? schema.get("maximum").asDouble() : null,
+                dateTime, sqlType);
+        if (!schema.hasNonNull("default")) return parameter;
+
+        JsonNode node = schema.get("default");
+        Object raw = node.isNumber() ? node.numberValue() : node.isBoolean() ? node.booleanValue() : node.asText();
+        return new CatalogParameter(name, type, parameter.nullable(), parameter.bind(raw),
+                parameter.minimum(), parameter.maximum(), dateTime, sqlType);
+    }
+
+    public boolean required() {
+        return defaultValue == null && !nullable;
+    }
+
+    /**
+     * The bind value for {@code raw}, a JSON value or a query-string text.
+     *
+     * @throws CatalogParameterException when it is missing, mistyped or out of range
+     */
+    public Object bind(Object raw) {
+        if (raw == null || (raw instanceof String s && s.isEmpty() && type != Type.STRING)) {
+            if (defaultValue != null) return defaultValue;
+            if (nullable) return null;
+            throw new CatalogParameterException("Missing parameter: " + name);
+        }
+        return switch (type) {
+            case NUMBER -> checkRange(toNumber(raw).doubleValue());
+            case INTEGER -> {
+                Number number = toNumber(raw);
+                if (number.doubleValue() != Math.rint(number.doubleValue())) {
+                    throw invalid("an integer");
+                }
+                yield (long) checkRange(number.longValue());
+            }
+            case BOOLEAN -> {
+                if (raw instanceof Boolean b) yield b;
+                String text = raw.toString();
+                if (!text.equalsIgnoreCase("true") && !text.equalsIgnoreCase("false")) throw invalid("a boolean");
+                yield Boolean.parseBoolean(text);
+            }
+            case STRING -> dateTime ? toTimestamp(raw.toString()) : raw.toString();
+        };
+    }
+
+    private Number toNumber(Object raw) {
+        if (raw instanceof Number n) return n;
+        try {
+            return Double.parseDouble(raw.toString());
+        } catch (NumberFormatException e) {
+            throw invalid("a number");
+        }
+    }
+
+    private double checkRange(double value) {
+        if (!Double.isFinite(value)) throw invalid("a finite number");
+        if (minimum != null && value < minimum) throw invalid("at least " + minimum);
+        if (maximum != null && value > maximum) throw invalid("at most " + maximum);
+        return value;
+    }
+
+    private Timestamp toTimestamp(String text) {
+        try {
+            // Accepts "Z" and numeric offsets
+            return Timestamp.from(Instant.parse(text));
+        } catch (DateTimeParseException e) {
+            throw invalid("an ISO-8601 date-time");
+        }
+    }
+
+    private CatalogParameterException invalid(String expected) {
+        return new CatalogParameterException("Parameter " + name + " must be " + expected);
+    }
+}
@@ -0,0 +1,120 @@
+package live.omnisource.tessera.catalog;
+
+import live.omnisource.tessera.exceptions.CatalogParameterException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Browsing and execution of catalog queries.
+ *
+ * <p>Parameters go in the query string of {@code GET /{name}/execute} or as a
+ * JSON object in the body of {@code POST /{name}/execute}; both are validated
+ * against the entry's {@code param_schema}. A response whose {@code computedAt}
+ * precedes the request was served from the result cache; {@code truncated} marks
+ * a result cut off at the row limit.</p>
+ *
+ * <p>{@code /{name}/stream} takes the same parameters and writes rows as they are
+ * fetched, as NDJSON or, with {@code format=geojsonseq}, as a GeoJSON text
+ * sequence. Streaming entries can only be run this way.</p>
+ */
+@RestController
+@RequestMapping("/api/catalog")
+public class QueryCatalogController {
+
+    private final QueryCatalogService catalog;
+
+    public QueryCatalogController(QueryCatalogService catalog) {
+        this.catalog = catalog;
+    }
+
+    @GetMapping
+    public List<Map<String, Object>> list(@RequestParam(required = false) String category) {
+        return catalog.list(category).stream().map(QueryCatalogController::toView).toList();
+    }
+
+    @GetMapping("/{name}")
+    public Map<String, Object> get(@PathVariable String name) {
+        return toView(catalog.get(name));
+    }
+
+    @GetMapping("/{name}/execute")
+    public Map<String, Object> execute(@PathVariable String name, @RequestParam Map<String, String> params) {
+        return toView(catalog.execute(name, params));
+    }
+
+    @PostMapping("/{name}/execute")
+    public Map<String, Object> executePost(@PathVariable String name,
+                                           @RequestBody(required = false) Map<String, Object> params) {
+        return toView(catalog.execute(name, params != null ? params : Map.of()));
+    }
+
+    @GetMapping("/{name}/stream")
+    public ResponseEntity<StreamingResponseBody> stream(@PathVariable String name,
+                                                        @RequestParam Map<String, String> params) {
+        var queryParams = new HashMap<String, Object>(params);
+        Object format = queryParams.remove("format");
+        return streamResponse(name, queryParams, format != null ? format.toString() : null);
+    }
+
+    @PostMapping("/{name}/stream")
+    public ResponseEntity<StreamingResponseBody> streamPost(@PathVariable String name,
+                                                            @RequestParam(required = false) String format,
+                                                            @RequestBody(required = false) Map<String, Object> params) {
+        return streamResponse(name, params != null ? params : Map.of(), format);
+    }
+
+    /** Validates before answering, so bad parameters still get a 400 rather than a cut stream. */
+    private ResponseEntity<StreamingResponseBody> streamResponse(String name, Map<String, ?> params, String format) {
+        var streamFormat = switch (format == null ? "ndjson" : format) {
+            case "ndjson" -> QueryCatalogService.StreamFormat.NDJSON;
+            case "geojsonseq" -> QueryCatalogService.StreamFormat.GEOJSON_SEQ;
+            default -> throw new CatalogParameterException("format must be ndjson or geojsonseq");
+        };
+        var query = catalog.bind(name, params);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(streamFormat.mediaType()))
+                .body(out -> catalog.stream(query, streamFormat, out));
+    }
+
+    private static Map<String, Object> toView(QueryCatalogService.CatalogResult result) {
+        var view = new LinkedHashMap<String, Object>();
+        view.put("name", result.name());
+        view.put("computedAt", result.computedAt());
+        view.put("count", result.rows().size());
+        view.put("truncated", result.truncated());
+        view.put("rows", result.rows());
+        return view;
+    }
+
+    private static Map<String, Object> toView(CatalogEntry entry) {
+        var params = new LinkedHashMap<String, Object>();
+        entry.parameters().forEach((name, param) -> {
+            var view = new LinkedHashMap<String, Object>();
+            view.put("type", param.type().name().toLowerCase());
+            view.put("required", param.required());
+            view.put("nullable", param.nullable());
+            view.put("default", param.defaultValue());
+            view.put("minimum", param.minimum());
+            view.put("maximum", param.maximum());
+            params.put(name, view);
+        });
+
+        var view = new LinkedHashMap<String, Object>();
+        view.put("name", entry.name());
+        view.put("description", entry.description());
+        view.put("category", entry.category());
+        view.put("parameters", params);
+        view.put("timeoutMs", entry.timeoutMs());
+        view.put("streaming", entry.streaming());
+        view.put("cacheTtlSeconds", entry.cacheTtlSeconds());
+        view.put("tags", entry.tags());
+        return view;
+    }
+}
@@ -0,0 +1,458 @@
+package live.omnisource.tessera.catalog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.exceptions.CatalogParameterException;
+import live.omnisource.tessera.exceptions.CatalogQueryNotFoundException;
+import live.omnisource.tessera.exceptions.CatalogQueryTimeoutException;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.util.PGobject;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the prepared queries of {@code tessera.query_catalog}.
+ *
+ * <p>Entries are compiled once per load: the parameter schema into
+ * {@link CatalogParameter} validators, the SQL into a fixed positional statement.
+ * Requests are validated before any connection is taken, bound with typed values
+ * and run under the entry's {@code timeout_ms}.</p>
+ *
+ * <p>Results of non-streaming entries are kept in a cache bounded by total rows,
+ * for the entry's {@code cache_ttl_sec} or {@code tessera.catalog.cache-ttl-seconds}
+ * when it has none. Concurrent identical requests share one execution. Ingest
+ * evicts results of entries reading features, limited to the ingested source when
+ * the request was for one; a result whose load overlapped an ingest is served but
+ * not kept, as it may predate it. Results stop at {@value #MAX_ROWS} rows and say
+ * so with {@code truncated}.</p>
+ *
+ * <p>Streaming entries have no {@code LIMIT} and are never materialized: they
+ * run on a server-side cursor with a fixed fetch size and each row is written to
+ * the response as it is read, so memory stays constant whatever the result size.
+ * The writer blocks while the client is behind, which in turn stops fetching.</p>
+ */
+@Slf4j
+@Service
+public class QueryCatalogService {
+
+    private static final int MAX_ROWS = 50_000;
+    private static final int STREAM_FETCH_SIZE = 1_000;
+    private static final int STREAM_FLUSH_ROWS = 500;
+    private static final byte RECORD_SEPARATOR = 0x1E;
+    private static final long ENTRY_REFRESH_SECONDS = 30;
+    private static final long MAX_CACHE_TTL_SECONDS = 3600;
+
+    private static final String SELECT_ENTRIES = """
+            SELECT name, description, category, query_sql, param_schema::text AS param_schema,
+                   timeout_ms, is_streaming, cache_ttl_sec, tags, updated_at
+            FROM tessera.query_catalog
+            """;
+
+    /**
+     * Result of one catalog execution; {@code computedAt} shows whether it came from
+     * cache, {@code truncated} that the query had more than {@value #MAX_ROWS} rows.
+     */
+    public record CatalogResult(String name, Instant computedAt, List<Map<String, Object>> rows,
+                                boolean truncated) {}
+
+    /** Identity of a result: entry version plus bound values in placeholder order. */
+    private record ResultKey(String name, Instant version, List<Object> values,
+                             boolean readsFeatures, String sourceId) {}
+
+    private record CachedResult(CatalogResult result, Instant expiresAt) {}
+
+    /** A validated request, ready to run once the response is committed. */
+    public record BoundQuery(CatalogEntry entry, Map<String, Object> values) {}
+
+    /** Wire formats of a streamed result. */
+    public enum StreamFormat {
+        /** One JSON object per row, newline-terminated. */
+        NDJSON("application/x-ndjson"),
+        /** RFC 8142 GeoJSON text sequence: one Feature per row, RS-prefixed. */
+        GEOJSON_SEQ("application/geo+json-seq");
+
+        private final String mediaType;
+
+        StreamFormat(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public String mediaType() {
+            return mediaType;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    /** One record per line, whatever the shared mapper's indentation. */
+    private final ObjectWriter lineWriter;
+    private final int defaultTtlSeconds;
+    private final Cache<String, CatalogEntry> entries;
+    private final Cache<ResultKey, CachedResult> results;
+    /** Bumped per ingest; a result loaded across a bump may predate it and is not kept. */
+    private final AtomicLong ingests = new AtomicLong();
+
+    public QueryCatalogService(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper,
+                               ApplicationProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.lineWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        this.defaultTtlSeconds = properties.catalog().cacheTtlSeconds();
+        this.entries = CacheBuilder.newBuilder()
+                .expireAfterWrite(ENTRY_REFRESH_SECONDS, TimeUnit.SECONDS)
+                .build();
+        this.results = CacheBuilder.newBuilder()
+                .maximumWeight(properties.catalog().cacheMaxRows())
+                .weigher((ResultKey key, CachedResult cached) -> cached.result().rows().size() + 1)
+                .expireAfterWrite(MAX_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public List<CatalogEntry> list(String category) {
+        var sql = SELECT_ENTRIES + (category != null ? "WHERE category = ? ORDER BY name" : "ORDER BY name");
+        Object[] args = category != null ? new Object[]{category} : new Object[0];
+        return jdbcTemplate.query(sql, this::mapRow, args);
+    }
+
+    public CatalogEntry get(String name) {
+        CatalogEntry entry = entries.getIfPresent(name);
+        if (entry != null) return entry;
+        entry = jdbcTemplate.query(SELECT_ENTRIES + "WHERE name = ?", this::mapRow, name)
+                .stream().findFirst()
+                .orElseThrow(() -> new CatalogQueryNotFoundException("Catalog query not found: " + name));
+        entries.put(name, entry);
+        return entry;
+    }
+
+    /**
+     * Run {@code name} with {@code params}, from the result cache when allowed.
+     *
+     * @param params JSON values or query-string texts, by parameter name
+     */
+    public CatalogResult execute(String name, Map<String, ?> params) {
+        BoundQuery query = bind(name, params);
+        CatalogEntry entry = query.entry();
+        Map<String, Object> bound = query.values();
+        if (entry.streaming()) {
+            throw new CatalogParameterException("Catalog query " + name + " is streaming; use its stream endpoint");
+        }
+
+        int ttl = entry.cacheTtlSeconds() != null ? entry.cacheTtlSeconds() : defaultTtlSeconds;
+        if (ttl <= 0) {
+            return run(entry, bound);
+        }
+
+        var values = new ArrayList<>(bound.size());
+        entry.bindOrder().forEach(param -> values.add(bound.get(param)));
+        Object sourceId = bound.get("sourceId");
+        var key = new ResultKey(name, entry.updatedAt(), values, entry.readsFeatures(),
+                sourceId != null ? sourceId.toString() : null);
+
+        CachedResult cached = results.getIfPresent(key);
+        if (cached != null && cached.expiresAt().isAfter(Instant.now())) {
+            return cached.result();
+        }
+        if (cached != null) {
+            results.asMap().remove(key, cached);
+        }
+        long seen = ingests.get();
+        try {
+            CachedResult loaded = results.get(key, () -> {
+                CatalogResult result = run(entry, bound);
+                return new CachedResult(result, result.computedAt()
+                        .plusSeconds(Math.min(ttl, MAX_CACHE_TTL_SECONDS)));
+            });
+            if (entry.readsFeatures() && ingests.get() != seen) {
+                results.asMap().remove(key, loaded);
+            }
+            return loaded.result();
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Validate {@code params} for {@code name}.
+     *
+     * @throws CatalogParameterException for unknown, missing or invalid parameters
+     */
+    public BoundQuery bind(String name, Map<String, ?> params) {
+        CatalogEntry entry = get(name);
+        for (String given : params.keySet()) {
+            if (!entry.parameters().containsKey(given)) {
+                throw new CatalogParameterException("Unknown parameter for " + name + ": " + given);
+            }
+        }
+        var bound = new LinkedHashMap<String, Object>();
+        entry.parameters().forEach((param, validator) -> bound.put(param, validator.bind(params.get(param))));
+        return new BoundQuery(entry, bound);
+    }
+
+    /**
+     * Write every row of {@code query} to {@code out} as it is fetched, flushing
+     * every {@value #STREAM_FLUSH_ROWS} rows. Works for any entry, streaming or not.
+     *
+     * @return the number of rows written
+     * @throws UncheckedIOException when the client goes away; the cursor is closed
+     */
+    public long stream(BoundQuery query, StreamFormat format, OutputStream out) {
+        CatalogEntry entry = query.entry();
+        Instant started = Instant.now();
+        try {
+            Long written = jdbcTemplate.execute((Connection con) -> {
+                // PostgreSQL only honors the fetch size inside a transaction
+                boolean autoCommit = con.getAutoCommit();
+                con.setAutoCommit(false);
+                try (PreparedStatement ps = con.prepareStatement(entry.jdbcSql(),
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    ps.setFetchSize(STREAM_FETCH_SIZE);
+                    ps.setQueryTimeout(Math.max(1, (entry.timeoutMs() + 999) / 1000));
+                    bindValues(ps, entry, query.values());
+                    long count;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        count = writeRows(rs, format, out);
+                    }
+                    con.commit();
+                    return count;
+                } catch (SQLException | RuntimeException e) {
+                    con.rollback();
+                    throw e;
+                } finally {
+                    con.setAutoCommit(autoCommit);
+                }
+            });
+            log.debug("Catalog query {} streamed {} rows in {} ms", entry.name(), written,
+                    Instant.now().toEpochMilli() - started.toEpochMilli());
+            return written != null ? written : 0;
+        } catch (QueryTimeoutException e) {
+            throw new CatalogQueryTimeoutException(
+                    "Catalog query " + entry.name() + " exceeded " + entry.timeoutMs() + " ms");
+        }
+    }
+
+    @EventListener
+    public void onFeatureIngested(FeatureIngestEvent event) {
+        ingests.incrementAndGet();
+        String sourceId = event.sourceId() != null ? event.sourceId().toString() : null;
+        results.asMap().keySet().removeIf(key -> key.readsFeatures()
+                && (key.sourceId() == null || sourceId == null || key.sourceId().equals(sourceId)));
+    }
+
+    private CatalogResult run(CatalogEntry entry, Map<String, Object> bound) {
+        Instant started = Instant.now();
+        try {
+            // A statement creator's timeout would be replaced by the template's own
+            // query timeout when it is applied; a connection callback keeps the entry's
+            List<Map<String, Object>> rows = jdbcTemplate.execute((Connection con) -> {
+                try (PreparedStatement ps = con.prepareStatement(entry.jdbcSql())) {
+                    ps.setQueryTimeout(Math.max(1, (entry.timeoutMs() + 999) / 1000));
+                    // One extra row tells a result that fits from a truncated one
+                    ps.setMaxRows(MAX_ROWS + 1);
+                    bindValues(ps, entry, bound);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        return extractRows(rs);
+                    }
+                }
+            });
+            boolean truncated = rows.size() > MAX_ROWS;
+            if (truncated) {
+                rows = rows.subList(0, MAX_ROWS);
+                log.info("Catalog query {} truncated at {} rows", entry.name(), MAX_ROWS);
+            }
+            log.debug("Catalog query {} returned {} rows in {} ms", entry.name(), rows.size(),
+                    Instant.now().toEpochMilli() - started.toEpochMilli());
+            return new CatalogResult(entry.name(), started, rows, truncated);
+        } catch (QueryTimeoutException e) {
+            throw new CatalogQueryTimeoutException(
+                    "Catalog query " + entry.name() + " exceeded " + entry.timeoutMs() + " ms");
+        }
+    }
+
+    private static void bindValues(PreparedStatement ps, CatalogEntry entry, Map<String, Object> bound)
+            throws SQLException {
+        List<String> order = entry.bindOrder();
+        for (int i = 0; i < order.size(); i++) {
+            CatalogParameter param = entry.parameters().get(order.get(i));
+            StatementCreatorUtils.setParameterValue(ps, i + 1, param.sqlType(), bound.get(param.name()));
+        }
+    }
+
+    private List<Map<String, Object>> extractRows(ResultSet rs) throws SQLException {
+        String[] labels = labels(rs);
+        var rows = new ArrayList<Map<String, Object>>();
+        while (rs.next()) {
+            rows.add(Collections.unmodifiableMap(readRow(rs, labels)));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    private long writeRows(ResultSet rs, StreamFormat format, OutputStream out) throws SQLException {
+        String[] labels = labels(rs);
+        long count = 0;
+        try {
+            while (rs.next()) {
+                Map<String, Object> row = readRow(rs, labels);
+                if (format == StreamFormat.GEOJSON_SEQ) {
+                    out.write(RECORD_SEPARATOR);
+                    out.write(lineWriter.writeValueAsBytes(toFeature(row)));
+                } else {
+                    out.write(lineWriter.writeValueAsBytes(row));
+                }
+                out.write('\n');
+                if (++count % STREAM_FLUSH_ROWS == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    /**
+     * A row as a GeoJSON Feature: {@code geometry} and {@code id} columns lifted out,
+     * {@code attributes} merged into the properties.
+     */
+    private static Map<String, Object> toFeature(Map<String, Object> row) {
+        var properties = new LinkedHashMap<String, Object>();
+        row.forEach((column, value) -> {
+            if (column.equals("geometry") || column.equals("id")) return;
+            if (column.equals("attributes") && value instanceof Map<?, ?> attributes) {
+                attributes.forEach((key, attr) -> properties.putIfAbsent(String.valueOf(key), attr));
+            } else {
+                properties.put(column, value);
+            }
+        });
+        var feature = new LinkedHashMap<String, Object>();
+        feature.put("type", "Feature");
+        if (row.get("id") != null) feature.put("id", row.get("id"));
+        feature.put("geometry", row.get("geometry"));
+        feature.put("properties", properties);
+        return feature;
+    }
+
+    private static String[] labels(ResultSet rs) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        String[] labels = new String[meta.getColumnCount()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = meta.getColumnLabel(i + 1);
+        }
+        return labels;
+    }
+
+    private Map<String, Object> readRow(ResultSet rs, String[] labels) throws SQLException {
+        var row = new LinkedHashMap<String, Object>(labels.length * 2);
+        for (int i = 0; i < labels.length; i++) {
+            row.put(labels[i], readValue(rs.getObject(i + 1)));
+        }
+        return row;
+    }
+
+    /** JDBC value to a JSON-friendly one: json/jsonb parsed, other PostgreSQL types as text. */
+    private Object readValue(Object value) throws SQLException {
+        return switch (value) {
+            case null -> null;
+            case PGobject pg when pg.getValue() != null
+                    && ("json".equals(pg.getType()) || "jsonb".equals(pg.getType())) -> parseJson(pg.getValue());
+            case PGobject pg -> pg.getValue();
+            case Timestamp ts -> ts.toInstant();
+            case Array array -> Arrays.asList((Object[]) array.getArray());
+            default -> value;
+        };
+    }
+
+    private Object parseJson(String json) {
+        try {
+            return objectMapper.readValue(json, Object.class);
+        } catch (Exception e) {
+            log.debug("Unreadable JSON column: {}", e.getMessage());
+            return json;
+        }
+    }
+
+    private CatalogEntry mapRow(ResultSet rs, int rowNum) throws SQLException {
+        String name = rs.getString("name");
+        String sql = rs.getString("query_sql");
+
+        var parameters = new LinkedHashMap<String, CatalogParameter>();
+        String schemaJson = rs.getString("param_schema");
+        if (schemaJson != null) {
+            try {
+                JsonNode properties = objectMapper.readTree(schemaJson).path("properties");
+                properties.properties().forEach(property ->
+                        parameters.put(property.getKey(), CatalogParameter.compile(property.getKey(), property.getValue())));
+            } catch (Exception e) {
+                throw new IllegalStateException("Catalog query " + name + " has an invalid param_schema", e);
+            }
+        }
+
+        // Naming each declared parameter after itself yields the placeholder order
+        ParsedSql parsed = NamedParameterUtils.parseSqlStatement(sql);
+        var names = new MapSqlParameterSource();
+        parameters.keySet().forEach(param -> names.addValue(param, param));
+        List<String> bindOrder;
+        try {
+            bindOrder = Arrays.stream(NamedParameterUtils.buildValueArray(parsed, names, null))
+                    .map(String.class::cast)
+                    .toList();
+        } catch (InvalidDataAccessApiUsageException e) {
+            throw new IllegalStateException("Catalog query " + name + " uses a parameter missing from its param_schema", e);
+        }
+        String jdbcSql = NamedParameterUtils.substituteNamedParameters(parsed, names);
+
+        Array tags = rs.getArray("tags");
+        String lowerSql = sql.toLowerCase(Locale.ROOT);
+        return new CatalogEntry(
+                name,
+                rs.getString("description"),
+                rs.getString("category"),
+                Collections.unmodifiableMap(parameters),
+                rs.getInt("timeout_ms"),
+                rs.getBoolean("is_streaming"),
+                rs.getObject("cache_ttl_sec", Integer.class),
+                tags != null ? List.of((String[]) tags.getArray()) : List.of(),
+                Optional.ofNullable(rs.getTimestamp("updated_at")).map(Timestamp::toInstant).orElse(Instant.EPOCH),
+                jdbcSql,
+                bindOrder,
+                lowerSql.contains("geo_features") || lowerSql.contains("h3_cell_index"));
+    }
+}
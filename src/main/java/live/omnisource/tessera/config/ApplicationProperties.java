@@ -11,6 +11,7 @@ public record ApplicationProperties(
         H3Properties h3,
         SyncProperties sync,
         CatalogProperties catalog,
+        StreamProperties stream,
         CryptoProperties crypto,
         ConnectorsProperties connectors
 ) {
@@ -28,7 +29,26 @@ public record ApplicationProperties(
     ) {}
 
     public record CatalogProperties(
-            @DefaultValue("300") int cacheTtlSeconds
+            @DefaultValue("300") int cacheTtlSeconds,
+            @DefaultValue("100000") long cacheMaxRows
+    ) {}
+
+    public record StreamProperties(
+            @DefaultValue("64") int replayCapacity,
+            @DefaultValue("300") int replayRetentionSeconds,
+            @DefaultValue("false") boolean clusterEnabled,
+            @DefaultValue("tessera_feature_ingest") String clusterChannel,
+            @DefaultValue("10000") int maxBufferedFeatures,
+            @DefaultValue("1000") long densityIntervalMs,
+            @DefaultValue("256") int dispatchLaneCapacity,
+            @DefaultValue("5000") int dispatchCoalesceLimit,
+            @DefaultValue("200000") long snapshotCacheMaxFeatures,
+            @DefaultValue("60") int snapshotCacheTtlSeconds,
+            @DefaultValue("604800") long durableTtlSeconds,
+            @DefaultValue("60000") long durableCleanupIntervalMs,
+            @DefaultValue List<String> memoryIndexLayers,
+            @DefaultValue("268435456") long memoryIndexMaxBytes,
+            @DefaultValue("7") int geojsonCoordinatePrecision
     ) {}
 
     public record CryptoProperties(String salt) {}
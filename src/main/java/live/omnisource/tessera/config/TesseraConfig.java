@@ -2,6 +2,7 @@ package live.omnisource.tessera.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.uber.h3core.H3Core;
 import com.zaxxer.hikari.HikariDataSource;
 import live.omnisource.tessera.datasource.connector.CassandraConnector;
 import live.omnisource.tessera.datasource.connector.DataSourceConnector;
@@ -17,6 +18,7 @@ import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.util.Map;
 
 @Configuration
@@ -31,6 +33,12 @@ public class TesseraConfig {
         return mapper;
     }
 
+    /** Thread-safe; loads the native library once. */
+    @Bean
+    public H3Core h3Core() throws IOException {
+        return H3Core.newInstance();
+    }
+
     @Bean
     @Primary
     @ConfigurationProperties("spring.datasource")
@@ -0,0 +1,11 @@
+package live.omnisource.tessera.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class CatalogParameterException extends RuntimeException {
+    public CatalogParameterException(String message) {
+        super(message);
+    }
+}
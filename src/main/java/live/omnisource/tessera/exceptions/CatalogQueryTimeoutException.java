@@ -0,0 +1,11 @@
+package live.omnisource.tessera.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+public class CatalogQueryTimeoutException extends RuntimeException {
+    public CatalogQueryTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package live.omnisource.tessera.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class LayerNotIndexedException extends RuntimeException {
+    public LayerNotIndexedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package live.omnisource.tessera.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class StreamSubscriptionValidationException extends RuntimeException {
+    public StreamSubscriptionValidationException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,90 @@
+package live.omnisource.tessera.spatial;
+
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.StreamFeature;
+import live.omnisource.tessera.stream.StreamSubscription;
+import live.omnisource.tessera.stream.filter.FeatureFilter;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Radius and nearest-feature search across all current features:
+ * {@code /api/proximity/radius} and {@code /api/proximity/nearest}.
+ *
+ * <p>Results are nearest first, each with its geodesic distance in meters as
+ * {@code distance_m}.</p>
+ */
+@RestController
+@RequestMapping("/api/proximity")
+public class ProximityController {
+
+    private static final int MAX_LIMIT = 5000;
+    private static final double MAX_METERS = 1_000_000;
+
+    private final ProximityService proximity;
+
+    public ProximityController(ProximityService proximity) {
+        this.proximity = proximity;
+    }
+
+    @GetMapping("/radius")
+    public Map<String, Object> radius(@RequestParam double lat, @RequestParam double lon,
+                                      @RequestParam double meters,
+                                      @RequestParam(required = false) UUID sourceId,
+                                      @RequestParam(required = false) String sourceTable,
+                                      @RequestParam(required = false) String filter,
+                                      @RequestParam(required = false) String fields,
+                                      @RequestParam(defaultValue = "500") int limit) {
+        validatePoint(lat, lon);
+        if (meters <= 0 || meters > MAX_METERS) {
+            throw new StreamSubscriptionValidationException("meters must be between 0 and " + (long) MAX_METERS);
+        }
+        var query = query(sourceId, sourceTable, filter, fields);
+        return toView(query, proximity.radius(query, lat, lon, meters, Math.clamp(limit, 1, MAX_LIMIT)));
+    }
+
+    @GetMapping("/nearest")
+    public Map<String, Object> nearest(@RequestParam double lat, @RequestParam double lon,
+                                       @RequestParam(defaultValue = "10") int k,
+                                       @RequestParam(required = false) Double maxMeters,
+                                       @RequestParam(required = false) UUID sourceId,
+                                       @RequestParam(required = false) String sourceTable,
+                                       @RequestParam(required = false) String filter,
+                                       @RequestParam(required = false) String fields) {
+        validatePoint(lat, lon);
+        double max = maxMeters != null ? Math.clamp(maxMeters, 1, MAX_METERS) : MAX_METERS;
+        var query = query(sourceId, sourceTable, filter, fields);
+        return toView(query, proximity.nearest(query, lat, lon, Math.clamp(k, 1, MAX_LIMIT), max));
+    }
+
+    private static StreamSubscription query(UUID sourceId, String sourceTable, String filter, String fields) {
+        return new StreamSubscription(UUID.randomUUID().toString(),
+                StreamSubscription.Protocol.REST_POLL, sourceId, sourceTable, null, null,
+                FeatureFilter.compile(filter), FieldProjection.parse(fields));
+    }
+
+    private static void validatePoint(double lat, double lon) {
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            throw new StreamSubscriptionValidationException("lat/lon out of range");
+        }
+    }
+
+    private static Map<String, Object> toView(StreamSubscription query, List<StreamFeature> features) {
+        var view = new LinkedHashMap<String, Object>();
+        view.put("count", features.size());
+        view.put("features", features.stream().map(feature -> {
+            var row = new LinkedHashMap<>(query.project(feature));
+            row.put("distance_m", feature.row().get("distance_m"));
+            return row;
+        }).toList());
+        return view;
+    }
+}
@@ -0,0 +1,120 @@
+package live.omnisource.tessera.spatial;
+
+import com.uber.h3core.H3Core;
+import com.uber.h3core.LengthUnit;
+import com.uber.h3core.util.LatLng;
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.Envelopes;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.StreamFeature;
+import live.omnisource.tessera.stream.StreamSubscription;
+import live.omnisource.tessera.stream.h3.CellRanges;
+import live.omnisource.tessera.stream.h3.IndexedResolutions;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Radius and nearest-feature search over the database.
+ *
+ * <p>A search disk is covered with a {@code gridDisk} of H3 cells at the finest
+ * resolution sync has populated in {@code h3_cell_index} that needs at most
+ * {@value #MAX_RINGS} rings for it, widened until every cell of the outermost
+ * ring lies wholly beyond the radius. The cells are compacted and turned into
+ * {@code h3_index_int} ranges, so candidates come from index range scans on that
+ * partition, and only they are measured with the exact geodesic distance.</p>
+ *
+ * <p>Features are indexed by the cell of their centroid, so a polygon or line
+ * that reaches into the radius from a centroid outside it is not found.</p>
+ */
+@Service
+public class ProximityService {
+
+    /** Rings of the widest disk searched at one resolution; 469 cells at 12. */
+    private static final int MAX_RINGS = 12;
+    /** Radius nearest-feature search starts from, growing {@value #GROWTH}-fold per miss. */
+    private static final double INITIAL_NEAREST_METERS = 250;
+    private static final double GROWTH = 4;
+
+    /** Cells covering a search disk, as {@code h3_index_int} ranges at {@code resolution}. */
+    record Cover(int resolution, List<long[]> ranges) {}
+
+    private final FeatureDeltaQuery deltaQuery;
+    private final H3Core h3;
+    private final IndexedResolutions indexedResolutions;
+
+    public ProximityService(FeatureDeltaQuery deltaQuery, H3Core h3Core, IndexedResolutions indexedResolutions) {
+        this.deltaQuery = deltaQuery;
+        this.h3 = h3Core;
+        this.indexedResolutions = indexedResolutions;
+    }
+
+    /** Current features of {@code query} within {@code meters} of a point, nearest first. */
+    public List<StreamFeature> radius(StreamSubscription query, double lat, double lon, double meters, int limit) {
+        if (indexedResolutions.populated().isEmpty()) return List.of();
+        Cover cover = cover(lat, lon, meters);
+        return deltaQuery.fetchWithin(query, cover.resolution(), cover.ranges(), lat, lon, meters, limit);
+    }
+
+    /**
+     * The {@code k} current features of {@code query} nearest to a point and within
+     * {@code maxMeters}, nearest first.
+     *
+     * <p>Searches a small disk and widens it until it holds {@code k} features.
+     * Anything outside a disk is farther than everything inside it, so once a disk
+     * holds {@code k} the first {@code k} are the nearest overall.</p>
+     */
+    public List<StreamFeature> nearest(StreamSubscription query, double lat, double lon, int k, double maxMeters) {
+        double meters = Math.min(INITIAL_NEAREST_METERS, maxMeters);
+        while (true) {
+            List<StreamFeature> found = radius(query, lat, lon, meters, k);
+            if (found.size() >= k || meters >= maxMeters) {
+                return found;
+            }
+            meters = Math.min(meters * GROWTH, maxMeters);
+        }
+    }
+
+    /** Cells covering every point within {@code meters} of a point. */
+    Cover cover(double lat, double lon, double meters) {
+        for (int resolution : indexedResolutions.populated().reversed()) {
+            double spacing = Math.sqrt(3) * h3.getHexagonEdgeLengthAvg(resolution, LengthUnit.m);
+            int rings = (int) Math.ceil(meters / spacing) + 1;
+            if (rings > MAX_RINGS) continue;
+
+            long origin = h3.latLngToCell(lat, lon, resolution);
+            for (; rings <= MAX_RINGS; rings++) {
+                List<List<Long>> disk = h3.gridDiskDistances(origin, rings);
+                // Cells grow and shrink across the globe, so the average spacing is
+                // only a first guess: the outer ring must fence the radius in
+                if (!beyond(disk.getLast(), lat, lon, meters)) continue;
+
+                var cells = new ArrayList<Long>();
+                disk.forEach(cells::addAll);
+                var ranges = new ArrayList<long[]>();
+                for (long cell : h3.compactCells(cells)) {
+                    ranges.add(CellRanges.descendants(h3, cell, resolution));
+                }
+                return new Cover(resolution, ranges);
+            }
+        }
+        throw new StreamSubscriptionValidationException("Radius of " + Math.round(meters) + " m is too large");
+    }
+
+    /** Whether every point of every cell in {@code ring} is more than {@code meters} away. */
+    private boolean beyond(List<Long> ring, double lat, double lon, double meters) {
+        for (long cell : ring) {
+            LatLng center = h3.cellToLatLng(cell);
+            double circumradius = 0;
+            for (LatLng vertex : h3.cellToBoundary(cell)) {
+                circumradius = Math.max(circumradius,
+                        Envelopes.haversine(center.lat, center.lng, vertex.lat, vertex.lng));
+            }
+            if (Envelopes.haversine(lat, lon, center.lat, center.lng) - circumradius <= meters) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
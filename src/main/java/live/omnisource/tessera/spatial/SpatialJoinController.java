@@ -0,0 +1,53 @@
+package live.omnisource.tessera.spatial;
+
+import live.omnisource.tessera.exceptions.SpatialJoinException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.Locale;
+
+/**
+ * Spatial joins between two synced layers, streamed as NDJSON:
+ * {@code /api/joins?left=ws:ds:points&right=ws:ds:zones&predicate=within}.
+ *
+ * <p>Each line pairs a left feature with a right one it relates to by
+ * {@code predicate}: intersects, contains, covers or within. {@code resolution}
+ * picks the H3 resolution the right layer is blocked by, one that sync has
+ * indexed; finer suits denser layers.</p>
+ */
+@RestController
+@RequestMapping("/api/joins")
+public class SpatialJoinController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final SpatialJoinService joins;
+
+    public SpatialJoinController(SpatialJoinService joins) {
+        this.joins = joins;
+    }
+
+    /** Validates before answering, so bad parameters still get a 400 rather than a cut stream. */
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> join(@RequestParam String left,
+                                                      @RequestParam String right,
+                                                      @RequestParam(defaultValue = "intersects") String predicate,
+                                                      @RequestParam(defaultValue = "7") int resolution) {
+        SpatialJoinService.Predicate parsed;
+        try {
+            parsed = SpatialJoinService.Predicate.valueOf(predicate.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new SpatialJoinException("predicate must be intersects, contains, covers or within");
+        }
+        var request = new SpatialJoinService.Request(joins.sourceOf(left), joins.sourceOf(right), parsed, resolution);
+        joins.validate(request);
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(out -> joins.join(request, out));
+    }
+}
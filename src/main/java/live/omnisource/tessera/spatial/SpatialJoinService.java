@@ -0,0 +1,349 @@
+package live.omnisource.tessera.spatial;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import live.omnisource.tessera.exceptions.SpatialJoinException;
+import live.omnisource.tessera.stream.h3.IndexedResolutions;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Joins the current features of two synced layers on a spatial predicate.
+ *
+ * <p>The right layer is split into blocks by the {@code h3_cell_index} cell of each
+ * feature's centroid at the chosen resolution, and blocks are joined in parallel on
+ * virtual threads, at most {@value #PARALLELISM} at a time. A block's right features
+ * are read in pages of {@value #PAGE_SIZE} and put in an STRtree; the left features
+ * whose geometry meets the page's extent are read the same way through the GiST
+ * index, prepared, and tested against the tree. Each right feature lives in exactly
+ * one block, so every matching pair is found once.</p>
+ *
+ * <p>Memory is bounded by the pages in flight and the output queue, whatever the
+ * size of the layers. Pairs are written as NDJSON as blocks produce them, in no
+ * particular order.</p>
+ */
+@Slf4j
+@Service
+public class SpatialJoinService {
+
+    private static final int PARALLELISM = 4;
+    private static final int PAGE_SIZE = 5_000;
+    private static final int BLOCKS_PER_QUERY = 1_000;
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int FLUSH_ROWS = 1_000;
+
+    /** How a left feature must relate to a right one to pair up. */
+    public enum Predicate {
+        INTERSECTS, CONTAINS, COVERS, WITHIN;
+
+        boolean test(PreparedGeometry left, Geometry right) {
+            return switch (this) {
+                case INTERSECTS -> left.intersects(right);
+                case CONTAINS -> left.contains(right);
+                case COVERS -> left.covers(right);
+                case WITHIN -> left.within(right);
+            };
+        }
+    }
+
+    public record Request(UUID left, UUID right, Predicate predicate, int resolution) {}
+
+    private record Side(long id, String externalId, Geometry geometry) {}
+
+    private record Pair(Side left, Side right) {}
+
+    /** Ends the output queue. */
+    private static final Pair DONE = new Pair(null, null);
+
+    private static final String CURRENT = """
+             AND NOT EXISTS (
+                SELECT 1 FROM tessera.geo_features n
+                WHERE n.external_id = f.external_id
+                  AND n.source_id = f.source_id
+                  AND n.source_table = f.source_table
+                  AND n.id > f.id)
+            """;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Executor taskExecutor;
+    private final IndexedResolutions indexedResolutions;
+    private final ObjectWriter lineWriter;
+
+    public SpatialJoinService(NamedParameterJdbcTemplate jdbcTemplate,
+                              Executor taskExecutor,
+                              ObjectMapper objectMapper,
+                              IndexedResolutions indexedResolutions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.taskExecutor = taskExecutor;
+        this.indexedResolutions = indexedResolutions;
+        this.lineWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    /** The source id of a {@code workspace:datastore:layer} that has been synced. */
+    public UUID sourceOf(String layer) {
+        String[] parts = layer.split(":");
+        if (parts.length != 3) {
+            throw new SpatialJoinException("Layers are named workspace:datastore:layer, got " + layer);
+        }
+        // Sync registers the layer as an external source named workspace/datastore/layer
+        List<UUID> sourceIds = jdbcTemplate.queryForList(
+                "SELECT id FROM tessera.external_sources WHERE name = :name",
+                Map.of("name", String.join("/", parts)), UUID.class);
+        if (sourceIds.isEmpty()) {
+            throw new SpatialJoinException("Layer " + layer + " has not been synced");
+        }
+        return sourceIds.getFirst();
+    }
+
+    /** Checks what can be checked before a response is committed. */
+    public void validate(Request request) {
+        List<Integer> populated = indexedResolutions.populated();
+        if (!populated.contains(request.resolution())) {
+            throw new SpatialJoinException(populated.isEmpty()
+                    ? "No layer has been indexed yet"
+                    : "Resolution must be one of the indexed resolutions " + populated);
+        }
+    }
+
+    /**
+     * Writes every matching pair of {@code request} to {@code out}, one JSON object
+     * per line.
+     *
+     * @return the number of pairs written
+     * @throws UncheckedIOException when the client goes away; the workers stop
+     */
+    public long join(Request request, OutputStream out) {
+        validate(request);
+        Instant started = Instant.now();
+        var queue = new ArrayBlockingQueue<Pair>(QUEUE_CAPACITY);
+        var failure = new AtomicReference<Throwable>();
+        var cancelled = new AtomicBoolean();
+
+        taskExecutor.execute(() -> {
+            try {
+                dispatch(request, queue, failure, cancelled::get);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                try {
+                    offer(queue, DONE, cancelled::get);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        long count = 0;
+        try {
+            while (true) {
+                Pair pair = queue.take();
+                if (pair == DONE) break;
+                out.write(lineWriter.writeValueAsBytes(toView(pair)));
+                out.write('\n');
+                if (++count % FLUSH_ROWS == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            cancelled.set(true);
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Spatial join interrupted", e);
+        }
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("Spatial join failed after " + count + " pairs", failure.get());
+        }
+        log.debug("Spatial join {} {} {} at resolution {} wrote {} pairs in {} ms", request.left(),
+                request.predicate(), request.right(), request.resolution(), count,
+                Instant.now().toEpochMilli() - started.toEpochMilli());
+        return count;
+    }
+
+    /** Hands the right layer's blocks to workers and waits for the last one. */
+    private void dispatch(Request request, BlockingQueue<Pair> queue, AtomicReference<Throwable> failure,
+                          BooleanSupplier cancelled) throws InterruptedException {
+        var permits = new Semaphore(PARALLELISM);
+        long after = Long.MIN_VALUE;
+        List<Long> blocks;
+        do {
+            blocks = nextBlocks(request, after);
+            for (long block : blocks) {
+                if (cancelled.getAsBoolean() || failure.get() != null) break;
+                permits.acquire();
+                taskExecutor.execute(() -> {
+                    try {
+                        joinBlock(request, block, queue, cancelled);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            if (!blocks.isEmpty()) {
+                after = blocks.getLast();
+            }
+        } while (blocks.size() == BLOCKS_PER_QUERY && !cancelled.getAsBoolean() && failure.get() == null);
+        permits.acquire(PARALLELISM);
+    }
+
+    /** Distinct cells holding right features, in index order after {@code after}. */
+    private List<Long> nextBlocks(Request request, long after) {
+        var sql = """
+                SELECT DISTINCT h.h3_index_int
+                FROM tessera.h3_cell_index h
+                JOIN tessera.geo_features f ON f.id = h.feature_id AND f.ingested_at = h.feature_ingest
+                WHERE h.resolution = :resolution
+                  AND h.h3_index_int > :after
+                  AND f.source_id = :right::uuid
+                ORDER BY h.h3_index_int
+                LIMIT :limit
+                """;
+        var params = new HashMap<String, Object>();
+        params.put("resolution", request.resolution());
+        params.put("after", after);
+        params.put("right", request.right().toString());
+        params.put("limit", BLOCKS_PER_QUERY);
+        return jdbcTemplate.queryForList(sql, params, Long.class);
+    }
+
+    private void joinBlock(Request request, long block, BlockingQueue<Pair> queue,
+                           BooleanSupplier cancelled) throws InterruptedException {
+        var reader = new WKBReader();
+        long afterRight = Long.MIN_VALUE;
+        List<Side> rights;
+        do {
+            rights = rightPage(request, block, afterRight, reader);
+            if (rights.isEmpty()) return;
+            afterRight = rights.getLast().id();
+
+            var tree = new STRtree();
+            var extent = new Envelope();
+            for (Side right : rights) {
+                tree.insert(right.geometry().getEnvelopeInternal(), right);
+                extent.expandToInclude(right.geometry().getEnvelopeInternal());
+            }
+
+            long afterLeft = Long.MIN_VALUE;
+            List<Side> lefts;
+            do {
+                if (cancelled.getAsBoolean()) return;
+                lefts = leftPage(request, extent, afterLeft, reader);
+                for (Side left : lefts) {
+                    PreparedGeometry prepared = PreparedGeometryFactory.prepare(left.geometry());
+                    for (Object candidate : tree.query(left.geometry().getEnvelopeInternal())) {
+                        Side right = (Side) candidate;
+                        if (request.predicate().test(prepared, right.geometry())
+                                && !offer(queue, new Pair(left, right), cancelled)) {
+                            return;
+                        }
+                    }
+                }
+                if (!lefts.isEmpty()) {
+                    afterLeft = lefts.getLast().id();
+                }
+            } while (lefts.size() == PAGE_SIZE);
+        } while (rights.size() == PAGE_SIZE);
+    }
+
+    private List<Side> rightPage(Request request, long block, long after, WKBReader reader) {
+        var sql = """
+                SELECT f.id, f.external_id, ST_AsBinary(f.geometry) AS wkb
+                FROM tessera.h3_cell_index h
+                JOIN tessera.geo_features f ON f.id = h.feature_id AND f.ingested_at = h.feature_ingest
+                WHERE h.resolution = :resolution
+                  AND h.h3_index_int = :block
+                  AND f.source_id = :right::uuid
+                  AND f.geometry IS NOT NULL
+                  AND f.id > :after
+                """ + CURRENT + " ORDER BY f.id LIMIT :limit";
+        var params = new HashMap<String, Object>();
+        params.put("resolution", request.resolution());
+        params.put("block", block);
+        params.put("right", request.right().toString());
+        params.put("after", after);
+        params.put("limit", PAGE_SIZE);
+        return readSides(sql, params, reader);
+    }
+
+    private List<Side> leftPage(Request request, Envelope extent, long after, WKBReader reader) {
+        var sql = """
+                SELECT f.id, f.external_id, ST_AsBinary(f.geometry) AS wkb
+                FROM tessera.geo_features f
+                WHERE f.source_id = :left::uuid
+                  AND f.geometry && ST_MakeEnvelope(:minX, :minY, :maxX, :maxY, 4326)
+                  AND f.id > :after
+                """ + CURRENT + " ORDER BY f.id LIMIT :limit";
+        var params = new HashMap<String, Object>();
+        params.put("left", request.left().toString());
+        params.put("minX", extent.getMinX());
+        params.put("minY", extent.getMinY());
+        params.put("maxX", extent.getMaxX());
+        params.put("maxY", extent.getMaxY());
+        params.put("after", after);
+        params.put("limit", PAGE_SIZE);
+        return readSides(sql, params, reader);
+    }
+
+    private List<Side> readSides(String sql, Map<String, Object> params, WKBReader reader) {
+        var sides = new ArrayList<Side>();
+        jdbcTemplate.query(sql, params, rs -> {
+            try {
+                sides.add(new Side(rs.getLong("id"), rs.getString("external_id"), reader.read(rs.getBytes("wkb"))));
+            } catch (ParseException e) {
+                throw new IllegalStateException("Feature " + rs.getLong("id") + " has unreadable geometry", e);
+            }
+        });
+        return sides;
+    }
+
+    /** Waits for queue space, giving up once the consumer has gone. */
+    private static boolean offer(BlockingQueue<Pair> queue, Pair pair, BooleanSupplier cancelled)
+            throws InterruptedException {
+        while (!queue.offer(pair, 1, TimeUnit.SECONDS)) {
+            if (cancelled.getAsBoolean()) return false;
+        }
+        return true;
+    }
+
+    private static Map<String, Object> toView(Pair pair) {
+        var view = new LinkedHashMap<String, Object>();
+        view.put("left_id", pair.left().id());
+        view.put("left_external_id", pair.left().externalId());
+        view.put("right_id", pair.right().id());
+        view.put("right_external_id", pair.right().externalId());
+        return view;
+    }
+}
@@ -0,0 +1,82 @@
+package live.omnisource.tessera.stream;
+
+import com.uber.h3core.H3Core;
+import live.omnisource.tessera.stream.h3.CellSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fan-out buckets for cell-set subscriptions.
+ *
+ * <p>Subscriptions are filed under each of their compacted cells, grouped by the
+ * resolution they match at. Routing a batch looks up every feature's cell and
+ * its parents down to the coarsest compacted level, so the cost depends on the
+ * number of distinct resolutions in use rather than on the number of
+ * subscribers; clients watching the same cells share buckets.</p>
+ */
+final class CellBucketIndex {
+
+    private static final class Level {
+        final ConcurrentHashMap<Long, Set<String>> buckets = new ConcurrentHashMap<>();
+        /** Coarsest compacted resolution ever filed here; only ever lowered. */
+        volatile int coarsest = 15;
+    }
+
+    private final H3Core h3;
+    private final ConcurrentHashMap<Integer, Level> levels = new ConcurrentHashMap<>();
+
+    CellBucketIndex(H3Core h3) {
+        this.h3 = h3;
+    }
+
+    synchronized void add(String subscriptionId, CellSet cells) {
+        Level level = levels.computeIfAbsent(cells.resolution(), r -> new Level());
+        for (long cell : cells.compacted()) {
+            level.buckets.computeIfAbsent(cell, c -> ConcurrentHashMap.newKeySet()).add(subscriptionId);
+            level.coarsest = Math.min(level.coarsest, h3.getResolution(cell));
+        }
+    }
+
+    synchronized void remove(String subscriptionId, CellSet cells) {
+        Level level = levels.get(cells.resolution());
+        if (level == null) return;
+        for (long cell : cells.compacted()) {
+            Set<String> ids = level.buckets.get(cell);
+            if (ids != null && ids.remove(subscriptionId) && ids.isEmpty()) {
+                level.buckets.remove(cell);
+            }
+        }
+        if (level.buckets.isEmpty()) {
+            levels.remove(cells.resolution());
+        }
+    }
+
+    boolean isEmpty() {
+        return levels.isEmpty();
+    }
+
+    /** Candidate features per subscription id; subscriptions still apply their other filters. */
+    Map<String, List<StreamFeature>> route(List<StreamFeature> features) {
+        var routed = new HashMap<String, List<StreamFeature>>();
+        for (var entry : levels.entrySet()) {
+            int resolution = entry.getKey();
+            Level level = entry.getValue();
+            for (StreamFeature feature : features) {
+                long cell = feature.cells().at(resolution, h3);
+                for (int r = resolution; r >= level.coarsest; r--) {
+                    Set<String> ids = level.buckets.get(r == resolution ? cell : h3.cellToParent(cell, r));
+                    if (ids == null) continue;
+                    for (String id : ids) {
+                        routed.computeIfAbsent(id, k -> new ArrayList<>()).add(feature);
+                    }
+                }
+            }
+        }
+        return routed;
+    }
+}
@@ -0,0 +1,45 @@
+package live.omnisource.tessera.stream;
+
+import java.time.Duration;
+
+/**
+ * How fast a subscription may be pushed to.
+ *
+ * <p>Live deliveries are spaced at least {@link #interval()} apart; features
+ * arriving in between are buffered and sent together. With {@code conflate},
+ * the buffer keeps only the latest version of each {@code external_id}, which
+ * suits position-style sources where intermediate states are noise.</p>
+ *
+ * @param maxPerSecond upper bound on messages per second, {@code 0} for none
+ * @param minInterval  minimum gap between messages, {@link Duration#ZERO} for none
+ * @param conflate     keep only the latest version per {@code external_id} between sends
+ */
+public record DeliveryPolicy(int maxPerSecond, Duration minInterval, boolean conflate) {
+
+    public static final DeliveryPolicy UNLIMITED = new DeliveryPolicy(0, Duration.ZERO, false);
+
+    private static final int MAX_RATE = 1000;
+    private static final long MAX_INTERVAL_MS = 60_000;
+    private static final Duration DEFAULT_CONFLATION_WINDOW = Duration.ofMillis(500);
+
+    /** Policy from optional request parameters; out-of-range values are clamped. */
+    public static DeliveryPolicy of(Integer maxPerSecond, Long minIntervalMs, Boolean conflate) {
+        int rate = maxPerSecond != null ? Math.clamp(maxPerSecond, 0, MAX_RATE) : 0;
+        long interval = minIntervalMs != null ? Math.clamp(minIntervalMs, 0, MAX_INTERVAL_MS) : 0;
+        return new DeliveryPolicy(rate, Duration.ofMillis(interval), Boolean.TRUE.equals(conflate));
+    }
+
+    public boolean isUnlimited() {
+        return maxPerSecond == 0 && minInterval.isZero() && !conflate;
+    }
+
+    /** Minimum spacing between messages; conflation without a rate uses a default window. */
+    public Duration interval() {
+        Duration interval = minInterval;
+        if (maxPerSecond > 0) {
+            Duration perMessage = Duration.ofNanos(1_000_000_000L / maxPerSecond);
+            if (perMessage.compareTo(interval) > 0) interval = perMessage;
+        }
+        return conflate && interval.isZero() ? DEFAULT_CONFLATION_WINDOW : interval;
+    }
+}
@@ -0,0 +1,88 @@
+package live.omnisource.tessera.stream;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Per-subscription buffer enforcing a {@link DeliveryPolicy}.
+ *
+ * <p>Holds at most {@code maxBuffered} features; a buffer that fills up is
+ * flushed at once, ahead of its interval, and counted, so a slow policy on a hot
+ * source cannot grow without bound. Nothing is dropped: the resume token of a
+ * flush is the newest one offered, which is only safe because everything before
+ * it was either sent or superseded by a conflated version.</p>
+ */
+final class DeliveryThrottle {
+
+    private record ConflationKey(UUID sourceId, String sourceTable, String externalId) {}
+
+    private final boolean conflate;
+    private final long intervalNanos;
+    private final int maxBuffered;
+
+    private final LinkedHashMap<Object, Map<String, Object>> pending = new LinkedHashMap<>();
+    private ResumeToken pendingToken;
+    private long sequence;
+    private long lastSentNanos;
+    private boolean sentBefore;
+    private long overflows;
+
+    DeliveryThrottle(DeliveryPolicy policy, int maxBuffered) {
+        this.conflate = policy.conflate();
+        this.intervalNanos = policy.interval().toNanos();
+        this.maxBuffered = maxBuffered;
+    }
+
+    /**
+     * Buffer {@code rows} (parallel to {@code features}) and return a delivery if
+     * one may be sent now or the buffer is full, or {@code null} to wait for
+     * {@link #flushIfDue}.
+     */
+    synchronized StreamDelivery offer(List<StreamFeature> features, List<Map<String, Object>> rows,
+                                      ResumeToken token, long nowNanos) {
+        for (int i = 0; i < rows.size(); i++) {
+            StreamFeature feature = features.get(i);
+            Object key = conflate && feature.externalId() != null
+                    ? new ConflationKey(feature.sourceId(), feature.sourceTable(), feature.externalId())
+                    : sequence++;
+            // Re-insert so a conflated feature moves to the position of its latest version
+            pending.remove(key);
+            pending.put(key, rows.get(i));
+        }
+        pendingToken = token;
+        if (isDue(nowNanos)) return drain(nowNanos);
+        if (pending.size() >= maxBuffered) {
+            overflows++;
+            return drain(nowNanos);
+        }
+        return null;
+    }
+
+    synchronized StreamDelivery flushIfDue(long nowNanos) {
+        return isDue(nowNanos) ? drain(nowNanos) : null;
+    }
+
+    synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /** Flushes forced ahead of the interval by a full buffer. */
+    synchronized long overflows() {
+        return overflows;
+    }
+
+    private boolean isDue(long nowNanos) {
+        return !pending.isEmpty() && (!sentBefore || nowNanos - lastSentNanos >= intervalNanos);
+    }
+
+    private StreamDelivery drain(long nowNanos) {
+        var rows = new ArrayList<>(pending.values());
+        pending.clear();
+        lastSentNanos = nowNanos;
+        sentBefore = true;
+        return new StreamDelivery(rows, pendingToken);
+    }
+}
@@ -0,0 +1,93 @@
+package live.omnisource.tessera.stream;
+
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rectangle arithmetic for viewport handling and distance queries.
+ */
+public final class Envelopes {
+
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    private Envelopes() {}
+
+    /**
+     * Up to four disjoint rectangles covering {@code a} minus {@code b}:
+     * full-width strips below and above the overlap, then the pieces left and
+     * right of it.
+     */
+    public static List<Envelope> subtract(Envelope a, Envelope b) {
+        if (!a.intersects(b)) {
+            return List.of(a);
+        }
+        Envelope i = a.intersection(b);
+        var parts = new ArrayList<Envelope>(4);
+        if (a.getMinY() < i.getMinY()) {
+            parts.add(new Envelope(a.getMinX(), a.getMaxX(), a.getMinY(), i.getMinY()));
+        }
+        if (i.getMaxY() < a.getMaxY()) {
+            parts.add(new Envelope(a.getMinX(), a.getMaxX(), i.getMaxY(), a.getMaxY()));
+        }
+        if (a.getMinX() < i.getMinX()) {
+            parts.add(new Envelope(a.getMinX(), i.getMinX(), i.getMinY(), i.getMaxY()));
+        }
+        if (i.getMaxX() < a.getMaxX()) {
+            parts.add(new Envelope(i.getMaxX(), a.getMaxX(), i.getMinY(), i.getMaxY()));
+        }
+        return parts;
+    }
+
+    /**
+     * Rectangles covering every point within {@code meters} of {@code (lat, lon)}:
+     * one, or two when the circle crosses the antimeridian. Near the poles the
+     * full longitude range is returned.
+     */
+    public static List<Envelope> around(double lat, double lon, double meters) {
+        double dLat = Math.toDegrees(meters / EARTH_RADIUS_METERS);
+        double minY = Math.max(-90, lat - dLat);
+        double maxY = Math.min(90, lat + dLat);
+        double widest = Math.max(Math.abs(minY), Math.abs(maxY));
+        if (widest >= 90) {
+            return List.of(new Envelope(-180, 180, minY, maxY));
+        }
+        double dLon = Math.toDegrees(meters / (EARTH_RADIUS_METERS * Math.cos(Math.toRadians(widest))));
+        if (dLon >= 180) {
+            return List.of(new Envelope(-180, 180, minY, maxY));
+        }
+
+        double minX = lon - dLon;
+        double maxX = lon + dLon;
+        if (minX < -180) {
+            return List.of(new Envelope(-180, maxX, minY, maxY), new Envelope(minX + 360, 180, minY, maxY));
+        }
+        if (maxX > 180) {
+            return List.of(new Envelope(minX, 180, minY, maxY), new Envelope(-180, maxX - 360, minY, maxY));
+        }
+        return List.of(new Envelope(minX, maxX, minY, maxY));
+    }
+
+    /**
+     * Great-circle distance in meters from {@code (lat, lon)} to the nearest point
+     * of {@code envelope}; zero inside it.
+     */
+    public static double distanceMeters(Envelope envelope, double lat, double lon) {
+        double nearestLat = Math.clamp(lat, envelope.getMinY(), envelope.getMaxY());
+        if (lon >= envelope.getMinX() && lon <= envelope.getMaxX()) {
+            return haversine(lat, lon, nearestLat, lon);
+        }
+        return Math.min(haversine(lat, lon, nearestLat, envelope.getMinX()),
+                haversine(lat, lon, nearestLat, envelope.getMaxX()));
+    }
+
+    /** Great-circle distance in meters between two points. */
+    public static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.pow(Math.sin(dLat / 2), 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.pow(Math.sin(dLon / 2), 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,609 @@
+package live.omnisource.tessera.stream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import live.omnisource.tessera.stream.h3.FeatureCells;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
+
+/**
+ * Reads feature deltas for the stream layer.
+ *
+ * <p>Ingest batches are fetched once by id range and fanned out in memory;
+ * subscriptions that start behind the live edge catch up with a cursor query.</p>
+ */
+@Slf4j
+@Component
+public class FeatureDeltaQuery {
+
+    private static final String FEATURE_COLUMNS = """
+            f.id, f.external_id, f.source_id, f.source_table,
+                   ST_AsGeoJSON(f.geometry)::text AS geometry_json,
+                   f.geometry_type, f.attributes::text AS attributes, f.updated_at,
+                   ST_XMin(f.geometry) AS bbox_min_x, ST_YMin(f.geometry) AS bbox_min_y,
+                   ST_XMax(f.geometry) AS bbox_max_x, ST_YMax(f.geometry) AS bbox_max_y,
+                   ST_Y(ST_Centroid(f.geometry)) AS center_lat, ST_X(ST_Centroid(f.geometry)) AS center_lng
+            """;
+
+    private static final String SELECT_FEATURES =
+            "SELECT " + FEATURE_COLUMNS + "FROM tessera.geo_features f\n";
+
+    /** What {@link GeoJsonFeatureWriter} reads: geometry as WKB, attributes as stored. */
+    public static final String EXPORT_COLUMNS = """
+            f.id, f.external_id, f.source_id, f.source_table, f.updated_at,
+                   ST_AsBinary(f.geometry) AS wkb, f.attributes::text AS attributes
+            """;
+
+    private static final int EXPORT_FETCH_SIZE = 1000;
+
+    /**
+     * First key of the advisory lock each feature writer holds on its source table
+     * until it commits; the second key hashes the table.
+     */
+    public static final int WRITER_LOCK_CLASS = 0x7465_7373;
+
+    /**
+     * Start of the oldest transaction holding a writer lock, or now when none does.
+     * Not MVCC: it reflects the moment it runs, so it has to run before the read it bounds.
+     */
+    private static final String SELECT_HORIZON = """
+            SELECT least(clock_timestamp(), min(a.xact_start)) AS horizon
+            FROM pg_locks l
+            JOIN pg_stat_activity a ON a.pid = l.pid
+            WHERE l.locktype = 'advisory' AND l.granted
+              AND l.classid = CAST(:lockClass AS oid) AND l.objsubid = 2
+            """;
+
+    private static final TypeReference<Map<String, Object>> ATTRIBUTES_TYPE = new TypeReference<>() {};
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    /** Fetches in batches and without a timeout, for exports read row by row. */
+    private final NamedParameterJdbcTemplate exportTemplate;
+    private final TransactionTemplate txTemplate;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter compactWriter;
+
+    public FeatureDeltaQuery(NamedParameterJdbcTemplate jdbcTemplate, TransactionTemplate txTemplate,
+                             ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.txTemplate = txTemplate;
+        this.objectMapper = objectMapper;
+        this.compactWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+
+        var export = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        export.setFetchSize(EXPORT_FETCH_SIZE);
+        this.exportTemplate = new NamedParameterJdbcTemplate(export);
+    }
+
+    /** Every feature written by the batch behind an ingest event. */
+    public List<StreamFeature> fetchBatch(FeatureIngestEvent event) {
+        var sql = SELECT_FEATURES + """
+                WHERE f.source_id = :sourceId::uuid
+                  AND f.source_table = :sourceTable
+                  AND f.id BETWEEN :minId AND :maxId
+                ORDER BY f.id
+                """;
+
+        var params = new HashMap<String, Object>();
+        params.put("sourceId", event.sourceId().toString());
+        params.put("sourceTable", event.sourceTable());
+        params.put("minId", event.minFeatureId());
+        params.put("maxId", event.maxFeatureId());
+
+        return jdbcTemplate.query(sql, params, this::mapRow);
+    }
+
+    /**
+     * The version each of {@code externalIds} had before {@code beforeId}, keyed by
+     * external id; ids first seen at or after {@code beforeId} are absent.
+     */
+    public Map<String, StreamFeature> fetchPreviousVersions(UUID sourceId, String sourceTable,
+                                                            Collection<String> externalIds, long beforeId) {
+        if (externalIds.isEmpty()) return Map.of();
+
+        var sql = "SELECT DISTINCT ON (f.external_id) " + FEATURE_COLUMNS + """
+                FROM tessera.geo_features f
+                WHERE f.source_id = :sourceId::uuid
+                  AND f.source_table = :sourceTable
+                  AND f.external_id IN (:externalIds)
+                  AND f.id < :beforeId
+                ORDER BY f.external_id, f.id DESC
+                """;
+
+        var params = new HashMap<String, Object>();
+        params.put("sourceId", sourceId.toString());
+        params.put("sourceTable", sourceTable);
+        params.put("externalIds", externalIds);
+        params.put("beforeId", beforeId);
+
+        var previous = new HashMap<String, StreamFeature>();
+        for (StreamFeature feature : jdbcTemplate.query(sql, params, this::mapRow)) {
+            previous.put(feature.externalId(), feature);
+        }
+        return previous;
+    }
+
+    /**
+     * Extent of the versions the batch behind {@code event} replaced, i.e. where
+     * updated features were before; {@code null} when it only added features.
+     * Caches keyed by area need it besides the event envelope for features that moved.
+     */
+    public Envelope fetchReplacedExtent(FeatureIngestEvent event) {
+        var sql = """
+                SELECT ST_XMin(e) AS min_x, ST_YMin(e) AS min_y, ST_XMax(e) AS max_x, ST_YMax(e) AS max_y
+                FROM (
+                    SELECT ST_Extent(p.geometry) AS e
+                    FROM tessera.geo_features n
+                    JOIN LATERAL (
+                        SELECT o.geometry FROM tessera.geo_features o
+                        WHERE o.external_id = n.external_id
+                          AND o.source_id = n.source_id
+                          AND o.source_table = n.source_table
+                          AND o.id < n.id
+                        ORDER BY o.id DESC LIMIT 1) p ON true
+                    WHERE n.source_id = :sourceId::uuid
+                      AND n.source_table = :sourceTable
+                      AND n.id BETWEEN :minId AND :maxId
+                ) s
+                """;
+        var params = new HashMap<String, Object>();
+        params.put("sourceId", event.sourceId().toString());
+        params.put("sourceTable", event.sourceTable());
+        params.put("minId", event.minFeatureId());
+        params.put("maxId", event.maxFeatureId());
+
+        List<Envelope> extents = jdbcTemplate.query(sql, params, (rs, i) -> {
+            double minX = rs.getDouble("min_x");
+            if (rs.wasNull()) return null;
+            return new Envelope(minX, rs.getDouble("max_x"), rs.getDouble("min_y"), rs.getDouble("max_y"));
+        });
+        return extents.isEmpty() ? null : extents.getFirst();
+    }
+
+    /**
+     * Up to {@code limit} features matching the subscription, strictly after
+     * {@code cursor} in {@code (updated_at, id)} order and no later than
+     * {@link #fetchHorizon()}. Served by {@code idx_geo_features_upd_id} /
+     * {@code idx_geo_features_src_upd_id}.
+     */
+    public List<StreamFeature> fetchSince(StreamSubscription sub, StreamCursor cursor, int limit) {
+        var sql = new StringBuilder(SELECT_FEATURES)
+                .append(" WHERE (f.updated_at, f.id) > (:cursorUpdatedAt, :cursorId)");
+
+        var params = new HashMap<String, Object>();
+        params.put("cursorUpdatedAt", Timestamp.from(cursor.updatedAt()));
+        params.put("cursorId", cursor.id());
+        appendHorizon(sql, params);
+
+        appendFilters(sql, params, sub);
+        if (sub.spatialFilter() != null) {
+            sql.append(" AND ").append(intersects("bbox", sub.spatialFilter(), params));
+        }
+
+        sql.append(" ORDER BY f.updated_at ASC, f.id ASC LIMIT :limit");
+        params.put("limit", limit);
+
+        return jdbcTemplate.query(sql.toString(), params, this::mapRow);
+    }
+
+    /**
+     * As {@link #fetchSince(StreamSubscription, StreamCursor, int)}, but hands each
+     * row of {@link #EXPORT_COLUMNS} to {@code handler} as it is read instead of
+     * building features. The subscription's projection is applied in the query:
+     * geometry is {@code NULL} unless requested, and attributes keep only the
+     * projected keys.
+     */
+    public void streamSince(StreamSubscription sub, StreamCursor cursor, int limit, RowCallbackHandler handler) {
+        var params = new HashMap<String, Object>();
+        var sql = new StringBuilder("SELECT ").append(exportColumns(sub.projection(), params))
+                .append(" FROM tessera.geo_features f")
+                .append(" WHERE (f.updated_at, f.id) > (:cursorUpdatedAt, :cursorId)");
+
+        params.put("cursorUpdatedAt", Timestamp.from(cursor.updatedAt()));
+        params.put("cursorId", cursor.id());
+        appendHorizon(sql, params);
+
+        appendFilters(sql, params, sub);
+        if (sub.spatialFilter() != null) {
+            sql.append(" AND ").append(intersects("bbox", sub.spatialFilter(), params));
+        }
+
+        sql.append(" ORDER BY f.updated_at ASC, f.id ASC LIMIT :limit");
+        params.put("limit", limit);
+
+        jdbcTemplate.query(sql.toString(), params, handler);
+    }
+
+    /**
+     * As {@link #fetchSince(StreamSubscription, StreamCursor, int)}, but inside
+     * {@code regions} and outside {@code exclude} instead of the subscription's bbox:
+     * what changed in a snapshot area after the position it was served at.
+     */
+    public List<StreamFeature> fetchSince(StreamSubscription sub, List<Envelope> regions, Envelope exclude,
+                                          StreamCursor cursor, int limit) {
+        var sql = new StringBuilder(SELECT_FEATURES)
+                .append(" WHERE (f.updated_at, f.id) > (:cursorUpdatedAt, :cursorId)");
+
+        var params = new HashMap<String, Object>();
+        params.put("cursorUpdatedAt", Timestamp.from(cursor.updatedAt()));
+        params.put("cursorId", cursor.id());
+        appendHorizon(sql, params);
+
+        appendFilters(sql, params, sub);
+        appendRegions(sql, params, regions, exclude);
+
+        sql.append(" ORDER BY f.updated_at ASC, f.id ASC LIMIT :limit");
+        params.put("limit", limit);
+
+        return jdbcTemplate.query(sql.toString(), params, this::mapRow);
+    }
+
+    /**
+     * Newest position in the feature table no later than {@link #fetchHorizon()},
+     * or the start of time when there is none. Served by {@code idx_geo_features_upd_id}.
+     */
+    public StreamCursor fetchHead() {
+        var sql = """
+                SELECT f.updated_at, f.id FROM tessera.geo_features f
+                WHERE (f.updated_at, f.id) <= (:horizonUpdatedAt, :horizonId)
+                ORDER BY f.updated_at DESC, f.id DESC LIMIT 1
+                """;
+        StreamCursor horizon = fetchHorizon();
+        var params = Map.<String, Object>of(
+                "horizonUpdatedAt", Timestamp.from(horizon.updatedAt()), "horizonId", horizon.id());
+
+        List<StreamCursor> head = jdbcTemplate.query(sql, params,
+                (rs, i) -> new StreamCursor(rs.getTimestamp("updated_at").toInstant(), rs.getLong("id")));
+        return head.isEmpty() ? StreamCursor.after(Instant.EPOCH) : head.getFirst();
+    }
+
+    /**
+     * Last position no writer can still commit behind. Writers of different source
+     * tables run in parallel and a batch's rows carry a time from its transaction, so
+     * a batch in flight may commit behind rows already visible; everything before the
+     * oldest such transaction started is final. Reads that hand out a cursor stop
+     * here, and the rows past it arrive as live batches.
+     *
+     * <p>Relies on the writers' sessions being visible in {@code pg_stat_activity},
+     * i.e. running as the same database role as the readers.</p>
+     */
+    public StreamCursor fetchHorizon() {
+        Timestamp horizon = jdbcTemplate.queryForObject(SELECT_HORIZON,
+                Map.of("lockClass", WRITER_LOCK_CLASS), Timestamp.class);
+        return StreamCursor.after(horizon.toInstant().minus(1, ChronoUnit.MICROS));
+    }
+
+    /**
+     * One page of current state (the latest version per {@code external_id})
+     * inside {@code regions} and outside {@code exclude}, keyed on feature id.
+     *
+     * @param regions rectangles to cover, or {@code null} for the subscription's own filter
+     * @param exclude area the client already holds, or {@code null}
+     * @param afterId last id of the previous page, {@code 0} for the first
+     */
+    public List<StreamFeature> fetchSnapshotPage(StreamSubscription sub, List<Envelope> regions,
+                                                 Envelope exclude, long afterId, int limit) {
+        return fetchSnapshotPage(sub, regions, exclude, null, afterId, limit);
+    }
+
+    /**
+     * One page of the state as it stood at {@code asOf}: rows and newer versions
+     * past that position are ignored, so paging is stable while ingest continues
+     * and {@link #fetchSince} from {@code asOf} picks up exactly what was left out.
+     */
+    public List<StreamFeature> fetchSnapshotPage(StreamSubscription sub, StreamCursor asOf,
+                                                 long afterId, int limit) {
+        return fetchSnapshotPage(sub, null, null, asOf, afterId, limit);
+    }
+
+    private List<StreamFeature> fetchSnapshotPage(StreamSubscription sub, List<Envelope> regions,
+                                                  Envelope exclude, StreamCursor asOf,
+                                                  long afterId, int limit) {
+        var sql = new StringBuilder(SELECT_FEATURES).append(" WHERE f.id > :afterId");
+
+        var params = new HashMap<String, Object>();
+        params.put("afterId", afterId);
+
+        String asOfBound = "";
+        if (asOf != null) {
+            sql.append(" AND (f.updated_at, f.id) <= (:asOfUpdatedAt, :asOfId)");
+            asOfBound = " AND (n.updated_at, n.id) <= (:asOfUpdatedAt, :asOfId)";
+            params.put("asOfUpdatedAt", Timestamp.from(asOf.updatedAt()));
+            params.put("asOfId", asOf.id());
+        }
+
+        appendFilters(sql, params, sub);
+
+        appendRegions(sql, params, regions != null ? regions
+                : sub.spatialFilter() != null ? List.of(sub.spatialFilter()) : List.of(), exclude);
+
+        sql.append("""
+                 AND NOT EXISTS (
+                    SELECT 1 FROM tessera.geo_features n
+                    WHERE n.external_id = f.external_id
+                      AND n.source_id = f.source_id
+                      AND n.source_table = f.source_table
+                      AND n.id > f.id%s)
+                ORDER BY f.id ASC LIMIT :limit
+                """.formatted(asOfBound));
+        params.put("limit", limit);
+
+        return jdbcTemplate.query(sql.toString(), params, this::mapRow);
+    }
+
+    /**
+     * One page of current state as of {@code asOf}, newest first in
+     * {@code (updated_at, id)} order and strictly before {@code before}. Each page
+     * seeks from the previous one's last position instead of skipping rows, and the
+     * pinned {@code asOf} keeps pages consistent while ingest continues. Served by
+     * {@code idx_geo_features_upd_id} / {@code idx_geo_features_src_upd_id}.
+     *
+     * @param before last position of the previous page, {@code null} for the first
+     */
+    public List<StreamFeature> fetchCurrentPage(StreamSubscription sub, StreamCursor asOf,
+                                                StreamCursor before, int limit) {
+        var sql = new StringBuilder(SELECT_FEATURES)
+                .append(" WHERE (f.updated_at, f.id) <= (:asOfUpdatedAt, :asOfId)");
+
+        var params = new HashMap<String, Object>();
+        params.put("asOfUpdatedAt", Timestamp.from(asOf.updatedAt()));
+        params.put("asOfId", asOf.id());
+
+        if (before != null) {
+            sql.append(" AND (f.updated_at, f.id) < (:beforeUpdatedAt, :beforeId)");
+            params.put("beforeUpdatedAt", Timestamp.from(before.updatedAt()));
+            params.put("beforeId", before.id());
+        }
+        appendFilters(sql, params, sub);
+        if (sub.spatialFilter() != null) {
+            sql.append(" AND ").append(intersects("bbox", sub.spatialFilter(), params));
+        }
+
+        sql.append("""
+                 AND NOT EXISTS (
+                    SELECT 1 FROM tessera.geo_features n
+                    WHERE n.external_id = f.external_id
+                      AND n.source_id = f.source_id
+                      AND n.source_table = f.source_table
+                      AND n.id > f.id
+                      AND (n.updated_at, n.id) <= (:asOfUpdatedAt, :asOfId))
+                ORDER BY f.updated_at DESC, f.id DESC LIMIT :limit
+                """);
+        params.put("limit", limit);
+
+        return jdbcTemplate.query(sql.toString(), params, this::mapRow);
+    }
+
+    /**
+     * Hands every current feature of {@code sub} as of {@code asOf} to {@code handler},
+     * one row of {@link #EXPORT_COLUMNS} at a time, in id order. Rows are fetched
+     * {@value #EXPORT_FETCH_SIZE} at a time inside one read transaction, so the result
+     * is never held whole.
+     */
+    public void streamCurrent(StreamSubscription sub, StreamCursor asOf, RowCallbackHandler handler) {
+        var sql = new StringBuilder("SELECT ").append(EXPORT_COLUMNS).append("""
+                FROM tessera.geo_features f
+                WHERE (f.updated_at, f.id) <= (:asOfUpdatedAt, :asOfId)
+                """);
+
+        var params = new HashMap<String, Object>();
+        params.put("asOfUpdatedAt", Timestamp.from(asOf.updatedAt()));
+        params.put("asOfId", asOf.id());
+
+        appendFilters(sql, params, sub);
+        if (sub.spatialFilter() != null) {
+            sql.append(" AND ").append(intersects("bbox", sub.spatialFilter(), params));
+        }
+        sql.append("""
+                 AND NOT EXISTS (
+                    SELECT 1 FROM tessera.geo_features n
+                    WHERE n.external_id = f.external_id
+                      AND n.source_id = f.source_id
+                      AND n.source_table = f.source_table
+                      AND n.id > f.id
+                      AND (n.updated_at, n.id) <= (:asOfUpdatedAt, :asOfId))
+                ORDER BY f.id
+                """);
+
+        // PostgreSQL only honors the fetch size inside a transaction
+        txTemplate.executeWithoutResult(status -> exportTemplate.query(sql.toString(), params, handler));
+    }
+
+    /**
+     * Current features of {@code sub} within {@code meters} geodesic distance of a
+     * point, nearest first, with the distance in the row as {@code distance_m}.
+     * Candidates come from the {@code h3_cell_index} partition at
+     * {@code resolution}, restricted to {@code cellRanges} of {@code h3_index_int};
+     * only they are measured.
+     *
+     * @param cellRanges {@code {low, high}} index ranges covering the search disk
+     */
+    public List<StreamFeature> fetchWithin(StreamSubscription sub, int resolution, List<long[]> cellRanges,
+                                           double lat, double lon, double meters, int limit) {
+        var params = new HashMap<String, Object>();
+        params.put("resolution", resolution);
+        params.put("lat", lat);
+        params.put("lon", lon);
+        params.put("meters", meters);
+
+        var ranges = new StringJoiner(" OR ", "(", ")");
+        for (int i = 0; i < cellRanges.size(); i++) {
+            ranges.add("h.h3_index_int BETWEEN :low%1$d AND :high%1$d".formatted(i));
+            params.put("low" + i, cellRanges.get(i)[0]);
+            params.put("high" + i, cellRanges.get(i)[1]);
+        }
+
+        var sql = new StringBuilder("SELECT ").append(FEATURE_COLUMNS).append("""
+                     , ST_Distance(f.geometry::geography,
+                                   ST_SetSRID(ST_MakePoint(:lon, :lat), 4326)::geography) AS distance_m
+                FROM tessera.h3_cell_index h
+                JOIN tessera.geo_features f ON f.id = h.feature_id AND f.ingested_at = h.feature_ingest
+                WHERE h.resolution = :resolution
+                """).append(" AND ").append(ranges);
+
+        appendFilters(sql, params, sub);
+        sql.append("""
+                 AND ST_DWithin(f.geometry::geography,
+                                ST_SetSRID(ST_MakePoint(:lon, :lat), 4326)::geography, :meters)
+                 AND NOT EXISTS (
+                    SELECT 1 FROM tessera.geo_features n
+                    WHERE n.external_id = f.external_id
+                      AND n.source_id = f.source_id
+                      AND n.source_table = f.source_table
+                      AND n.id > f.id)
+                ORDER BY distance_m, f.id LIMIT :limit
+                """);
+        params.put("limit", limit);
+
+        return jdbcTemplate.query(sql.toString(), params, (rs, rowNum) -> {
+            StreamFeature feature = mapRow(rs, rowNum);
+            feature.row().put("distance_m", rs.getDouble("distance_m"));
+            return feature;
+        });
+    }
+
+    /** Source, attribute, cell-set and area conditions of {@code sub}. */
+    private static void appendFilters(StringBuilder sql, Map<String, Object> params, StreamSubscription sub) {
+        if (sub.sourceId() != null) {
+            sql.append(" AND f.source_id = :sourceId::uuid");
+            params.put("sourceId", sub.sourceId().toString());
+        }
+        if (sub.sourceTable() != null) {
+            sql.append(" AND f.source_table = :sourceTable");
+            params.put("sourceTable", sub.sourceTable());
+        }
+        if (sub.filter() != null) {
+            sql.append(" AND ").append(sub.filter().toSql(params));
+        }
+        if (sub.cellSet() != null) {
+            sql.append(" AND ").append(sub.cellSet().toSql(params));
+        }
+        if (sub.area() != null) {
+            sql.append(" AND ").append(sub.area().toSql(params));
+        }
+    }
+
+    /** {@link #EXPORT_COLUMNS} narrowed to {@code projection}, if any. */
+    private static String exportColumns(FieldProjection projection, Map<String, Object> params) {
+        if (projection == null) return EXPORT_COLUMNS;
+        String attributes = "'{}'";
+        if (!projection.attributes().isEmpty()) {
+            params.put("projectedFields", projection.attributes());
+            attributes = """
+                    (SELECT coalesce(jsonb_object_agg(a.key, a.value), '{}'::jsonb)
+                     FROM jsonb_each(f.attributes) a WHERE a.key IN (:projectedFields))::text""";
+        }
+        return "f.id, f.external_id, f.source_id, f.source_table, f.updated_at, "
+                + (projection.includesGeometry() ? "ST_AsBinary(f.geometry)" : "NULL::bytea") + " AS wkb, "
+                + attributes + " AS attributes";
+    }
+
+    /** Bounds the rows at {@link #fetchHorizon()}, queried now, before the read itself. */
+    private void appendHorizon(StringBuilder sql, Map<String, Object> params) {
+        StreamCursor horizon = fetchHorizon();
+        sql.append(" AND (f.updated_at, f.id) <= (:horizonUpdatedAt, :horizonId)");
+        params.put("horizonUpdatedAt", Timestamp.from(horizon.updatedAt()));
+        params.put("horizonId", horizon.id());
+    }
+
+    /** Restricts to any of {@code areas} (none means unbounded) and away from {@code exclude}. */
+    private static void appendRegions(StringBuilder sql, Map<String, Object> params,
+                                      List<Envelope> areas, Envelope exclude) {
+        if (!areas.isEmpty()) {
+            // One index condition per rectangle, so only the exposed strips are scanned
+            var any = new ArrayList<String>(areas.size());
+            for (int i = 0; i < areas.size(); i++) {
+                any.add(intersects("r" + i, areas.get(i), params));
+            }
+            sql.append(" AND (").append(String.join(" OR ", any)).append(")");
+        }
+        if (exclude != null) {
+            sql.append(" AND NOT ").append(intersects("x", exclude, params));
+        }
+    }
+
+    private static String intersects(String prefix, Envelope env, Map<String, Object> params) {
+        params.put(prefix + "MinX", env.getMinX());
+        params.put(prefix + "MinY", env.getMinY());
+        params.put(prefix + "MaxX", env.getMaxX());
+        params.put(prefix + "MaxY", env.getMaxY());
+        return "ST_Intersects(f.geometry, ST_MakeEnvelope(:%1$sMinX, :%1$sMinY, :%1$sMaxX, :%1$sMaxY, 4326))"
+                .formatted(prefix);
+    }
+
+    /**
+     * A feature built from stored column values, shaped exactly like the ones read
+     * here; for feature copies kept outside the database.
+     */
+    public StreamFeature toFeature(long id, UUID sourceId, String sourceTable, String externalId,
+                                   Instant updatedAt, Envelope envelope, double centerLat, double centerLng,
+                                   String geometryJson, String geometryType, String attributesJson) {
+        var row = new LinkedHashMap<String, Object>();
+        row.put("id", id);
+        row.put("external_id", externalId);
+        row.put("source_id", sourceId);
+        row.put("source_table", sourceTable);
+        row.put("geometry_json", geometryJson);
+        row.put("geometry_type", geometryType);
+        row.put("attributes", parseAttributes(attributesJson));
+        row.put("updated_at", updatedAt);
+
+        var cells = new FeatureCells(centerLat, centerLng);
+
+        var shape = new FeatureShape(geometryJson, envelope);
+
+        return new StreamFeature(id, sourceId, sourceTable, externalId, updatedAt, envelope, cells, shape, row);
+    }
+
+    /** The feature's attributes as compact JSON, the inverse of what {@link #toFeature} parses. */
+    public String attributesJson(StreamFeature feature) {
+        try {
+            return compactWriter.writeValueAsString(feature.attributes());
+        } catch (Exception e) {
+            throw new IllegalStateException("Feature " + feature.id() + " attributes are not serializable", e);
+        }
+    }
+
+    private StreamFeature mapRow(ResultSet rs, int rowNum) throws SQLException {
+        var envelope = new Envelope(
+                rs.getDouble("bbox_min_x"), rs.getDouble("bbox_max_x"),
+                rs.getDouble("bbox_min_y"), rs.getDouble("bbox_max_y"));
+        return toFeature(rs.getLong("id"), rs.getObject("source_id", UUID.class), rs.getString("source_table"),
+                rs.getString("external_id"), rs.getTimestamp("updated_at").toInstant(), envelope,
+                rs.getDouble("center_lat"), rs.getDouble("center_lng"),
+                rs.getString("geometry_json"), rs.getString("geometry_type"), rs.getString("attributes"));
+    }
+
+    private Map<String, Object> parseAttributes(String json) {
+        if (json == null) return Map.of();
+        try {
+            return objectMapper.readValue(json, ATTRIBUTES_TYPE);
+        } catch (Exception e) {
+            log.debug("Unreadable feature attributes: {}", e.getMessage());
+            return Map.of();
+        }
+    }
+}
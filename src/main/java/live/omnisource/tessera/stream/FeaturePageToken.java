@@ -0,0 +1,43 @@
+package live.omnisource.tessera.stream;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+
+/**
+ * Continuation of a paged feature query: the position the whole result is pinned
+ * to and the last row already returned. Clients see it as an opaque token.
+ */
+public record FeaturePageToken(StreamCursor asOf, StreamCursor last) {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    public static FeaturePageToken parse(String value) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(DECODER.decode(value));
+            var asOf = new StreamCursor(fromMicros(buf.getLong()), buf.getLong());
+            var last = new StreamCursor(fromMicros(buf.getLong()), buf.getLong());
+            if (buf.hasRemaining()) throw new IllegalArgumentException("trailing bytes");
+            return new FeaturePageToken(asOf, last);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed page token: " + value, e);
+        }
+    }
+
+    public String encode() {
+        return ENCODER.encodeToString(ByteBuffer.allocate(32)
+                .putLong(toMicros(asOf.updatedAt())).putLong(asOf.id())
+                .putLong(toMicros(last.updatedAt())).putLong(last.id())
+                .array());
+    }
+
+    private static long toMicros(Instant instant) {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+    }
+
+    private static Instant fromMicros(long micros) {
+        return Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
+    }
+}
@@ -0,0 +1,53 @@
+package live.omnisource.tessera.stream;
+
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.geojson.GeoJsonReader;
+
+/**
+ * A feature's JTS geometry, parsed from its GeoJSON on first use.
+ *
+ * <p>Only geometry filters need it, and a batch is matched against every
+ * subscription from the same {@code StreamFeature}, so it is parsed at most once
+ * per feature. Points are built straight from the envelope.</p>
+ */
+@Slf4j
+public final class FeatureShape {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(new PrecisionModel(), 4326);
+
+    private final String geoJson;
+    private final Envelope envelope;
+    private volatile Geometry geometry;
+    private volatile boolean unreadable;
+
+    public FeatureShape(String geoJson, Envelope envelope) {
+        this.geoJson = geoJson;
+        this.envelope = envelope;
+    }
+
+    /** @return the geometry, or {@code null} if the GeoJSON cannot be read */
+    public Geometry geometry() {
+        Geometry g = geometry;
+        if (g != null || unreadable) return g;
+
+        if (envelope.getWidth() == 0 && envelope.getHeight() == 0) {
+            g = GEOMETRY_FACTORY.createPoint(new Coordinate(envelope.getMinX(), envelope.getMinY()));
+        } else {
+            try {
+                // GeoJsonReader keeps parse state, so one per call
+                g = new GeoJsonReader(GEOMETRY_FACTORY).read(geoJson);
+            } catch (Exception e) {
+                log.debug("Unreadable feature geometry: {}", e.getMessage());
+                unreadable = true;
+                return null;
+            }
+        }
+        geometry = g;
+        return g;
+    }
+}
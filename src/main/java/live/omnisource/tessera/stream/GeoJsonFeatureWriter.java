@@ -0,0 +1,147 @@
+package live.omnisource.tessera.stream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Writes GeoJSON Features straight from a result set of
+ * {@link FeatureDeltaQuery#EXPORT_COLUMNS} onto a {@link JsonGenerator}.
+ *
+ * <p>Geometry arrives as WKB and is encoded here, with coordinates rounded to a
+ * fixed number of decimals; attributes are copied through as the stored JSON. No
+ * row map or GeoJSON string is built on either side. Not thread-safe: one per
+ * response.</p>
+ */
+public final class GeoJsonFeatureWriter {
+
+    private final JsonGenerator out;
+    /** 10 to the number of decimals kept. */
+    private final double scale;
+    private final WKBReader reader = new WKBReader();
+
+    /** @param precision decimal places kept in coordinates */
+    public GeoJsonFeatureWriter(JsonGenerator out, int precision) {
+        this.out = out;
+        this.scale = Math.pow(10, precision);
+    }
+
+    /** The result set's current row as one Feature. */
+    public void write(ResultSet rs) throws SQLException, IOException {
+        long id = rs.getLong("id");
+        out.writeStartObject();
+        out.writeStringField("type", "Feature");
+        out.writeNumberField("id", id);
+
+        out.writeFieldName("geometry");
+        byte[] wkb = rs.getBytes("wkb");
+        if (wkb == null) {
+            out.writeNull();
+        } else {
+            try {
+                writeGeometry(reader.read(wkb));
+            } catch (ParseException e) {
+                throw new IllegalStateException("Feature " + id + " has unreadable geometry", e);
+            }
+        }
+
+        out.writeObjectFieldStart("properties");
+        out.writeStringField("external_id", rs.getString("external_id"));
+        out.writeStringField("source_id", rs.getString("source_id"));
+        out.writeStringField("source_table", rs.getString("source_table"));
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        out.writeStringField("updated_at", updatedAt != null ? updatedAt.toInstant().toString() : null);
+        out.writeFieldName("attributes");
+        String attributes = rs.getString("attributes");
+        if (attributes == null) {
+            out.writeNull();
+        } else {
+            out.writeRawValue(attributes);
+        }
+        out.writeEndObject();
+
+        out.writeEndObject();
+    }
+
+    private void writeGeometry(Geometry geometry) throws IOException {
+        out.writeStartObject();
+        out.writeStringField("type", geometry.getGeometryType());
+        if (geometry.getClass() == GeometryCollection.class) {
+            out.writeArrayFieldStart("geometries");
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                writeGeometry(geometry.getGeometryN(i));
+            }
+            out.writeEndArray();
+        } else {
+            out.writeFieldName("coordinates");
+            writeCoordinates(geometry);
+        }
+        out.writeEndObject();
+    }
+
+    private void writeCoordinates(Geometry geometry) throws IOException {
+        switch (geometry) {
+            case Point point -> {
+                if (point.isEmpty()) {
+                    out.writeStartArray();
+                    out.writeEndArray();
+                } else {
+                    writePosition(point.getCoordinateSequence(), 0);
+                }
+            }
+            case LineString line -> writePositions(line.getCoordinateSequence());
+            case Polygon polygon -> {
+                out.writeStartArray();
+                if (!polygon.isEmpty()) {
+                    writePositions(polygon.getExteriorRing().getCoordinateSequence());
+                    for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                        writePositions(polygon.getInteriorRingN(i).getCoordinateSequence());
+                    }
+                }
+                out.writeEndArray();
+            }
+            default -> {
+                // MultiPoint, MultiLineString, MultiPolygon: one array per part
+                out.writeStartArray();
+                for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                    writeCoordinates(geometry.getGeometryN(i));
+                }
+                out.writeEndArray();
+            }
+        }
+    }
+
+    private void writePositions(CoordinateSequence sequence) throws IOException {
+        out.writeStartArray();
+        for (int i = 0; i < sequence.size(); i++) {
+            writePosition(sequence, i);
+        }
+        out.writeEndArray();
+    }
+
+    /** x, y and z when present. */
+    private void writePosition(CoordinateSequence sequence, int index) throws IOException {
+        out.writeStartArray();
+        writeOrdinate(sequence.getX(index));
+        writeOrdinate(sequence.getY(index));
+        if (sequence.hasZ() && !Double.isNaN(sequence.getZ(index))) {
+            writeOrdinate(sequence.getZ(index));
+        }
+        out.writeEndArray();
+    }
+
+    private void writeOrdinate(double value) throws IOException {
+        out.writeNumber(Math.rint(value * scale) / scale);
+    }
+}
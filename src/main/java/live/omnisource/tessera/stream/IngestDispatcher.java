@@ -0,0 +1,230 @@
+package live.omnisource.tessera.stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ordered hand-off of ingest events to the {@link StreamBroker}.
+ *
+ * <p>Each source table gets a lane: a bounded queue drained by at most one task
+ * at a time, so batches of one source reach subscribers in the order they were
+ * published while different sources proceed in parallel. An event arriving
+ * behind a busy lane is merged into the last queued one (id range, envelope and
+ * update times widened) when their id ranges are adjacent and the merged batch
+ * stays under {@code dispatch-coalesce-limit} features, so the broker never
+ * fetches more than that at once. Ranges with a gap are never merged: the broker
+ * fetches a batch by its id span, and the gap may hold rows of the same table
+ * that reach it through another event. A lane at {@code dispatch-lane-capacity} holds the publisher back
+ * until a slot frees up, so a stalled source slows its own ingest instead of
+ * queueing without bound. Idle lanes are removed.</p>
+ *
+ * <p>Metrics: {@code tessera.stream.dispatch.lanes}, {@code .pending} and
+ * {@code .lag} (age in seconds of the oldest queued event) as gauges,
+ * {@code .coalesced} and {@code .stalled} (publishes that waited for a full lane)
+ * as counters and {@code .latency} from publish to fan-out.</p>
+ */
+@Slf4j
+@Component
+public class IngestDispatcher implements DisposableBean {
+
+    private record LaneKey(UUID sourceId, String sourceTable) {}
+
+    private final StreamBroker broker;
+    private final int laneCapacity;
+    private final int coalesceLimit;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("tessera-dispatch-", 0).factory());
+
+    private final ConcurrentHashMap<LaneKey, Lane> lanes = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+    private final Counter stalled;
+    private final Timer latency;
+    private volatile boolean stopping;
+
+    public IngestDispatcher(StreamBroker broker, ApplicationProperties properties, MeterRegistry meterRegistry) {
+        this.broker = broker;
+        this.laneCapacity = properties.stream().dispatchLaneCapacity();
+        this.coalesceLimit = properties.stream().dispatchCoalesceLimit();
+
+        Gauge.builder("tessera.stream.dispatch.lanes", lanes, ConcurrentHashMap::size)
+                .description("Source lanes with queued or in-flight ingest events")
+                .register(meterRegistry);
+        Gauge.builder("tessera.stream.dispatch.pending", this, IngestDispatcher::pending)
+                .description("Ingest events queued across all lanes")
+                .register(meterRegistry);
+        Gauge.builder("tessera.stream.dispatch.lag", this, IngestDispatcher::lagSeconds)
+                .description("Age of the oldest queued ingest event")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("tessera.stream.dispatch.coalesced")
+                .description("Ingest events merged into an already queued event")
+                .register(meterRegistry);
+        this.stalled = Counter.builder("tessera.stream.dispatch.stalled")
+                .description("Ingest events whose publisher waited for room in a full lane")
+                .register(meterRegistry);
+        this.latency = Timer.builder("tessera.stream.dispatch.latency")
+                .description("Time from ingest event publication to fan-out completion")
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public void onFeatureIngested(FeatureIngestEvent event) {
+        var key = new LaneKey(event.sourceId(), event.sourceTable());
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(key, Lane::new);
+            synchronized (lane) {
+                // A lane that emptied and retired between lookup and lock is replaced
+                if (lane.retired) continue;
+                if (!lane.offer(event)) {
+                    stalled.increment();
+                    lane.awaitRoom();
+                    if (lane.retired) continue;
+                    lane.queue.addLast(event);
+                }
+                if (!lane.draining) {
+                    lane.draining = true;
+                    executor.execute(() -> drain(lane));
+                }
+                return;
+            }
+        }
+    }
+
+    private void drain(Lane lane) {
+        while (true) {
+            FeatureIngestEvent event;
+            synchronized (lane) {
+                event = lane.queue.pollFirst();
+                lane.notifyAll();
+                if (event == null) {
+                    lane.draining = false;
+                    lane.retired = true;
+                    lanes.remove(lane.key, lane);
+                    return;
+                }
+            }
+            try {
+                broker.onFeatureIngested(event);
+            } catch (Exception e) {
+                log.warn("Fan-out failed for {} ids {}-{}: {}", event.sourceTable(),
+                        event.minFeatureId(), event.maxFeatureId(), e.getMessage());
+            }
+            latency.record(Duration.between(event.publishedAt(), Instant.now()));
+        }
+    }
+
+    private double pending() {
+        long total = 0;
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                total += lane.queue.size();
+            }
+        }
+        return total;
+    }
+
+    private double lagSeconds() {
+        Instant oldest = null;
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                FeatureIngestEvent head = lane.queue.peekFirst();
+                if (head != null && (oldest == null || head.publishedAt().isBefore(oldest))) {
+                    oldest = head.publishedAt();
+                }
+            }
+        }
+        return oldest == null ? 0 : Duration.between(oldest, Instant.now()).toMillis() / 1000.0;
+    }
+
+    @Override
+    public void destroy() {
+        stopping = true;
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                lane.notifyAll();
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private final class Lane {
+        final LaneKey key;
+        final ArrayDeque<FeatureIngestEvent> queue = new ArrayDeque<>();
+        boolean draining;
+        boolean retired;
+
+        Lane(LaneKey key) {
+            this.key = key;
+        }
+
+        /** Queues or merges {@code event}; false when the lane is full and it fits nowhere. */
+        boolean offer(FeatureIngestEvent event) {
+            FeatureIngestEvent last = queue.peekLast();
+            if (last != null && adjacent(last, event)
+                    && last.featureCount() + event.featureCount() <= coalesceLimit) {
+                queue.pollLast();
+                queue.addLast(merge(last, event));
+                coalesced.increment();
+                return true;
+            }
+            if (queue.size() >= laneCapacity) return false;
+            queue.addLast(event);
+            return true;
+        }
+
+        /** Waits on the lane's monitor until the drain frees a slot, or shutdown. */
+        void awaitRoom() {
+            while (queue.size() >= laneCapacity && !stopping) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Queue one over capacity rather than drop the event
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Whether the two id ranges meet, so their span holds no rows of other batches. */
+    private static boolean adjacent(FeatureIngestEvent a, FeatureIngestEvent b) {
+        return b.minFeatureId() == a.maxFeatureId() + 1 || a.minFeatureId() == b.maxFeatureId() + 1;
+    }
+
+    /** One event covering both batches; it keeps the earlier publish time so lag stays honest. */
+    private static FeatureIngestEvent merge(FeatureIngestEvent a, FeatureIngestEvent b) {
+        Envelope envelope = null;
+        if (a.envelope() != null && b.envelope() != null) {
+            envelope = new Envelope(a.envelope());
+            envelope.expandToInclude(b.envelope());
+        }
+        return new FeatureIngestEvent(
+                a.sourceId(),
+                a.sourceTable(),
+                a.featureCount() + b.featureCount(),
+                envelope,
+                Math.min(a.minFeatureId(), b.minFeatureId()),
+                Math.max(a.maxFeatureId(), b.maxFeatureId()),
+                a.minUpdatedAt().isBefore(b.minUpdatedAt()) ? a.minUpdatedAt() : b.minUpdatedAt(),
+                a.maxUpdatedAt().isAfter(b.maxUpdatedAt()) ? a.maxUpdatedAt() : b.maxUpdatedAt(),
+                a.publishedAt().isBefore(b.publishedAt()) ? a.publishedAt() : b.publishedAt(),
+                a.remote() && b.remote());
+    }
+}
@@ -0,0 +1,626 @@
+package live.omnisource.tessera.stream;
+
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.filestore.FileStoreLayout;
+import live.omnisource.tessera.filestore.FileStoreService;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Opt-in in-memory copy of the current state of hot layers.
+ *
+ * <p>Layers listed in {@code memory-index-layers} (as {@code workspace:datastore:layer})
+ * are loaded on first use into a packed STRtree of their latest feature versions and
+ * kept current from ingest batches, so snapshots and bbox, radius and nearest queries
+ * against them never reach PostgreSQL. The tree holds the same {@link StreamFeature}s
+ * fan-out delivers, rows already decoded, so results go out as they are.</p>
+ *
+ * <p>A packed tree cannot be updated in place, so versions ingested after it was
+ * built sit in a small overlay beside it, keyed by feature, which hides the packed
+ * slots they replace and is scanned linearly by queries. Each batch swaps in a new
+ * state sharing the tree and a copy of the overlay, while readers finish on the one
+ * they started with; once the overlay outgrows {@value #MIN_OVERLAY_REPACK} features
+ * or an eighth of the tree, the two are packed into a new tree. Memory is bounded by
+ * {@code memory-index-max-bytes}, estimated from each feature's GeoJSON and attributes;
+ * past it the least recently queried layers are dropped and reload on their next query.
+ * A layer too large for the budget on its own is not held, and its callers keep using
+ * the database; it is tried again after a quarter of an hour, since deletes can bring
+ * it back under the budget.</p>
+ *
+ * <p>Held layers are also written to {@code cache/layers} as a {@link MappedLayerSnapshot}:
+ * after a load from the database, at most once a minute while ingest changes them, and on
+ * shutdown. At startup every configured layer is restored from its snapshot. The tree is
+ * built from the mapped envelopes, rows are decoded only when a query first returns them,
+ * and whatever sync wrote after the snapshot's watermark is read from the database on top.
+ * A snapshot that is unreadable, ahead of the database or too far behind is discarded in
+ * favour of a full load.</p>
+ */
+@Slf4j
+@Component
+public class LayerMemoryIndex implements DisposableBean {
+
+    private static final int LOAD_PAGE_SIZE = 5_000;
+    private static final int NODE_CAPACITY = 10;
+    private static final long SOURCE_REFRESH_MS = 60_000;
+    private static final double FIRST_NEAREST_RADIUS_METERS = 500;
+    private static final long PERSIST_INTERVAL_MS = 60_000;
+    /** How long a layer found too large for the budget is left to the database before another try. */
+    private static final long OVERSIZED_RETRY_MS = 15 * 60_000;
+    /** Past this many versions to catch up, a full load is cheaper than patching the snapshot. */
+    private static final int MAX_RESTORE_DELTA = 100_000;
+    /** Overlay size always tolerated before repacking; larger trees tolerate an eighth of their size. */
+    private static final int MIN_OVERLAY_REPACK = 1_024;
+
+    /** Current features of one layer, exact as of {@code watermark}. */
+    public record Result(StreamCursor watermark, List<StreamFeature> features) {}
+
+    private record FeatureKey(String sourceTable, String externalId) {}
+
+    /**
+     * Immutable state of one layer; replaced, never modified. {@code overlay} holds
+     * versions newer than the ones packed into {@code tree}, and features not in it.
+     */
+    private record State(StreamCursor watermark, Map<FeatureKey, Slot> packed, STRtree tree,
+                         Map<FeatureKey, Slot> overlay, int size, long bytes) {
+
+        @SuppressWarnings("unchecked")
+        List<Slot> slots(Envelope area) {
+            var slots = new ArrayList<Slot>(area == null ? size : 16);
+            for (Slot slot : area == null ? packed.values() : (List<Slot>) tree.query(area)) {
+                if (!overlay.containsKey(slot.key)) slots.add(slot);
+            }
+            for (Slot slot : overlay.values()) {
+                if (area == null || area.intersects(slot.envelope)) slots.add(slot);
+            }
+            return slots;
+        }
+    }
+
+    /** A held feature: decoded, or a row of a mapped snapshot decoded on first read. */
+    private final class Slot {
+        final FeatureKey key;
+        final long id;
+        final Envelope envelope;
+        final MappedLayerSnapshot snapshot;
+        final int row;
+        /** Encoded once here rather than on every snapshot write; {@code null} for mapped rows. */
+        final String attributesJson;
+        private volatile StreamFeature feature;
+
+        Slot(StreamFeature feature) {
+            this.key = new FeatureKey(feature.sourceTable(), feature.externalId());
+            this.id = feature.id();
+            this.envelope = feature.envelope();
+            this.snapshot = null;
+            this.row = -1;
+            this.attributesJson = deltaQuery.attributesJson(feature);
+            this.feature = feature;
+        }
+
+        Slot(MappedLayerSnapshot snapshot, int row) {
+            String[] key = snapshot.key(row);
+            this.key = new FeatureKey(key[0], key[1]);
+            this.id = snapshot.id(row);
+            this.envelope = snapshot.envelope(row);
+            this.snapshot = snapshot;
+            this.row = row;
+            this.attributesJson = null;
+        }
+
+        StreamFeature feature() {
+            StreamFeature f = feature;
+            if (f == null) {
+                // Racing readers decode the same row twice at worst
+                MappedLayerSnapshot.Row stored = snapshot.row(row);
+                f = deltaQuery.toFeature(stored.id(), snapshot.sourceId(), stored.sourceTable(),
+                        stored.externalId(), stored.updatedAt(), stored.envelope(),
+                        stored.centerLat(), stored.centerLng(), stored.geometryJson(),
+                        stored.geometryType(), stored.attributesJson());
+                feature = f;
+            }
+            return f;
+        }
+
+        /** The stored form, copied from the mapping when there is one. */
+        MappedLayerSnapshot.Row stored() {
+            if (snapshot != null) return snapshot.row(row);
+            StreamFeature f = feature;
+            return new MappedLayerSnapshot.Row(f.id(), f.updatedAt(), f.envelope(),
+                    f.cells().lat(), f.cells().lng(), f.sourceTable(), f.externalId(),
+                    (String) f.row().get("geometry_type"), (String) f.row().get("geometry_json"),
+                    attributesJson);
+        }
+
+        /** Rough heap footprint once decoded: UTF-16 text plus fixed object overhead. */
+        long bytes() {
+            if (snapshot != null) return 512L + 2L * snapshot.payloadBytes(row);
+            StreamFeature f = feature;
+            Object geometry = f.row().get("geometry_json");
+            int geometryChars = geometry instanceof String json ? json.length() : 0;
+            return 512L + 2L * geometryChars + 96L * f.attributes().size() + 2L * attributesJson.length();
+        }
+    }
+
+    private static final class Layer {
+        final String name;
+        final UUID sourceId;
+        /** {@code null} until loaded and after eviction; written under the layer's monitor. */
+        volatile State state;
+        volatile long lastUsed;
+        /** When the layer alone last exceeded the budget, 0 if it has not; guarded by the layer's monitor. */
+        long oversizedAt;
+        /** Ingest events not yet applied, in publication order. */
+        final Queue<FeatureIngestEvent> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean draining = new AtomicBoolean();
+        /** Last state written to the layer's snapshot file, and when; written under {@code persistLock}. */
+        volatile State persisted;
+        volatile long persistedAt;
+        /** Serializes writes of the snapshot file, apart from the monitor loads hold. */
+        final Object persistLock = new Object();
+
+        Layer(String name, UUID sourceId) {
+            this.name = name;
+            this.sourceId = sourceId;
+        }
+    }
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final FeatureDeltaQuery deltaQuery;
+    private final FileStoreService fileStoreService;
+    private final Executor taskExecutor;
+    private final List<String> layerNames;
+    private final long maxBytes;
+
+    private volatile Map<UUID, Layer> bySource = Map.of();
+    private volatile long sourcesRefreshedAt;
+
+    public LayerMemoryIndex(NamedParameterJdbcTemplate jdbcTemplate, FeatureDeltaQuery deltaQuery,
+                            FileStoreService fileStoreService, Executor taskExecutor,
+                            ApplicationProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.deltaQuery = deltaQuery;
+        this.fileStoreService = fileStoreService;
+        this.taskExecutor = taskExecutor;
+        this.layerNames = List.copyOf(properties.stream().memoryIndexLayers());
+        this.maxBytes = properties.stream().memoryIndexMaxBytes();
+    }
+
+    /** Whether {@code layer} is configured to be held, loaded or not. */
+    public boolean holds(String layer) {
+        return layerNames.contains(layer);
+    }
+
+    /**
+     * Current features of the source intersecting {@code area}, or empty when the
+     * source is not held or cannot be loaded; {@code null} area means all of them.
+     */
+    public Optional<Result> query(UUID sourceId, Envelope area) {
+        if (layerNames.isEmpty() || sourceId == null) return Optional.empty();
+        State state;
+        try {
+            Layer layer = sources().get(sourceId);
+            state = layer != null ? state(layer) : null;
+        } catch (Exception e) {
+            log.warn("Memory index unavailable for source {}: {}", sourceId, e.getMessage());
+            return Optional.empty();
+        }
+        if (state == null) return Optional.empty();
+        return Optional.of(new Result(state.watermark(), features(sortById(state.slots(area)))));
+    }
+
+    /** Up to {@code limit} current features of {@code layer} intersecting {@code bbox}, by id. */
+    public Optional<Result> bbox(String layer, Envelope bbox, int limit) {
+        State state = state(layer);
+        if (state == null) return Optional.empty();
+        List<Slot> slots = sortById(state.slots(bbox));
+        return Optional.of(new Result(state.watermark(), features(slots.subList(0, Math.min(limit, slots.size())))));
+    }
+
+    /**
+     * Up to {@code limit} current features of {@code layer} whose bounding box lies
+     * within {@code meters} of {@code (lat, lon)}, nearest first.
+     */
+    public Optional<Result> radius(String layer, double lat, double lon, double meters, int limit) {
+        State state = state(layer);
+        if (state == null) return Optional.empty();
+        return Optional.of(new Result(state.watermark(), features(within(state, lat, lon, meters, limit))));
+    }
+
+    /**
+     * The {@code k} current features of {@code layer} nearest to {@code (lat, lon)} by
+     * bounding box, no farther than {@code maxMeters}. The search radius grows from
+     * {@value #FIRST_NEAREST_RADIUS_METERS} m until it holds {@code k} features.
+     */
+    public Optional<Result> nearest(String layer, double lat, double lon, int k, double maxMeters) {
+        State state = state(layer);
+        if (state == null) return Optional.empty();
+
+        double radius = Math.min(FIRST_NEAREST_RADIUS_METERS, maxMeters);
+        while (true) {
+            List<Slot> found = within(state, lat, lon, radius, k);
+            if (found.size() >= k || radius >= maxMeters || found.size() == state.size()) {
+                return Optional.of(new Result(state.watermark(), features(found)));
+            }
+            radius = Math.min(radius * 4, maxMeters);
+        }
+    }
+
+    /** Restores every configured layer in the background, so they serve soon after boot. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warm() {
+        if (layerNames.isEmpty()) return;
+        taskExecutor.execute(() -> {
+            try {
+                for (Layer layer : sources().values()) {
+                    taskExecutor.execute(() -> {
+                        try {
+                            state(layer);
+                        } catch (Exception e) {
+                            log.warn("Warming memory index of {} failed: {}", layer.name, e.getMessage());
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                log.warn("Memory index layers could not be resolved: {}", e.getMessage());
+            }
+        });
+    }
+
+    /** Writes layers changed since their last snapshot, so the next start restores them as they are now. */
+    @Override
+    public void destroy() {
+        for (Layer layer : bySource.values()) {
+            State state = layer.state;
+            if (state != null && state != layer.persisted) {
+                persist(layer, state);
+            }
+        }
+    }
+
+    @EventListener
+    public void onFeatureIngested(FeatureIngestEvent event) {
+        if (layerNames.isEmpty()) return;
+        Layer layer = sources().get(event.sourceId());
+        // Even when not loaded: a load in progress may have started before this batch committed
+        if (layer != null) {
+            layer.pending.add(event);
+            if (layer.draining.compareAndSet(false, true)) {
+                taskExecutor.execute(() -> drain(layer));
+            }
+        }
+    }
+
+    /**
+     * Applies pending batches one at a time and in order, so the watermark never
+     * passes a batch that has not been applied yet.
+     */
+    private void drain(Layer layer) {
+        while (true) {
+            FeatureIngestEvent event;
+            while ((event = layer.pending.poll()) != null) {
+                apply(layer, event);
+            }
+            layer.draining.set(false);
+            // An event added after the last poll but before the reset would otherwise wait
+            if (layer.pending.isEmpty() || !layer.draining.compareAndSet(false, true)) break;
+        }
+
+        State state = layer.state;
+        if (state != null && state != layer.persisted
+                && System.currentTimeMillis() - layer.persistedAt > PERSIST_INTERVAL_MS) {
+            persist(layer, state);
+        }
+    }
+
+    private static List<Slot> within(State state, double lat, double lon, double meters, int limit) {
+        var distances = new IdentityHashMap<Slot, Double>();
+        for (Envelope area : Envelopes.around(lat, lon, meters)) {
+            for (Slot slot : state.slots(area)) {
+                double distance = Envelopes.distanceMeters(slot.envelope, lat, lon);
+                if (distance <= meters) distances.put(slot, distance);
+            }
+        }
+        return distances.entrySet().stream()
+                .sorted(Map.Entry.<Slot, Double>comparingByValue()
+                        .thenComparingLong(e -> e.getKey().id))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private State state(String name) {
+        if (!holds(name)) return null;
+        String sourceName = name.replace(':', '/');
+        for (Layer layer : sources().values()) {
+            if (layer.name.equals(sourceName)) return state(layer);
+        }
+        return null;
+    }
+
+    private State state(Layer layer) {
+        layer.lastUsed = System.nanoTime();
+        State state = layer.state;
+        if (state != null) return state;
+
+        // Loading under the monitor shares one load between concurrent queries, and
+        // holds back ingest batches until the state they apply to exists
+        boolean fromDatabase = false;
+        synchronized (layer) {
+            if (layer.state != null) return layer.state;
+            if (layer.oversizedAt != 0
+                    && System.currentTimeMillis() - layer.oversizedAt < OVERSIZED_RETRY_MS) return null;
+            state = restore(layer);
+            if (state == null) {
+                state = load(layer);
+                fromDatabase = true;
+            }
+            if (state == null) {
+                layer.oversizedAt = System.currentTimeMillis();
+                log.warn("Layer {} exceeds the memory index budget of {} bytes, not held for {} s",
+                        layer.name, maxBytes, OVERSIZED_RETRY_MS / 1000);
+                return null;
+            }
+            layer.oversizedAt = 0;
+            layer.state = state;
+            log.info("Layer {} held in memory: {} features, ~{} bytes", layer.name, state.size(), state.bytes());
+        }
+        if (fromDatabase) {
+            State loaded = state;
+            taskExecutor.execute(() -> persist(layer, loaded));
+        }
+        enforceBudget(layer);
+        return state;
+    }
+
+    /** The layer's current state read from the database, or {@code null} when it does not fit the budget. */
+    private State load(Layer layer) {
+        StreamCursor watermark = deltaQuery.fetchHead();
+        var all = wholeLayer(layer);
+
+        var features = new HashMap<FeatureKey, Slot>();
+        long bytes = 0;
+        long afterId = 0;
+        while (true) {
+            List<StreamFeature> page = deltaQuery.fetchSnapshotPage(all, watermark, afterId, LOAD_PAGE_SIZE);
+            for (StreamFeature feature : page) {
+                var slot = new Slot(feature);
+                features.put(slot.key, slot);
+                bytes += slot.bytes();
+            }
+            if (bytes > maxBytes) return null;
+            if (page.size() < LOAD_PAGE_SIZE) break;
+            afterId = page.getLast().id();
+        }
+        return build(watermark, features);
+    }
+
+    /**
+     * The layer's state from its snapshot file plus what was ingested after it, or
+     * {@code null} when there is no usable snapshot.
+     */
+    private State restore(Layer layer) {
+        Path file = snapshotPath(layer);
+        if (!Files.exists(file)) return null;
+
+        MappedLayerSnapshot snapshot;
+        try {
+            snapshot = MappedLayerSnapshot.open(file, layer.sourceId);
+        } catch (IOException | RuntimeException e) {
+            log.info("Discarding snapshot of layer {}: {}", layer.name, e.getMessage());
+            deleteSnapshot(file);
+            return null;
+        }
+        // A rebuilt or restored database can be behind the snapshot, which then describes nothing real
+        if (snapshot.watermark().isAfter(deltaQuery.fetchHead())) {
+            log.info("Discarding snapshot of layer {}: ahead of the database", layer.name);
+            deleteSnapshot(file);
+            return null;
+        }
+
+        var features = new HashMap<FeatureKey, Slot>(snapshot.count() * 4 / 3 + 1);
+        long bytes = 0;
+        for (int row = 0; row < snapshot.count(); row++) {
+            var slot = new Slot(snapshot, row);
+            features.put(slot.key, slot);
+            bytes += slot.bytes();
+        }
+        if (bytes > maxBytes) return null;
+
+        // Catch up with what sync wrote after the snapshot was taken
+        var all = wholeLayer(layer);
+        StreamCursor watermark = snapshot.watermark();
+        int caughtUp = 0;
+        while (true) {
+            List<StreamFeature> page = deltaQuery.fetchSince(all, watermark, LOAD_PAGE_SIZE);
+            merge(features, page);
+            caughtUp += page.size();
+            if (caughtUp > MAX_RESTORE_DELTA) {
+                log.info("Snapshot of layer {} is over {} versions behind, reloading", layer.name, MAX_RESTORE_DELTA);
+                return null;
+            }
+            if (!page.isEmpty()) watermark = page.getLast().cursor();
+            if (page.size() < LOAD_PAGE_SIZE) break;
+        }
+        log.debug("Layer {} restored from snapshot plus {} newer versions", layer.name, caughtUp);
+        return build(watermark, features);
+    }
+
+    private void apply(Layer layer, FeatureIngestEvent event) {
+        try {
+            synchronized (layer) {
+                State state = layer.state;
+                if (state == null) return;
+
+                List<StreamFeature> batch = deltaQuery.fetchBatch(event);
+                var overlay = new HashMap<>(state.overlay());
+                int size = state.size();
+                long bytes = state.bytes();
+                StreamCursor watermark = state.watermark();
+                for (StreamFeature feature : batch) {
+                    if (feature.cursor().isAfter(watermark)) watermark = feature.cursor();
+                    var slot = new Slot(feature);
+                    Slot held = overlay.containsKey(slot.key) ? overlay.get(slot.key) : state.packed().get(slot.key);
+                    // Versions already held lose to themselves, so replays are harmless
+                    if (held != null && held.id >= slot.id) continue;
+                    overlay.put(slot.key, slot);
+                    bytes += slot.bytes() - (held != null ? held.bytes() : 0);
+                    if (held == null) size++;
+                }
+                if (overlay.size() > Math.max(MIN_OVERLAY_REPACK, state.packed().size() / 8)) {
+                    var features = new HashMap<>(state.packed());
+                    features.putAll(overlay);
+                    layer.state = build(watermark, features);
+                } else {
+                    layer.state = new State(watermark, state.packed(), state.tree(),
+                            Collections.unmodifiableMap(overlay), size, bytes);
+                }
+            }
+            enforceBudget(layer);
+        } catch (Exception e) {
+            // Dropped rather than left stale; the next query reloads it
+            log.warn("Applying ingest to memory index of {} failed: {}", layer.name, e.getMessage());
+            synchronized (layer) {
+                layer.state = null;
+            }
+        }
+    }
+
+    /** Versions already held lose to themselves, so replays are harmless. */
+    private void merge(Map<FeatureKey, Slot> features, List<StreamFeature> batch) {
+        for (StreamFeature feature : batch) {
+            var slot = new Slot(feature);
+            features.merge(slot.key, slot, (held, incoming) -> incoming.id > held.id ? incoming : held);
+        }
+    }
+
+    private static State build(StreamCursor watermark, Map<FeatureKey, Slot> features) {
+        var tree = new STRtree(NODE_CAPACITY);
+        long bytes = 0;
+        for (Slot slot : features.values()) {
+            tree.insert(slot.envelope, slot);
+            bytes += slot.bytes();
+        }
+        tree.build();
+        return new State(watermark, Collections.unmodifiableMap(features), tree, Map.of(), features.size(), bytes);
+    }
+
+    private void persist(Layer layer, State state) {
+        synchronized (layer.persistLock) {
+            State written = layer.persisted;
+            // A write that waited here may carry an older state than the one just written
+            if (written == state || written != null && written.watermark().isAfter(state.watermark())) return;
+            write(layer, state);
+        }
+    }
+
+    private void write(Layer layer, State state) {
+        try {
+            var rows = new ArrayList<MappedLayerSnapshot.Row>(state.size());
+            for (Slot slot : state.slots(null)) {
+                rows.add(slot.stored());
+            }
+            MappedLayerSnapshot.write(snapshotPath(layer), layer.sourceId, state.watermark(), rows);
+            layer.persisted = state;
+            layer.persistedAt = System.currentTimeMillis();
+            log.debug("Layer {} snapshot written: {} features as of {}", layer.name, rows.size(), state.watermark());
+        } catch (Exception e) {
+            log.warn("Writing snapshot of layer {} failed: {}", layer.name, e.getMessage());
+        }
+    }
+
+    private Path snapshotPath(Layer layer) {
+        return fileStoreService.resolve(FileStoreLayout.CACHE, "layers", layer.sourceId + ".snap");
+    }
+
+    private static void deleteSnapshot(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Could not delete layer snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static StreamSubscription wholeLayer(Layer layer) {
+        return new StreamSubscription("memory-index-" + layer.name, StreamSubscription.Protocol.REST_POLL,
+                layer.sourceId, null, null, null);
+    }
+
+    /** Drops least recently used layers, other than {@code keep}, until the total fits. */
+    private void enforceBudget(Layer keep) {
+        var held = new ArrayList<Layer>();
+        long total = 0;
+        for (Layer layer : sources().values()) {
+            State state = layer.state;
+            if (state == null) continue;
+            total += state.bytes();
+            if (layer != keep) held.add(layer);
+        }
+        held.sort(Comparator.comparingLong(layer -> layer.lastUsed));
+        for (Layer layer : held) {
+            if (total <= maxBytes) break;
+            synchronized (layer) {
+                State state = layer.state;
+                if (state == null) continue;
+                layer.state = null;
+                total -= state.bytes();
+            }
+            log.debug("Layer {} dropped from memory index to stay within {} bytes", layer.name, maxBytes);
+        }
+    }
+
+    /** Configured layers by source id, re-read from {@code external_sources} once a minute. */
+    private Map<UUID, Layer> sources() {
+        long now = System.currentTimeMillis();
+        if (now - sourcesRefreshedAt < SOURCE_REFRESH_MS) return bySource;
+        synchronized (this) {
+            if (now - sourcesRefreshedAt < SOURCE_REFRESH_MS) return bySource;
+            // Sync registers a layer as an external source named workspace/datastore/layer
+            var names = layerNames.stream().map(name -> name.replace(':', '/')).toList();
+            var refreshed = new LinkedHashMap<UUID, Layer>();
+            jdbcTemplate.query("SELECT id, name FROM tessera.external_sources WHERE name IN (:names)",
+                    Map.of("names", names), rs -> {
+                        UUID id = rs.getObject("id", UUID.class);
+                        Layer existing = bySource.get(id);
+                        refreshed.put(id, existing != null ? existing : new Layer(rs.getString("name"), id));
+                    });
+            bySource = Map.copyOf(refreshed);
+            sourcesRefreshedAt = now;
+            return bySource;
+        }
+    }
+
+    private static List<Slot> sortById(List<Slot> slots) {
+        var sorted = new ArrayList<>(slots);
+        sorted.sort(Comparator.comparingLong(slot -> slot.id));
+        return sorted;
+    }
+
+    private static List<StreamFeature> features(List<Slot> slots) {
+        return slots.stream().map(Slot::feature).toList();
+    }
+}
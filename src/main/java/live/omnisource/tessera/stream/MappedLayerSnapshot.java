@@ -0,0 +1,256 @@
+package live.omnisource.tessera.stream;
+
+import org.locationtech.jts.geom.Envelope;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Columnar file copy of a layer held by {@link LayerMemoryIndex}, read in place
+ * through a read-only mapping.
+ *
+ * <p>Little-endian, every column 8-byte aligned:</p>
+ * <pre>
+ * header   magic, version, count, source id, watermark (micros, id)     64 bytes
+ * ids      long[count]
+ * updated  long[count]          epoch microseconds
+ * bounds   double[4 * count]    minX, minY, maxX, maxY
+ * centers  double[2 * count]    lat, lng
+ * offsets  long[count + 1]      payload start of each row, then the file end
+ * payload  per row: source table, external id, geometry type, GeoJSON and
+ *          attributes JSON, each an int byte length (-1 for null) and UTF-8
+ * </pre>
+ *
+ * <p>Ids and envelopes come straight off the mapping, so a restored layer's tree is
+ * built without decoding any row. The mapping belongs to an automatic arena and is
+ * released once nothing refers to the snapshot, so a replaced file stays readable
+ * for whoever still holds the old one.</p>
+ */
+final class MappedLayerSnapshot {
+
+    /** "TSRASNAP". */
+    private static final long MAGIC = 0x5453_5241_534E_4150L;
+    private static final int VERSION = 1;
+    private static final long HEADER_BYTES = 64;
+    private static final int STRINGS_PER_ROW = 5;
+
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt PAYLOAD_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /** One feature version as stored. */
+    record Row(long id, Instant updatedAt, Envelope envelope, double centerLat, double centerLng,
+               String sourceTable, String externalId, String geometryType, String geometryJson,
+               String attributesJson) {}
+
+    private final MemorySegment segment;
+    private final int count;
+    private final UUID sourceId;
+    private final StreamCursor watermark;
+
+    private MappedLayerSnapshot(MemorySegment segment, int count, UUID sourceId, StreamCursor watermark) {
+        this.segment = segment;
+        this.count = count;
+        this.sourceId = sourceId;
+        this.watermark = watermark;
+    }
+
+    /**
+     * Maps {@code file} and checks its header and row offsets.
+     *
+     * @throws IOException when it cannot be read or is not a complete snapshot of {@code sourceId}
+     */
+    static MappedLayerSnapshot open(Path file, UUID sourceId) throws IOException {
+        MemorySegment segment;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) throw new IOException("Truncated layer snapshot " + file);
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, Arena.ofAuto());
+        }
+
+        if (segment.get(LONG, 0) != MAGIC || segment.get(INT, 8) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " layer snapshot: " + file);
+        }
+        int count = segment.get(INT, 12);
+        var stored = new UUID(segment.get(LONG, 16), segment.get(LONG, 24));
+        if (!stored.equals(sourceId)) {
+            throw new IOException("Layer snapshot " + file + " belongs to source " + stored);
+        }
+        if (count < 0 || payloadStart(count) > segment.byteSize()) {
+            throw new IOException("Truncated layer snapshot " + file);
+        }
+
+        long previous = payloadStart(count);
+        for (int row = 0; row <= count; row++) {
+            long offset = segment.get(LONG, offsetsStart(count) + 8L * row);
+            if (offset < previous || offset > segment.byteSize()) {
+                throw new IOException("Corrupt row offsets in layer snapshot " + file);
+            }
+            previous = offset;
+        }
+        if (previous != segment.byteSize()) {
+            throw new IOException("Truncated layer snapshot " + file);
+        }
+
+        var watermark = new StreamCursor(fromMicros(segment.get(LONG, 32)), segment.get(LONG, 40));
+        return new MappedLayerSnapshot(segment, count, sourceId, watermark);
+    }
+
+    /**
+     * Writes {@code rows} to a temporary sibling of {@code target} through a writable
+     * mapping, forces it to disk and moves it into place. The temporary name is unique
+     * per call, so concurrent writers never share a file.
+     */
+    static void write(Path target, UUID sourceId, StreamCursor watermark, List<Row> rows) throws IOException {
+        int count = rows.size();
+        var payloads = new byte[count][];
+        long size = payloadStart(count);
+        for (int row = 0; row < count; row++) {
+            payloads[row] = encode(rows.get(row));
+            size += payloads[row].length;
+        }
+
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            fill(tmp, size, sourceId, watermark, rows, payloads);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void fill(Path tmp, long size, UUID sourceId, StreamCursor watermark, List<Row> rows,
+                             byte[][] payloads) throws IOException {
+        int count = rows.size();
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             var arena = Arena.ofConfined()) {
+            MemorySegment out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            out.set(LONG, 0, MAGIC);
+            out.set(INT, 8, VERSION);
+            out.set(INT, 12, count);
+            out.set(LONG, 16, sourceId.getMostSignificantBits());
+            out.set(LONG, 24, sourceId.getLeastSignificantBits());
+            out.set(LONG, 32, toMicros(watermark.updatedAt()));
+            out.set(LONG, 40, watermark.id());
+
+            long payload = payloadStart(count);
+            for (int i = 0; i < count; i++) {
+                Row row = rows.get(i);
+                out.set(LONG, HEADER_BYTES + 8L * i, row.id());
+                out.set(LONG, updatedStart(count) + 8L * i, toMicros(row.updatedAt()));
+                long bounds = boundsStart(count) + 32L * i;
+                out.set(DOUBLE, bounds, row.envelope().getMinX());
+                out.set(DOUBLE, bounds + 8, row.envelope().getMinY());
+                out.set(DOUBLE, bounds + 16, row.envelope().getMaxX());
+                out.set(DOUBLE, bounds + 24, row.envelope().getMaxY());
+                out.set(DOUBLE, centersStart(count) + 16L * i, row.centerLat());
+                out.set(DOUBLE, centersStart(count) + 16L * i + 8, row.centerLng());
+                out.set(LONG, offsetsStart(count) + 8L * i, payload);
+                MemorySegment.copy(payloads[i], 0, out, ValueLayout.JAVA_BYTE, payload, payloads[i].length);
+                payload += payloads[i].length;
+            }
+            out.set(LONG, offsetsStart(count) + 8L * count, payload);
+            out.force();
+        }
+    }
+
+    int count() { return count; }
+    UUID sourceId() { return sourceId; }
+    StreamCursor watermark() { return watermark; }
+
+    long id(int row) {
+        return segment.get(LONG, HEADER_BYTES + 8L * row);
+    }
+
+    Envelope envelope(int row) {
+        long bounds = boundsStart(count) + 32L * row;
+        return new Envelope(segment.get(DOUBLE, bounds), segment.get(DOUBLE, bounds + 16),
+                segment.get(DOUBLE, bounds + 8), segment.get(DOUBLE, bounds + 24));
+    }
+
+    /** Encoded size of the row's strings. */
+    long payloadBytes(int row) {
+        long at = offsetsStart(count) + 8L * row;
+        return segment.get(LONG, at + 8) - segment.get(LONG, at);
+    }
+
+    /** The row's source table and external id, without decoding the rest. */
+    String[] key(int row) {
+        String[] strings = new String[2];
+        readStrings(row, strings);
+        return strings;
+    }
+
+    Row row(int row) {
+        String[] strings = new String[STRINGS_PER_ROW];
+        readStrings(row, strings);
+        long centers = centersStart(count) + 16L * row;
+        return new Row(id(row), fromMicros(segment.get(LONG, updatedStart(count) + 8L * row)), envelope(row),
+                segment.get(DOUBLE, centers), segment.get(DOUBLE, centers + 8),
+                strings[0], strings[1], strings[2], strings[3], strings[4]);
+    }
+
+    private void readStrings(int row, String[] into) {
+        long at = segment.get(LONG, offsetsStart(count) + 8L * row);
+        for (int i = 0; i < into.length; i++) {
+            int length = segment.get(PAYLOAD_INT, at);
+            at += 4;
+            if (length < 0) continue;
+            var bytes = new byte[length];
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, at, bytes, 0, length);
+            into[i] = new String(bytes, StandardCharsets.UTF_8);
+            at += length;
+        }
+    }
+
+    private static byte[] encode(Row row) {
+        var strings = new String[]{row.sourceTable(), row.externalId(), row.geometryType(),
+                row.geometryJson(), row.attributesJson()};
+        var encoded = new byte[STRINGS_PER_ROW][];
+        int size = 0;
+        for (int i = 0; i < STRINGS_PER_ROW; i++) {
+            encoded[i] = strings[i] != null ? strings[i].getBytes(StandardCharsets.UTF_8) : null;
+            size += 4 + (encoded[i] != null ? encoded[i].length : 0);
+        }
+        var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] bytes : encoded) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(bytes.length).put(bytes);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static long updatedStart(int count) { return HEADER_BYTES + 8L * count; }
+    private static long boundsStart(int count) { return updatedStart(count) + 8L * count; }
+    private static long centersStart(int count) { return boundsStart(count) + 32L * count; }
+    private static long offsetsStart(int count) { return centersStart(count) + 16L * count; }
+    private static long payloadStart(int count) { return offsetsStart(count) + 8L * (count + 1); }
+
+    private static long toMicros(Instant instant) {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+    }
+
+    private static Instant fromMicros(long micros) {
+        return Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
+    }
+}
@@ -0,0 +1,164 @@
+package live.omnisource.tessera.stream;
+
+import live.omnisource.tessera.config.ApplicationProperties;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bounded in-memory ring of recent ingest batches, one ring per source.
+ *
+ * <p>Each ring assigns a monotonic sequence to the batches it records and tracks a
+ * <em>horizon</em>: the newest position it can no longer replay, either
+ * because the batch was evicted or because it was never recorded. A resume whose
+ * cursor is at or past the horizon of every relevant source is served entirely
+ * from memory; anything older has to go back to the database.</p>
+ *
+ * <p>Sequences only mean something to the ring that assigned them, which a random
+ * epoch identifies. A token from the same ring resumes by sequence, which is
+ * exact even where batches of the ring's tables committed out of cursor order;
+ * any other token, from another node or an earlier run, resumes by cursor.</p>
+ */
+@Component
+public class ReplayBuffer {
+
+    private final int capacity;
+    private final StreamCursor startedAt = StreamCursor.after(Instant.now());
+    private final ConcurrentHashMap<UUID, SourceRing> rings = new ConcurrentHashMap<>();
+
+    public ReplayBuffer(ApplicationProperties properties) {
+        this.capacity = Math.max(1, properties.stream().replayCapacity());
+    }
+
+    /** Record a batch and assign it the next sequence for its source. */
+    public StreamBatch append(UUID sourceId, String sourceTable, Envelope envelope,
+                              List<StreamFeature> features) {
+        StreamCursor lastCursor = features.stream()
+                .map(StreamFeature::cursor)
+                .max(Comparator.naturalOrder())
+                .orElseThrow();
+        return ring(sourceId).append(sourceTable, envelope, lastCursor, features);
+    }
+
+    /** Note a batch that was not recorded, so resumes from before it fall back to SQL. */
+    public void skip(UUID sourceId, Instant maxUpdatedAt) {
+        ring(sourceId).skip(StreamCursor.after(maxUpdatedAt));
+    }
+
+    /**
+     * Batches the subscription has not yet seen, oldest first, or empty if the
+     * ring no longer covers the token's position.
+     */
+    public Optional<List<StreamBatch>> replay(StreamSubscription subscription, ResumeToken token) {
+        if (startedAt.isAfter(token.cursor())) {
+            return Optional.empty();
+        }
+
+        var batches = new ArrayList<StreamBatch>();
+        for (SourceRing ring : rings.values()) {
+            if (subscription.sourceId() != null && !subscription.sourceId().equals(ring.sourceId)) {
+                continue;
+            }
+            if (!ring.since(token, batches)) {
+                return Optional.empty();
+            }
+        }
+
+        batches.sort(Comparator.comparing(StreamBatch::lastCursor));
+        return Optional.of(batches);
+    }
+
+    private SourceRing ring(UUID sourceId) {
+        return rings.computeIfAbsent(sourceId, id -> new SourceRing(id, capacity, startedAt));
+    }
+
+    private static final class SourceRing {
+        private final UUID sourceId;
+        private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        private final StreamBatch[] slots;
+        private int head;
+        private int size;
+        private long nextSequence = 1;
+        /** Newest sequence evicted or never recorded. */
+        private long lostSequence;
+        private StreamCursor horizon;
+
+        SourceRing(UUID sourceId, int capacity, StreamCursor horizon) {
+            this.sourceId = sourceId;
+            this.slots = new StreamBatch[capacity];
+            this.horizon = horizon;
+        }
+
+        synchronized StreamBatch append(String sourceTable, Envelope envelope,
+                                        StreamCursor lastCursor, List<StreamFeature> features) {
+            var batch = new StreamBatch(epoch, nextSequence++, sourceId, sourceTable,
+                    envelope, lastCursor, List.copyOf(features));
+            int tail = (head + size) % slots.length;
+            if (size == slots.length) {
+                raiseHorizon(slots[head].lastCursor());
+                lostSequence = slots[head].sequence();
+                head = (head + 1) % slots.length;
+            } else {
+                size++;
+            }
+            slots[tail] = batch;
+            return batch;
+        }
+
+        /** A batch that was not recorded: it takes a sequence, so resumes from before it fall back. */
+        synchronized void skip(StreamCursor to) {
+            raiseHorizon(to);
+            lostSequence = nextSequence++;
+        }
+
+        synchronized void raiseHorizon(StreamCursor to) {
+            if (to.isAfter(horizon)) {
+                horizon = to;
+            }
+        }
+
+        /** Collect batches after the token; false if the ring has lost part of that range. */
+        synchronized boolean since(ResumeToken token, List<StreamBatch> out) {
+            if (sourceId.equals(token.sourceId()) && token.epoch() == epoch) {
+                if (token.sequence() < lostSequence) {
+                    return false;
+                }
+                for (int i = 0; i < size; i++) {
+                    StreamBatch batch = slots[(head + i) % slots.length];
+                    if (batch.sequence() > token.sequence()) out.add(batch);
+                }
+                return true;
+            }
+
+            if (horizon.isAfter(token.cursor())) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                StreamBatch batch = slots[(head + i) % slots.length];
+                if (batch.lastCursor().isAfter(token.cursor())) {
+                    out.add(after(batch, token.cursor()));
+                }
+            }
+            return true;
+        }
+
+        /** The batch without the features at or before {@code cursor}, which were already seen. */
+        private static StreamBatch after(StreamBatch batch, StreamCursor cursor) {
+            var unseen = new ArrayList<StreamFeature>(batch.features().size());
+            for (StreamFeature feature : batch.features()) {
+                if (feature.cursor().isAfter(cursor)) unseen.add(feature);
+            }
+            if (unseen.size() == batch.features().size()) return batch;
+            return new StreamBatch(batch.epoch(), batch.sequence(), batch.sourceId(), batch.sourceTable(),
+                    batch.envelope(), batch.lastCursor(), List.copyOf(unseen));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package live.omnisource.tessera.stream;
+
+import java.util.UUID;
+
+/**
+ * Position of a subscription in the stream, used as the SSE event id.
+ *
+ * <p>Encoded as {@code <sourceId>:<epoch>.<sequence>:<cursor>}. The sequence counts
+ * batches in one {@link ReplayBuffer} ring, which lives as long as its node does;
+ * the epoch names that ring, so a token brought to another node or across a restart
+ * is resumed by cursor instead. Deliveries served from the database rather than the
+ * replay ring carry no source and sequence ({@code *:0.0:<cursor>}) and can only
+ * be resumed by cursor. Tokens without an epoch are read as such.</p>
+ */
+public record ResumeToken(UUID sourceId, long epoch, long sequence, StreamCursor cursor) {
+
+    private static final String ANY_SOURCE = "*";
+
+    public static ResumeToken ofCursor(StreamCursor cursor) {
+        return new ResumeToken(null, 0, 0, cursor);
+    }
+
+    public static ResumeToken parse(String token) {
+        String[] parts = token.split(":", 3);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Malformed resume token: " + token);
+        }
+        UUID sourceId = ANY_SOURCE.equals(parts[0]) ? null : UUID.fromString(parts[0]);
+        int dot = parts[1].indexOf('.');
+        long epoch = dot < 0 ? 0 : Long.parseUnsignedLong(parts[1].substring(0, dot), 16);
+        long sequence = Long.parseLong(parts[1].substring(dot + 1));
+        return new ResumeToken(sourceId, epoch, sequence, StreamCursor.parse(parts[2]));
+    }
+
+    /** The position in {@code value}, which may be a resume token, a cursor token or an instant. */
+    public static StreamCursor cursorOf(String value) {
+        try {
+            return StreamCursor.parse(value);
+        } catch (IllegalArgumentException e) {
+            return parse(value).cursor();
+        }
+    }
+
+    public String encode() {
+        return (sourceId != null ? sourceId.toString() : ANY_SOURCE) + ":"
+                + Long.toHexString(epoch) + "." + sequence + ":" + cursor.encode();
+    }
+}
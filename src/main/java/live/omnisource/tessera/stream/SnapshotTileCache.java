@@ -0,0 +1,232 @@
+package live.omnisource.tessera.stream;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared, tile-aligned cache of current feature state for snapshots.
+ *
+ * <p>Snapshot areas are covered by tiles of a geographic quadtree (2<sup>z+1</sup> by
+ * 2<sup>z</sup> tiles of {@code 180/2^z} degrees), at the coarsest zoom whose tiles are
+ * at least as large as the area, so viewports of similar size and place map to the same
+ * few keys. A tile holds the latest version of every feature of one source intersecting
+ * it, as of the watermark it was loaded at; attribute filters, cell sets, areas and the
+ * exact bbox are applied in memory per request. Concurrent misses on one tile share a single
+ * query, so a reconnect storm costs one query per hot tile rather than one per client.</p>
+ *
+ * <p>Each tile is exact for its own watermark, whenever it was loaded. A snapshot
+ * assembled from several tiles is served as of the oldest of them, leaving out newer
+ * versions from the others and keeping one version per feature; callers catch up from
+ * that watermark over the same area, so no version is missed. Ingest events evict the
+ * tiles they touch, which keeps that catch-up short; entries also expire after
+ * {@code snapshot-cache-ttl-seconds}.</p>
+ *
+ * <p>Sources held by {@link LayerMemoryIndex} skip the tiles and are served from
+ * there, whatever the size of the area.</p>
+ */
+@Slf4j
+@Component
+public class SnapshotTileCache {
+
+    private static final int MIN_ZOOM = 2;
+    private static final int MAX_ZOOM = 16;
+    private static final int MAX_TILES = 16;
+    private static final int MAX_TILE_FEATURES = 20_000;
+    private static final int LOAD_PAGE_SIZE = 2_000;
+
+    /** Tile of one source; {@code null} source or table means all of them. */
+    private record TileKey(UUID sourceId, String sourceTable, int z, int x, int y) {
+
+        Envelope envelope() {
+            double size = 180.0 / (1 << z);
+            double minX = -180 + x * size;
+            double minY = -90 + y * size;
+            return new Envelope(minX, minX + size, minY, minY + size);
+        }
+
+        boolean covers(FeatureIngestEvent event) {
+            return (sourceId == null || sourceId.equals(event.sourceId()))
+                    && (sourceTable == null || sourceTable.equals(event.sourceTable()))
+                    && (event.envelope() == null || envelope().intersects(event.envelope()));
+        }
+    }
+
+    /** Identity of a feature across its versions. */
+    private record FeatureKey(UUID sourceId, String sourceTable, String externalId) {
+        static FeatureKey of(StreamFeature feature) {
+            return new FeatureKey(feature.sourceId(), feature.sourceTable(), feature.externalId());
+        }
+    }
+
+    /** Tile contents; {@code oversized} tiles are remembered so they are not loaded again. */
+    private record Tile(StreamCursor watermark, List<StreamFeature> features, boolean oversized) {}
+
+    /** Features for a snapshot and the position they are exact at. */
+    public record CachedSnapshot(StreamCursor watermark, List<StreamFeature> features) {}
+
+    private final FeatureDeltaQuery deltaQuery;
+    private final LayerMemoryIndex memoryIndex;
+    private final Cache<TileKey, Tile> tiles;
+
+    public SnapshotTileCache(FeatureDeltaQuery deltaQuery, LayerMemoryIndex memoryIndex,
+                             ApplicationProperties properties) {
+        this.deltaQuery = deltaQuery;
+        this.memoryIndex = memoryIndex;
+        this.tiles = CacheBuilder.newBuilder()
+                .maximumWeight(properties.stream().snapshotCacheMaxFeatures())
+                .weigher((TileKey key, Tile tile) -> Math.max(1, tile.features().size()))
+                .expireAfterWrite(properties.stream().snapshotCacheTtlSeconds(), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * The subscription's current features inside {@code regions} and outside
+     * {@code exclude}, or empty when the area is unbounded, spans too many tiles or
+     * hits a tile too dense to cache; callers then query directly. Sources held in
+     * memory are always served.
+     *
+     * @param regions rectangles to cover, or {@code null} for the subscription's own bbox
+     *                (or its area's, when it has only an area)
+     */
+    public Optional<CachedSnapshot> lookup(StreamSubscription sub, List<Envelope> regions, Envelope exclude) {
+        List<Envelope> areas = regions != null ? regions
+                : sub.spatialFilter() != null ? List.of(sub.spatialFilter())
+                : sub.area() != null ? List.of(sub.area().envelope()) : List.of();
+        Envelope extent = null;
+        if (!areas.isEmpty()) {
+            extent = new Envelope();
+            areas.forEach(extent::expandToInclude);
+        }
+
+        // Layers held in memory answer any area, bounded or not
+        Optional<LayerMemoryIndex.Result> held = memoryIndex.query(sub.sourceId(), extent);
+        if (held.isPresent()) {
+            return Optional.of(new CachedSnapshot(held.get().watermark(),
+                    matching(sub, held.get().features(), held.get().watermark(), areas, exclude)));
+        }
+        if (extent == null) return Optional.empty();
+
+        List<TileKey> keys = cover(sub, extent);
+        if (keys.isEmpty()) return Optional.empty();
+
+        var loaded = new ArrayList<Tile>(keys.size());
+        for (TileKey key : keys) {
+            Tile tile;
+            try {
+                tile = tiles.get(key, () -> load(key, sub.protocol()));
+            } catch (Exception e) {
+                log.warn("Snapshot tile {} failed to load: {}", key, e.getMessage());
+                return Optional.empty();
+            }
+            if (tile.oversized()) return Optional.empty();
+            loaded.add(tile);
+        }
+
+        StreamCursor watermark = loaded.getFirst().watermark();
+        for (Tile tile : loaded) {
+            if (watermark.isAfter(tile.watermark())) watermark = tile.watermark();
+        }
+
+        // Features spanning tiles appear in each of them, and tiles of different ages can
+        // hold different versions of one feature: keep the latest as of the watermark
+        var features = new LinkedHashMap<FeatureKey, StreamFeature>();
+        for (Tile tile : loaded) {
+            for (StreamFeature feature : tile.features()) {
+                if (feature.cursor().isAfter(watermark)) continue;
+                features.merge(FeatureKey.of(feature), feature, (a, b) -> a.id() >= b.id() ? a : b);
+            }
+        }
+
+        var result = matching(sub, features.values(), watermark, areas, exclude);
+        result.sort((a, b) -> Long.compare(a.id(), b.id()));
+        return Optional.of(new CachedSnapshot(watermark, result));
+    }
+
+    @EventListener
+    public void onFeatureIngested(FeatureIngestEvent event) {
+        tiles.asMap().keySet().removeIf(key -> key.covers(event));
+    }
+
+    private List<TileKey> cover(StreamSubscription sub, Envelope extent) {
+        double span = Math.max(extent.getWidth(), extent.getHeight());
+        int z = span <= 0 ? MAX_ZOOM
+                : Math.clamp((int) Math.floor(Math.log(180.0 / span) / Math.log(2)), MIN_ZOOM, MAX_ZOOM);
+
+        double size = 180.0 / (1 << z);
+        int maxX = (2 << z) - 1;
+        int maxY = (1 << z) - 1;
+        int x0 = Math.clamp((long) Math.floor((extent.getMinX() + 180) / size), 0, maxX);
+        int x1 = Math.clamp((long) Math.floor((extent.getMaxX() + 180) / size), 0, maxX);
+        int y0 = Math.clamp((long) Math.floor((extent.getMinY() + 90) / size), 0, maxY);
+        int y1 = Math.clamp((long) Math.floor((extent.getMaxY() + 90) / size), 0, maxY);
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > MAX_TILES) return List.of();
+
+        var keys = new ArrayList<TileKey>();
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                keys.add(new TileKey(sub.sourceId(), sub.sourceTable(), z, x, y));
+            }
+        }
+        return keys;
+    }
+
+    private Tile load(TileKey key, StreamSubscription.Protocol protocol) {
+        StreamCursor watermark = deltaQuery.fetchHead();
+        var area = new StreamSubscription("tile-" + key, protocol,
+                key.sourceId(), key.sourceTable(), key.envelope(), null);
+
+        var features = new ArrayList<StreamFeature>();
+        long afterId = 0;
+        while (true) {
+            List<StreamFeature> page = deltaQuery.fetchSnapshotPage(area, watermark, afterId, LOAD_PAGE_SIZE);
+            features.addAll(page);
+            if (features.size() > MAX_TILE_FEATURES) {
+                log.debug("Snapshot tile {} exceeds {} features, not cached", key, MAX_TILE_FEATURES);
+                return new Tile(watermark, List.of(), true);
+            }
+            if (page.size() < LOAD_PAGE_SIZE) break;
+            afterId = page.getLast().id();
+        }
+        features.trimToSize();
+        return new Tile(watermark, List.copyOf(features), false);
+    }
+
+    /** The subscription's filters applied in memory; no areas means no spatial restriction. */
+    private static List<StreamFeature> matching(StreamSubscription sub, Collection<StreamFeature> candidates,
+                                                StreamCursor watermark, List<Envelope> areas, Envelope exclude) {
+        var result = new ArrayList<StreamFeature>();
+        for (StreamFeature feature : candidates) {
+            if (feature.cursor().isAfter(watermark)) continue;
+            if (sub.sourceTable() != null && !sub.sourceTable().equals(feature.sourceTable())) continue;
+            if (!within(feature.envelope(), areas, exclude)) continue;
+            if (sub.cellSet() != null && !sub.cellSet().contains(feature)) continue;
+            if (sub.area() != null && !sub.area().test(feature)) continue;
+            if (sub.filter() != null && !sub.filter().test(feature)) continue;
+            result.add(feature);
+        }
+        return result;
+    }
+
+    private static boolean within(Envelope envelope, List<Envelope> areas, Envelope exclude) {
+        if (exclude != null && exclude.intersects(envelope)) return false;
+        if (areas.isEmpty()) return true;
+        for (Envelope area : areas) {
+            if (area.intersects(envelope)) return true;
+        }
+        return false;
+    }
+}
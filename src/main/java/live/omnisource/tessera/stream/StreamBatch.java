@@ -0,0 +1,23 @@
+package live.omnisource.tessera.stream;
+
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One ingest batch, fetched once and fanned out to every matching subscription.
+ *
+ * @param epoch      identifies the {@link ReplayBuffer} ring that assigned {@code sequence}
+ * @param sequence   monotonic per-source sequence assigned by {@link ReplayBuffer}
+ * @param lastCursor position of the newest feature in the batch
+ */
+public record StreamBatch(
+        long epoch,
+        long sequence,
+        UUID sourceId,
+        String sourceTable,
+        Envelope envelope,
+        StreamCursor lastCursor,
+        List<StreamFeature> features
+) {}
@@ -1,49 +1,155 @@
 package live.omnisource.tessera.stream;
 
+import com.uber.h3core.H3Core;
+import live.omnisource.tessera.config.ApplicationProperties;
 import live.omnisource.tessera.stream.event.FeatureIngestEvent;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.event.EventListener;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
+/**
+ * Fans ingest batches out to stream subscriptions.
+ *
+ * <p>Each batch is read from the database once, recorded in the {@link ReplayBuffer}
+ * and matched against subscriptions in memory. A subscription that starts behind
+ * the live edge (an explicit {@code since} or a resume token) first catches up,
+ * from the replay ring when it still covers the gap and from SQL otherwise.</p>
+ *
+ * <p>Subscriptions with a {@link DeliveryPolicy} receive live batches through a
+ * {@link DeliveryThrottle}; buffered features are flushed when their interval
+ * elapses, either by the next batch or by {@link #flushThrottled()}. Catch-up
+ * is a bounded burst and is not throttled.</p>
+ *
+ * <p>A subscription opened with a snapshot first receives the current state as
+ * of a watermark, paged, and then catches up from that watermark, so the switch
+ * to live deltas neither drops nor repeats a version.</p>
+ *
+ * <p>Cell-set subscriptions are not scanned per batch; a {@link CellBucketIndex}
+ * routes each feature to them by its centroid cell.</p>
+ */
 @Slf4j
 @Service
 public class StreamBroker {
 
     private static final int DELIVERY_BATCH_LIMIT = 500;
-    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private static final long THROTTLE_FLUSH_MS = 50;
+
+    private final FeatureDeltaQuery deltaQuery;
+    private final ReplayBuffer replayBuffer;
+    private final SnapshotTileCache snapshotCache;
+    private final Executor taskExecutor;
+    private final Duration replayRetention;
+    private final int maxBufferedFeatures;
+    private final CellBucketIndex cellIndex;
 
     private final ConcurrentHashMap<String, ActiveSub> subscriptions = new ConcurrentHashMap<>();
 
-    public StreamBroker(NamedParameterJdbcTemplate jdbcTemplate) {
-        this.jdbcTemplate = jdbcTemplate;
+    /** Aggregating consumers that want every recorded batch, e.g. the H3 density grids. */
+    private final List<Consumer<StreamBatch>> batchListeners = new CopyOnWriteArrayList<>();
+
+    /** Last time a subscription went away; batches are still recorded for a while so it can resume. */
+    private volatile Instant lastUnsubscribedAt = Instant.MIN;
+
+    public StreamBroker(FeatureDeltaQuery deltaQuery,
+                        ReplayBuffer replayBuffer,
+                        SnapshotTileCache snapshotCache,
+                        Executor taskExecutor,
+                        H3Core h3Core,
+                        ApplicationProperties properties) {
+        this.deltaQuery = deltaQuery;
+        this.replayBuffer = replayBuffer;
+        this.snapshotCache = snapshotCache;
+        this.taskExecutor = taskExecutor;
+        this.replayRetention = Duration.ofSeconds(properties.stream().replayRetentionSeconds());
+        this.maxBufferedFeatures = properties.stream().maxBufferedFeatures();
+        this.cellIndex = new CellBucketIndex(h3Core);
     }
 
-    public void subscribe(StreamSubscription subscription, Consumer<List<Map<String, Object>>> callback) {
-        subscriptions.put(subscription.id(), new ActiveSub(subscription, callback));
-        log.info("Stream subscription registered: id={} protocol={} sourceId={} bbox={}",
-                subscription.id(), subscription.protocol(), subscription.sourceId(),
-                subscription.spatialFilter() != null ? subscription.spatialFilter() : "global");
+    public void subscribe(StreamSubscription subscription, Consumer<StreamDelivery> callback) {
+        var active = ActiveSub.of(subscription, callback, maxBufferedFeatures);
+        if (!subscription.requiresCatchUp()) {
+            if (subscription.cursor() == null) subscription.startAt(head());
+            register(active);
+            return;
+        }
+        // Register before catching up so nothing committed in between is missed
+        subscription.beginCatchUp();
+        register(active);
+        taskExecutor.execute(() -> catchUp(active, ResumeToken.ofCursor(subscription.cursor())));
+    }
+
+    /**
+     * Subscribe with the current state first. Every feature in the subscription's
+     * filter as of a watermark is paged to {@code snapshot}, one page in memory at a
+     * time; live delivery then continues strictly after the watermark. Batches that
+     * land while paging are held back and replayed by the catch-up that follows.
+     * {@code snapshot} may block until the client has taken a page; the next one is
+     * fetched only when it returns.
+     */
+    public void subscribeWithSnapshot(StreamSubscription subscription,
+                                      Consumer<StreamDelivery> callback,
+                                      Consumer<StreamSnapshotPage> snapshot) {
+        var active = ActiveSub.of(subscription, callback, maxBufferedFeatures);
+        subscription.beginCatchUp();
+        register(active);
+        taskExecutor.execute(() -> snapshotThenCatchUp(active, snapshot));
+    }
+
+    /**
+     * Re-attach a client that already received everything up to {@code token},
+     * e.g. an SSE reconnect carrying {@code Last-Event-ID}.
+     */
+    public void resume(StreamSubscription subscription, Consumer<StreamDelivery> callback, ResumeToken token) {
+        var active = ActiveSub.of(subscription, callback, maxBufferedFeatures);
+        subscription.beginCatchUp();
+        register(active);
+        taskExecutor.execute(() -> catchUp(active, token));
+    }
+
+    /**
+     * Where a subscription that only wants new features starts. A database
+     * position rather than the wall clock: batches carry their transaction's time
+     * and may commit behind it, so a token handed out before the first delivery
+     * must not skip them.
+     */
+    public StreamCursor head() {
+        return deltaQuery.fetchHead();
     }
 
     public void unsubscribe(String subscriptionId) {
         var removed = subscriptions.remove(subscriptionId);
         if (removed != null) {
             removed.subscription.deactivate();
-            log.info("Stream subscription removed: id={} delivered={}",
-                    subscriptionId, removed.subscription.deliveredCount());
+            if (removed.subscription.cellSet() != null) {
+                cellIndex.remove(subscriptionId, removed.subscription.cellSet());
+            }
+            lastUnsubscribedAt = Instant.now();
+            log.info("Stream subscription removed: id={} delivered={} overflows={}",
+                    subscriptionId, removed.subscription.deliveredCount(),
+                    removed.throttle != null ? removed.throttle.overflows() : 0);
         }
     }
 
+    /** Receive every batch while registered; batches are also recorded while any listener is. */
+    public void addBatchListener(Consumer<StreamBatch> listener) {
+        batchListeners.add(listener);
+    }
+
+    public void removeBatchListener(Consumer<StreamBatch> listener) {
+        batchListeners.remove(listener);
+    }
+
     public List<StreamSubscription> activeSubscriptions() {
         return subscriptions.values().stream()
                 .map(ActiveSub::subscription)
@@ -55,89 +161,265 @@ public class StreamBroker {
         return subscriptions.size();
     }
 
-    @Async
-    @EventListener
+    /**
+     * Fan one ingest batch out. Called by {@link IngestDispatcher}, one call at a
+     * time per source, in commit order.
+     */
     public void onFeatureIngested(FeatureIngestEvent event) {
-        if (subscriptions.isEmpty()) return;
-
         log.debug("Ingest event: source={} table={} count={} envelope={}",
                 event.sourceId(), event.sourceTable(), event.featureCount(), event.envelope());
 
+        if (!isRecording()) {
+            replayBuffer.skip(event.sourceId(), event.maxUpdatedAt());
+            return;
+        }
+
+        List<StreamFeature> features = deltaQuery.fetchBatch(event);
+        if (features.isEmpty()) return;
+
+        StreamBatch batch = replayBuffer.append(
+                event.sourceId(), event.sourceTable(), event.envelope(), features);
+
+        for (Consumer<StreamBatch> listener : batchListeners) {
+            try {
+                listener.accept(batch);
+            } catch (Exception e) {
+                log.warn("Batch listener failed for {}: {}", batch.sourceTable(), e.getMessage());
+            }
+        }
+
+        Map<String, List<StreamFeature>> cellRoutes = cellIndex.isEmpty()
+                ? Map.of() : cellIndex.route(batch.features());
+
         for (var entry : subscriptions.entrySet()) {
             String subId = entry.getKey();
             ActiveSub active = entry.getValue();
-            StreamSubscription subscription = active.subscription();
 
-            if (!subscription.matches(event.sourceId(), event.sourceTable(), event.envelope())) {
+            if (!active.subscription().matches(batch.sourceId(), batch.sourceTable(), batch.envelope())) {
                 continue;
             }
 
+            List<StreamFeature> candidates = batch.features();
+            if (active.subscription().cellSet() != null) {
+                candidates = cellRoutes.get(subId);
+                if (candidates == null) continue;
+            }
+
             try {
-                deleiverToSubscription(active, event);
+                deliverLive(active, batch, candidates);
             } catch (Exception e) {
                 log.warn("Failed to deliver features to subscription {}: {}", subId, e.getMessage());
             }
         }
     }
 
-    private void deleiverToSubscription(ActiveSub active, FeatureIngestEvent event) {
-        StreamSubscription subscription = active.subscription;
-        if (!subscription.isActive()) return;
+    // ── Delivery ─────────────────────────────────────────────
 
-        List<Map<String, Object>> features = queryFeaturesSince(subscription);
-        if (features.isEmpty()) return;
+    private void deliverLive(ActiveSub active, StreamBatch batch, List<StreamFeature> candidates) {
+        StreamSubscription subscription = active.subscription();
+        var lock = subscription.deliveryLock();
+        lock.lock();
+        try {
+            // Batches that land mid catch-up are picked up by its final pass
+            if (!subscription.isActive() || subscription.isCatchingUp()) return;
+            deliver(active, candidates, batch, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliver(ActiveSub active, List<StreamFeature> candidates, StreamBatch batch, boolean live) {
+        StreamSubscription subscription = active.subscription();
+
+        var accepted = new ArrayList<StreamFeature>();
+        var rows = new ArrayList<Map<String, Object>>();
+        StreamCursor last = null;
+        for (StreamFeature feature : candidates) {
+            if (!subscription.accepts(feature)) continue;
+            accepted.add(feature);
+            rows.add(subscription.project(feature));
+            if (last == null || feature.cursor().isAfter(last)) {
+                last = feature.cursor();
+            }
+        }
+        if (rows.isEmpty()) return;
+
+        subscription.advanceCursor(last);
 
-        Instant maxUpdatedAt = features.stream()
-                .map(f -> (Instant) f.get("updated_at"))
-                .filter(Objects::nonNull)
-                .max(Instant::compareTo)
-                .orElse(event.maxUpdatedAt());
+        ResumeToken token = batch != null
+                ? new ResumeToken(batch.sourceId(), batch.epoch(), batch.sequence(), subscription.cursor())
+                : ResumeToken.ofCursor(subscription.cursor());
+
+        if (live && active.throttle() != null) {
+            StreamDelivery due = active.throttle().offer(accepted, rows, token, System.nanoTime());
+            if (due != null) send(active, due);
+        } else {
+            send(active, new StreamDelivery(rows, token));
+        }
+    }
 
-        subscription.advanceCursor(maxUpdatedAt);
-        subscription.incrementDelivered(features.size());
+    private void send(ActiveSub active, StreamDelivery delivery) {
+        StreamSubscription subscription = active.subscription();
+        subscription.incrementDelivered(delivery.features().size());
+        active.callback().accept(delivery);
 
         log.debug("Delivered {} features to subscription {} (cursor now {})",
-                features.size(), subscription.id(), maxUpdatedAt);
+                delivery.features().size(), subscription.id(), subscription.cursor());
     }
 
-    private List<Map<String, Object>> queryFeaturesSince(
-            StreamSubscription sub) {
+    /** Sends throttled buffers whose interval has elapsed without a new batch arriving. */
+    @Scheduled(fixedDelay = THROTTLE_FLUSH_MS)
+    public void flushThrottled() {
+        long now = System.nanoTime();
+        for (ActiveSub active : subscriptions.values()) {
+            if (active.throttle() == null || !active.throttle().hasPending()) continue;
+
+            // A busy lock means a delivery is in progress; try again next tick
+            var lock = active.subscription().deliveryLock();
+            if (!lock.tryLock()) continue;
+            try {
+                if (!active.subscription().isActive()) continue;
+                StreamDelivery due = active.throttle().flushIfDue(now);
+                if (due != null) send(active, due);
+            } catch (Exception e) {
+                log.warn("Failed to flush throttled features to subscription {}: {}",
+                        active.subscription().id(), e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // ── Catch-up ─────────────────────────────────────────────
+
+    /**
+     * Bring a subscription from {@code token} to the live edge. The first pass runs
+     * while live fan-out skips the subscription; the second runs under the delivery
+     * lock to pick up whatever committed during the first, after which live batches
+     * flow again, de-duplicated against the catch-up watermark.
+     */
+    private void catchUp(ActiveSub active, ResumeToken token) {
+        StreamSubscription subscription = active.subscription();
+        try {
+            replayOrQuery(active, token);
+
+            var lock = subscription.deliveryLock();
+            lock.lock();
+            try {
+                subscription.endCatchUp();
+                replayOrQuery(active, ResumeToken.ofCursor(subscription.cursor()));
+                subscription.markCaughtUp();
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.warn("Catch-up failed for subscription {}: {}", subscription.id(), e.getMessage());
+            subscription.endCatchUp();
+        }
+    }
 
-        var sql = new StringBuilder("""
-                SELECT f.id, f.external_id, f.source_id, f.source_table,
-                       ST_AsGeoJSON(f.geometry)::text AS geometry_json,
-                       f.geometry_type, f.attributes, f.updated_at
-                FROM tessera.geo_features f
-                WHERE f.updated_at > :cursor
-                """);
+    private void snapshotThenCatchUp(ActiveSub active, Consumer<StreamSnapshotPage> snapshot) {
+        StreamSubscription subscription = active.subscription();
+        StreamCursor watermark;
+        try {
+            // Shared tiles when the area allows; their watermark may predate registering,
+            // which only lengthens the catch-up that follows. Otherwise the head, taken
+            // after registering, so batches past it are already being held back.
+            Optional<SnapshotTileCache.CachedSnapshot> cached = snapshotCache.lookup(subscription, null, null);
+            watermark = cached.isPresent() ? cached.get().watermark() : deltaQuery.fetchHead();
+            subscription.startAt(watermark);
 
-        var params = new HashMap<String, Object>();
-        params.put("cursor", java.sql.Timestamp.from(sub.cursor()));
+            boolean complete = cached.isPresent()
+                    ? pageCached(subscription, cached.get().features(), watermark, snapshot)
+                    : pageQueried(subscription, watermark, snapshot);
+            if (!complete) return;
+        } catch (Exception e) {
+            log.warn("Snapshot failed for subscription {}: {}", subscription.id(), e.getMessage());
+            subscription.endCatchUp();
+            return;
+        }
+        catchUp(active, ResumeToken.ofCursor(watermark));
+    }
 
-        // Source filter
-        if (sub.sourceId() != null) {
-            sql.append(" AND f.source_id = :sourceId::uuid");
-            params.put("sourceId", sub.sourceId().toString());
+    private boolean pageQueried(StreamSubscription subscription, StreamCursor watermark,
+                                Consumer<StreamSnapshotPage> snapshot) {
+        long afterId = 0;
+        for (int page = 0; ; page++) {
+            if (!subscription.isActive()) return false;
+            List<StreamFeature> rows = deltaQuery.fetchSnapshotPage(
+                    subscription, watermark, afterId, DELIVERY_BATCH_LIMIT);
+            boolean done = rows.size() < DELIVERY_BATCH_LIMIT;
+            snapshot.accept(new StreamSnapshotPage(
+                    page, rows.stream().map(subscription::project).toList(), done, watermark));
+            if (done) return true;
+            afterId = rows.getLast().id();
         }
-        if (sub.sourceTable() != null) {
-            sql.append(" AND f.source_table = :sourceTable");
-            params.put("sourceTable", sub.sourceTable());
+    }
+
+    private boolean pageCached(StreamSubscription subscription, List<StreamFeature> features,
+                               StreamCursor watermark, Consumer<StreamSnapshotPage> snapshot) {
+        for (int page = 0, from = 0; ; page++, from += DELIVERY_BATCH_LIMIT) {
+            if (!subscription.isActive()) return false;
+            int to = Math.min(from + DELIVERY_BATCH_LIMIT, features.size());
+            boolean done = to == features.size();
+            snapshot.accept(new StreamSnapshotPage(page,
+                    features.subList(from, to).stream().map(subscription::project).toList(), done, watermark));
+            if (done) return true;
         }
+    }
 
-        // Spatial filter (bbox)
-        if (sub.spatialFilter() != null) {
-            sql.append(" AND ST_Intersects(f.geometry, ST_MakeEnvelope(:minX, :minY, :maxX, :maxY, 4326))");
-            params.put("minX", sub.spatialFilter().getMinX());
-            params.put("minY", sub.spatialFilter().getMinY());
-            params.put("maxX", sub.spatialFilter().getMaxX());
-            params.put("maxY", sub.spatialFilter().getMaxY());
+    private void replayOrQuery(ActiveSub active, ResumeToken token) {
+        StreamSubscription subscription = active.subscription();
+        if (!subscription.isActive()) return;
+
+        Optional<List<StreamBatch>> replay = replayBuffer.replay(subscription, token);
+        if (replay.isPresent()) {
+            for (StreamBatch batch : replay.get()) {
+                if (subscription.matches(batch.sourceId(), batch.sourceTable(), batch.envelope())) {
+                    deliver(active, batch.features(), batch, false);
+                }
+            }
+            return;
         }
 
-        sql.append(" ORDER BY f.updated_at ASC LIMIT :limit");
-        params.put("limit", DELIVERY_BATCH_LIMIT);
+        log.debug("Replay ring does not cover {} for subscription {}, catching up from database",
+                token.cursor(), subscription.id());
+        StreamCursor cursor = token.cursor();
+        List<StreamFeature> page;
+        do {
+            page = deltaQuery.fetchSince(subscription, cursor, DELIVERY_BATCH_LIMIT);
+            deliver(active, page, null, false);
+            if (!page.isEmpty()) {
+                cursor = page.getLast().cursor();
+            }
+        } while (page.size() == DELIVERY_BATCH_LIMIT && subscription.isActive());
+    }
 
-        return jdbcTemplate.queryForList(sql.toString(), params);
+    private void register(ActiveSub active) {
+        StreamSubscription subscription = active.subscription();
+        // Buckets first, so a batch routed in between still finds the subscription
+        if (subscription.cellSet() != null) {
+            cellIndex.add(subscription.id(), subscription.cellSet());
+        }
+        subscriptions.put(subscription.id(), active);
+        log.info("Stream subscription registered: id={} protocol={} sourceId={} bbox={}",
+                subscription.id(), subscription.protocol(), subscription.sourceId(),
+                subscription.spatialFilter() != null ? subscription.spatialFilter() : "global");
     }
 
-    private record ActiveSub(StreamSubscription subscription, Consumer<List<Map<String, Object>>> callback) {}
+    private boolean isRecording() {
+        return !subscriptions.isEmpty() || !batchListeners.isEmpty()
+                || lastUnsubscribedAt.isAfter(Instant.now().minus(replayRetention));
+    }
+
+    private record ActiveSub(StreamSubscription subscription,
+                             Consumer<StreamDelivery> callback,
+                             DeliveryThrottle throttle) {
+
+        static ActiveSub of(StreamSubscription subscription, Consumer<StreamDelivery> callback, int maxBuffered) {
+            DeliveryPolicy policy = subscription.deliveryPolicy();
+            return new ActiveSub(subscription, callback,
+                    policy.isUnlimited() ? null : new DeliveryThrottle(policy, maxBuffered));
+        }
+    }
 }
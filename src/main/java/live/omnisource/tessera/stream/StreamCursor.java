@@ -0,0 +1,62 @@
+package live.omnisource.tessera.stream;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+
+/**
+ * Keyset position in the feature delta stream, ordered by {@code (updated_at, id)}.
+ *
+ * <p>Every row of an ingest batch shares one {@code updated_at}, so the timestamp
+ * alone cannot mark a page boundary inside a batch; the feature id breaks the tie.
+ * Clients see the cursor as an opaque token. A plain ISO-8601 instant is still
+ * accepted wherever a token is, meaning "everything updated after this instant".</p>
+ */
+public record StreamCursor(Instant updatedAt, long id) implements Comparable<StreamCursor> {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /** Position after every row updated at or before {@code instant}. */
+    public static StreamCursor after(Instant instant) {
+        return new StreamCursor(instant.truncatedTo(ChronoUnit.MICROS), Long.MAX_VALUE);
+    }
+
+    public static StreamCursor parse(String value) {
+        try {
+            return after(Instant.parse(value));
+        } catch (DateTimeParseException ignored) {
+            // not an instant — expect a token
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(DECODER.decode(value));
+            long micros = buf.getLong();
+            long id = buf.getLong();
+            return new StreamCursor(Instant.EPOCH.plus(micros, ChronoUnit.MICROS), id);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed stream cursor: " + value, e);
+        }
+    }
+
+    public String encode() {
+        long micros = ChronoUnit.MICROS.between(Instant.EPOCH, updatedAt);
+        return ENCODER.encodeToString(ByteBuffer.allocate(16).putLong(micros).putLong(id).array());
+    }
+
+    public boolean isAfter(StreamCursor other) {
+        return compareTo(other) > 0;
+    }
+
+    @Override
+    public int compareTo(StreamCursor other) {
+        int c = updatedAt.compareTo(other.updatedAt);
+        return c != 0 ? c : Long.compare(id, other.id);
+    }
+
+    @Override
+    public String toString() {
+        return id == Long.MAX_VALUE ? updatedAt.toString() : updatedAt + "#" + id;
+    }
+}
@@ -0,0 +1,14 @@
+package live.omnisource.tessera.stream;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Features handed to a subscription callback.
+ *
+ * @param resumeToken token a client can present to continue after this delivery
+ */
+public record StreamDelivery(
+        List<Map<String, Object>> features,
+        ResumeToken resumeToken
+) {}
@@ -0,0 +1,37 @@
+package live.omnisource.tessera.stream;
+
+import live.omnisource.tessera.stream.h3.FeatureCells;
+import org.locationtech.jts.geom.Envelope;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A single feature version as seen by the stream layer.
+ *
+ * <p>{@code row} is the client-facing representation; the remaining components
+ * are kept alongside it so fan-out can match subscriptions without re-reading
+ * the row map.</p>
+ */
+public record StreamFeature(
+        long id,
+        UUID sourceId,
+        String sourceTable,
+        String externalId,
+        Instant updatedAt,
+        Envelope envelope,
+        FeatureCells cells,
+        FeatureShape shape,
+        Map<String, Object> row
+) {
+    public StreamCursor cursor() {
+        return new StreamCursor(updatedAt, id);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> attributes() {
+        return row.get("attributes") instanceof Map<?, ?> attributes
+                ? (Map<String, Object>) attributes : Map.of();
+    }
+}
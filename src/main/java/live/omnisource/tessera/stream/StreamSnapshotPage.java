@@ -0,0 +1,16 @@
+package live.omnisource.tessera.stream;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of a subscription's initial snapshot.
+ *
+ * @param watermark position the snapshot was taken at; live deliveries continue strictly after it
+ */
+public record StreamSnapshotPage(
+        int page,
+        List<Map<String, Object>> features,
+        boolean done,
+        StreamCursor watermark
+) {}
@@ -1,41 +1,86 @@
 package live.omnisource.tessera.stream;
 
+import live.omnisource.tessera.stream.filter.FeatureFilter;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import live.omnisource.tessera.stream.filter.GeometryFilter;
+import live.omnisource.tessera.stream.h3.CellSet;
 import org.locationtech.jts.geom.Envelope;
 
 import java.time.Instant;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class StreamSubscription {
     private final String id;
     private final Protocol protocol;
     private final UUID sourceId;
     private final String sourceTable;
-    private final Envelope spatialFilter;
-    private volatile Instant cursor;
+    private volatile Envelope spatialFilter;
+    private final FeatureFilter filter;
+    private final FieldProjection projection;
+    private volatile DeliveryPolicy deliveryPolicy = DeliveryPolicy.UNLIMITED;
+    private volatile CellSet cellSet;
+    private volatile GeometryFilter area;
+    private final boolean requiresCatchUp;
+    private volatile StreamCursor cursor;
     private volatile Instant lastDeliveredAt;
     private long deliveredCount;
     private final Instant createdAt;
     private volatile boolean active = true;
 
+    /** True until the broker has replayed everything between the cursor and the live edge. */
+    private volatile boolean catchingUp;
+
+    /** Live features at or before this position were already covered by catch-up. */
+    private volatile StreamCursor catchUpWatermark;
+
+    /** Serializes deliveries so callbacks never run concurrently for one subscription. */
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+
     public enum Protocol {
         SSE,
         WEBSOCKET,
         REST_POLL
     }
 
+    /**
+     * @param cursor position to catch up from, or {@code null} to receive only
+     *               features ingested from now on; the broker then starts it at the
+     *               feature table's head, see {@link StreamBroker#head()}
+     */
+    public StreamSubscription(
+            String id,
+            Protocol protocol,
+            UUID sourceId,
+            String sourceTable,
+            Envelope spatialFilter,
+            StreamCursor cursor) {
+        this(id, protocol, sourceId, sourceTable, spatialFilter, cursor, null, null);
+    }
+
+    /**
+     * @param filter     attribute filter applied after the source and spatial match, or {@code null}
+     * @param projection fields to deliver, or {@code null} for the full row
+     */
     public StreamSubscription(
             String id,
             Protocol protocol,
             UUID sourceId,
             String sourceTable,
             Envelope spatialFilter,
-            Instant cursor) {
+            StreamCursor cursor,
+            FeatureFilter filter,
+            FieldProjection projection) {
         this.id = id;
         this.protocol = protocol;
         this.sourceId = sourceId;
         this.sourceTable = sourceTable;
         this.spatialFilter = spatialFilter;
-        this.cursor = cursor != null ? cursor : Instant.now();
+        this.filter = filter;
+        this.projection = projection;
+        this.requiresCatchUp = cursor != null;
+        this.cursor = cursor;
         this.createdAt = Instant.now();
     }
 
@@ -52,11 +97,58 @@ public class StreamSubscription {
             return false;
         }
 
-        return spatialFilter == null || eventEnvelope == null || spatialFilter.intersects(eventEnvelope);
+        if (eventEnvelope == null) {
+            return true;
+        }
+        if (cellSet != null && cellSet.bounds() != null && !cellSet.bounds().intersects(eventEnvelope)) {
+            return false;
+        }
+        if (area != null && !area.envelope().intersects(eventEnvelope)) {
+            return false;
+        }
+        return spatialFilter == null || spatialFilter.intersects(eventEnvelope);
     }
 
-    public void advanceCursor(Instant to) {
-        this.cursor = to;
+    /** Feature-level match used during fan-out, after the batch-level {@link #matches}. */
+    public boolean accepts(StreamFeature feature) {
+        if (catchUpWatermark != null && !feature.cursor().isAfter(catchUpWatermark)) {
+            return false;
+        }
+        return matches(feature.sourceId(), feature.sourceTable(), feature.envelope())
+                && (cellSet == null || cellSet.contains(feature))
+                && (area == null || area.test(feature))
+                && (filter == null || filter.test(feature));
+    }
+
+    /** The client-facing form of {@code feature} under this subscription's projection. */
+    public Map<String, Object> project(StreamFeature feature) {
+        return projection != null ? projection.apply(feature.row()) : feature.row();
+    }
+
+    /** Set before subscribing; the broker reads it when the subscription is registered. */
+    public void setDeliveryPolicy(DeliveryPolicy deliveryPolicy) {
+        this.deliveryPolicy = deliveryPolicy != null ? deliveryPolicy : DeliveryPolicy.UNLIMITED;
+    }
+
+    /** Restrict to features whose centroid cell is in {@code cellSet}; set before subscribing. */
+    public void setCellSet(CellSet cellSet) {
+        this.cellSet = cellSet;
+    }
+
+    /** Restrict to features intersecting a polygon or corridor; set before subscribing. */
+    public void setArea(GeometryFilter area) {
+        this.area = area;
+    }
+
+    /** Move the subscription to a new viewport; the cursor is left where it is. */
+    public void updateSpatialFilter(Envelope spatialFilter) {
+        this.spatialFilter = spatialFilter;
+    }
+
+    public void advanceCursor(StreamCursor to) {
+        if (this.cursor == null || to.isAfter(this.cursor)) {
+            this.cursor = to;
+        }
         this.lastDeliveredAt = Instant.now();
     }
 
@@ -68,12 +160,38 @@ public class StreamSubscription {
         this.active = false;
     }
 
+    /** Reposition to a snapshot watermark; unlike {@link #advanceCursor} this may move backwards. */
+    void startAt(StreamCursor watermark) {
+        this.cursor = watermark;
+    }
+
+    void beginCatchUp() {
+        this.catchingUp = true;
+    }
+
+    void endCatchUp() {
+        this.catchingUp = false;
+    }
+
+    void markCaughtUp() {
+        this.catchUpWatermark = cursor;
+    }
+
+    ReentrantLock deliveryLock()    { return deliveryLock; }
+    boolean requiresCatchUp()       { return requiresCatchUp; }
+    boolean isCatchingUp()          { return catchingUp; }
+
     public String id()              { return id; }
     public Protocol protocol()      { return protocol; }
     public UUID sourceId()          { return sourceId; }
     public String sourceTable()     { return sourceTable; }
     public Envelope spatialFilter() { return spatialFilter; }
-    public Instant cursor()         { return cursor; }
+    public FeatureFilter filter()   { return filter; }
+    public FieldProjection projection() { return projection; }
+    public DeliveryPolicy deliveryPolicy() { return deliveryPolicy; }
+    public CellSet cellSet()        { return cellSet; }
+    public GeometryFilter area()    { return area; }
+    public StreamCursor cursor()    { return cursor; }
     public Instant lastDeliveredAt(){ return lastDeliveredAt; }
     public long deliveredCount()    { return deliveredCount; }
     public Instant createdAt()      { return createdAt; }
@@ -0,0 +1,124 @@
+package live.omnisource.tessera.stream.adapter.rest;
+
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.ResumeToken;
+import live.omnisource.tessera.stream.StreamCursor;
+import live.omnisource.tessera.stream.durable.DurableSubscription;
+import live.omnisource.tessera.stream.durable.DurableSubscriptionService;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Management of durable subscriptions.
+ *
+ * <p>{@code PUT /{name}} creates a subscription (or returns the existing one
+ * unchanged); SSE and WebSocket clients then stream it with {@code name=...} and
+ * acknowledge progress here or, on WebSocket, with an {@code ack} action. An ack
+ * takes the {@code cursor} of a delivery or the SSE event id.</p>
+ */
+@RestController
+@RequestMapping("/api/stream/subscriptions")
+public class DurableSubscriptionController {
+
+    private final DurableSubscriptionService durableSubscriptions;
+    private final ObjectMapper objectMapper;
+
+    public DurableSubscriptionController(DurableSubscriptionService durableSubscriptions,
+                                         ObjectMapper objectMapper) {
+        this.durableSubscriptions = durableSubscriptions;
+        this.objectMapper = objectMapper;
+    }
+
+    public record CreateRequest(UUID sourceId, String sourceTable,
+                                Double minX, Double minY, Double maxX, Double maxY,
+                                String filter, String fields,
+                                List<String> cells, Integer cellResolution,
+                                Object area, Double bufferMeters,
+                                String since, Long ttlSeconds) {}
+
+    public record AckRequest(String cursor) {}
+
+    @GetMapping
+    public List<Map<String, Object>> list() {
+        return durableSubscriptions.list().stream().map(DurableSubscriptionController::toView).toList();
+    }
+
+    @GetMapping("/{name}")
+    public Map<String, Object> get(@PathVariable String name) {
+        return toView(durableSubscriptions.get(name));
+    }
+
+    @PutMapping("/{name}")
+    public Map<String, Object> create(@PathVariable String name, @RequestBody CreateRequest request) {
+        StreamCursor since;
+        try {
+            since = request.since() != null ? StreamCursor.parse(request.since()) : null;
+        } catch (IllegalArgumentException e) {
+            throw new StreamSubscriptionValidationException(e.getMessage());
+        }
+        Envelope bbox = null;
+        if (request.minX() != null && request.minY() != null && request.maxX() != null && request.maxY() != null) {
+            bbox = new Envelope(request.minX(), request.maxX(), request.minY(), request.maxY());
+        }
+        var requested = new DurableSubscription(name, request.sourceId(), request.sourceTable(), bbox,
+                request.filter(), request.fields(), request.cells(), request.cellResolution(),
+                geoJson(request.area()), request.bufferMeters(),
+                since,
+                request.ttlSeconds() != null ? Duration.ofSeconds(request.ttlSeconds()) : null,
+                null, null);
+        return toView(durableSubscriptions.open(requested));
+    }
+
+    @PostMapping("/{name}/ack")
+    public Map<String, Object> ack(@PathVariable String name, @RequestBody AckRequest request) {
+        StreamCursor cursor;
+        try {
+            cursor = ResumeToken.cursorOf(request.cursor());
+        } catch (IllegalArgumentException e) {
+            throw new StreamSubscriptionValidationException(e.getMessage());
+        }
+        StreamCursor acked = durableSubscriptions.ack(name, cursor);
+        return Map.of("name", name, "cursor", acked.encode());
+    }
+
+    @DeleteMapping("/{name}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void delete(@PathVariable String name) {
+        durableSubscriptions.delete(name);
+    }
+
+    /** The area may be sent as a GeoJSON object or as a string holding one. */
+    private String geoJson(Object area) {
+        if (area == null || area instanceof String) return (String) area;
+        return objectMapper.writeValueAsString(area);
+    }
+
+    private static Map<String, Object> toView(DurableSubscription sub) {
+        var view = new LinkedHashMap<String, Object>();
+        view.put("name", sub.name());
+        view.put("sourceId", sub.sourceId());
+        view.put("sourceTable", sub.sourceTable());
+        view.put("bbox", sub.bbox() == null ? null : Map.of(
+                "minX", sub.bbox().getMinX(), "minY", sub.bbox().getMinY(),
+                "maxX", sub.bbox().getMaxX(), "maxY", sub.bbox().getMaxY()));
+        view.put("filter", sub.filter());
+        view.put("fields", sub.fields());
+        view.put("cells", sub.cells());
+        view.put("cellResolution", sub.cellResolution());
+        view.put("area", sub.area());
+        view.put("bufferMeters", sub.areaBufferMeters());
+        view.put("cursor", sub.ackedCursor().encode());
+        view.put("ttlSeconds", sub.ttl().toSeconds());
+        view.put("createdAt", sub.createdAt());
+        view.put("lastSeenAt", sub.lastSeenAt());
+        return view;
+    }
+}
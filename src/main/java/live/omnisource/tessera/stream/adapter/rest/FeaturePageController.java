@@ -0,0 +1,164 @@
+package live.omnisource.tessera.stream.adapter.rest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.FeaturePageToken;
+import live.omnisource.tessera.stream.GeoJsonFeatureWriter;
+import live.omnisource.tessera.stream.StreamCursor;
+import live.omnisource.tessera.stream.StreamFeature;
+import live.omnisource.tessera.stream.StreamSubscription;
+import live.omnisource.tessera.stream.filter.FeatureFilter;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import live.omnisource.tessera.stream.filter.GeometryFilters;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Paged current-state feature queries by bbox, attribute filter and area.
+ *
+ * <p>Pages run newest first in {@code (updated_at, id)} order. The first page pins
+ * the result to the head of the feature table; {@code next} carries that position
+ * and the last row returned, and passing it back as {@code page} seeks straight to
+ * the following row. A deep page costs the same as the first, and rows ingested
+ * while paging neither shift nor repeat later pages. Their changes are left to a
+ * poll from {@code asOf}.</p>
+ *
+ * <p>{@code /export} sends the whole result at once as a GeoJSON FeatureCollection,
+ * encoded from WKB row by row as it is fetched rather than collected first.</p>
+ */
+@RestController
+@RequestMapping("/api/features")
+public class FeaturePageController {
+
+    private static final int MAX_LIMIT = 5000;
+    private static final MediaType GEOJSON = MediaType.parseMediaType("application/geo+json");
+    private static final int EXPORT_FLUSH_ROWS = 1000;
+
+    private final FeatureDeltaQuery deltaQuery;
+    private final GeometryFilters geometryFilters;
+    private final ObjectMapper objectMapper;
+    private final int coordinatePrecision;
+
+    public FeaturePageController(FeatureDeltaQuery deltaQuery, GeometryFilters geometryFilters,
+                                 ObjectMapper objectMapper, ApplicationProperties properties) {
+        this.deltaQuery = deltaQuery;
+        this.geometryFilters = geometryFilters;
+        this.objectMapper = objectMapper;
+        this.coordinatePrecision = properties.stream().geojsonCoordinatePrecision();
+    }
+
+    @GetMapping
+    public Map<String, Object> page(
+            @RequestParam(required = false) UUID sourceId,
+            @RequestParam(required = false) String sourceTable,
+            @RequestParam(required = false) Double minX,
+            @RequestParam(required = false) Double minY,
+            @RequestParam(required = false) Double maxX,
+            @RequestParam(required = false) Double maxY,
+            @RequestParam(required = false) String filter,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String area,
+            @RequestParam(required = false) Double bufferMeters,
+            @RequestParam(required = false) String page,
+            @RequestParam(defaultValue = "500") int limit) {
+
+        FeaturePageToken token = null;
+        if (page != null && !page.isBlank()) {
+            try {
+                token = FeaturePageToken.parse(page);
+            } catch (IllegalArgumentException e) {
+                throw new StreamSubscriptionValidationException(e.getMessage());
+            }
+        }
+        StreamCursor asOf = token != null ? token.asOf() : deltaQuery.fetchHead();
+        int effectiveLimit = Math.clamp(limit, 1, MAX_LIMIT);
+
+        var query = query(sourceId, sourceTable, minX, minY, maxX, maxY, filter, fields, area, bufferMeters);
+
+        // One extra to tell whether another page follows
+        List<StreamFeature> rows = deltaQuery.fetchCurrentPage(query, asOf,
+                token != null ? token.last() : null, effectiveLimit + 1);
+        boolean hasMore = rows.size() > effectiveLimit;
+        List<StreamFeature> features = hasMore ? rows.subList(0, effectiveLimit) : rows;
+
+        var view = new LinkedHashMap<String, Object>();
+        view.put("count", features.size());
+        view.put("asOf", asOf.encode());
+        view.put("next", hasMore ? new FeaturePageToken(asOf, features.getLast().cursor()).encode() : null);
+        view.put("features", features.stream().map(query::project).toList());
+        return view;
+    }
+
+    /**
+     * Every matching current feature as one GeoJSON FeatureCollection, written as it
+     * is read. {@code asOf} comes first and can be polled from for later changes.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(required = false) UUID sourceId,
+            @RequestParam(required = false) String sourceTable,
+            @RequestParam(required = false) Double minX,
+            @RequestParam(required = false) Double minY,
+            @RequestParam(required = false) Double maxX,
+            @RequestParam(required = false) Double maxY,
+            @RequestParam(required = false) String filter,
+            @RequestParam(required = false) String area,
+            @RequestParam(required = false) Double bufferMeters) {
+
+        // Built before answering, so bad parameters still get a 400 rather than a cut stream
+        var query = query(sourceId, sourceTable, minX, minY, maxX, maxY, filter, null, area, bufferMeters);
+        StreamCursor asOf = deltaQuery.fetchHead();
+
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                json.writeStartObject();
+                json.writeStringField("type", "FeatureCollection");
+                json.writeStringField("asOf", asOf.encode());
+                json.writeArrayFieldStart("features");
+                var writer = new GeoJsonFeatureWriter(json, coordinatePrecision);
+                var rows = new long[1];
+                deltaQuery.streamCurrent(query, asOf, rs -> {
+                    try {
+                        writer.write(rs);
+                        if (++rows[0] % EXPORT_FLUSH_ROWS == 0) {
+                            json.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok().contentType(GEOJSON).body(body);
+    }
+
+    private StreamSubscription query(UUID sourceId, String sourceTable,
+                                     Double minX, Double minY, Double maxX, Double maxY,
+                                     String filter, String fields, String area, Double bufferMeters) {
+        Envelope bbox = null;
+        if (minX != null && minY != null && maxX != null && maxY != null) {
+            bbox = new Envelope(minX, maxX, minY, maxY);
+        }
+        var query = new StreamSubscription(UUID.randomUUID().toString(),
+                StreamSubscription.Protocol.REST_POLL, sourceId, sourceTable, bbox, null,
+                FeatureFilter.compile(filter), FieldProjection.parse(fields));
+        query.setArea(geometryFilters.compile(area, bufferMeters));
+        return query;
+    }
+}
@@ -0,0 +1,94 @@
+package live.omnisource.tessera.stream.adapter.rest;
+
+import live.omnisource.tessera.exceptions.LayerNotIndexedException;
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.LayerMemoryIndex;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Spatial queries against layers held by {@link LayerMemoryIndex}.
+ *
+ * <p>Layers are named {@code workspace:datastore:layer} and must be listed in
+ * {@code memory-index-layers}; others answer 404. {@code cursor} is the position
+ * the answer is exact at, usable as {@code since} for {@code /api/stream/poll}.
+ * Radius and nearest results are ordered by distance to each feature's bounding
+ * box, which is exact for points.</p>
+ */
+@RestController
+@RequestMapping("/api/stream/indexed/{layer}")
+public class IndexedFeatureController {
+
+    private static final int MAX_LIMIT = 5000;
+    private static final double MAX_METERS = 20_000_000;
+
+    private final LayerMemoryIndex memoryIndex;
+
+    public IndexedFeatureController(LayerMemoryIndex memoryIndex) {
+        this.memoryIndex = memoryIndex;
+    }
+
+    @GetMapping("/bbox")
+    public Map<String, Object> bbox(@PathVariable String layer,
+                                    @RequestParam double minX, @RequestParam double minY,
+                                    @RequestParam double maxX, @RequestParam double maxY,
+                                    @RequestParam(required = false) String fields,
+                                    @RequestParam(defaultValue = "500") int limit) {
+        if (minX > maxX || minY > maxY) {
+            throw new StreamSubscriptionValidationException("bbox minimum exceeds maximum");
+        }
+        return toView(layer, memoryIndex.bbox(layer, new Envelope(minX, maxX, minY, maxY),
+                Math.clamp(limit, 1, MAX_LIMIT)), fields);
+    }
+
+    @GetMapping("/radius")
+    public Map<String, Object> radius(@PathVariable String layer,
+                                      @RequestParam double lat, @RequestParam double lon,
+                                      @RequestParam double meters,
+                                      @RequestParam(required = false) String fields,
+                                      @RequestParam(defaultValue = "500") int limit) {
+        validatePoint(lat, lon);
+        if (meters <= 0 || meters > MAX_METERS) {
+            throw new StreamSubscriptionValidationException("meters must be between 0 and " + (long) MAX_METERS);
+        }
+        return toView(layer, memoryIndex.radius(layer, lat, lon, meters, Math.clamp(limit, 1, MAX_LIMIT)), fields);
+    }
+
+    @GetMapping("/nearest")
+    public Map<String, Object> nearest(@PathVariable String layer,
+                                       @RequestParam double lat, @RequestParam double lon,
+                                       @RequestParam(defaultValue = "10") int k,
+                                       @RequestParam(required = false) Double maxMeters,
+                                       @RequestParam(required = false) String fields) {
+        validatePoint(lat, lon);
+        double max = maxMeters != null ? Math.clamp(maxMeters, 1, MAX_METERS) : MAX_METERS;
+        return toView(layer, memoryIndex.nearest(layer, lat, lon, Math.clamp(k, 1, MAX_LIMIT), max), fields);
+    }
+
+    private static void validatePoint(double lat, double lon) {
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            throw new StreamSubscriptionValidationException("lat/lon out of range");
+        }
+    }
+
+    private Map<String, Object> toView(String layer, Optional<LayerMemoryIndex.Result> result, String fields) {
+        if (result.isEmpty()) {
+            throw new LayerNotIndexedException(memoryIndex.holds(layer)
+                    ? "Layer " + layer + " is not synced or too large to hold in memory"
+                    : "Layer " + layer + " is not held in memory");
+        }
+        FieldProjection projection = FieldProjection.parse(fields);
+        var view = new LinkedHashMap<String, Object>();
+        view.put("count", result.get().features().size());
+        view.put("cursor", result.get().watermark().encode());
+        view.put("features", result.get().features().stream()
+                .map(feature -> projection != null ? projection.apply(feature.row()) : feature.row())
+                .toList());
+        return view;
+    }
+}
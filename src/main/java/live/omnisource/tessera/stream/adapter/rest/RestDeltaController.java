@@ -1,16 +1,52 @@
 package live.omnisource.tessera.stream.adapter.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.GeoJsonFeatureWriter;
+import live.omnisource.tessera.stream.StreamBroker;
+import live.omnisource.tessera.stream.StreamCursor;
+import live.omnisource.tessera.stream.StreamSubscription;
+import live.omnisource.tessera.stream.filter.FeatureFilter;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import live.omnisource.tessera.stream.filter.GeometryFilter;
+import live.omnisource.tessera.stream.filter.GeometryFilters;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import java.sql.Timestamp;
-import java.time.Instant;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.UUID;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * REST polling adapter for feature deltas.
+ *
+ * <p>{@code since} takes the opaque {@code cursor} returned by the previous poll,
+ * or an ISO-8601 instant for the first one. Pages are keyed on
+ * {@code (updated_at, id)}, so a page boundary inside an ingest batch neither
+ * skips nor repeats rows.</p>
+ *
+ * <p>A page is a GeoJSON FeatureCollection followed by {@code count},
+ * {@code cursor} and {@code hasMore}. Features are encoded from WKB by
+ * {@link GeoJsonFeatureWriter} as rows are read, without building row maps.</p>
+ *
+ * <p>With {@code wait=N} an empty poll is parked for up to {@code N} seconds
+ * instead of returning immediately. It is woken by the broker when a matching
+ * ingest batch arrives and answered with one more query, or answered empty on
+ * timeout, so idle clients cost no database work between changes.</p>
+ *
+ * <p>{@code filter}, {@code fields}, {@code area} and {@code bufferMeters} take the
+ * same attribute filter, projection and geofence as the SSE and WebSocket adapters.</p>
+ */
 @Slf4j
 @RestController
 @RequestMapping("/api/stream/poll")
@@ -18,15 +54,32 @@ public class RestDeltaController {
 
     private static final int DEFAULT_LIMIT = 500;
     private static final int MAX_LIMIT = 5000;
-
-    private final NamedParameterJdbcTemplate namedJdbc;
-
-    public RestDeltaController(NamedParameterJdbcTemplate namedJdbc) {
-        this.namedJdbc = namedJdbc;
+    private static final int MAX_WAIT_SECONDS = 60;
+    private static final MediaType GEOJSON = MediaType.parseMediaType("application/geo+json");
+
+    /** A rendered page and how many features it holds. */
+    private record Page(int count, byte[] body) {}
+
+    private final FeatureDeltaQuery deltaQuery;
+    private final StreamBroker broker;
+    private final Executor taskExecutor;
+    private final GeometryFilters geometryFilters;
+    private final ObjectMapper objectMapper;
+    private final int coordinatePrecision;
+
+    public RestDeltaController(FeatureDeltaQuery deltaQuery, StreamBroker broker, Executor taskExecutor,
+                               GeometryFilters geometryFilters, ObjectMapper objectMapper,
+                               ApplicationProperties properties) {
+        this.deltaQuery = deltaQuery;
+        this.broker = broker;
+        this.taskExecutor = taskExecutor;
+        this.geometryFilters = geometryFilters;
+        this.objectMapper = objectMapper;
+        this.coordinatePrecision = properties.stream().geojsonCoordinatePrecision();
     }
 
     @GetMapping
-    public Map<String, Object> poll(
+    public DeferredResult<ResponseEntity<byte[]>> poll(
             @RequestParam String since,
             @RequestParam(required = false) UUID sourceId,
             @RequestParam(required = false) String sourceTable,
@@ -34,66 +87,121 @@ public class RestDeltaController {
             @RequestParam(required = false) Double minY,
             @RequestParam(required = false) Double maxX,
             @RequestParam(required = false) Double maxY,
-            @RequestParam(defaultValue = "500") int limit) {
-
-        Instant cursor = Instant.parse(since);
+            @RequestParam(required = false) String filter,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String area,
+            @RequestParam(required = false) Double bufferMeters,
+            @RequestParam(defaultValue = "500") int limit,
+            @RequestParam(defaultValue = "0") int wait) {
+
+        StreamCursor cursor;
+        try {
+            cursor = StreamCursor.parse(since);
+        } catch (IllegalArgumentException e) {
+            throw new StreamSubscriptionValidationException(e.getMessage());
+        }
         int effectiveLimit = Math.clamp(limit, 1, MAX_LIMIT);
 
-        // Query one extra to detect hasMore
-        int queryLimit = effectiveLimit + 1;
-
-        var sql = new StringBuilder("""
-                SELECT f.id, f.external_id, f.source_id, f.source_table,
-                       ST_AsGeoJSON(f.geometry)::text AS geometry_json,
-                       f.geometry_type, f.attributes, f.updated_at
-                FROM tessera.geo_features f
-                WHERE f.updated_at > :cursor
-                """);
-
-        var params = new HashMap<String, Object>();
-        params.put("cursor", Timestamp.from(cursor));
-
-        if (sourceId != null) {
-            sql.append(" AND f.source_id = :sourceId::uuid");
-            params.put("sourceId", sourceId.toString());
-        }
-        if (sourceTable != null) {
-            sql.append(" AND f.source_table = :sourceTable");
-            params.put("sourceTable", sourceTable);
-        }
+        Envelope bbox = null;
         if (minX != null && minY != null && maxX != null && maxY != null) {
-            sql.append(" AND ST_Intersects(f.geometry, ST_MakeEnvelope(:minX, :minY, :maxX, :maxY, 4326))");
-            params.put("minX", minX);
-            params.put("minY", minY);
-            params.put("maxX", maxX);
-            params.put("maxY", maxY);
+            bbox = new Envelope(minX, maxX, minY, maxY);
         }
 
-        sql.append(" ORDER BY f.updated_at ASC LIMIT :limit");
-        params.put("limit", queryLimit);
+        FeatureFilter attributeFilter = FeatureFilter.compile(filter);
+        GeometryFilter areaFilter = geometryFilters.compile(area, bufferMeters);
+        var query = new StreamSubscription(UUID.randomUUID().toString(),
+                StreamSubscription.Protocol.REST_POLL, sourceId, sourceTable, bbox, cursor,
+                attributeFilter, FieldProjection.parse(fields));
+        query.setArea(areaFilter);
+
+        if (wait <= 0) {
+            var result = new DeferredResult<ResponseEntity<byte[]>>();
+            result.setResult(respond(fetchPage(query, cursor, effectiveLimit)));
+            return result;
+        }
 
-        List<Map<String, Object>> rows = namedJdbc.queryForList(sql.toString(), params);
+        long waitMs = Math.clamp(wait, 1, MAX_WAIT_SECONDS) * 1000L;
+        var result = new DeferredResult<ResponseEntity<byte[]>>(waitMs);
+        var waiter = new StreamSubscription(UUID.randomUUID().toString(),
+                StreamSubscription.Protocol.REST_POLL, sourceId, sourceTable, bbox, null,
+                attributeFilter, null);
+        waiter.setArea(areaFilter);
+        var woken = new AtomicBoolean();
+
+        result.onTimeout(() -> result.setResult(respond(emptyPage(cursor))));
+        result.onCompletion(() -> broker.unsubscribe(waiter.id()));
+
+        // Register before the first query so a batch committed in between still wakes us
+        broker.subscribe(waiter, delivery -> {
+            if (woken.compareAndSet(false, true)) {
+                taskExecutor.execute(() -> result.setResult(respond(fetchPage(query, cursor, effectiveLimit))));
+            }
+        });
 
-        boolean hasMore = rows.size() > effectiveLimit;
-        List<Map<String, Object>> features = hasMore
-                ? rows.subList(0, effectiveLimit) : rows;
+        Page page = fetchPage(query, cursor, effectiveLimit);
+        if (page.count() > 0 && woken.compareAndSet(false, true)) {
+            broker.unsubscribe(waiter.id());
+            result.setResult(respond(page));
+        }
+        return result;
+    }
 
-        // Compute next cursor from the last feature's updated_at
-        Instant nextCursor = cursor;
-        if (!features.isEmpty()) {
-            Object lastUpdated = features.getLast().get("updated_at");
-            if (lastUpdated instanceof Timestamp ts) {
-                nextCursor = ts.toInstant();
-            } else if (lastUpdated instanceof Instant inst) {
-                nextCursor = inst;
-            }
+    private Page fetchPage(StreamSubscription query, StreamCursor cursor, int limit) {
+        var buffer = new ByteArrayOutputStream();
+        var count = new int[1];
+        var hasMore = new boolean[1];
+        // Next cursor is the last feature's (updated_at, id)
+        var next = new StreamCursor[]{cursor};
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(buffer)) {
+            json.writeStartObject();
+            json.writeStringField("type", "FeatureCollection");
+            json.writeArrayFieldStart("features");
+            var writer = new GeoJsonFeatureWriter(json, coordinatePrecision);
+            // Query one extra to detect hasMore
+            deltaQuery.streamSince(query, cursor, limit + 1, rs -> {
+                if (count[0] == limit) {
+                    hasMore[0] = true;
+                    return;
+                }
+                try {
+                    writer.write(rs);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                next[0] = new StreamCursor(rs.getTimestamp("updated_at").toInstant(), rs.getLong("id"));
+                count[0]++;
+            });
+            json.writeEndArray();
+            writeTrailer(json, count[0], next[0], hasMore[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Page(count[0], buffer.toByteArray());
+    }
+
+    private Page emptyPage(StreamCursor cursor) {
+        var buffer = new ByteArrayOutputStream();
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(buffer)) {
+            json.writeStartObject();
+            json.writeStringField("type", "FeatureCollection");
+            json.writeArrayFieldStart("features");
+            json.writeEndArray();
+            writeTrailer(json, 0, cursor, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return new Page(0, buffer.toByteArray());
+    }
+
+    private static void writeTrailer(JsonGenerator json, int count, StreamCursor cursor, boolean hasMore)
+            throws IOException {
+        json.writeNumberField("count", count);
+        json.writeStringField("cursor", cursor.encode());
+        json.writeBooleanField("hasMore", hasMore);
+        json.writeEndObject();
+    }
 
-        return Map.of(
-                "count", features.size(),
-                "cursor", nextCursor.toString(),
-                "hasMore", hasMore,
-                "features", features
-        );
+    private static ResponseEntity<byte[]> respond(Page page) {
+        return ResponseEntity.ok().contentType(GEOJSON).body(page.body());
     }
-}
\ No newline at end of file
+}
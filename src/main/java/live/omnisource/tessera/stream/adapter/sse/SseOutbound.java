@@ -0,0 +1,110 @@
+package live.omnisource.tessera.stream.adapter.sse;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Outbound events of one SSE stream.
+ *
+ * <p>Deliveries only queue here; a single drain task writes to the emitter, so a
+ * slow client blocks that task rather than the broker lane that produced the
+ * event. A queue holding more than its byte limit means the client is not keeping
+ * up, and the stream is completed; {@code EventSource} reconnects with the last
+ * event id it received and resumes from there. Snapshot pages wait for the queue
+ * to drain instead (see {@link #awaitBelow}).</p>
+ */
+@Slf4j
+final class SseOutbound {
+
+    private final String subscriptionId;
+    private final SseEmitter emitter;
+    private final Executor executor;
+    private final long limitBytes;
+    private final Runnable onFailure;
+
+    private final ArrayDeque<Pending> events = new ArrayDeque<>();
+    private long bytes;
+    private boolean draining;
+    private boolean closed;
+
+    /** @param onFailure run once when a write fails */
+    SseOutbound(String subscriptionId, SseEmitter emitter, Executor executor, long limitBytes,
+                Runnable onFailure) {
+        this.subscriptionId = subscriptionId;
+        this.emitter = emitter;
+        this.executor = executor;
+        this.limitBytes = limitBytes;
+        this.onFailure = onFailure;
+    }
+
+    /** @param size payload length, counted against the limit */
+    void send(SseEmitter.SseEventBuilder event, int size) {
+        boolean overflow = false;
+        synchronized (this) {
+            if (closed) return;
+            if (bytes + size > limitBytes) {
+                overflow = true;
+                closed = true;
+                events.clear();
+                bytes = 0;
+                notifyAll();
+            } else {
+                events.addLast(new Pending(event, size));
+                bytes += size;
+                if (!draining) {
+                    draining = true;
+                    executor.execute(this::drain);
+                }
+            }
+        }
+        if (overflow) {
+            log.info("SSE outbound queue over {} bytes for {}, closing", limitBytes, subscriptionId);
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Blocks until at most {@code lowWaterBytes} are queued, or the stream is closed.
+     * Called between snapshot pages, so the next page is only fetched once the client
+     * has taken most of the previous ones.
+     */
+    synchronized void awaitBelow(long lowWaterBytes) throws InterruptedException {
+        while (!closed && bytes > lowWaterBytes) {
+            wait();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                next = events.pollFirst();
+                if (next == null || closed) {
+                    draining = false;
+                    return;
+                }
+                bytes -= next.size();
+                notifyAll();
+            }
+            try {
+                emitter.send(next.event());
+            } catch (Exception e) {
+                log.debug("SSE delivery failed for {} — client likely disconnected", subscriptionId);
+                synchronized (this) {
+                    closed = true;
+                    draining = false;
+                    events.clear();
+                    bytes = 0;
+                    notifyAll();
+                }
+                onFailure.run();
+                return;
+            }
+        }
+    }
+
+    private record Pending(SseEmitter.SseEventBuilder event, int size) {}
+}
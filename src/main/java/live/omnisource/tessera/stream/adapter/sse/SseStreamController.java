@@ -1,11 +1,28 @@
 package live.omnisource.tessera.stream.adapter.sse;
 
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.DeliveryPolicy;
+import com.uber.h3core.H3Core;
+import live.omnisource.tessera.stream.ResumeToken;
 import live.omnisource.tessera.stream.StreamBroker;
+import live.omnisource.tessera.stream.StreamCursor;
+import live.omnisource.tessera.stream.StreamDelivery;
+import live.omnisource.tessera.stream.StreamSnapshotPage;
 import live.omnisource.tessera.stream.StreamSubscription;
+import live.omnisource.tessera.stream.durable.DurableSubscription;
+import live.omnisource.tessera.stream.durable.DurableSubscriptionService;
+import live.omnisource.tessera.stream.filter.FeatureFilter;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import live.omnisource.tessera.stream.filter.GeometryFilters;
+import live.omnisource.tessera.stream.h3.CellSet;
+import live.omnisource.tessera.stream.h3.DensityAggregator;
+import live.omnisource.tessera.stream.h3.DensitySpec;
+import live.omnisource.tessera.stream.h3.DensityUpdate;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.Envelope;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -18,21 +35,75 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
+/**
+ * Server-Sent Events adapter for feature streaming.
+ *
+ * <p>Every {@code features} event carries a {@link ResumeToken} as its id. Browsers
+ * send it back as {@code Last-Event-ID} when {@code EventSource} reconnects, and the
+ * stream resumes right after the last delivery, from the broker's replay ring when
+ * possible. Clients that manage reconnects themselves can pass the same value as
+ * the {@code lastEventId} query parameter.</p>
+ *
+ * <p>With {@code snapshot=true} the stream opens with the current state: {@code snapshot}
+ * events in pages, the last one flagged {@code done} and carrying the watermark as its
+ * id, then {@code features} deltas from exactly that watermark. A reconnect before the
+ * last page starts the snapshot over; one after it resumes from the watermark.</p>
+ *
+ * <p>{@code name} streams a durable subscription: created from the other parameters
+ * if new, otherwise resumed with its stored definition from its last acknowledged
+ * cursor (acks go to {@code /api/stream/subscriptions/{name}/ack}).</p>
+ *
+ * <p>{@code filter} narrows the stream by attribute ({@code status = 'ACTIVE' AND speed > 20})
+ * and {@code fields} limits what each feature carries ({@code status,speed,geometry}).
+ * {@code maxRate}, {@code minIntervalMs} and {@code conflate} set a {@link DeliveryPolicy}.</p>
+ *
+ * <p>{@code cells} (H3 addresses) with {@code cellResolution} subscribes to an exact
+ * cell set instead of, or in addition to, a bbox. {@code area} (a GeoJSON geometry)
+ * restricts it to a polygon, or with {@code bufferMeters} to a corridor around a
+ * line or point.</p>
+ *
+ * <p>{@code /density} streams per-cell counts instead of features, for views too
+ * far out to render individual features.</p>
+ *
+ * <p>Events are queued per stream and written by its own task (see {@link SseOutbound}),
+ * so a slow client never holds up the broker; one that falls more than
+ * {@value #SEND_BUFFER_LIMIT} bytes behind is disconnected and resumes on reconnect.</p>
+ */
 @Slf4j
 @RestController
 @RequestMapping("/api/stream/sse")
 public class SseStreamController {
     private static final long SSE_TIMEOUT_MS = 30 * 60 * 1000L;
+    private static final int SEND_BUFFER_LIMIT = 1024 * 1024;
+    private static final int SNAPSHOT_LOW_WATER = SEND_BUFFER_LIMIT / 4;
 
     private final StreamBroker streamBroker;
     private final ObjectMapper objectMapper;
+    private final H3Core h3Core;
+    private final GeometryFilters geometryFilters;
+    private final DensityAggregator densityAggregator;
+    private final DurableSubscriptionService durableSubscriptions;
+    private final Executor taskExecutor;
 
     private final ConcurrentHashMap<String, SseEmitter> emitters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> durableNames = new ConcurrentHashMap<>();
 
-    public SseStreamController(StreamBroker streamBroker, ObjectMapper objectMapper) {
+    public SseStreamController(StreamBroker streamBroker,
+                               ObjectMapper objectMapper,
+                               H3Core h3Core,
+                               GeometryFilters geometryFilters,
+                               DensityAggregator densityAggregator,
+                               DurableSubscriptionService durableSubscriptions,
+                               Executor taskExecutor) {
         this.streamBroker = streamBroker;
         this.objectMapper = objectMapper;
+        this.h3Core = h3Core;
+        this.geometryFilters = geometryFilters;
+        this.densityAggregator = densityAggregator;
+        this.durableSubscriptions = durableSubscriptions;
+        this.taskExecutor = taskExecutor;
     }
 
     @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
@@ -43,7 +114,20 @@ public class SseStreamController {
             @RequestParam(required = false) Double minY,
             @RequestParam(required = false) Double maxX,
             @RequestParam(required = false) Double maxY,
-            @RequestParam(required = false) String since
+            @RequestParam(required = false) String since,
+            @RequestParam(defaultValue = "false") boolean snapshot,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String lastEventId,
+            @RequestParam(required = false) String filter,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) Integer maxRate,
+            @RequestParam(required = false) Long minIntervalMs,
+            @RequestParam(required = false) Boolean conflate,
+            @RequestParam(required = false) List<String> cells,
+            @RequestParam(required = false) Integer cellResolution,
+            @RequestParam(required = false) String area,
+            @RequestParam(required = false) Double bufferMeters,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader
     ) {
         String subscriptionId = UUID.randomUUID().toString();
         var emitter = new SseEmitter(SSE_TIMEOUT_MS);
@@ -53,23 +137,56 @@ public class SseStreamController {
             bbox = new Envelope(minX, maxX, minY, maxY);
         }
 
-        Instant cursor = since != null ? Instant.parse(since) : Instant.now();
+        String resumeFrom = lastEventIdHeader != null ? lastEventIdHeader : lastEventId;
+        ResumeToken token;
+        StreamCursor cursor;
+        boolean withSnapshot;
+        try {
+            token = resumeFrom != null ? ResumeToken.parse(resumeFrom) : null;
+            withSnapshot = snapshot && token == null && name == null;
+            cursor = token != null ? token.cursor()
+                    : since != null && !withSnapshot ? StreamCursor.parse(since) : null;
+        } catch (IllegalArgumentException e) {
+            throw new StreamSubscriptionValidationException(e.getMessage());
+        }
+        // Without a position, start at the table's head and catch up from there, so
+        // batches committing behind the live edge meanwhile are not skipped
+        StreamCursor start = cursor != null || name != null ? cursor : streamBroker.head();
 
-        var subscription = new StreamSubscription(
-                subscriptionId,
-                StreamSubscription.Protocol.SSE,
-                sourceId,
-                sourceTable,
-                bbox,
-                cursor);
+        StreamSubscription subscription;
+        if (name != null) {
+            // Stored definition and acked cursor win; the parameters only apply on creation
+            var durable = durableSubscriptions.open(new DurableSubscription(name, sourceId, sourceTable, bbox,
+                    filter, fields, cells, cellResolution, area, bufferMeters, cursor, null, null, null));
+            subscription = durable.toSubscription(subscriptionId, StreamSubscription.Protocol.SSE,
+                    h3Core, geometryFilters);
+            durableSubscriptions.attach(name);
+            durableNames.put(subscriptionId, name);
+        } else {
+            subscription = new StreamSubscription(
+                    subscriptionId,
+                    StreamSubscription.Protocol.SSE,
+                    sourceId,
+                    sourceTable,
+                    bbox,
+                    withSnapshot ? null : start,
+                    FeatureFilter.compile(filter),
+                    FieldProjection.parse(fields));
+            if (cells != null && !cells.isEmpty()) {
+                subscription.setCellSet(CellSet.of(h3Core, cells, cellResolution));
+            }
+            subscription.setArea(geometryFilters.compile(area, bufferMeters));
+        }
+        subscription.setDeliveryPolicy(DeliveryPolicy.of(maxRate, minIntervalMs, conflate));
 
-        streamBroker.subscribe(subscription, features -> deliverSse(subscriptionId, emitter, features));
         emitters.put(subscriptionId, emitter);
-
+        var out = new SseOutbound(subscriptionId, emitter, taskExecutor, SEND_BUFFER_LIMIT,
+                () -> cleanup(subscriptionId));
         emitter.onCompletion(() -> cleanup(subscriptionId));
         emitter.onTimeout(() -> cleanup(subscriptionId));
         emitter.onError(e -> cleanup(subscriptionId));
 
+        // Send the connect event first so catch-up deliveries never precede it
         try {
             emitter.send(SseEmitter.event()
                     .name("connected")
@@ -78,40 +195,117 @@ public class SseStreamController {
                             "protocol", "SSE",
                             "sourceId", sourceId != null ? sourceId.toString() : "all",
                             "spatialFilter", bbox != null ? bbox.toString() : "global",
-                            "cursor", cursor.toString()
+                            "filter", filter != null ? filter : "none",
+                            "cursor", (withSnapshot ? start : subscription.cursor()).encode(),
+                            "resumed", token != null,
+                            "name", name != null ? name : "none",
+                            "snapshot", withSnapshot
                     ))));
         } catch (IOException e) {
             log.warn("Failed to send SSE connect event: {}", e.getMessage());
             cleanup(subscriptionId);
+            return emitter;
         }
 
-        log.info("SSE stream opened: id={} sourceId={} bbox={}",
-                subscriptionId, sourceId, bbox != null ? bbox : "global");
+        if (withSnapshot) {
+            streamBroker.subscribeWithSnapshot(subscription,
+                    delivery -> deliverSse(out, delivery),
+                    page -> deliverSnapshot(out, page));
+        } else if (token != null) {
+            streamBroker.resume(subscription,
+                    delivery -> deliverSse(out, delivery), token);
+        } else {
+            streamBroker.subscribe(subscription,
+                    delivery -> deliverSse(out, delivery));
+        }
+
+        log.info("SSE stream opened: id={} sourceId={} bbox={} resumeFrom={}",
+                subscriptionId, sourceId, bbox != null ? bbox : "global",
+                token != null ? token.encode() : "none");
         return emitter;
     }
 
-    private void deliverSse(String subId, SseEmitter emitter, List<Map<String, Object>> features) {
-        try {
-            String json = objectMapper.writeValueAsString(Map.of(
-                    "type", "features",
-                    "count", features.size(),
-                    "timestamp", Instant.now().toString(),
-                    "features", features
-            ));
+    @GetMapping(path = "/density", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter density(
+            @RequestParam(defaultValue = "5") int resolution,
+            @RequestParam(required = false) UUID sourceId,
+            @RequestParam(required = false) String sourceTable,
+            @RequestParam(required = false) List<String> sum,
+            @RequestParam(required = false) Double minX,
+            @RequestParam(required = false) Double minY,
+            @RequestParam(required = false) Double maxX,
+            @RequestParam(required = false) Double maxY
+    ) {
+        var spec = new DensitySpec(resolution, sourceId, sourceTable, sum);
+        var emitter = new SseEmitter(SSE_TIMEOUT_MS);
 
-            emitter.send(SseEmitter.event()
-                    .name("features")
-                    .id(UUID.randomUUID().toString())
-                    .data(json, MediaType.APPLICATION_JSON));
+        Envelope bbox = null;
+        if (minX != null && minY != null && maxX != null && maxY != null) {
+            bbox = new Envelope(minX, maxX, minY, maxY);
+        }
 
-        } catch (IOException e) {
-            log.debug("SSE delivery failed for {} — client likely disconnected", subId);
-            cleanup(subId);
+        var out = new SseOutbound("density", emitter, taskExecutor, SEND_BUFFER_LIMIT, emitter::complete);
+        String handle = densityAggregator.subscribe(spec, bbox, update -> deliverDensity(out, update));
+        emitter.onCompletion(() -> densityAggregator.unsubscribe(handle));
+        emitter.onTimeout(() -> densityAggregator.unsubscribe(handle));
+        emitter.onError(e -> densityAggregator.unsubscribe(handle));
+        return emitter;
+    }
+
+    private void deliverDensity(SseOutbound out, DensityUpdate update) {
+        String json = objectMapper.writeValueAsString(update);
+        out.send(SseEmitter.event()
+                .name("density")
+                .data(json, MediaType.APPLICATION_JSON), json.length());
+    }
+
+    private void deliverSse(SseOutbound out, StreamDelivery delivery) {
+        String json = objectMapper.writeValueAsString(Map.of(
+                "type", "features",
+                "count", delivery.features().size(),
+                "timestamp", Instant.now().toString(),
+                "features", delivery.features()
+        ));
+
+        out.send(SseEmitter.event()
+                .name("features")
+                .id(delivery.resumeToken().encode())
+                .data(json, MediaType.APPLICATION_JSON), json.length());
+    }
+
+    private void deliverSnapshot(SseOutbound out, StreamSnapshotPage page) {
+        String json = objectMapper.writeValueAsString(Map.of(
+                "type", "snapshot",
+                "page", page.page(),
+                "count", page.features().size(),
+                "done", page.done(),
+                "watermark", page.watermark().encode(),
+                "features", page.features()
+        ));
+
+        var event = SseEmitter.event().name("snapshot");
+        if (page.done()) {
+            // Only a complete snapshot is a position worth resuming from
+            event.id(ResumeToken.ofCursor(page.watermark()).encode());
+        }
+        out.send(event.data(json, MediaType.APPLICATION_JSON), json.length());
+
+        if (!page.done()) {
+            // The broker fetches the next page when this returns
+            try {
+                out.awaitBelow(SNAPSHOT_LOW_WATER);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
     private void cleanup(String subId) {
         emitters.remove(subId);
+        String name = durableNames.remove(subId);
+        if (name != null) {
+            durableSubscriptions.detach(name);
+        }
         streamBroker.unsubscribe(subId);
     }
 }
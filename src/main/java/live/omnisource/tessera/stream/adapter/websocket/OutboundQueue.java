@@ -0,0 +1,144 @@
+package live.omnisource.tessera.stream.adapter.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Outbound frames of one WebSocket session, with one lane per channel.
+ *
+ * <p>Frames are sent by a single drain task, so the session never sees concurrent
+ * writes. Control frames (pong, session-level errors) go first; channel lanes are
+ * then served round-robin, one frame per turn, so a channel paging a large
+ * snapshot cannot hold back live features of the others. Order within a lane is
+ * kept. A lane holding more than its byte limit means the client is not keeping
+ * up, and the session is closed, as a buffering decorator would. Producers paging
+ * a snapshot wait for their lane to drain between pages instead (see
+ * {@link #awaitBelow}), so a large snapshot is throttled to the client's pace.</p>
+ */
+@Slf4j
+final class OutboundQueue {
+
+    private final WebSocketSession session;
+    private final Executor executor;
+    private final long laneLimitBytes;
+
+    private final Lane control = new Lane();
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final ArrayDeque<Lane> ready = new ArrayDeque<>();
+    private boolean draining;
+    private boolean closed;
+
+    OutboundQueue(WebSocketSession session, Executor executor, long laneLimitBytes) {
+        this.session = session;
+        this.executor = executor;
+        this.laneLimitBytes = laneLimitBytes;
+    }
+
+    /** @param channel lane to queue on, or {@code null} for a control frame */
+    void send(String channel, TextMessage frame) {
+        boolean overflow = false;
+        synchronized (this) {
+            if (closed) return;
+            Lane lane = channel == null ? control : lanes.computeIfAbsent(channel, k -> new Lane());
+            if (lane.bytes + frame.getPayloadLength() > laneLimitBytes) {
+                overflow = true;
+                closed = true;
+                notifyAll();
+            } else {
+                lane.frames.addLast(frame);
+                lane.bytes += frame.getPayloadLength();
+                if (lane != control && !lane.scheduled) {
+                    lane.scheduled = true;
+                    ready.addLast(lane);
+                }
+                if (!draining) {
+                    draining = true;
+                    executor.execute(this::drain);
+                }
+            }
+        }
+        if (overflow) {
+            log.info("WS outbound lane {} over {} bytes for {}, closing", channel, laneLimitBytes, session.getId());
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+    }
+
+    /** Drops what is still queued for {@code channel}, e.g. after it is unsubscribed. */
+    synchronized void discard(String channel) {
+        Lane lane = lanes.remove(channel);
+        if (lane != null) {
+            lane.frames.clear();
+            lane.bytes = 0;
+            ready.remove(lane);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until {@code channel}'s lane holds at most {@code lowWaterBytes}, or the
+     * session is closed. Called between snapshot pages, so the next page is only
+     * fetched once the client has taken most of the previous ones.
+     */
+    synchronized void awaitBelow(String channel, long lowWaterBytes) throws InterruptedException {
+        while (!closed) {
+            Lane lane = lanes.get(channel);
+            if (lane == null || lane.bytes <= lowWaterBytes) return;
+            wait();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            TextMessage frame;
+            synchronized (this) {
+                Lane lane = !control.frames.isEmpty() ? control : ready.pollFirst();
+                if (lane == null || closed) {
+                    draining = false;
+                    return;
+                }
+                frame = lane.frames.pollFirst();
+                lane.bytes -= frame.getPayloadLength();
+                notifyAll();
+                if (lane != control) {
+                    if (lane.frames.isEmpty()) {
+                        lane.scheduled = false;
+                    } else {
+                        ready.addLast(lane);
+                    }
+                }
+            }
+            try {
+                session.sendMessage(frame);
+            } catch (Exception e) {
+                log.debug("Failed to send WS message to {}: {}", session.getId(), e.getMessage());
+                synchronized (this) {
+                    closed = true;
+                    draining = false;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void close(CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (Exception e) {
+            log.debug("Failed to close WS session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    private static final class Lane {
+        final ArrayDeque<TextMessage> frames = new ArrayDeque<>();
+        long bytes;
+        boolean scheduled;
+    }
+}
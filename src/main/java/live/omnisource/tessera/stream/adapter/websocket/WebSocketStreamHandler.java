@@ -2,9 +2,28 @@ package live.omnisource.tessera.stream.adapter.websocket;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.uber.h3core.H3Core;
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.DeliveryPolicy;
+import live.omnisource.tessera.stream.Envelopes;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.ResumeToken;
+import live.omnisource.tessera.stream.SnapshotTileCache;
 import live.omnisource.tessera.stream.StreamBroker;
+import live.omnisource.tessera.stream.StreamCursor;
+import live.omnisource.tessera.stream.StreamDelivery;
+import live.omnisource.tessera.stream.StreamFeature;
+import live.omnisource.tessera.stream.StreamSnapshotPage;
 import live.omnisource.tessera.stream.StreamSubscription;
 import live.omnisource.tessera.stream.StreamSubscription.Protocol;
+import live.omnisource.tessera.stream.durable.DurableSubscription;
+import live.omnisource.tessera.stream.durable.DurableSubscriptionService;
+import live.omnisource.tessera.stream.filter.FeatureFilter;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import live.omnisource.tessera.stream.filter.GeometryFilters;
+import live.omnisource.tessera.stream.h3.CellSet;
+import live.omnisource.tessera.stream.h3.DensityAggregator;
+import live.omnisource.tessera.stream.h3.DensitySpec;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.Envelope;
 import org.springframework.stereotype.Component;
@@ -14,37 +33,73 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * WebSocket handler for bidirectional feature streaming.
  *
  * <p>Clients connect to {@code /ws/stream} and send JSON commands to
- * control their subscription. The server pushes matching features
+ * control their subscriptions. The server pushes matching features
  * as they're ingested.</p>
  *
+ * <p>One connection carries up to 32 independent channels.
+ * Every command takes an optional {@code "channel"} name (default
+ * {@code "default"}), and each channel holds one subscription or density
+ * stream; subscribing on a channel replaces what it held. Every frame sent for a
+ * channel carries its name. Outbound frames are queued per channel and sent
+ * round-robin, so a channel paging a large snapshot does not stall the
+ * others.</p>
+ *
  * <h3>Client → Server messages:</h3>
  * <pre>{@code
  * // Subscribe (or update viewport)
  * {
  *   "action": "subscribe",
+ *   "channel": "vehicles",             // optional; every command accepts it
  *   "sourceId": "uuid-or-null",
  *   "sourceTable": "public.poi",
  *   "bbox": { "minX": -74.1, "minY": 40.6, "maxX": -73.8, "maxY": 40.9 },
- *   "since": "2026-02-28T10:00:00Z"
+ *   "since": "2026-02-28T10:00:00Z",  // or a cursor token from an earlier ack
+ *   "snapshot": true,                  // current state first, then live (replaces "since")
+ *   "name": "fleet-dashboard",         // durable: resumes from its last ack if it exists
+ *   "filter": "status = 'ACTIVE' AND speed > 20",
+ *   "fields": "status,speed,geometry",
+ *   "maxRate": 2,                      // optional delivery policy
+ *   "minIntervalMs": 500,
+ *   "conflate": true,
+ *   "cells": ["872a1008fffffff", ...], // optional H3 cell set, matched by feature centroid
+ *   "cellResolution": 7,
+ *   "area": { "type": "Polygon", ... },  // optional GeoJSON geofence; lines need bufferMeters
+ *   "bufferMeters": 250
  * }
  *
- * // Update viewport (re-creates subscription with new bbox)
+ * // Move the viewport; the subscription and its cursor are kept
  * {
  *   "action": "viewport",
  *   "bbox": { "minX": -74.2, "minY": 40.5, "maxX": -73.7, "maxY": 41.0 }
  * }
  *
- * // Unsubscribe
- * { "action": "unsubscribe" }
+ * // Per-cell counts instead of features (zoomed-out views)
+ * {
+ *   "action": "density",
+ *   "resolution": 5,
+ *   "sourceId": "uuid-or-null",
+ *   "sum": ["speed"],                  // optional numeric attributes to total per cell
+ *   "bbox": { ... }
+ * }
+ *
+ * // Acknowledge a durable subscription up to a "features" frame's cursor
+ * { "action": "ack", "cursor": "..." }
+ *
+ * // Unsubscribe one channel, or every channel when "channel" is absent
+ * { "action": "unsubscribe", "channel": "vehicles" }
  *
  * // Ping (keepalive)
  * { "action": "ping" }
@@ -53,64 +108,121 @@ import java.util.concurrent.ConcurrentHashMap;
  * <h3>Server → Client messages:</h3>
  * <pre>{@code
  * // Features
- * { "type": "features", "count": 5, "features": [...] }
+ * { "type": "features", "channel": "vehicles", "subscriptionId": "...", "count": 5, "cursor": "...", "features": [...] }
  *
  * // Ack
- * { "type": "ack", "action": "subscribe", "subscriptionId": "..." }
+ * { "type": "ack", "action": "subscribe", "channel": "vehicles", "subscriptionId": "..." }
+ *
+ * // After a viewport change: drop features outside "retain";
+ * // "regions" are the rectangles that left the viewport
+ * { "type": "evict", "retain": {...}, "regions": [{...}] }
+ *
+ * // After a viewport change: current features in the newly exposed area, in pages
+ * { "type": "snapshot", "page": 0, "count": 500, "done": false, "features": [...] }
+ *
+ * // After subscribe with "snapshot": the same frames, stamped with the watermark
+ * // live "features" frames continue from
+ * { "type": "snapshot", "page": 0, "count": 500, "done": false, "watermark": "...", "features": [...] }
+ *
+ * // Density: full grid first, then only changed cells (count 0 = emptied)
+ * { "type": "density", "resolution": 5, "full": false, "cells": [{ "cell": "85...", "count": 12, ... }] }
  *
  * // Pong
  * { "type": "pong" }
  * }</pre>
+ *
+ * <p>Frames other than pong carry the {@code "channel"} they belong to, errors
+ * included when the command named one.</p>
+ *
+ * <p>A viewport change only fetches what the client does not hold yet: the new
+ * bbox minus the last fully loaded one. Live delivery switches to the new bbox
+ * immediately, so a feature can arrive both live and in a snapshot page; clients
+ * keep the copy with the later {@code updated_at}. A snapshot still paging when
+ * the viewport moves again is abandoned.</p>
  */
 @Slf4j
 @Component
 public class WebSocketStreamHandler extends TextWebSocketHandler {
 
+    private static final int MAX_CHANNELS = 32;
+    private static final String DEFAULT_CHANNEL = "default";
+    private static final int SNAPSHOT_PAGE_SIZE = 500;
+    private static final int SEND_BUFFER_LIMIT = 1024 * 1024;
+    private static final int SNAPSHOT_LOW_WATER = SEND_BUFFER_LIMIT / 4;
+
     private final StreamBroker broker;
+    private final FeatureDeltaQuery deltaQuery;
+    private final SnapshotTileCache snapshotCache;
     private final ObjectMapper objectMapper;
+    private final Executor taskExecutor;
+    private final H3Core h3Core;
+    private final GeometryFilters geometryFilters;
+    private final DensityAggregator densityAggregator;
+    private final DurableSubscriptionService durableSubscriptions;
 
-    /** Maps WebSocket session ID → current subscription ID */
+    /** Maps WebSocket session ID → its channels and outbound queue */
     private final ConcurrentHashMap<String, SessionState> sessions = new ConcurrentHashMap<>();
 
-    public WebSocketStreamHandler(StreamBroker broker, ObjectMapper objectMapper) {
+    public WebSocketStreamHandler(StreamBroker broker,
+                                  FeatureDeltaQuery deltaQuery,
+                                  SnapshotTileCache snapshotCache,
+                                  ObjectMapper objectMapper,
+                                  Executor taskExecutor,
+                                  H3Core h3Core,
+                                  GeometryFilters geometryFilters,
+                                  DensityAggregator densityAggregator,
+                                  DurableSubscriptionService durableSubscriptions) {
         this.broker = broker;
+        this.deltaQuery = deltaQuery;
+        this.snapshotCache = snapshotCache;
         this.objectMapper = objectMapper;
+        this.taskExecutor = taskExecutor;
+        this.h3Core = h3Core;
+        this.geometryFilters = geometryFilters;
+        this.densityAggregator = densityAggregator;
+        this.durableSubscriptions = durableSubscriptions;
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        sessions.put(session.getId(), new SessionState(session));
+        // Live deliveries and snapshot pages of all channels funnel through one queue
+        var out = new OutboundQueue(session, taskExecutor, SEND_BUFFER_LIMIT);
+        sessions.put(session.getId(), new SessionState(session, out));
         log.info("WebSocket connected: sessionId={} remote={}", session.getId(),
                 session.getRemoteAddress());
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        var state = sessions.get(session.getId());
+        if (state == null) return;
+
+        String channel = null;
         try {
             JsonNode msg = objectMapper.readTree(message.getPayload());
             String action = msg.has("action") ? msg.get("action").asText() : "";
+            channel = textOrNull(msg, "channel");
+            String key = channel != null ? channel : DEFAULT_CHANNEL;
 
             switch (action) {
-                case "subscribe" -> handleSubscribe(session, msg);
-                case "viewport"  -> handleViewport(session, msg);
-                case "unsubscribe" -> handleUnsubscribe(session);
-                case "ping" -> sendJson(session, Map.of("type", "pong"));
-                default -> sendJson(session, Map.of("type", "error",
-                        "message", "Unknown action: " + action));
+                case "subscribe" -> handleSubscribe(state, state.open(key), msg);
+                case "viewport"  -> handleViewport(state, key, msg);
+                case "density"   -> handleDensity(state, state.open(key), msg);
+                case "ack"       -> handleAck(state, key, msg);
+                case "unsubscribe" -> handleUnsubscribe(state, channel);
+                case "ping" -> send(state, null, Map.of("type", "pong"));
+                default -> sendError(state, channel, "Unknown action: " + action);
             }
         } catch (Exception e) {
             log.warn("Error handling WS message from {}: {}",
                     session.getId(), e.getMessage());
-            sendJson(session, Map.of("type", "error", "message", e.getMessage()));
+            sendError(state, channel, String.valueOf(e.getMessage()));
         }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        var state = sessions.remove(session.getId());
-        if (state != null && state.subscriptionId != null) {
-            broker.unsubscribe(state.subscriptionId);
-        }
+        release(sessions.remove(session.getId()));
         log.info("WebSocket disconnected: sessionId={} status={}",
                 session.getId(), status);
     }
@@ -118,110 +230,377 @@ public class WebSocketStreamHandler extends TextWebSocketHandler {
     @Override
     public void handleTransportError(WebSocketSession session, Throwable ex) {
         log.debug("WS transport error for {}: {}", session.getId(), ex.getMessage());
-        var state = sessions.remove(session.getId());
-        if (state != null && state.subscriptionId != null) {
-            broker.unsubscribe(state.subscriptionId);
-        }
+        release(sessions.remove(session.getId()));
     }
 
-    // ── Command handlers ─────────────────────────────────────
-
-    private void handleSubscribe(WebSocketSession session, JsonNode msg) {
-        var state = sessions.get(session.getId());
+    private void release(SessionState state) {
         if (state == null) return;
+        state.channels.values().forEach(this::clear);
+        state.channels.clear();
+    }
 
-        // Remove previous subscription if exists
-        if (state.subscriptionId != null) {
-            broker.unsubscribe(state.subscriptionId);
+    /** Stops whatever the channel streams; it stays open for the next command. */
+    private boolean clear(Channel channel) {
+        boolean any = false;
+        if (channel.subscription != null) {
+            broker.unsubscribe(channel.subscription.id());
+            channel.subscription = null;
+            channel.viewportVersion.incrementAndGet();
+            any = true;
+        }
+        detachDurable(channel);
+        if (channel.densityHandle != null) {
+            densityAggregator.unsubscribe(channel.densityHandle);
+            channel.densityHandle = null;
+            any = true;
         }
+        return any;
+    }
+
+    private void detachDurable(Channel channel) {
+        String name = channel.durableName;
+        if (name != null) {
+            channel.durableName = null;
+            durableSubscriptions.detach(name);
+        }
+    }
+
+    // ── Command handlers ─────────────────────────────────────
+
+    private void handleSubscribe(SessionState state, Channel channel, JsonNode msg) {
+        // A channel streams one thing at a time
+        clear(channel);
 
         String subId = UUID.randomUUID().toString();
         UUID sourceId = msg.has("sourceId") && !msg.get("sourceId").isNull()
                 ? UUID.fromString(msg.get("sourceId").asText()) : null;
         String sourceTable = msg.has("sourceTable") && !msg.get("sourceTable").isNull()
                 ? msg.get("sourceTable").asText() : null;
-        Envelope bbox = parseBbox(msg);
-        Instant since = msg.has("since") && !msg.get("since").isNull()
-                ? Instant.parse(msg.get("since").asText()) : Instant.now();
-
-        var sub = new StreamSubscription(subId, Protocol.WEBSOCKET,
-                sourceId, sourceTable, bbox, since);
+        Envelope requestedBbox = parseBbox(msg);
+        StreamCursor since;
+        try {
+            since = msg.has("since") && !msg.get("since").isNull()
+                    ? StreamCursor.parse(msg.get("since").asText()) : null;
+        } catch (IllegalArgumentException e) {
+            throw new StreamSubscriptionValidationException(e.getMessage());
+        }
+        String name = textOrNull(msg, "name");
 
-        broker.subscribe(sub, features -> deliverWs(session, features));
-        state.subscriptionId = subId;
-        state.sourceId = sourceId;
-        state.sourceTable = sourceTable;
+        var cells = new ArrayList<String>();
+        if (msg.hasNonNull("cells") && msg.get("cells").isArray()) {
+            msg.get("cells").forEach(cell -> cells.add(cell.asText()));
+        }
+        Integer cellResolution = msg.hasNonNull("cellResolution") ? msg.get("cellResolution").asInt() : null;
+        String area = msg.hasNonNull("area") ? msg.get("area").toString() : null;
+        Double bufferMeters = msg.hasNonNull("bufferMeters") ? msg.get("bufferMeters").asDouble() : null;
+
+        // A durable name resumes with its stored definition and acked cursor;
+        // the message only defines it on creation
+        DurableSubscription durable = name == null ? null
+                : durableSubscriptions.open(new DurableSubscription(name, sourceId, sourceTable, requestedBbox,
+                        textOrNull(msg, "filter"), textOrNull(msg, "fields"),
+                        cells.isEmpty() ? null : cells, cellResolution, area, bufferMeters,
+                        since, null, null, null));
+        boolean snapshot = durable == null && msg.hasNonNull("snapshot") && msg.get("snapshot").asBoolean();
+        Envelope bbox = durable != null ? durable.bbox() : requestedBbox;
+
+        StreamSubscription sub;
+        StreamCursor start = null;
+        if (durable != null) {
+            sub = durable.toSubscription(subId, Protocol.WEBSOCKET, h3Core, geometryFilters);
+            durableSubscriptions.attach(name);
+            channel.durableName = name;
+        } else {
+            // Without a position, start at the table's head and catch up from there
+            start = since != null ? since : broker.head();
+            sub = new StreamSubscription(subId, Protocol.WEBSOCKET,
+                    sourceId, sourceTable, bbox, snapshot ? null : start,
+                    FeatureFilter.compile(textOrNull(msg, "filter")),
+                    FieldProjection.parse(textOrNull(msg, "fields")));
+            if (!cells.isEmpty()) {
+                sub.setCellSet(CellSet.of(h3Core, cells, cellResolution));
+            }
+            sub.setArea(geometryFilters.compile(area, bufferMeters));
+        }
+        sub.setDeliveryPolicy(DeliveryPolicy.of(
+                msg.hasNonNull("maxRate") ? msg.get("maxRate").asInt() : null,
+                msg.hasNonNull("minIntervalMs") ? msg.get("minIntervalMs").asLong() : null,
+                msg.hasNonNull("conflate") ? msg.get("conflate").asBoolean() : null));
 
-        sendJson(session, Map.of(
+        // Ack first so snapshot pages and catch-up never precede it
+        send(state, channel.key, Map.of(
                 "type", "ack",
                 "action", "subscribe",
+                "channel", channel.key,
                 "subscriptionId", subId,
                 "sourceId", sourceId != null ? sourceId.toString() : "all",
                 "spatialFilter", bbox != null ? bboxToMap(bbox) : "global",
-                "cursor", since.toString()
+                "cursor", (snapshot ? start : sub.cursor()).encode(),
+                "snapshot", snapshot,
+                "name", name != null ? name : "none"
         ));
-    }
 
-    private void handleViewport(WebSocketSession session, JsonNode msg) {
-        var state = sessions.get(session.getId());
-        if (state == null) return;
+        long version = channel.viewportVersion.incrementAndGet();
+        channel.subscription = sub;
+        if (snapshot) {
+            // Nothing is held until the last page is out
+            channel.loadedViewport = new Envelope();
+            broker.subscribeWithSnapshot(sub, delivery -> deliverWs(state, channel, sub, delivery),
+                    page -> sendSubscribeSnapshot(state, channel, sub, page, bbox, version));
+        } else {
+            channel.loadedViewport = bbox;
+            broker.subscribe(sub, delivery -> deliverWs(state, channel, sub, delivery));
+        }
+    }
 
-        // Remove current subscription and re-create with new bbox
-        if (state.subscriptionId != null) {
-            broker.unsubscribe(state.subscriptionId);
+    private void handleViewport(SessionState state, String key, JsonNode msg) {
+        Channel channel = state.channels.get(key);
+        var sub = channel != null ? channel.subscription : null;
+        if (sub == null) {
+            sendError(state, key, "No active subscription");
+            return;
         }
 
-        String subId = UUID.randomUUID().toString();
         Envelope bbox = parseBbox(msg);
-        Instant cursor = Instant.now(); // Viewport change = fresh cursor
+        Envelope previous = sub.spatialFilter();
+        long version = channel.viewportVersion.incrementAndGet();
 
-        var sub = new StreamSubscription(subId, Protocol.WEBSOCKET,
-                state.sourceId, state.sourceTable, bbox, cursor);
+        // Same subscription, same cursor: live delivery never has a gap
+        sub.updateSpatialFilter(bbox);
 
-        broker.subscribe(sub, features -> deliverWs(session, features));
-        state.subscriptionId = subId;
+        // What the client keeps after evicting; only bounded viewports are snapshotted,
+        // a client widening to global reloads itself
+        Envelope held = heldWithin(channel.loadedViewport, bbox);
+        channel.loadedViewport = held;
+        List<Envelope> exposed = bbox == null ? List.of()
+                : held.isNull() ? List.of(bbox) : Envelopes.subtract(bbox, held);
+        Envelope exclude = held == null || held.isNull() ? null : held;
 
-        sendJson(session, Map.of(
+        send(state, key, Map.of(
                 "type", "ack",
                 "action", "viewport",
-                "subscriptionId", subId,
-                "spatialFilter", bbox != null ? bboxToMap(bbox) : "global"
+                "channel", key,
+                "subscriptionId", sub.id(),
+                "spatialFilter", bbox != null ? bboxToMap(bbox) : "global",
+                "cursor", sub.cursor().encode(),
+                "snapshotRegions", exposed.stream().map(this::bboxToMap).toList()
         ));
+
+        if (bbox != null) {
+            List<Envelope> left = previous == null ? List.of() : Envelopes.subtract(previous, bbox);
+            if (previous == null || !left.isEmpty()) {
+                send(state, key, Map.of(
+                        "type", "evict",
+                        "channel", key,
+                        "subscriptionId", sub.id(),
+                        "retain", bboxToMap(bbox),
+                        "regions", left.stream().map(this::bboxToMap).toList()
+                ));
+            }
+        }
+
+        if (exposed.isEmpty()) {
+            channel.markLoaded(version, bbox);
+            return;
+        }
+        taskExecutor.execute(() -> sendViewportSnapshot(state, channel, sub, exposed, exclude, bbox, version));
     }
 
-    private void handleUnsubscribe(WebSocketSession session) {
-        var state = sessions.get(session.getId());
-        if (state != null && state.subscriptionId != null) {
-            broker.unsubscribe(state.subscriptionId);
-            state.subscriptionId = null;
-            sendJson(session, Map.of("type", "ack", "action", "unsubscribe"));
+    private void handleDensity(SessionState state, Channel channel, JsonNode msg) {
+        clear(channel);
+
+        UUID sourceId = msg.hasNonNull("sourceId") ? UUID.fromString(msg.get("sourceId").asText()) : null;
+        var sums = new ArrayList<String>();
+        if (msg.hasNonNull("sum")) {
+            msg.get("sum").forEach(field -> sums.add(field.asText()));
+        }
+        var spec = new DensitySpec(msg.hasNonNull("resolution") ? msg.get("resolution").asInt() : 5,
+                sourceId, textOrNull(msg, "sourceTable"), sums);
+
+        // Ack first: the aggregator may push the full grid before subscribe returns
+        send(state, channel.key, Map.of("type", "ack", "action", "density",
+                "channel", channel.key, "resolution", spec.resolution()));
+        channel.densityHandle = densityAggregator.subscribe(spec, parseBbox(msg), update -> send(state, channel.key, Map.of(
+                "type", "density",
+                "channel", channel.key,
+                "resolution", update.resolution(),
+                "full", update.full(),
+                "cells", update.cells()
+        )));
+    }
+
+    private void handleAck(SessionState state, String key, JsonNode msg) {
+        Channel channel = state.channels.get(key);
+        String name = channel != null ? channel.durableName : null;
+        String cursor = textOrNull(msg, "cursor");
+        if (name == null || cursor == null) {
+            sendError(state, key, "ack needs a durable subscription and a cursor");
+            return;
+        }
+        StreamCursor acked = durableSubscriptions.ack(name, ResumeToken.cursorOf(cursor));
+        send(state, key, Map.of("type", "ack", "action", "ack", "channel", key,
+                "name", name, "cursor", acked.encode()));
+    }
+
+    /** @param key channel to close, or {@code null} for all of them */
+    private void handleUnsubscribe(SessionState state, String key) {
+        List<Channel> closing = key == null ? List.copyOf(state.channels.values())
+                : state.channels.containsKey(key) ? List.of(state.channels.get(key)) : List.of();
+        for (Channel channel : closing) {
+            boolean any = clear(channel);
+            state.channels.remove(channel.key);
+            // Frames still queued belong to what was just stopped
+            state.out.discard(channel.key);
+            if (any) {
+                send(state, channel.key, Map.of("type", "ack", "action", "unsubscribe", "channel", channel.key));
+            }
         }
     }
 
     // ── Delivery ─────────────────────────────────────────────
 
-    private void deliverWs(WebSocketSession session, List<Map<String, Object>> features) {
-        if (!session.isOpen()) return;
-        sendJson(session, Map.of(
+    private void deliverWs(SessionState state, Channel channel, StreamSubscription sub, StreamDelivery delivery) {
+        if (!state.session.isOpen()) return;
+        send(state, channel.key, Map.of(
                 "type", "features",
-                "count", features.size(),
+                "channel", channel.key,
+                "subscriptionId", sub.id(),
+                "count", delivery.features().size(),
                 "timestamp", Instant.now().toString(),
-                "features", features
+                "cursor", delivery.resumeToken().cursor().encode(),
+                "features", delivery.features()
         ));
     }
 
+    private void sendSubscribeSnapshot(SessionState state, Channel channel, StreamSubscription sub,
+                                       StreamSnapshotPage page, Envelope bbox, long version) {
+        var frame = new LinkedHashMap<String, Object>();
+        frame.put("type", "snapshot");
+        frame.put("channel", channel.key);
+        frame.put("subscriptionId", sub.id());
+        frame.put("page", page.page());
+        frame.put("count", page.features().size());
+        frame.put("done", page.done());
+        frame.put("watermark", page.watermark().encode());
+        frame.put("features", page.features());
+        send(state, channel.key, frame);
+
+        if (page.done()) {
+            channel.markLoaded(version, bbox);
+        } else {
+            awaitDrained(state, channel);
+        }
+    }
+
+    /**
+     * Pages the current features of {@code exposed} (minus what the client already
+     * holds in {@code exclude}) to the client, from the shared tile cache when the area
+     * allows, stopping early if the viewport moved. Cached pages are followed by what
+     * changed in the area since the cache's watermark.
+     */
+    private void sendViewportSnapshot(SessionState state, Channel channel, StreamSubscription sub,
+                                      List<Envelope> exposed, Envelope exclude,
+                                      Envelope bbox, long version) {
+        try {
+            var cached = snapshotCache.lookup(sub, exposed, exclude);
+            if (cached.isPresent()) {
+                List<StreamFeature> features = cached.get().features();
+                int page = 0;
+                for (int from = 0; from < features.size(); page++, from += SNAPSHOT_PAGE_SIZE) {
+                    if (channel.viewportVersion.get() != version || !state.session.isOpen()) return;
+                    int to = Math.min(from + SNAPSHOT_PAGE_SIZE, features.size());
+                    sendSnapshotFrame(state, channel, sub, page, features.subList(from, to), false);
+                }
+
+                // Tiles are exact as of their watermark; versions written since follow, in
+                // cursor order, so the client's later-updated_at rule settles on the latest
+                StreamCursor cursor = cached.get().watermark();
+                for (; ; page++) {
+                    if (channel.viewportVersion.get() != version || !state.session.isOpen()) return;
+
+                    List<StreamFeature> rows = deltaQuery.fetchSince(
+                            sub, exposed, exclude, cursor, SNAPSHOT_PAGE_SIZE);
+                    boolean done = rows.size() < SNAPSHOT_PAGE_SIZE;
+                    sendSnapshotFrame(state, channel, sub, page, rows, done);
+
+                    if (done) break;
+                    cursor = rows.getLast().cursor();
+                }
+            } else {
+                long afterId = 0;
+                for (int page = 0; ; page++) {
+                    if (channel.viewportVersion.get() != version || !state.session.isOpen()) return;
+
+                    List<StreamFeature> rows = deltaQuery.fetchSnapshotPage(
+                            sub, exposed, exclude, afterId, SNAPSHOT_PAGE_SIZE);
+                    boolean done = rows.size() < SNAPSHOT_PAGE_SIZE;
+                    sendSnapshotFrame(state, channel, sub, page, rows, done);
+
+                    if (done) break;
+                    afterId = rows.getLast().id();
+                }
+            }
+            channel.markLoaded(version, bbox);
+        } catch (Exception e) {
+            log.warn("Viewport snapshot failed for {}: {}", sub.id(), e.getMessage());
+            sendError(state, channel.key, "Viewport snapshot failed");
+        }
+    }
+
+    private void sendSnapshotFrame(SessionState state, Channel channel, StreamSubscription sub, int page,
+                                   List<StreamFeature> rows, boolean done) {
+        var frame = new LinkedHashMap<String, Object>();
+        frame.put("type", "snapshot");
+        frame.put("channel", channel.key);
+        frame.put("subscriptionId", sub.id());
+        frame.put("page", page);
+        frame.put("count", rows.size());
+        frame.put("done", done);
+        frame.put("features", rows.stream().map(sub::project).toList());
+        send(state, channel.key, frame);
+        if (!done) {
+            awaitDrained(state, channel);
+        }
+    }
+
+    /**
+     * Holds a snapshot producer until the channel's lane is down to
+     * {@value #SNAPSHOT_LOW_WATER} bytes, so paging keeps pace with the client
+     * instead of overflowing the lane and closing the session.
+     */
+    private static void awaitDrained(SessionState state, Channel channel) {
+        try {
+            state.out.awaitBelow(channel.key, SNAPSHOT_LOW_WATER);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     // ── Helpers ──────────────────────────────────────────────
 
-    private void sendJson(WebSocketSession session, Object payload) {
+    /** @param channel lane to queue on, or {@code null} for session-level frames */
+    private void send(SessionState state, String channel, Object payload) {
         try {
-            if (session.isOpen()) {
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(payload)));
+            if (state.session.isOpen()) {
+                state.out.send(channel, new TextMessage(objectMapper.writeValueAsString(payload)));
             }
         } catch (Exception e) {
-            log.debug("Failed to send WS message to {}: {}", session.getId(), e.getMessage());
+            log.debug("Failed to send WS message to {}: {}", state.session.getId(), e.getMessage());
+        }
+    }
+
+    private void sendError(SessionState state, String channel, String message) {
+        if (channel == null) {
+            send(state, null, Map.of("type", "error", "message", message));
+        } else {
+            send(state, channel, Map.of("type", "error", "channel", channel, "message", message));
         }
     }
 
+    private static String textOrNull(JsonNode msg, String field) {
+        return msg.has(field) && !msg.get(field).isNull() ? msg.get(field).asText() : null;
+    }
+
     private Envelope parseBbox(JsonNode msg) {
         if (!msg.has("bbox") || msg.get("bbox").isNull()) return null;
         JsonNode bbox = msg.get("bbox");
@@ -233,6 +612,16 @@ public class WebSocketStreamHandler extends TextWebSocketHandler {
         );
     }
 
+    /**
+     * The part of {@code bbox} the client still holds once it has evicted everything
+     * outside it: {@code null} for global, a null envelope when nothing is held.
+     */
+    private static Envelope heldWithin(Envelope loaded, Envelope bbox) {
+        if (bbox == null) return null;
+        if (loaded == null) return bbox;
+        return loaded.intersection(bbox);
+    }
+
     private Map<String, Double> bboxToMap(Envelope env) {
         return Map.of("minX", env.getMinX(), "minY", env.getMinY(),
                 "maxX", env.getMaxX(), "maxY", env.getMaxY());
@@ -241,12 +630,49 @@ public class WebSocketStreamHandler extends TextWebSocketHandler {
     /** Mutable session state — one per WebSocket connection. */
     private static class SessionState {
         final WebSocketSession session;
-        volatile String subscriptionId;
-        volatile UUID sourceId;
-        volatile String sourceTable;
+        final OutboundQueue out;
+        final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
 
-        SessionState(WebSocketSession session) {
+        SessionState(WebSocketSession session, OutboundQueue out) {
             this.session = session;
+            this.out = out;
+        }
+
+        /** The named channel, opened if the session has room for it. */
+        Channel open(String key) {
+            Channel channel = channels.get(key);
+            if (channel != null) return channel;
+            if (channels.size() >= MAX_CHANNELS) {
+                throw new IllegalStateException("At most " + MAX_CHANNELS + " channels per connection");
+            }
+            return channels.computeIfAbsent(key, Channel::new);
+        }
+    }
+
+    /** One named stream within a session: a subscription or a density grid. */
+    private static class Channel {
+        final String key;
+        volatile StreamSubscription subscription;
+        volatile String densityHandle;
+        volatile String durableName;
+
+        /** Bumped on every subscribe/viewport change; stale snapshots compare against it. */
+        final AtomicLong viewportVersion = new AtomicLong();
+
+        /**
+         * Area whose features the client fully holds; {@code null} means global and
+         * a null envelope means nothing.
+         */
+        volatile Envelope loadedViewport;
+
+        Channel(String key) {
+            this.key = key;
+        }
+
+        synchronized void markLoaded(long version, Envelope viewport) {
+            if (viewportVersion.get() == version) {
+                loadedViewport = viewport;
+            }
         }
     }
-}
\ No newline at end of file
+}
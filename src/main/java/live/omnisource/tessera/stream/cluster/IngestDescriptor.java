@@ -0,0 +1,51 @@
+package live.omnisource.tessera.stream.cluster;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import org.locationtech.jts.geom.Envelope;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Compact NOTIFY payload describing one ingest batch.
+ *
+ * <p>Carries no feature data: receivers fetch the batch by id range, exactly as
+ * they do for local events. The envelope is optional and dropped when the
+ * payload would not fit in a notification.</p>
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+record IngestDescriptor(
+        String node,
+        UUID sourceId,
+        String sourceTable,
+        int count,
+        double[] envelope,
+        long minId,
+        long maxId,
+        Instant minUpdatedAt,
+        Instant maxUpdatedAt
+) {
+    static IngestDescriptor of(String node, FeatureIngestEvent event) {
+        Envelope env = event.envelope();
+        double[] bounds = env == null || env.isNull() ? null
+                : new double[]{env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY()};
+        return new IngestDescriptor(node, event.sourceId(), event.sourceTable(), event.featureCount(),
+                bounds, event.minFeatureId(), event.maxFeatureId(),
+                event.minUpdatedAt(), event.maxUpdatedAt());
+    }
+
+    IngestDescriptor withoutEnvelope() {
+        return new IngestDescriptor(node, sourceId, sourceTable, count, null,
+                minId, maxId, minUpdatedAt, maxUpdatedAt);
+    }
+
+    FeatureIngestEvent toRemoteEvent(Envelope resolvedEnvelope) {
+        return new FeatureIngestEvent(sourceId, sourceTable, count, resolvedEnvelope,
+                minId, maxId, minUpdatedAt, maxUpdatedAt, Instant.now(), true);
+    }
+
+    Envelope envelopeOrNull() {
+        return envelope == null ? null : new Envelope(envelope[0], envelope[2], envelope[1], envelope[3]);
+    }
+}
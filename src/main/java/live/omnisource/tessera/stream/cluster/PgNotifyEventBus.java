@@ -0,0 +1,186 @@
+package live.omnisource.tessera.stream.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import live.omnisource.tessera.util.SqlIdentifiers;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.jdbc.autoconfigure.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Cluster-wide relay of {@link FeatureIngestEvent}s over PostgreSQL LISTEN/NOTIFY.
+ *
+ * <p>Local ingest events are published on {@code tessera.stream.cluster-channel} as
+ * an {@link IngestDescriptor}. Every node listens on a dedicated connection and
+ * republishes descriptors from other nodes as remote events, so each node's
+ * {@code StreamBroker} fans out to its own clients. A descriptor that would
+ * exceed the NOTIFY payload limit is sent without its envelope, and the
+ * receiver derives it from the batch's id range.</p>
+ */
+@Slf4j
+@Component
+public class PgNotifyEventBus implements SmartLifecycle {
+
+    /** PostgreSQL rejects payloads of 8000 bytes or more. */
+    private static final int MAX_PAYLOAD_BYTES = 7999;
+    private static final int POLL_TIMEOUT_MS = 500;
+    private static final long RECONNECT_DELAY_MS = 5_000;
+
+    private static final String BATCH_EXTENT = """
+            SELECT ST_XMin(e) AS min_x, ST_YMin(e) AS min_y, ST_XMax(e) AS max_x, ST_YMax(e) AS max_y
+            FROM (SELECT ST_Extent(f.geometry) AS e
+                  FROM tessera.geo_features f
+                  WHERE f.source_id = ?::uuid AND f.source_table = ?
+                    AND f.id BETWEEN ? AND ?) x
+            WHERE e IS NOT NULL
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSourceProperties dataSourceProperties;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final String channel;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private volatile boolean running;
+    private Thread listenerThread;
+
+    public PgNotifyEventBus(JdbcTemplate jdbcTemplate,
+                            DataSourceProperties dataSourceProperties,
+                            ApplicationEventPublisher eventPublisher,
+                            ObjectMapper objectMapper,
+                            ApplicationProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSourceProperties = dataSourceProperties;
+        this.eventPublisher = eventPublisher;
+        this.objectMapper = objectMapper;
+        this.enabled = properties.stream().clusterEnabled();
+        this.channel = SqlIdentifiers.validate(properties.stream().clusterChannel(), "Cluster channel");
+    }
+
+    // ── Publish ──────────────────────────────────────────────
+
+    @EventListener
+    public void onFeatureIngested(FeatureIngestEvent event) {
+        if (!enabled || event.remote()) return;
+
+        try {
+            var descriptor = IngestDescriptor.of(nodeId, event);
+            String payload = objectMapper.writeValueAsString(descriptor);
+            if (payload.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES) {
+                payload = objectMapper.writeValueAsString(descriptor.withoutEnvelope());
+            }
+            if (payload.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES) {
+                log.warn("Ingest descriptor for {} exceeds NOTIFY limit, not relayed", event.sourceTable());
+                return;
+            }
+            jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", channel, payload);
+        } catch (Exception e) {
+            log.warn("Failed to relay ingest event to cluster: {}", e.getMessage());
+        }
+    }
+
+    // ── Listen ───────────────────────────────────────────────
+
+    @Override
+    public void start() {
+        if (!enabled) return;
+        running = true;
+        listenerThread = Thread.ofPlatform()
+                .name("tessera-cluster-listener")
+                .daemon(true)
+                .start(this::listenLoop);
+        log.info("Cluster event bus started: node={} channel={}", nodeId, channel);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listenLoop() {
+        while (running) {
+            // Dedicated connection: a LISTEN session must outlive any pooled borrow
+            try (Connection conn = DriverManager.getConnection(
+                    dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(),
+                    dataSourceProperties.determinePassword());
+                 Statement stmt = conn.createStatement()) {
+
+                stmt.execute("LISTEN " + SqlIdentifiers.quoteDouble(channel, "Cluster channel"));
+                PGConnection pg = conn.unwrap(PGConnection.class);
+
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications == null) continue;
+                    for (PGNotification notification : notifications) {
+                        handle(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) return;
+                log.warn("Cluster listener connection lost, retrying in {}ms: {}",
+                        RECONNECT_DELAY_MS, e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void handle(String payload) {
+        try {
+            var descriptor = objectMapper.readValue(payload, IngestDescriptor.class);
+            if (nodeId.equals(descriptor.node())) return;
+
+            Envelope envelope = descriptor.envelopeOrNull();
+            if (envelope == null) {
+                envelope = fetchExtent(descriptor);
+                if (envelope == null) return;
+            }
+
+            log.debug("Remote ingest event from node {}: source={} table={} count={}",
+                    descriptor.node(), descriptor.sourceId(), descriptor.sourceTable(), descriptor.count());
+            eventPublisher.publishEvent(descriptor.toRemoteEvent(envelope));
+        } catch (Exception e) {
+            log.warn("Ignoring malformed cluster notification: {}", e.getMessage());
+        }
+    }
+
+    private Envelope fetchExtent(IngestDescriptor descriptor) {
+        List<Envelope> rows = jdbcTemplate.query(BATCH_EXTENT,
+                (rs, i) -> new Envelope(rs.getDouble("min_x"), rs.getDouble("max_x"),
+                        rs.getDouble("min_y"), rs.getDouble("max_y")),
+                descriptor.sourceId().toString(), descriptor.sourceTable(),
+                descriptor.minId(), descriptor.maxId());
+        return rows.isEmpty() ? null : rows.getFirst();
+    }
+}
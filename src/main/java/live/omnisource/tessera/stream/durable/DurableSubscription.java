@@ -0,0 +1,52 @@
+package live.omnisource.tessera.stream.durable;
+
+import com.uber.h3core.H3Core;
+import live.omnisource.tessera.stream.StreamCursor;
+import live.omnisource.tessera.stream.StreamSubscription;
+import live.omnisource.tessera.stream.filter.FeatureFilter;
+import live.omnisource.tessera.stream.filter.FieldProjection;
+import live.omnisource.tessera.stream.filter.GeometryFilters;
+import live.omnisource.tessera.stream.h3.CellSet;
+import org.locationtech.jts.geom.Envelope;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A named subscription as stored in {@code tessera.stream_subscriptions}: what it
+ * matches and the last cursor its client acknowledged.
+ *
+ * @param area        GeoJSON geometry the subscription is restricted to, or {@code null}
+ * @param ackedCursor position to resume from; everything after it is replayed
+ * @param ttl         how long the subscription survives without being resumed or acked
+ */
+public record DurableSubscription(
+        String name,
+        UUID sourceId,
+        String sourceTable,
+        Envelope bbox,
+        String filter,
+        String fields,
+        List<String> cells,
+        Integer cellResolution,
+        String area,
+        Double areaBufferMeters,
+        StreamCursor ackedCursor,
+        Duration ttl,
+        Instant createdAt,
+        Instant lastSeenAt
+) {
+    /** A live subscription for one attachment, positioned at the acknowledged cursor. */
+    public StreamSubscription toSubscription(String id, StreamSubscription.Protocol protocol,
+                                             H3Core h3Core, GeometryFilters geometryFilters) {
+        var subscription = new StreamSubscription(id, protocol, sourceId, sourceTable, bbox, ackedCursor,
+                FeatureFilter.compile(filter), FieldProjection.parse(fields));
+        if (cells != null && !cells.isEmpty()) {
+            subscription.setCellSet(CellSet.of(h3Core, cells, cellResolution));
+        }
+        subscription.setArea(geometryFilters.compile(area, areaBufferMeters));
+        return subscription;
+    }
+}
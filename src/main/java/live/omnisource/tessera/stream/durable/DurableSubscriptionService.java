@@ -0,0 +1,243 @@
+package live.omnisource.tessera.stream.durable;
+
+import com.uber.h3core.H3Core;
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.exceptions.StreamSubscriptionNotFoundException;
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.StreamCursor;
+import live.omnisource.tessera.stream.StreamSubscription;
+import live.omnisource.tessera.stream.filter.GeometryFilters;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Named subscriptions that outlive a connection and a node.
+ *
+ * <p>The definition and the last acknowledged cursor live in
+ * {@code tessera.stream_subscriptions}. Opening a name that exists resumes it
+ * with its stored definition from the acknowledged cursor, through the broker's
+ * normal catch-up, so a client loses nothing it has not acked and receives
+ * nothing twice that it has. Acks only move the cursor forward.</p>
+ *
+ * <p>A subscription not opened or acked for its TTL is deleted by
+ * {@link #cleanup()}. Names attached on this node count as seen, so a connected
+ * client that acks rarely is not collected from under itself.</p>
+ */
+@Slf4j
+@Service
+public class DurableSubscriptionService {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._:-]{1,128}");
+    private static final long MIN_TTL_SECONDS = 60;
+    private static final long MAX_TTL_SECONDS = 30L * 24 * 3600;
+
+    private static final String COLUMNS = """
+            name, source_id, source_table, bbox_min_x, bbox_min_y, bbox_max_x, bbox_max_y,
+            filter, fields, cells, cell_resolution, area_geojson, area_buffer_m,
+            acked_updated_at, acked_id, ttl_seconds, created_at, last_seen_at
+            """;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final H3Core h3Core;
+    private final GeometryFilters geometryFilters;
+    private final FeatureDeltaQuery deltaQuery;
+    private final Duration defaultTtl;
+
+    /** Names with a live attachment on this node, with their attachment counts. */
+    private final ConcurrentHashMap<String, Integer> attached = new ConcurrentHashMap<>();
+
+    public DurableSubscriptionService(NamedParameterJdbcTemplate jdbcTemplate,
+                                      H3Core h3Core,
+                                      GeometryFilters geometryFilters,
+                                      FeatureDeltaQuery deltaQuery,
+                                      ApplicationProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.deltaQuery = deltaQuery;
+        this.h3Core = h3Core;
+        this.geometryFilters = geometryFilters;
+        this.defaultTtl = Duration.ofSeconds(properties.stream().durableTtlSeconds());
+    }
+
+    /**
+     * Resume {@code requested.name()} if it exists, otherwise create it from
+     * {@code requested}, starting at its {@code ackedCursor} or, without one, at the
+     * feature table's head.
+     *
+     * @return the stored subscription; its definition wins over {@code requested}
+     */
+    public DurableSubscription open(DurableSubscription requested) {
+        validateName(requested.name());
+        // Compile once so a bad filter or cell set is rejected before it is stored
+        requested.toSubscription("validate", StreamSubscription.Protocol.REST_POLL, h3Core, geometryFilters);
+
+        var sql = "INSERT INTO tessera.stream_subscriptions (" + COLUMNS + """
+                ) VALUES (:name, :sourceId::uuid, :sourceTable, :minX, :minY, :maxX, :maxY,
+                          :filter, :fields, :cells, :cellResolution, :area, :areaBufferMeters,
+                          :ackedUpdatedAt, :ackedId,
+                          :ttlSeconds, now(), now())
+                ON CONFLICT (name) DO UPDATE SET last_seen_at = now()
+                RETURNING """ + COLUMNS;
+
+        Envelope bbox = requested.bbox();
+        StreamCursor start = requested.ackedCursor() != null
+                ? requested.ackedCursor() : deltaQuery.fetchHead();
+        Duration ttl = requested.ttl() != null ? requested.ttl() : defaultTtl;
+
+        var params = new HashMap<String, Object>();
+        params.put("name", requested.name());
+        params.put("sourceId", requested.sourceId() != null ? requested.sourceId().toString() : null);
+        params.put("sourceTable", requested.sourceTable());
+        params.put("minX", bbox != null ? bbox.getMinX() : null);
+        params.put("minY", bbox != null ? bbox.getMinY() : null);
+        params.put("maxX", bbox != null ? bbox.getMaxX() : null);
+        params.put("maxY", bbox != null ? bbox.getMaxY() : null);
+        params.put("filter", requested.filter());
+        params.put("fields", requested.fields());
+        params.put("cells", requested.cells() != null ? requested.cells().toArray(String[]::new) : null);
+        params.put("cellResolution", requested.cellResolution());
+        params.put("area", requested.area());
+        params.put("areaBufferMeters", requested.areaBufferMeters());
+        params.put("ackedUpdatedAt", Timestamp.from(start.updatedAt()));
+        params.put("ackedId", start.id());
+        params.put("ttlSeconds", (int) Math.clamp(ttl.toSeconds(), MIN_TTL_SECONDS, MAX_TTL_SECONDS));
+
+        DurableSubscription stored = jdbcTemplate.queryForObject(sql, params, this::mapRow);
+        log.info("Durable subscription opened: name={} cursor={}", stored.name(), stored.ackedCursor());
+        return stored;
+    }
+
+    public Optional<DurableSubscription> find(String name) {
+        var sql = "SELECT " + COLUMNS + " FROM tessera.stream_subscriptions WHERE name = :name";
+        return jdbcTemplate.query(sql, Map.of("name", name), this::mapRow).stream().findFirst();
+    }
+
+    public DurableSubscription get(String name) {
+        return find(name).orElseThrow(() ->
+                new StreamSubscriptionNotFoundException("Durable subscription not found: " + name));
+    }
+
+    public List<DurableSubscription> list() {
+        var sql = "SELECT " + COLUMNS + " FROM tessera.stream_subscriptions ORDER BY name";
+        return jdbcTemplate.query(sql, Map.of(), this::mapRow);
+    }
+
+    /**
+     * Record that the client has processed everything up to {@code cursor}.
+     * An ack behind the stored cursor is ignored.
+     *
+     * @return the acknowledged cursor after the update
+     */
+    public StreamCursor ack(String name, StreamCursor cursor) {
+        var sql = """
+                UPDATE tessera.stream_subscriptions
+                SET acked_updated_at = CASE WHEN (acked_updated_at, acked_id) < (:updatedAt, :id)
+                                            THEN :updatedAt ELSE acked_updated_at END,
+                    acked_id         = CASE WHEN (acked_updated_at, acked_id) < (:updatedAt, :id)
+                                            THEN :id ELSE acked_id END,
+                    last_seen_at     = now()
+                WHERE name = :name
+                RETURNING acked_updated_at, acked_id
+                """;
+        var params = Map.<String, Object>of(
+                "name", name,
+                "updatedAt", Timestamp.from(cursor.updatedAt()),
+                "id", cursor.id());
+        List<StreamCursor> acked = jdbcTemplate.query(sql, params, (rs, i) ->
+                new StreamCursor(rs.getTimestamp("acked_updated_at").toInstant(), rs.getLong("acked_id")));
+        if (acked.isEmpty()) {
+            throw new StreamSubscriptionNotFoundException("Durable subscription not found: " + name);
+        }
+        return acked.getFirst();
+    }
+
+    public void delete(String name) {
+        int removed = jdbcTemplate.update(
+                "DELETE FROM tessera.stream_subscriptions WHERE name = :name", Map.of("name", name));
+        if (removed == 0) {
+            throw new StreamSubscriptionNotFoundException("Durable subscription not found: " + name);
+        }
+        log.info("Durable subscription deleted: name={}", name);
+    }
+
+    /** A connection is now streaming {@code name} on this node. */
+    public void attach(String name) {
+        attached.merge(name, 1, Integer::sum);
+    }
+
+    public void detach(String name) {
+        attached.computeIfPresent(name, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    /** Refreshes subscriptions attached here, then deletes those past their TTL. */
+    @Scheduled(fixedDelayString = "${tessera.stream.durable-cleanup-interval-ms:60000}")
+    public void cleanup() {
+        try {
+            if (!attached.isEmpty()) {
+                jdbcTemplate.update("""
+                        UPDATE tessera.stream_subscriptions SET last_seen_at = now()
+                        WHERE name = ANY(:names)
+                        """, Map.of("names", attached.keySet().toArray(String[]::new)));
+            }
+            int expired = jdbcTemplate.update("""
+                    DELETE FROM tessera.stream_subscriptions
+                    WHERE last_seen_at < now() - ttl_seconds * interval '1 second'
+                    """, Map.of());
+            if (expired > 0) {
+                log.info("Removed {} abandoned durable subscriptions", expired);
+            }
+        } catch (Exception e) {
+            log.warn("Durable subscription cleanup failed: {}", e.getMessage());
+        }
+    }
+
+    private static void validateName(String name) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new StreamSubscriptionValidationException(
+                    "Subscription name must be 1-128 characters of letters, digits, '.', '_', ':' or '-'");
+        }
+    }
+
+    private DurableSubscription mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Envelope bbox = null;
+        double minX = rs.getDouble("bbox_min_x");
+        if (!rs.wasNull()) {
+            bbox = new Envelope(minX, rs.getDouble("bbox_max_x"),
+                    rs.getDouble("bbox_min_y"), rs.getDouble("bbox_max_y"));
+        }
+        Array cells = rs.getArray("cells");
+        Integer cellResolution = rs.getObject("cell_resolution", Integer.class);
+
+        return new DurableSubscription(
+                rs.getString("name"),
+                rs.getObject("source_id", UUID.class),
+                rs.getString("source_table"),
+                bbox,
+                rs.getString("filter"),
+                rs.getString("fields"),
+                cells != null ? List.of((String[]) cells.getArray()) : null,
+                cellResolution,
+                rs.getString("area_geojson"),
+                rs.getObject("area_buffer_m", Double.class),
+                new StreamCursor(rs.getTimestamp("acked_updated_at").toInstant(), rs.getLong("acked_id")),
+                Duration.ofSeconds(rs.getInt("ttl_seconds")),
+                rs.getTimestamp("created_at").toInstant(),
+                rs.getTimestamp("last_seen_at").toInstant());
+    }
+}
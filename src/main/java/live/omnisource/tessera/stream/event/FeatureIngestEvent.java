@@ -5,20 +5,34 @@ import org.locationtech.jts.geom.Envelope;
 import java.time.Instant;
 import java.util.UUID;
 
+/**
+ * Published after a feature batch commits.
+ *
+ * <p>The id range covers every {@code geo_features.id} written by the batch, so
+ * subscribers can fetch exactly that batch instead of scanning {@code updated_at}.</p>
+ *
+ * <p>{@code remote} marks events relayed from another node by the cluster event
+ * bus; they are fanned out locally but never re-broadcast.</p>
+ */
 public record FeatureIngestEvent(
         UUID sourceId,
         String sourceTable,
         int featureCount,
         Envelope envelope,
+        long minFeatureId,
+        long maxFeatureId,
         Instant minUpdatedAt,
         Instant maxUpdatedAt,
-        Instant publishedAt
+        Instant publishedAt,
+        boolean remote
 ) {
     public FeatureIngestEvent(
             UUID sourceId,
             String sourceTable,
             int featureCount,
             Envelope envelope,
+            long minFeatureId,
+            long maxFeatureId,
             Instant minUpdatedAt,
             Instant maxUpdatedAt) {
         this(
@@ -26,9 +40,12 @@ public record FeatureIngestEvent(
             sourceTable,
             featureCount,
             envelope,
+            minFeatureId,
+            maxFeatureId,
             minUpdatedAt,
             maxUpdatedAt,
-            Instant.now()
+            Instant.now(),
+            false
         );
     }
 }
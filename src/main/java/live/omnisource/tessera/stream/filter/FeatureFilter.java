@@ -0,0 +1,72 @@
+package live.omnisource.tessera.stream.filter;
+
+import live.omnisource.tessera.stream.StreamFeature;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled attribute filter for a subscription, e.g.
+ * {@code status = 'ACTIVE' AND speed > 20}.
+ *
+ * <p>Parsed once on subscribe. Live fan-out evaluates it against each feature's
+ * attributes; catch-up and snapshot queries push the same expression into SQL.
+ * Keys name top-level attributes; see {@link FilterParser} for the grammar.</p>
+ */
+public final class FeatureFilter {
+
+    private final String source;
+    private final FilterNode root;
+
+    private FeatureFilter(String source, FilterNode root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    /** @return the compiled filter, or {@code null} for a blank expression */
+    public static FeatureFilter compile(String expression) {
+        if (expression == null || expression.isBlank()) return null;
+        return new FeatureFilter(expression.strip(), FilterParser.parse(expression));
+    }
+
+    public boolean test(StreamFeature feature) {
+        return Boolean.TRUE.equals(root.evaluate(feature.attributes()));
+    }
+
+    /**
+     * SQL condition over {@code tessera.geo_features f}, binding its values into
+     * {@code params}. Equalities on the top-level AND chain also add a containment
+     * probe so the planner can use the GIN index on {@code attributes}.
+     */
+    public String toSql(Map<String, Object> params) {
+        var sql = new FilterSql(params);
+        sql.append("(");
+        root.appendSql(sql);
+        for (FilterNode.Compare eq : topLevelEqualities()) {
+            sql.append(" AND ");
+            sql.appendContainment(eq.key(), eq.literal());
+        }
+        return sql.append(")").toString();
+    }
+
+    private List<FilterNode.Compare> topLevelEqualities() {
+        var found = new ArrayList<FilterNode.Compare>();
+        var pending = new ArrayList<FilterNode>(List.of(root));
+        while (!pending.isEmpty()) {
+            FilterNode node = pending.removeLast();
+            if (node instanceof FilterNode.And and) {
+                pending.add(and.left());
+                pending.add(and.right());
+            } else if (node instanceof FilterNode.Compare c && c.op() == FilterNode.Op.EQ) {
+                found.add(c);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,90 @@
+package live.omnisource.tessera.stream.filter;
+
+import live.omnisource.tessera.exceptions.StreamFilterException;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Attribute projection for a subscription, e.g. {@code fields=status,speed,geometry}.
+ *
+ * <p>Identity columns ({@code id}, {@code external_id}, {@code source_id},
+ * {@code source_table}, {@code updated_at}) are always kept so clients can
+ * upsert. Geometry is only sent when {@code geometry} is listed; every other name
+ * selects a top-level attribute.</p>
+ */
+public final class FieldProjection {
+
+    private static final String GEOMETRY = "geometry";
+    private static final int MAX_FIELDS = 100;
+    private static final Set<String> IDENTITY =
+            Set.of("id", "external_id", "source_id", "source_table", "updated_at");
+
+    private final Set<String> attributes;
+    private final boolean geometry;
+
+    private FieldProjection(Set<String> attributes, boolean geometry) {
+        this.attributes = attributes;
+        this.geometry = geometry;
+    }
+
+    /** @return the projection, or {@code null} when {@code fields} is blank (send everything) */
+    public static FieldProjection parse(String fields) {
+        if (fields == null || fields.isBlank()) return null;
+
+        var names = new LinkedHashSet<String>();
+        boolean geometry = false;
+        for (String raw : fields.split(",")) {
+            String name = raw.strip();
+            if (name.isEmpty()) continue;
+            if (name.equals(GEOMETRY)) {
+                geometry = true;
+            } else {
+                names.add(name);
+            }
+        }
+        if (names.size() > MAX_FIELDS) {
+            throw new StreamFilterException("At most " + MAX_FIELDS + " fields may be projected");
+        }
+        return new FieldProjection(Set.copyOf(names), geometry);
+    }
+
+    /** Top-level attributes kept. */
+    public Set<String> attributes() {
+        return attributes;
+    }
+
+    public boolean includesGeometry() {
+        return geometry;
+    }
+
+    public Map<String, Object> apply(Map<String, Object> row) {
+        var projected = new LinkedHashMap<String, Object>();
+        for (var entry : row.entrySet()) {
+            String key = entry.getKey();
+            if (IDENTITY.contains(key)) {
+                projected.put(key, entry.getValue());
+            } else if (geometry && key.startsWith("geometry_")) {
+                projected.put(key, entry.getValue());
+            } else if (key.equals("attributes") && entry.getValue() instanceof Map<?, ?> all) {
+                var kept = new LinkedHashMap<Object, Object>();
+                for (var attr : all.entrySet()) {
+                    if (attributes.contains(String.valueOf(attr.getKey()))) {
+                        kept.put(attr.getKey(), attr.getValue());
+                    }
+                }
+                projected.put(key, kept);
+            }
+        }
+        return projected;
+    }
+
+    @Override
+    public String toString() {
+        var parts = new LinkedHashSet<>(attributes);
+        if (geometry) parts.add(GEOMETRY);
+        return String.join(",", parts);
+    }
+}
@@ -0,0 +1,162 @@
+package live.omnisource.tessera.stream.filter;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed filter expression.
+ *
+ * <p>Evaluation follows SQL three-valued logic ({@code null} is UNKNOWN) so that
+ * fan-out in memory and catch-up in SQL select exactly the same features. A
+ * comparison against a missing attribute, or one whose JSON type differs from the
+ * literal's, is UNKNOWN.</p>
+ */
+sealed interface FilterNode {
+
+    Boolean evaluate(Map<String, Object> attributes);
+
+    void appendSql(FilterSql sql);
+
+    record And(FilterNode left, FilterNode right) implements FilterNode {
+        @Override
+        public Boolean evaluate(Map<String, Object> attributes) {
+            Boolean l = left.evaluate(attributes);
+            if (Boolean.FALSE.equals(l)) return false;
+            Boolean r = right.evaluate(attributes);
+            if (Boolean.FALSE.equals(r)) return false;
+            return l == null || r == null ? null : true;
+        }
+
+        @Override
+        public void appendSql(FilterSql sql) {
+            sql.append("(");
+            left.appendSql(sql);
+            sql.append(" AND ");
+            right.appendSql(sql);
+            sql.append(")");
+        }
+    }
+
+    record Or(FilterNode left, FilterNode right) implements FilterNode {
+        @Override
+        public Boolean evaluate(Map<String, Object> attributes) {
+            Boolean l = left.evaluate(attributes);
+            if (Boolean.TRUE.equals(l)) return true;
+            Boolean r = right.evaluate(attributes);
+            if (Boolean.TRUE.equals(r)) return true;
+            return l == null || r == null ? null : false;
+        }
+
+        @Override
+        public void appendSql(FilterSql sql) {
+            sql.append("(");
+            left.appendSql(sql);
+            sql.append(" OR ");
+            right.appendSql(sql);
+            sql.append(")");
+        }
+    }
+
+    record Not(FilterNode operand) implements FilterNode {
+        @Override
+        public Boolean evaluate(Map<String, Object> attributes) {
+            Boolean v = operand.evaluate(attributes);
+            return v == null ? null : !v;
+        }
+
+        @Override
+        public void appendSql(FilterSql sql) {
+            sql.append("(NOT ");
+            operand.appendSql(sql);
+            sql.append(")");
+        }
+    }
+
+    record Compare(String key, Op op, Object literal) implements FilterNode {
+        @Override
+        public Boolean evaluate(Map<String, Object> attributes) {
+            Object value = typed(attributes.get(key), literal);
+            if (value == null) return null;
+            return op.test(compare(value, literal));
+        }
+
+        @Override
+        public void appendSql(FilterSql sql) {
+            sql.appendAccessor(key, literal);
+            sql.append(" ").append(op.sql).append(" ").appendLiteral(literal);
+        }
+    }
+
+    record In(String key, List<Object> literals) implements FilterNode {
+        @Override
+        public Boolean evaluate(Map<String, Object> attributes) {
+            Object value = typed(attributes.get(key), literals.getFirst());
+            if (value == null) return null;
+            for (Object literal : literals) {
+                if (compare(value, literal) == 0) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void appendSql(FilterSql sql) {
+            sql.appendAccessor(key, literals.getFirst());
+            sql.append(" IN (");
+            for (int i = 0; i < literals.size(); i++) {
+                if (i > 0) sql.append(", ");
+                sql.appendLiteral(literals.get(i));
+            }
+            sql.append(")");
+        }
+    }
+
+    record IsNull(String key, boolean negated) implements FilterNode {
+        @Override
+        public Boolean evaluate(Map<String, Object> attributes) {
+            return (attributes.get(key) == null) != negated;
+        }
+
+        @Override
+        public void appendSql(FilterSql sql) {
+            sql.append("(COALESCE(jsonb_typeof(f.attributes -> ").appendParam(key).append("), 'null') ")
+                    .append(negated ? "<>" : "=").append(" 'null')");
+        }
+    }
+
+    enum Op {
+        EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        final String sql;
+
+        Op(String sql) {
+            this.sql = sql;
+        }
+
+        boolean test(int c) {
+            return switch (this) {
+                case EQ -> c == 0;
+                case NE -> c != 0;
+                case LT -> c < 0;
+                case LE -> c <= 0;
+                case GT -> c > 0;
+                case GE -> c >= 0;
+            };
+        }
+    }
+
+    /** The attribute value as the literal's type, or {@code null} when the JSON types differ. */
+    private static Object typed(Object value, Object literal) {
+        return switch (literal) {
+            case BigDecimal ignored when value instanceof Number n -> new BigDecimal(n.toString());
+            case String ignored when value instanceof String s -> s;
+            case Boolean ignored when value instanceof Boolean b -> b;
+            default -> null;
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object value, Object literal) {
+        return ((Comparable<Object>) value).compareTo(literal);
+    }
+}
@@ -0,0 +1,263 @@
+package live.omnisource.tessera.stream.filter;
+
+import live.omnisource.tessera.exceptions.StreamFilterException;
+import live.omnisource.tessera.stream.filter.FilterNode.Op;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Recursive-descent parser for subscription filters.
+ *
+ * <pre>
+ * expr       := and ( OR and )*
+ * and        := unary ( AND unary )*
+ * unary      := NOT unary | '(' expr ')' | predicate
+ * predicate  := key op literal | key [NOT] IN '(' literal ( ',' literal )* ')' | key IS [NOT] NULL
+ * key        := identifier | "quoted identifier"
+ * literal    := 'string' | number | TRUE | FALSE
+ * op         := = | != | &lt;&gt; | &lt; | &lt;= | &gt; | &gt;=
+ * </pre>
+ */
+final class FilterParser {
+
+    static final int MAX_LENGTH = 2000;
+    private static final int MAX_DEPTH = 32;
+
+    private enum Kind { WORD, KEY, STRING, NUMBER, OP, LPAREN, RPAREN, COMMA, END }
+
+    private record Token(Kind kind, String text, int pos) {
+        boolean isKeyword(String keyword) {
+            return kind == Kind.WORD && text.equalsIgnoreCase(keyword);
+        }
+    }
+
+    private final String input;
+    private final List<Token> tokens;
+    private int index;
+    private int depth;
+
+    private FilterParser(String input) {
+        this.input = input;
+        this.tokens = tokenize(input);
+    }
+
+    static FilterNode parse(String input) {
+        if (input.length() > MAX_LENGTH) {
+            throw new StreamFilterException("Filter exceeds " + MAX_LENGTH + " characters");
+        }
+        var parser = new FilterParser(input);
+        FilterNode node = parser.expr();
+        if (parser.peek().kind() != Kind.END) {
+            throw parser.error("Unexpected '" + parser.peek().text() + "'");
+        }
+        return node;
+    }
+
+    // ── Grammar ──────────────────────────────────────────────
+
+    private FilterNode expr() {
+        if (++depth > MAX_DEPTH) throw error("Filter nested too deeply");
+        FilterNode node = and();
+        while (peek().isKeyword("OR")) {
+            index++;
+            node = new FilterNode.Or(node, and());
+        }
+        depth--;
+        return node;
+    }
+
+    private FilterNode and() {
+        FilterNode node = unary();
+        while (peek().isKeyword("AND")) {
+            index++;
+            node = new FilterNode.And(node, unary());
+        }
+        return node;
+    }
+
+    private FilterNode unary() {
+        Token t = peek();
+        if (t.isKeyword("NOT")) {
+            index++;
+            if (++depth > MAX_DEPTH) throw error("Filter nested too deeply");
+            FilterNode operand = unary();
+            depth--;
+            return new FilterNode.Not(operand);
+        }
+        if (t.kind() == Kind.LPAREN) {
+            index++;
+            FilterNode node = expr();
+            expect(Kind.RPAREN, "')'");
+            return node;
+        }
+        return predicate();
+    }
+
+    private FilterNode predicate() {
+        String key = key();
+        Token t = next();
+
+        if (t.kind() == Kind.OP) {
+            Op op = switch (t.text()) {
+                case "=" -> Op.EQ;
+                case "!=", "<>" -> Op.NE;
+                case "<" -> Op.LT;
+                case "<=" -> Op.LE;
+                case ">" -> Op.GT;
+                default -> Op.GE;
+            };
+            Object literal = literal();
+            if (literal instanceof Boolean && op != Op.EQ && op != Op.NE) {
+                throw error("Booleans only support = and !=");
+            }
+            return new FilterNode.Compare(key, op, literal);
+        }
+        if (t.isKeyword("IS")) {
+            boolean negated = peek().isKeyword("NOT");
+            if (negated) index++;
+            if (!next().isKeyword("NULL")) throw error("Expected NULL after IS");
+            return new FilterNode.IsNull(key, negated);
+        }
+        boolean negated = t.isKeyword("NOT");
+        if (negated) t = next();
+        if (t.isKeyword("IN")) {
+            expect(Kind.LPAREN, "'('");
+            var literals = new ArrayList<Object>();
+            do {
+                Object literal = literal();
+                if (!literals.isEmpty() && literal.getClass() != literals.getFirst().getClass()) {
+                    throw error("IN list mixes literal types");
+                }
+                literals.add(literal);
+            } while (accept(Kind.COMMA));
+            expect(Kind.RPAREN, "')'");
+            FilterNode in = new FilterNode.In(key, List.copyOf(literals));
+            return negated ? new FilterNode.Not(in) : in;
+        }
+        throw error("Expected comparison after '" + key + "'");
+    }
+
+    private String key() {
+        Token t = next();
+        if (t.kind() == Kind.KEY) return t.text();
+        if (t.kind() == Kind.WORD && !isReserved(t.text())) return t.text();
+        throw error("Expected attribute name at position " + t.pos());
+    }
+
+    private Object literal() {
+        Token t = next();
+        if (t.kind() == Kind.STRING) return t.text();
+        if (t.kind() == Kind.NUMBER) return new BigDecimal(t.text());
+        if (t.isKeyword("TRUE")) return Boolean.TRUE;
+        if (t.isKeyword("FALSE")) return Boolean.FALSE;
+        throw error("Expected a literal at position " + t.pos());
+    }
+
+    // ── Tokens ───────────────────────────────────────────────
+
+    private Token peek() {
+        return tokens.get(index);
+    }
+
+    private Token next() {
+        Token t = tokens.get(index);
+        if (t.kind() != Kind.END) index++;
+        return t;
+    }
+
+    private boolean accept(Kind kind) {
+        if (peek().kind() != kind) return false;
+        index++;
+        return true;
+    }
+
+    private void expect(Kind kind, String what) {
+        if (!accept(kind)) throw error("Expected " + what + " at position " + peek().pos());
+    }
+
+    private StreamFilterException error(String message) {
+        return new StreamFilterException("Invalid filter \"" + input + "\": " + message);
+    }
+
+    private static boolean isReserved(String word) {
+        return switch (word.toUpperCase(Locale.ROOT)) {
+            case "AND", "OR", "NOT", "IN", "IS", "NULL", "TRUE", "FALSE" -> true;
+            default -> false;
+        };
+    }
+
+    private static List<Token> tokenize(String s) {
+        var tokens = new ArrayList<Token>();
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                tokens.add(new Token(Kind.LPAREN, "(", i++));
+            } else if (c == ')') {
+                tokens.add(new Token(Kind.RPAREN, ")", i++));
+            } else if (c == ',') {
+                tokens.add(new Token(Kind.COMMA, ",", i++));
+            } else if (c == '\'' || c == '"') {
+                // '' and "" escape the quote inside a literal or quoted key
+                var text = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= s.length()) {
+                        throw new StreamFilterException("Unterminated quote at position " + start);
+                    }
+                    char q = s.charAt(i++);
+                    if (q == c) {
+                        if (i < s.length() && s.charAt(i) == c) {
+                            text.append(c);
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        text.append(q);
+                    }
+                }
+                tokens.add(new Token(c == '\'' ? Kind.STRING : Kind.KEY, text.toString(), start));
+            } else if ("=<>!".indexOf(c) >= 0) {
+                String op = i + 1 < s.length() ? s.substring(i, i + 2) : "";
+                if (op.equals("<=") || op.equals(">=") || op.equals("!=") || op.equals("<>")) {
+                    i += 2;
+                } else if (c != '!') {
+                    op = String.valueOf(c);
+                    i++;
+                } else {
+                    throw new StreamFilterException("Unexpected '!' at position " + start);
+                }
+                tokens.add(new Token(Kind.OP, op, start));
+            } else if (Character.isDigit(c) || c == '-' || c == '.') {
+                i++;
+                while (i < s.length() && (Character.isDigit(s.charAt(i)) || ".eE".indexOf(s.charAt(i)) >= 0
+                        || ((s.charAt(i) == '-' || s.charAt(i) == '+') && "eE".indexOf(s.charAt(i - 1)) >= 0))) {
+                    i++;
+                }
+                String number = s.substring(start, i);
+                try {
+                    new BigDecimal(number);
+                } catch (NumberFormatException e) {
+                    throw new StreamFilterException("Invalid number '" + number + "' at position " + start);
+                }
+                tokens.add(new Token(Kind.NUMBER, number, start));
+            } else if (Character.isLetter(c) || c == '_') {
+                while (i < s.length() && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '_')) {
+                    i++;
+                }
+                tokens.add(new Token(Kind.WORD, s.substring(start, i), start));
+            } else {
+                throw new StreamFilterException("Unexpected '" + c + "' at position " + start);
+            }
+        }
+        tokens.add(new Token(Kind.END, "end of filter", s.length()));
+        return tokens;
+    }
+}
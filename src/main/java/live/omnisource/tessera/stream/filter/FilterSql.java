@@ -0,0 +1,73 @@
+package live.omnisource.tessera.stream.filter;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * SQL rendering state for a {@link FilterNode} tree. Attribute keys and literals
+ * are always bound as parameters; the typed accessor mirrors the in-memory rule
+ * that a value of another JSON type compares as UNKNOWN.
+ */
+final class FilterSql {
+
+    private final StringBuilder sql = new StringBuilder();
+    private final Map<String, Object> params;
+    private int next;
+
+    FilterSql(Map<String, Object> params) {
+        this.params = params;
+    }
+
+    FilterSql append(String s) {
+        sql.append(s);
+        return this;
+    }
+
+    FilterSql appendParam(Object value) {
+        String name = "filter" + next++;
+        params.put(name, value);
+        sql.append(':').append(name);
+        return this;
+    }
+
+    FilterSql appendLiteral(Object literal) {
+        sql.append("CAST(");
+        appendParam(literal);
+        return append(" AS ").append(castType(literal)).append(")");
+    }
+
+    FilterSql appendAccessor(String key, Object literal) {
+        String json = "f.attributes -> :filter" + next;
+        String text = "f.attributes ->> :filter" + next;
+        params.put("filter" + next++, key);
+        return switch (literal) {
+            case BigDecimal ignored -> append("(CASE WHEN jsonb_typeof(" + json + ") = 'number' THEN ("
+                    + text + ")::numeric END)");
+            case Boolean ignored -> append("(CASE WHEN jsonb_typeof(" + json + ") = 'boolean' THEN ("
+                    + text + ")::boolean END)");
+            default -> append("(CASE WHEN jsonb_typeof(" + json + ") = 'string' THEN "
+                    + text + " END) COLLATE \"C\"");
+        };
+    }
+
+    /** {@code @>} probe for the GIN index on attributes; implied by an equality on the same key. */
+    FilterSql appendContainment(String key, Object literal) {
+        append("f.attributes @> jsonb_build_object(");
+        appendParam(key);
+        append(", ");
+        return appendLiteral(literal).append(")");
+    }
+
+    private static String castType(Object literal) {
+        return switch (literal) {
+            case BigDecimal ignored -> "numeric";
+            case Boolean ignored -> "boolean";
+            default -> "text";
+        };
+    }
+
+    @Override
+    public String toString() {
+        return sql.toString();
+    }
+}
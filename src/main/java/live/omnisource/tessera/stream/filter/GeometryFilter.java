@@ -0,0 +1,58 @@
+package live.omnisource.tessera.stream.filter;
+
+import live.omnisource.tessera.stream.StreamFeature;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.WKBWriter;
+
+import java.util.Map;
+
+/**
+ * Area a subscription is restricted to: a polygon, or a line or point buffered
+ * into a corridor. Built by {@link GeometryFilters}, which shares one instance
+ * between subscriptions asking for the same area.
+ *
+ * <p>In memory a feature is tested against the area's envelope first and then
+ * against the prepared geometry; in SQL the area is an {@code ST_Intersects}
+ * bound to its WKB, which the GiST index on {@code geometry} serves.</p>
+ */
+public final class GeometryFilter {
+
+    private final String geoJson;
+    private final Double bufferMeters;
+    private final Geometry area;
+    private final Envelope envelope;
+    private final PreparedGeometry prepared;
+    private final byte[] wkb;
+
+    GeometryFilter(String geoJson, Double bufferMeters, Geometry area) {
+        this.geoJson = geoJson;
+        this.bufferMeters = bufferMeters;
+        this.area = area;
+        this.envelope = area.getEnvelopeInternal();
+        this.prepared = PreparedGeometryFactory.prepare(area);
+        this.wkb = new WKBWriter().write(area);
+    }
+
+    public boolean test(StreamFeature feature) {
+        if (!envelope.intersects(feature.envelope())) return false;
+        Geometry geometry = feature.shape().geometry();
+        return geometry != null && prepared.intersects(geometry);
+    }
+
+    /** SQL predicate on {@code f.geometry}; binds {@code :area} into {@code params}. */
+    public String toSql(Map<String, Object> params) {
+        params.put("area", wkb);
+        return "ST_Intersects(f.geometry, ST_GeomFromWKB(:area, 4326))";
+    }
+
+    /** Bounding box of the (buffered) area, used as the batch-level prefilter. */
+    public Envelope envelope()      { return envelope; }
+    public Geometry area()          { return area; }
+
+    /** The geometry as the client sent it, before buffering. */
+    public String geoJson()         { return geoJson; }
+    public Double bufferMeters()    { return bufferMeters; }
+}
@@ -0,0 +1,102 @@
+package live.omnisource.tessera.stream.filter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import live.omnisource.tessera.exceptions.StreamFilterException;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.util.GeometryFixer;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.geojson.GeoJsonReader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Builds {@link GeometryFilter}s from client GeoJSON and shares them.
+ *
+ * <p>A polygon is used as sent (repaired if invalid). A line, point or polygon
+ * with {@code bufferMeters} is buffered by PostGIS on {@code geography}, so the
+ * distance is in metres wherever the corridor lies. Filters are cached by their
+ * normalized geometry and buffer, and held weakly: every subscription on the same
+ * city boundary or route shares one prepared geometry, and it is dropped once the
+ * last of them goes.</p>
+ */
+@Component
+public class GeometryFilters {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(new PrecisionModel(), 4326);
+    private static final int MAX_VERTICES = 10_000;
+    private static final double MAX_BUFFER_METERS = 200_000;
+
+    private static final String BUFFER_SQL = """
+            SELECT ST_AsBinary(ST_Buffer(ST_GeomFromWKB(?, 4326)::geography, ?)::geometry)
+            """;
+
+    private record Key(String wkbHex, Double bufferMeters) {}
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<Key, GeometryFilter> filters = CacheBuilder.newBuilder()
+            .weakValues()
+            .build();
+
+    public GeometryFilters(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @param geoJson      a GeoJSON geometry
+     * @param bufferMeters corridor half-width; required unless the geometry is a polygon
+     * @return the filter, or {@code null} when {@code geoJson} is blank
+     */
+    public GeometryFilter compile(String geoJson, Double bufferMeters) {
+        if (geoJson == null || geoJson.isBlank()) return null;
+
+        Geometry geometry;
+        try {
+            geometry = new GeoJsonReader(GEOMETRY_FACTORY).read(geoJson);
+        } catch (Exception e) {
+            throw new StreamFilterException("Invalid area geometry: " + e.getMessage());
+        }
+        if (geometry.isEmpty()) {
+            throw new StreamFilterException("Area geometry is empty");
+        }
+        if (geometry.getNumPoints() > MAX_VERTICES) {
+            throw new StreamFilterException("Area geometry has more than " + MAX_VERTICES + " vertices");
+        }
+
+        Double buffer = bufferMeters != null && bufferMeters > 0 ? bufferMeters : null;
+        if (buffer == null && !(geometry instanceof Polygonal)) {
+            throw new StreamFilterException("A " + geometry.getGeometryType() + " area needs bufferMeters");
+        }
+        if (buffer != null && buffer > MAX_BUFFER_METERS) {
+            throw new StreamFilterException("bufferMeters may be at most " + (long) MAX_BUFFER_METERS);
+        }
+
+        geometry.setSRID(4326);
+        Geometry normalized = geometry.norm();
+        var key = new Key(WKBWriter.toHex(new WKBWriter().write(normalized)), buffer);
+        try {
+            return filters.get(key, () -> new GeometryFilter(geoJson, buffer, area(normalized, buffer)));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof StreamFilterException sfe) throw sfe;
+            throw new StreamFilterException("Could not build area filter: " + e.getCause().getMessage());
+        }
+    }
+
+    private Geometry area(Geometry geometry, Double bufferMeters) throws Exception {
+        if (bufferMeters == null) {
+            return geometry.isValid() ? geometry : GeometryFixer.fix(geometry);
+        }
+        byte[] wkb = jdbcTemplate.queryForObject(BUFFER_SQL, byte[].class,
+                new WKBWriter().write(geometry), bufferMeters);
+        Geometry buffered = new WKBReader(GEOMETRY_FACTORY).read(wkb);
+        buffered.setSRID(4326);
+        return buffered;
+    }
+}
@@ -0,0 +1,32 @@
+package live.omnisource.tessera.stream.h3;
+
+import com.uber.h3core.H3Core;
+
+/**
+ * {@code h3_index_int} ranges for index range scans over {@code h3_cell_index}.
+ *
+ * <p>The descendants of a cell at a finer resolution share its bits down to the
+ * cell's own digits and differ only in the digits below, which run from 0 to 6;
+ * so they fill one contiguous range of the integer index, with no other cell
+ * of that resolution in between.</p>
+ */
+public final class CellRanges {
+
+    private CellRanges() {}
+
+    /**
+     * Smallest and largest possible index of {@code cell}'s descendants at
+     * {@code resolution}, as {@code {low, high}}.
+     */
+    public static long[] descendants(H3Core h3, long cell, int resolution) {
+        long child = h3.cellToCenterChild(cell, resolution);
+        long low = child;
+        long high = child;
+        for (int r = h3.getResolution(cell) + 1; r <= resolution; r++) {
+            int shift = 3 * (15 - r);
+            low &= ~(7L << shift);
+            high = (high & ~(7L << shift)) | (6L << shift);
+        }
+        return new long[]{low, high};
+    }
+}
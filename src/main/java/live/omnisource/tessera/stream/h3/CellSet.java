@@ -0,0 +1,153 @@
+package live.omnisource.tessera.stream.h3;
+
+import com.uber.h3core.H3Core;
+import com.uber.h3core.util.LatLng;
+import live.omnisource.tessera.exceptions.StreamFilterException;
+import live.omnisource.tessera.stream.StreamFeature;
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A subscription's area as H3 cells at one resolution, stored compacted.
+ *
+ * <p>A feature matches when the cell of its centroid at {@link #resolution()},
+ * or one of that cell's parents, is in the compacted set, so matching is a
+ * handful of hash lookups instead of an envelope test. Catch-up pushes the same
+ * rule into SQL with the h3 extension, behind a bbox prefilter on the cells'
+ * bounds.</p>
+ */
+public final class CellSet {
+
+    public static final int MAX_CELLS = 10_000;
+
+    private final H3Core h3;
+    private final int resolution;
+    private final Set<Long> compacted;
+    /** Resolutions present in {@link #compacted}, finest first. */
+    private final int[] levels;
+    private final Envelope bounds;
+
+    private CellSet(H3Core h3, int resolution, Set<Long> compacted, Envelope bounds) {
+        this.h3 = h3;
+        this.resolution = resolution;
+        this.compacted = compacted;
+        this.levels = compacted.stream()
+                .mapToInt(h3::getResolution)
+                .distinct()
+                .map(r -> -r).sorted().map(r -> -r)
+                .toArray();
+        this.bounds = bounds;
+    }
+
+    /**
+     * @param cells      H3 addresses, all at the same resolution
+     * @param resolution the resolution features are matched at, or {@code null}
+     *                   for the resolution of the cells
+     */
+    public static CellSet of(H3Core h3, Collection<String> cells, Integer resolution) {
+        if (cells.isEmpty() || cells.size() > MAX_CELLS) {
+            throw new StreamFilterException("A cell set needs between 1 and " + MAX_CELLS + " cells");
+        }
+
+        var parsed = new HashSet<Long>();
+        for (String address : cells) {
+            long cell;
+            try {
+                cell = h3.stringToH3(address.strip());
+            } catch (IllegalArgumentException e) {
+                throw new StreamFilterException("Invalid H3 cell: " + address);
+            }
+            if (!h3.isValidCell(cell)) {
+                throw new StreamFilterException("Invalid H3 cell: " + address);
+            }
+            if (resolution == null) {
+                resolution = h3.getResolution(cell);
+            }
+            if (h3.getResolution(cell) != resolution) {
+                throw new StreamFilterException("Not a resolution " + resolution + " H3 cell: " + address);
+            }
+            parsed.add(cell);
+        }
+
+        var compacted = Set.copyOf(h3.compactCells(parsed));
+        return new CellSet(h3, resolution, compacted, boundsOf(h3, compacted));
+    }
+
+    public boolean contains(StreamFeature feature) {
+        long cell = feature.cells().at(resolution, h3);
+        for (int level : levels) {
+            long key = level == resolution ? cell : h3.cellToParent(cell, level);
+            if (compacted.contains(key)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * SQL condition over {@code tessera.geo_features f}. Cells are grouped by
+     * resolution so each group is one {@code IN} against the centroid cell's parent.
+     */
+    public String toSql(Map<String, Object> params) {
+        var byLevel = new TreeMap<Integer, List<Long>>();
+        for (long cell : compacted) {
+            byLevel.computeIfAbsent(h3.getResolution(cell), r -> new ArrayList<>()).add(cell);
+        }
+
+        params.put("cellRes", resolution);
+        var sql = new StringBuilder("(");
+        if (bounds != null) {
+            sql.append("f.geometry && ST_MakeEnvelope(:cellMinX, :cellMinY, :cellMaxX, :cellMaxY, 4326) AND ");
+            params.put("cellMinX", bounds.getMinX());
+            params.put("cellMinY", bounds.getMinY());
+            params.put("cellMaxX", bounds.getMaxX());
+            params.put("cellMaxY", bounds.getMaxY());
+        }
+        sql.append("(");
+        boolean first = true;
+        for (var level : byLevel.entrySet()) {
+            if (!first) sql.append(" OR ");
+            first = false;
+            String name = "cellsR" + level.getKey();
+            params.put(name, level.getValue());
+            sql.append("h3_cell_to_parent(h3_lat_lng_to_cell(ST_Centroid(f.geometry)::point, :cellRes), ")
+                    .append(level.getKey()).append(")::bigint IN (:").append(name).append(")");
+        }
+        return sql.append("))").toString();
+    }
+
+    /** Compacted cells, for bucket indexing. */
+    public Set<Long> compacted()    { return compacted; }
+    public int resolution()         { return resolution; }
+
+    /** Bounds of all cells, or {@code null} when a cell crosses the antimeridian. */
+    public Envelope bounds()        { return bounds; }
+
+    public int size()               { return compacted.size(); }
+
+    private static Envelope boundsOf(H3Core h3, Set<Long> cells) {
+        var env = new Envelope();
+        for (long cell : cells) {
+            var cellEnv = new Envelope();
+            for (LatLng vertex : h3.cellToBoundary(cell)) {
+                cellEnv.expandToInclude(vertex.lng, vertex.lat);
+            }
+            if (cellEnv.getWidth() > 180) return null;
+            env.expandToInclude(cellEnv);
+        }
+        return env;
+    }
+
+    @Override
+    public String toString() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (long cell : compacted) counts.merge(h3.getResolution(cell), 1, Integer::sum);
+        return "CellSet[res=" + resolution + ", compacted=" + counts + "]";
+    }
+}
@@ -0,0 +1,408 @@
+package live.omnisource.tessera.stream.h3;
+
+import com.uber.h3core.H3Core;
+import com.uber.h3core.util.LatLng;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.StreamBatch;
+import live.omnisource.tessera.stream.StreamBroker;
+import live.omnisource.tessera.stream.StreamCursor;
+import live.omnisource.tessera.stream.StreamFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Live per-cell feature counts for zoomed-out clients.
+ *
+ * <p>One grid is kept per {@link DensitySpec} while anyone listens to it. A grid is
+ * bootstrapped over the current version of each feature as of a stream cursor
+ * watermark, then maintained from the broker's batches: each new version adds to
+ * its cell and removes its previous version from the old one. Both paths place a
+ * feature by the cell of its {@code ST_Centroid} at the requested resolution, as
+ * {@link FeatureCells} does, so a removal always finds the cell its addition
+ * counted in; rolling up indexed cells with {@code h3_cell_to_parent} would not,
+ * since a parent does not contain all of its children's points. Changed cells are pushed on a fixed cadence rather
+ * than per batch, so a busy source costs clients one small message per tick.</p>
+ *
+ * <p>A grid remembers the last version it applied per feature and skips any
+ * version that is not newer, so a batch seen twice, or an older version arriving
+ * after a newer one, does not count a feature again.</p>
+ *
+ * <p>This replaces refreshing {@code mv_h3_density_r7}, which counts every stored
+ * version and goes stale between refreshes.</p>
+ */
+@Slf4j
+@Component
+public class DensityAggregator {
+
+    private final FeatureDeltaQuery deltaQuery;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final StreamBroker broker;
+    private final H3Core h3;
+    private final Executor taskExecutor;
+
+    private final ConcurrentHashMap<DensitySpec, Grid> grids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Grid> listenerGrids = new ConcurrentHashMap<>();
+    private final Consumer<StreamBatch> batchListener = this::onBatch;
+
+    public DensityAggregator(FeatureDeltaQuery deltaQuery,
+                             NamedParameterJdbcTemplate jdbcTemplate,
+                             StreamBroker broker,
+                             H3Core h3Core,
+                             Executor taskExecutor) {
+        this.deltaQuery = deltaQuery;
+        this.jdbcTemplate = jdbcTemplate;
+        this.broker = broker;
+        this.h3 = h3Core;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Start receiving density updates for {@code spec}, limited to cells whose
+     * center lies in {@code bbox} (all cells when {@code null}).
+     *
+     * @return a handle for {@link #unsubscribe}
+     */
+    public String subscribe(DensitySpec spec, Envelope bbox, Consumer<DensityUpdate> callback) {
+        String handle = UUID.randomUUID().toString();
+        var listener = new Listener(bbox, callback);
+
+        Grid grid;
+        boolean created;
+        synchronized (grids) {
+            grid = grids.get(spec);
+            created = grid == null;
+            if (created) {
+                grid = new Grid(spec);
+                grids.put(spec, grid);
+                if (grids.size() == 1) broker.addBatchListener(batchListener);
+            }
+            grid.listeners.put(handle, listener);
+            listenerGrids.put(handle, grid);
+        }
+
+        if (created) {
+            Grid bootstrapping = grid;
+            taskExecutor.execute(() -> bootstrap(bootstrapping));
+        } else {
+            sendFull(grid, listener);
+        }
+        log.info("Density listener {} on {} (bbox={})", handle, spec, bbox != null ? bbox : "global");
+        return handle;
+    }
+
+    public void unsubscribe(String handle) {
+        synchronized (grids) {
+            Grid grid = listenerGrids.remove(handle);
+            if (grid == null) return;
+            grid.listeners.remove(handle);
+            if (grid.listeners.isEmpty()) {
+                grids.remove(grid.spec);
+                if (grids.isEmpty()) broker.removeBatchListener(batchListener);
+                log.info("Density grid {} dropped", grid.spec);
+            }
+        }
+    }
+
+    // ── Bootstrap ────────────────────────────────────────────
+
+    private void bootstrap(Grid grid) {
+        DensitySpec spec = grid.spec;
+        try {
+            // Nothing commits behind the head, so batches past it are exactly the ones
+            // the counts leave out; the grid already queues them while this runs
+            StreamCursor watermark = deltaQuery.fetchHead();
+
+            var params = new HashMap<String, Object>();
+            String sql = bootstrapSql(spec, watermark, params);
+            var counts = new HashMap<Long, CellStats>();
+            jdbcTemplate.query(sql, params, rs -> {
+                long cell = rs.getLong("cell");
+                var stats = newStats(cell, spec);
+                stats.count = rs.getLong("feature_count");
+                for (int i = 0; i < stats.sums.length; i++) {
+                    stats.sums[i] = rs.getDouble("sum_" + i);
+                }
+                counts.put(cell, stats);
+            });
+
+            List<StreamBatch> queued;
+            synchronized (grid) {
+                grid.cells.putAll(counts);
+                grid.watermark = watermark;
+                grid.ready = true;
+                queued = new ArrayList<>(grid.pending);
+                grid.pending.clear();
+            }
+            for (StreamBatch batch : queued) {
+                apply(List.of(grid), batch);
+            }
+            log.info("Density grid {} bootstrapped: {} cells as of {}", spec, counts.size(), watermark);
+
+            for (Listener listener : grid.listeners.values()) {
+                sendFull(grid, listener);
+            }
+        } catch (Exception e) {
+            log.warn("Density bootstrap failed for {}: {}", spec, e.getMessage());
+        }
+    }
+
+    /**
+     * Current versions only (no newer row up to the watermark), grouped by the cell
+     * of their centroid, the same point {@code FeatureDeltaQuery} hands to
+     * {@link FeatureCells} for live batches.
+     */
+    private String bootstrapSql(DensitySpec spec, StreamCursor watermark, Map<String, Object> params) {
+        params.put("watermarkUpdatedAt", Timestamp.from(watermark.updatedAt()));
+        params.put("watermarkId", watermark.id());
+        params.put("resolution", spec.resolution());
+
+        var select = new StringBuilder(
+                "SELECT h3_lat_lng_to_cell(ST_Centroid(f.geometry)::point, :resolution)::bigint AS cell,"
+                        + " count(*) AS feature_count");
+        for (int i = 0; i < spec.sumFields().size(); i++) {
+            params.put("sumKey" + i, spec.sumFields().get(i));
+            select.append(", coalesce(sum(CASE WHEN jsonb_typeof(f.attributes -> :sumKey").append(i)
+                    .append(") = 'number' THEN (f.attributes ->> :sumKey").append(i)
+                    .append(")::numeric END), 0) AS sum_").append(i);
+        }
+
+        var where = new StringBuilder(" WHERE (f.updated_at, f.id) <= (:watermarkUpdatedAt, :watermarkId)");
+        if (spec.sourceId() != null) {
+            where.append(" AND f.source_id = :sourceId::uuid");
+            params.put("sourceId", spec.sourceId().toString());
+        }
+        if (spec.sourceTable() != null) {
+            where.append(" AND f.source_table = :sourceTable");
+            params.put("sourceTable", spec.sourceTable());
+        }
+        where.append("""
+                 AND NOT EXISTS (
+                    SELECT 1 FROM tessera.geo_features n
+                    WHERE n.external_id = f.external_id
+                      AND n.source_id = f.source_id
+                      AND n.source_table = f.source_table
+                      AND n.id > f.id
+                      AND (n.updated_at, n.id) <= (:watermarkUpdatedAt, :watermarkId))
+                """);
+
+        return select + " FROM tessera.geo_features f" + where + " GROUP BY 1";
+    }
+
+    // ── Incremental updates ──────────────────────────────────
+
+    private void onBatch(StreamBatch batch) {
+        var matching = new ArrayList<Grid>();
+        for (Grid grid : grids.values()) {
+            if (grid.spec.sourceId() != null && !grid.spec.sourceId().equals(batch.sourceId())) continue;
+            if (grid.spec.sourceTable() != null && !grid.spec.sourceTable().equals(batch.sourceTable())) continue;
+            synchronized (grid) {
+                if (!grid.ready) {
+                    grid.pending.add(batch);
+                    continue;
+                }
+            }
+            matching.add(grid);
+        }
+        if (!matching.isEmpty()) {
+            apply(matching, batch);
+        }
+    }
+
+    private void apply(List<Grid> targets, StreamBatch batch) {
+        List<StreamFeature> features = batch.features();
+        if (features.isEmpty()) return;
+
+        // Previous version of each feature: earlier in this batch, else the latest stored row
+        var externalIds = new HashSet<String>();
+        for (StreamFeature f : features) {
+            if (f.externalId() != null) externalIds.add(f.externalId());
+        }
+        Map<String, StreamFeature> stored = deltaQuery.fetchPreviousVersions(
+                batch.sourceId(), batch.sourceTable(), externalIds, features.getFirst().id());
+
+        var current = new HashMap<String, StreamFeature>(stored);
+        var previous = new ArrayList<StreamFeature>(features.size());
+        for (StreamFeature f : features) {
+            previous.add(f.externalId() != null ? current.put(f.externalId(), f) : null);
+        }
+
+        for (Grid grid : targets) {
+            synchronized (grid) {
+                for (int i = 0; i < features.size(); i++) {
+                    StreamFeature feature = features.get(i);
+                    if (!feature.cursor().isAfter(grid.watermark)) continue;
+                    if (feature.externalId() != null) {
+                        var key = new FeatureKey(feature.sourceId(), feature.sourceTable(), feature.externalId());
+                        Long last = grid.applied.get(key);
+                        if (last != null && last >= feature.id()) continue;
+                        grid.applied.put(key, feature.id());
+                    }
+                    StreamFeature prior = previous.get(i);
+                    if (prior != null) add(grid, prior, -1);
+                    add(grid, feature, 1);
+                }
+            }
+        }
+    }
+
+    private void add(Grid grid, StreamFeature feature, int sign) {
+        DensitySpec spec = grid.spec;
+        long cell = feature.cells().at(spec.resolution(), h3);
+        CellStats stats = grid.cells.get(cell);
+        if (stats == null) {
+            if (sign < 0) return;
+            stats = newStats(cell, spec);
+            grid.cells.put(cell, stats);
+        }
+        stats.count += sign;
+        Map<String, Object> attributes = feature.attributes();
+        for (int i = 0; i < stats.sums.length; i++) {
+            if (attributes.get(spec.sumFields().get(i)) instanceof Number n) {
+                stats.sums[i] += sign * n.doubleValue();
+            }
+        }
+        if (stats.count <= 0) {
+            grid.cells.remove(cell);
+        }
+        grid.dirty.add(cell);
+    }
+
+    // ── Push ─────────────────────────────────────────────────
+
+    @Scheduled(fixedDelayString = "${tessera.stream.density-interval-ms:1000}")
+    public void pushChanges() {
+        for (Grid grid : grids.values()) {
+            List<Map<String, Object>> changed;
+            synchronized (grid) {
+                if (!grid.ready || grid.dirty.isEmpty()) continue;
+                changed = new ArrayList<>(grid.dirty.size());
+                for (long cell : grid.dirty) {
+                    CellStats stats = grid.cells.get(cell);
+                    changed.add(stats != null ? toMap(stats, grid.spec) : emptied(cell));
+                }
+                grid.dirty.clear();
+            }
+            for (Listener listener : grid.listeners.values()) {
+                send(listener, new DensityUpdate(grid.spec.resolution(), false, listener.select(changed)));
+            }
+        }
+    }
+
+    private void sendFull(Grid grid, Listener listener) {
+        List<Map<String, Object>> all;
+        synchronized (grid) {
+            if (!grid.ready) return;
+            all = new ArrayList<>(grid.cells.size());
+            for (CellStats stats : grid.cells.values()) {
+                all.add(toMap(stats, grid.spec));
+            }
+        }
+        send(listener, new DensityUpdate(grid.spec.resolution(), true, listener.select(all)));
+    }
+
+    private void send(Listener listener, DensityUpdate update) {
+        if (!update.full() && update.cells().isEmpty()) return;
+        try {
+            listener.callback.accept(update);
+        } catch (Exception e) {
+            log.debug("Density delivery failed: {}", e.getMessage());
+        }
+    }
+
+    private Map<String, Object> toMap(CellStats stats, DensitySpec spec) {
+        var map = new LinkedHashMap<String, Object>();
+        map.put("cell", stats.address);
+        map.put("lat", stats.lat);
+        map.put("lng", stats.lng);
+        map.put("count", stats.count);
+        if (stats.sums.length > 0) {
+            var sums = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < stats.sums.length; i++) {
+                sums.put(spec.sumFields().get(i), stats.sums[i]);
+            }
+            map.put("sums", sums);
+        }
+        return map;
+    }
+
+    private Map<String, Object> emptied(long cell) {
+        LatLng center = h3.cellToLatLng(cell);
+        var map = new LinkedHashMap<String, Object>();
+        map.put("cell", h3.h3ToString(cell));
+        map.put("lat", center.lat);
+        map.put("lng", center.lng);
+        map.put("count", 0L);
+        return map;
+    }
+
+    private CellStats newStats(long cell, DensitySpec spec) {
+        LatLng center = h3.cellToLatLng(cell);
+        return new CellStats(h3.h3ToString(cell), center.lat, center.lng, spec.sumFields().size());
+    }
+
+    // ── State ────────────────────────────────────────────────
+
+    private record FeatureKey(UUID sourceId, String sourceTable, String externalId) {}
+
+    private static final class Grid {
+        final DensitySpec spec;
+        final Map<Long, CellStats> cells = new HashMap<>();
+        /** Id of the version last counted per feature since the bootstrap. */
+        final Map<FeatureKey, Long> applied = new HashMap<>();
+        final Set<Long> dirty = new HashSet<>();
+        final Map<String, Listener> listeners = new ConcurrentHashMap<>();
+        /** Batches seen while bootstrapping, applied once the counts are loaded. */
+        final List<StreamBatch> pending = new ArrayList<>();
+        /** Versions at or before this position are in the bootstrap counts. */
+        StreamCursor watermark;
+        boolean ready;
+
+        Grid(DensitySpec spec) {
+            this.spec = spec;
+        }
+    }
+
+    private static final class CellStats {
+        final String address;
+        final double lat;
+        final double lng;
+        final double[] sums;
+        long count;
+
+        CellStats(String address, double lat, double lng, int sumCount) {
+            this.address = address;
+            this.lat = lat;
+            this.lng = lng;
+            this.sums = new double[sumCount];
+        }
+    }
+
+    private record Listener(Envelope bbox, Consumer<DensityUpdate> callback) {
+        List<Map<String, Object>> select(List<Map<String, Object>> cells) {
+            if (bbox == null) return cells;
+            var selected = new ArrayList<Map<String, Object>>();
+            for (var cell : cells) {
+                if (bbox.contains((double) cell.get("lng"), (double) cell.get("lat"))) {
+                    selected.add(cell);
+                }
+            }
+            return selected;
+        }
+    }
+}
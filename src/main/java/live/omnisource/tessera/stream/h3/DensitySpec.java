@@ -0,0 +1,35 @@
+package live.omnisource.tessera.stream.h3;
+
+import live.omnisource.tessera.exceptions.StreamFilterException;
+import live.omnisource.tessera.stream.StreamFeature;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * What a density grid aggregates: feature counts per H3 cell at
+ * {@code resolution}, optionally restricted to one source, plus per-cell sums of
+ * the numeric attributes in {@code sumFields}. Clients asking for the same spec
+ * share one grid.
+ */
+public record DensitySpec(int resolution, UUID sourceId, String sourceTable, List<String> sumFields) {
+
+    public static final int MAX_RESOLUTION = 9;
+    public static final int MAX_SUM_FIELDS = 8;
+
+    public DensitySpec {
+        if (resolution < 0 || resolution > MAX_RESOLUTION) {
+            throw new StreamFilterException("Density resolution must be between 0 and " + MAX_RESOLUTION);
+        }
+        sumFields = sumFields == null ? List.of()
+                : sumFields.stream().map(String::strip).filter(s -> !s.isEmpty()).distinct().toList();
+        if (sumFields.size() > MAX_SUM_FIELDS) {
+            throw new StreamFilterException("At most " + MAX_SUM_FIELDS + " sum fields");
+        }
+    }
+
+    public boolean matches(StreamFeature feature) {
+        return (sourceId == null || sourceId.equals(feature.sourceId()))
+                && (sourceTable == null || sourceTable.equals(feature.sourceTable()));
+    }
+}
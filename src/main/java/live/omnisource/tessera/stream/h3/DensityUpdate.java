@@ -0,0 +1,10 @@
+package live.omnisource.tessera.stream.h3;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cells pushed to a density client. The first update is {@code full}; later ones
+ * carry only cells that changed, with {@code count = 0} for cells that emptied.
+ */
+public record DensityUpdate(int resolution, boolean full, List<Map<String, Object>> cells) {}
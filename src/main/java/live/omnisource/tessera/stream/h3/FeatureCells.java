@@ -0,0 +1,41 @@
+package live.omnisource.tessera.stream.h3;
+
+import com.uber.h3core.H3Core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A feature's centroid and its H3 cell per resolution, computed on first use.
+ *
+ * <p>A batch is fanned out to every subscription from the same
+ * {@code StreamFeature} instances, so each cell is computed once per feature
+ * and resolution no matter how many cell-set subscriptions look at it. The
+ * centroid matches the one {@code FeatureBatchWriter} indexes in
+ * {@code h3_cell_index}.</p>
+ */
+public final class FeatureCells {
+
+    /** Not a valid H3 index, so it marks an empty slot. */
+    private static final long UNSET = 0L;
+
+    private final double lat;
+    private final double lng;
+    private final AtomicLongArray cells = new AtomicLongArray(16);
+
+    public FeatureCells(double lat, double lng) {
+        this.lat = lat;
+        this.lng = lng;
+    }
+
+    public long at(int resolution, H3Core h3) {
+        long cell = cells.get(resolution);
+        if (cell == UNSET) {
+            cell = h3.latLngToCell(lat, lng, resolution);
+            cells.set(resolution, cell);
+        }
+        return cell;
+    }
+
+    public double lat() { return lat; }
+    public double lng() { return lng; }
+}
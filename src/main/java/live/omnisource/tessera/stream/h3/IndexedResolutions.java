@@ -0,0 +1,89 @@
+package live.omnisource.tessera.stream.h3;
+
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The configured H3 resolutions that {@code h3_cell_index} actually holds rows at.
+ *
+ * <p>Partitions exist for every configured resolution, but sync only indexes some
+ * of them, and a query against an empty partition finds nothing rather than
+ * failing. Readers that pick a partition take it from here. Each partition is
+ * probed with one {@code EXISTS}. A populated partition is not probed again;
+ * while some configured resolution is still empty, only those are re-probed,
+ * every {@value #PROBE_INTERVAL_MS} ms, or after {@value #INGEST_PROBE_INTERVAL_MS}
+ * ms once an ingest may have filled them.</p>
+ */
+@Component
+public class IndexedResolutions {
+
+    private static final long PROBE_INTERVAL_MS = 60_000;
+    private static final long INGEST_PROBE_INTERVAL_MS = 1_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final List<Integer> configured;
+
+    private volatile List<Integer> populated;
+    private volatile long probedAt;
+    private volatile boolean ingestedSinceProbe;
+
+    public IndexedResolutions(JdbcTemplate jdbcTemplate, ApplicationProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.configured = properties.h3().resolutions().stream().sorted().distinct().toList();
+    }
+
+    /** Populated resolutions, coarsest first; empty before the first sync. */
+    public List<Integer> populated() {
+        List<Integer> known = populated;
+        long interval = ingestedSinceProbe ? INGEST_PROBE_INTERVAL_MS : PROBE_INTERVAL_MS;
+        if (known != null && (known.size() == configured.size()
+                || System.currentTimeMillis() - probedAt < interval)) {
+            return known;
+        }
+        // Cleared first, so an ingest while probing makes the next probe due early again
+        ingestedSinceProbe = false;
+        var found = new ArrayList<Integer>(configured.size());
+        for (int resolution : configured) {
+            if (known != null && known.contains(resolution)) {
+                found.add(resolution);
+                continue;
+            }
+            Boolean exists = jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM tessera.h3_cell_index WHERE resolution = ?)",
+                    Boolean.class, resolution);
+            if (Boolean.TRUE.equals(exists)) found.add(resolution);
+        }
+        known = List.copyOf(found);
+        probedAt = System.currentTimeMillis();
+        populated = known;
+        return known;
+    }
+
+    /** The coarsest populated resolution at or finer than {@code resolution}, or {@code null}. */
+    public Integer atOrFinerThan(int resolution) {
+        for (int indexed : populated()) {
+            if (indexed >= resolution) return indexed;
+        }
+        return null;
+    }
+
+    /** The finest populated resolution, or {@code null} when nothing is indexed. */
+    public Integer finest() {
+        List<Integer> known = populated();
+        return known.isEmpty() ? null : known.getLast();
+    }
+
+    @EventListener
+    public void onFeatureIngested(FeatureIngestEvent event) {
+        List<Integer> known = populated;
+        if (known != null && known.size() < configured.size()) {
+            ingestedSinceProbe = true;
+        }
+    }
+}
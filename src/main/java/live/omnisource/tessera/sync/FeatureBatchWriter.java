@@ -1,6 +1,7 @@
 package live.omnisource.tessera.sync;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
 import live.omnisource.tessera.stream.event.FeatureIngestEvent;
 import live.omnisource.tessera.sync.dto.ExtractedFeature;
 import lombok.extern.slf4j.Slf4j;
@@ -32,12 +33,31 @@ public class FeatureBatchWriter {
 
     private static final int BATCH_SIZE = 500;
 
+    /**
+     * Transaction-scoped advisory lock held by every writer of one source table from
+     * its first statement to its commit, keyed {@link FeatureDeltaQuery#WRITER_LOCK_CLASS}
+     * and a hash of the table. Released only after the commit is visible.
+     */
+    private static final String LOCK_TABLE =
+            "SELECT pg_advisory_xact_lock(?, hashtext(?::text || ':' || ?::text))";
+
+    /**
+     * The batch's {@code updated_at}: later than anything already written to the
+     * table, even if the clock stepped back. Read under the table's writer lock;
+     * served by {@code idx_geo_features_src_upd_id}.
+     */
+    private static final String NEXT_UPDATED_AT = """
+            SELECT greatest(clock_timestamp(),
+                            (SELECT max(updated_at) FROM tessera.geo_features
+                             WHERE source_id = ?::uuid AND source_table = ?) + interval '1 microsecond')
+            """;
+
     private static final String INSERT_FEATURE_RETURNING = """
             INSERT INTO tessera.geo_features
                 (source_id, external_id, source_table, geometry, geometry_type, attributes, data_hash, updated_at)
             VALUES
-                (?::uuid, ?, ?, ST_GeomFromWKB(?, 4326), ?, ?::jsonb, ?, now())
-            RETURNING id, ingested_at
+                (?::uuid, ?, ?, ST_GeomFromWKB(?, 4326), ?, ?::jsonb, ?, ?)
+            RETURNING id, ingested_at, updated_at
             """;
 
     /**
@@ -74,6 +94,14 @@ public class FeatureBatchWriter {
     /**
      * Write a batch of features and their H3 indexes in a single transaction.
      *
+     * <p>Writers of the same source table take turns: each transaction holds the
+     * table's writer lock before its first insert, so within a table ids and
+     * {@code updated_at} are assigned in commit order. Other tables write in
+     * parallel; a batch still in flight there can commit behind rows already
+     * visible. Cursor readers stop at {@link FeatureDeltaQuery#fetchHorizon()},
+     * the start of the oldest writer transaction, which no batch's
+     * {@code updated_at} precedes.</p>
+     *
      * @param sourceId      UUID of the external_source record
      * @param sourceTable   qualified source table name (e.g. "public.points_of_interest")
      * @param features      list of extracted features to write
@@ -84,11 +112,18 @@ public class FeatureBatchWriter {
                           List<ExtractedFeature> features, int[] h3Resolutions) {
         if (features.isEmpty()) return 0;
 
+        long[] featureIds = new long[features.size()];
+        Timestamp[] updateTimes = new Timestamp[features.size()];
+
         Integer result = txTemplate.execute(status -> {
-            long[] featureIds = new long[features.size()];
             Timestamp[] ingestTimes = new Timestamp[features.size()];
             int written = 0;
 
+            jdbcTemplate.query(LOCK_TABLE, rs -> {},
+                    FeatureDeltaQuery.WRITER_LOCK_CLASS, sourceId.toString(), sourceTable);
+            Timestamp updatedAt = jdbcTemplate.queryForObject(NEXT_UPDATED_AT, Timestamp.class,
+                    sourceId.toString(), sourceTable);
+
             // Insert each feature and capture the generated id + ingested_at
             for (int i = 0; i < features.size(); i++) {
                 ExtractedFeature f = features.get(i);
@@ -99,10 +134,12 @@ public class FeatureBatchWriter {
                         wkbWriter.write(f.geometry()),
                         f.geometry().getGeometryType().toUpperCase(),
                         toJson(f.attributes()),
-                        f.dataHash());
+                        f.dataHash(),
+                        updatedAt);
 
                 featureIds[i] = ((Number) row.get("id")).longValue();
                 ingestTimes[i] = (Timestamp) row.get("ingested_at");
+                updateTimes[i] = (Timestamp) row.get("updated_at");
                 written++;
             }
 
@@ -117,26 +154,33 @@ public class FeatureBatchWriter {
 
         // Publish ingest event AFTER transaction commits (outside txTemplate)
         if (result != null && result > 0) {
-            publishIngestEvent(sourceId, sourceTable, features);
+            publishIngestEvent(sourceId, sourceTable, features, featureIds, updateTimes);
         }
 
         return result != null ? result : 0;
     }
 
     private void publishIngestEvent(UUID sourceId, String sourceTable,
-                                    List<ExtractedFeature> features) {
+                                    List<ExtractedFeature> features,
+                                    long[] featureIds, Timestamp[] updateTimes) {
         try {
             var envelope = new Envelope();
+            long minId = Long.MAX_VALUE, maxId = Long.MIN_VALUE;
             Instant min = Instant.MAX, max = Instant.MIN;
-            Instant now = Instant.now();
 
-            for (ExtractedFeature f : features) {
-                envelope.expandToInclude(f.geometry().getEnvelopeInternal());
+            for (int i = 0; i < features.size(); i++) {
+                envelope.expandToInclude(features.get(i).geometry().getEnvelopeInternal());
+                minId = Math.min(minId, featureIds[i]);
+                maxId = Math.max(maxId, featureIds[i]);
+
+                // updated_at comes from the database under the writer lock, not the JVM clock
+                Instant updatedAt = updateTimes[i].toInstant();
+                if (updatedAt.isBefore(min)) min = updatedAt;
+                if (updatedAt.isAfter(max)) max = updatedAt;
             }
 
-            // Use now() as the timestamp range since we just wrote with updated_at = now()
             eventPublisher.publishEvent(new FeatureIngestEvent(
-                    sourceId, sourceTable, features.size(), envelope, now, now));
+                    sourceId, sourceTable, features.size(), envelope, minId, maxId, min, max));
         } catch (Exception e) {
             log.warn("Failed to publish ingest event: {}", e.getMessage());
         }
@@ -0,0 +1,88 @@
+package live.omnisource.tessera.tiles;
+
+import live.omnisource.tessera.exceptions.TileRequestException;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * H3 hexagon aggregates as GeoJSON, for a bbox or a web map tile.
+ *
+ * <p>The resolution follows {@code zoom} (or the tile's z) unless given
+ * explicitly. {@code fields} names numeric attributes whose count, sum, min, max
+ * and mean are reported per hexagon.</p>
+ */
+@RestController
+@RequestMapping("/api/hexagons")
+public class HexagonAggregateController {
+
+    private static final double MAX_LAT = 85.0511287798066;
+
+    private final HexagonAggregateService hexagons;
+
+    public HexagonAggregateController(HexagonAggregateService hexagons) {
+        this.hexagons = hexagons;
+    }
+
+    @GetMapping
+    public Map<String, Object> bbox(@RequestParam String bbox,
+                                    @RequestParam(required = false) Integer zoom,
+                                    @RequestParam(required = false) Integer resolution,
+                                    @RequestParam(required = false) UUID sourceId,
+                                    @RequestParam(required = false) String sourceTable,
+                                    @RequestParam(required = false) String fields) {
+        if (zoom == null && resolution == null) {
+            throw new TileRequestException("zoom or resolution is required");
+        }
+        int res = resolution != null ? resolution : hexagons.resolutionForZoom(zoom);
+        return hexagons.hexagons(new HexagonAggregateService.Request(
+                sourceId, sourceTable, parseBbox(bbox), res, parseFields(fields)));
+    }
+
+    @GetMapping("/{z}/{x}/{y}")
+    public Map<String, Object> tile(@PathVariable int z, @PathVariable int x, @PathVariable int y,
+                                    @RequestParam(required = false) Integer resolution,
+                                    @RequestParam(required = false) UUID sourceId,
+                                    @RequestParam(required = false) String sourceTable,
+                                    @RequestParam(required = false) String fields) {
+        if (z < 0 || z > VectorTileService.MAX_ZOOM || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+            throw new TileRequestException("No tile " + z + "/" + x + "/" + y);
+        }
+        int res = resolution != null ? resolution : hexagons.resolutionForZoom(z);
+        return hexagons.hexagons(new HexagonAggregateService.Request(
+                sourceId, sourceTable, tileEnvelope(z, x, y), res, parseFields(fields)));
+    }
+
+    /** Web Mercator tile bounds in degrees. */
+    private static Envelope tileEnvelope(int z, int x, int y) {
+        double n = 1 << z;
+        return new Envelope(x / n * 360 - 180, (x + 1) / n * 360 - 180,
+                Math.max(-MAX_LAT, tileLat(y + 1, n)), Math.min(MAX_LAT, tileLat(y, n)));
+    }
+
+    private static double tileLat(int y, double n) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / n))));
+    }
+
+    private static Envelope parseBbox(String bbox) {
+        String[] parts = bbox.split(",");
+        if (parts.length != 4) {
+            throw new TileRequestException("bbox must be minX,minY,maxX,maxY");
+        }
+        try {
+            return new Envelope(Double.parseDouble(parts[0].strip()), Double.parseDouble(parts[2].strip()),
+                    Double.parseDouble(parts[1].strip()), Double.parseDouble(parts[3].strip()));
+        } catch (NumberFormatException e) {
+            throw new TileRequestException("bbox must be minX,minY,maxX,maxY");
+        }
+    }
+
+    private static List<String> parseFields(String fields) {
+        if (fields == null || fields.isBlank()) return List.of();
+        return Arrays.stream(fields.split(",")).map(String::strip).filter(f -> !f.isEmpty()).distinct().toList();
+    }
+}
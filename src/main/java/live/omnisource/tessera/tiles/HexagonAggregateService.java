@@ -0,0 +1,356 @@
+package live.omnisource.tessera.tiles;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.uber.h3core.H3Core;
+import com.uber.h3core.util.LatLng;
+import live.omnisource.tessera.exceptions.TileRequestException;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import live.omnisource.tessera.stream.h3.CellRanges;
+import live.omnisource.tessera.stream.h3.IndexedResolutions;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pre-aggregated H3 hexagons for choropleth and heatmap views.
+ *
+ * <p>Counts and per-attribute statistics are read from the {@code h3_cell_index}
+ * partition at the requested resolution or, when sync has not indexed it, from
+ * the next finer populated one and rolled up with {@link H3Core#cellToParent}.
+ * Resolutions finer than anything indexed are refused rather than answered empty.
+ * Only the current version of each feature is counted.</p>
+ *
+ * <p>Aggregates are loaded and cached per block: the parent cell {@value #BLOCK_DEPTH}
+ * resolutions up. A block's cells are one {@code h3_index_int} range per
+ * resolution, so loading one is an index range scan, and a pan only loads the
+ * blocks that came into view. Ingest evicts the blocks under the event envelope
+ * and under the versions it replaced.</p>
+ */
+@Slf4j
+@Service
+public class HexagonAggregateService {
+
+    private static final int BLOCK_DEPTH = 3;
+    private static final int MAX_BLOCKS = 96;
+    private static final double MAX_SLICE_DEGREES = 90;
+    private static final int MAX_STAT_FIELDS = 8;
+    private static final long CACHE_MAX_CELLS = 500_000;
+    private static final long CACHE_TTL_SECONDS = 300;
+
+    /**
+     * What to aggregate.
+     *
+     * @param fields numeric attributes to report count, sum, min, max and mean of
+     */
+    public record Request(UUID sourceId, String sourceTable, Envelope bbox, int resolution, List<String> fields) {}
+
+    private record BlockKey(UUID sourceId, String sourceTable, int resolution, long block, List<String> fields) {}
+
+    private record Block(Envelope envelope, Map<Long, Aggregate> cells) {}
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final FeatureDeltaQuery deltaQuery;
+    private final H3Core h3;
+    private final Executor taskExecutor;
+    private final IndexedResolutions indexedResolutions;
+    private final Cache<BlockKey, Block> blocks;
+    /** Bumped per ingest; a block loaded across a bump may predate it and is not kept. */
+    private final AtomicLong ingests = new AtomicLong();
+
+    public HexagonAggregateService(NamedParameterJdbcTemplate jdbcTemplate,
+                                   FeatureDeltaQuery deltaQuery,
+                                   H3Core h3Core,
+                                   Executor taskExecutor,
+                                   IndexedResolutions indexedResolutions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.deltaQuery = deltaQuery;
+        this.h3 = h3Core;
+        this.taskExecutor = taskExecutor;
+        this.indexedResolutions = indexedResolutions;
+        this.blocks = CacheBuilder.newBuilder()
+                .maximumWeight(CACHE_MAX_CELLS)
+                .weigher((BlockKey key, Block block) -> block.cells().size() + 1)
+                .expireAfterWrite(CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Resolution whose hexagons are a few dozen pixels wide at web map {@code zoom},
+     * capped at the finest resolution sync has indexed.
+     */
+    public int resolutionForZoom(int zoom) {
+        Integer finest = indexedResolutions.finest();
+        return Math.clamp(zoom * 2 / 3, 0, finest != null ? finest : 0);
+    }
+
+    /** The cells of {@code request} intersecting its bbox, as a GeoJSON FeatureCollection. */
+    public Map<String, Object> hexagons(Request request) {
+        Integer finest = indexedResolutions.finest();
+        if (finest == null) {
+            return collection(request.resolution(), List.of());
+        }
+        if (request.resolution() < 0 || request.resolution() > finest) {
+            throw new TileRequestException("Resolution must be between 0 and " + finest
+                    + ", the finest resolution indexed");
+        }
+        if (request.fields().size() > MAX_STAT_FIELDS) {
+            throw new TileRequestException("At most " + MAX_STAT_FIELDS + " aggregate fields");
+        }
+
+        int blockResolution = Math.max(0, request.resolution() - BLOCK_DEPTH);
+        Set<Long> covering = coveringBlocks(request.bbox(), blockResolution);
+        // Base-cell blocks hold at most 343 cells each, so the whole world is affordable
+        if (blockResolution > 0 && covering.size() > MAX_BLOCKS) {
+            throw new TileRequestException("Area too large for resolution " + request.resolution()
+                    + "; use a lower zoom or resolution");
+        }
+
+        var features = new ArrayList<Map<String, Object>>();
+        for (long blockCell : covering) {
+            var key = new BlockKey(request.sourceId(), request.sourceTable(), request.resolution(),
+                    blockCell, request.fields());
+            long seen = ingests.get();
+            Block block;
+            try {
+                block = blocks.get(key, () -> load(key));
+            } catch (Exception e) {
+                throw new IllegalStateException("Hexagon block " + h3.h3ToString(blockCell) + " failed to load", e);
+            }
+            if (ingests.get() != seen) {
+                blocks.invalidate(key);
+            }
+            for (Aggregate aggregate : block.cells().values()) {
+                List<LatLng> boundary = h3.cellToBoundary(aggregate.cell);
+                if (!envelopeOf(boundary).intersects(request.bbox())) continue;
+                features.add(toFeature(aggregate, boundary, request.fields()));
+            }
+        }
+
+        return collection(request.resolution(), features);
+    }
+
+    private static Map<String, Object> collection(int resolution, List<Map<String, Object>> features) {
+        var collection = new LinkedHashMap<String, Object>();
+        collection.put("type", "FeatureCollection");
+        collection.put("resolution", resolution);
+        collection.put("features", features);
+        return collection;
+    }
+
+    @EventListener
+    public void onFeatureIngested(FeatureIngestEvent event) {
+        ingests.incrementAndGet();
+        if (blocks.size() == 0) return;
+        taskExecutor.execute(() -> evict(event));
+    }
+
+    private void evict(FeatureIngestEvent event) {
+        try {
+            var areas = new ArrayList<Envelope>(2);
+            if (event.envelope() != null) {
+                areas.add(event.envelope());
+                Envelope replaced = deltaQuery.fetchReplacedExtent(event);
+                if (replaced != null) areas.add(replaced);
+            }
+            blocks.asMap().entrySet().removeIf(entry -> {
+                BlockKey key = entry.getKey();
+                if (key.sourceId() != null && !key.sourceId().equals(event.sourceId())) return false;
+                if (key.sourceTable() != null && !key.sourceTable().equals(event.sourceTable())) return false;
+                return areas.isEmpty() || areas.stream().anyMatch(entry.getValue().envelope()::intersects);
+            });
+        } catch (Exception e) {
+            log.warn("Hexagon cache eviction failed, clearing it: {}", e.getMessage());
+            blocks.invalidateAll();
+        }
+    }
+
+    /**
+     * Blocks whose cells can intersect {@code bbox}: those with a center inside it,
+     * the one under its center, and their neighbours, since children spill slightly
+     * past their parent's outline.
+     *
+     * <p>{@link H3Core#polygonToCells} takes any polygon wider than 180 degrees to
+     * cross the antimeridian, so a world view would collapse to a sliver around the
+     * origin; the bbox is covered in slices no wider than {@value #MAX_SLICE_DEGREES}
+     * degrees. At resolution 0 the 122 base cells are simply listed.</p>
+     */
+    private Set<Long> coveringBlocks(Envelope bbox, int blockResolution) {
+        if (blockResolution == 0) {
+            var covering = new HashSet<Long>();
+            for (long cell : h3.getRes0Cells()) {
+                // Cells across the antimeridian get a full-width envelope and always match
+                if (envelopeOf(h3.cellToBoundary(cell)).intersects(bbox)) covering.add(cell);
+            }
+            return covering;
+        }
+
+        var centers = new HashSet<Long>();
+        int slices = Math.max(1, (int) Math.ceil(bbox.getWidth() / MAX_SLICE_DEGREES));
+        double step = bbox.getWidth() / slices;
+        for (int i = 0; i < slices && centers.size() <= MAX_BLOCKS; i++) {
+            double minX = bbox.getMinX() + i * step;
+            double maxX = i == slices - 1 ? bbox.getMaxX() : minX + step;
+            var outline = List.of(
+                    new LatLng(bbox.getMinY(), minX), new LatLng(bbox.getMinY(), maxX),
+                    new LatLng(bbox.getMaxY(), maxX), new LatLng(bbox.getMaxY(), minX));
+            centers.addAll(h3.polygonToCells(outline, List.of(), blockResolution));
+        }
+        Coordinate center = bbox.centre();
+        centers.add(h3.latLngToCell(center.y, center.x, blockResolution));
+        if (centers.size() > MAX_BLOCKS) return centers;
+
+        var covering = new HashSet<Long>();
+        for (long cell : centers) {
+            covering.addAll(h3.gridDisk(cell, 1));
+        }
+        return covering;
+    }
+
+    private Block load(BlockKey key) {
+        Integer indexed = indexedResolutions.atOrFinerThan(key.resolution());
+        if (indexed == null) {
+            throw new TileRequestException("Resolution " + key.resolution() + " is not indexed");
+        }
+        long[] range = CellRanges.descendants(h3, key.block(), indexed);
+
+        var params = new HashMap<String, Object>();
+        params.put("indexed", indexed);
+        params.put("low", range[0]);
+        params.put("high", range[1]);
+        var select = new StringBuilder("SELECT h.h3_index_int AS cell, count(*) AS feature_count");
+        for (int i = 0; i < key.fields().size(); i++) {
+            params.put("field" + i, key.fields().get(i));
+            String value = "(CASE WHEN jsonb_typeof(f.attributes -> :field" + i
+                    + ") = 'number' THEN (f.attributes ->> :field" + i + ")::double precision END)";
+            select.append(", count(").append(value).append(") AS n_").append(i)
+                    .append(", sum(").append(value).append(") AS sum_").append(i)
+                    .append(", min(").append(value).append(") AS min_").append(i)
+                    .append(", max(").append(value).append(") AS max_").append(i);
+        }
+        var sql = select.append("""
+                 FROM tessera.h3_cell_index h
+                JOIN tessera.geo_features f ON f.id = h.feature_id AND f.ingested_at = h.feature_ingest
+                WHERE h.resolution = :indexed
+                  AND h.h3_index_int BETWEEN :low AND :high
+                """);
+        if (key.sourceId() != null) {
+            sql.append(" AND f.source_id = :sourceId::uuid");
+            params.put("sourceId", key.sourceId().toString());
+        }
+        if (key.sourceTable() != null) {
+            sql.append(" AND f.source_table = :sourceTable");
+            params.put("sourceTable", key.sourceTable());
+        }
+        sql.append("""
+                 AND NOT EXISTS (
+                    SELECT 1 FROM tessera.geo_features n
+                    WHERE n.external_id = f.external_id
+                      AND n.source_id = f.source_id
+                      AND n.source_table = f.source_table
+                      AND n.id > f.id)
+                GROUP BY h.h3_index_int
+                """);
+
+        var cells = new HashMap<Long, Aggregate>();
+        int fieldCount = key.fields().size();
+        jdbcTemplate.query(sql.toString(), params, rs -> {
+            var row = new Aggregate(rs.getLong("cell"), fieldCount);
+            row.count = rs.getLong("feature_count");
+            for (int i = 0; i < fieldCount; i++) {
+                row.values[i] = rs.getLong("n_" + i);
+                row.sums[i] = rs.getDouble("sum_" + i);
+                row.mins[i] = row.values[i] > 0 ? rs.getDouble("min_" + i) : Double.POSITIVE_INFINITY;
+                row.maxs[i] = row.values[i] > 0 ? rs.getDouble("max_" + i) : Double.NEGATIVE_INFINITY;
+            }
+            long cell = indexed == key.resolution() ? row.cell : h3.cellToParent(row.cell, key.resolution());
+            cells.computeIfAbsent(cell, c -> new Aggregate(c, fieldCount)).add(row);
+        });
+
+        return new Block(envelopeOf(h3.cellToBoundary(key.block())), Map.copyOf(cells));
+    }
+
+    private Map<String, Object> toFeature(Aggregate aggregate, List<LatLng> boundary, List<String> fields) {
+        var ring = new ArrayList<List<Double>>(boundary.size() + 1);
+        for (LatLng vertex : boundary) {
+            ring.add(List.of(vertex.lng, vertex.lat));
+        }
+        ring.add(ring.getFirst());
+
+        var properties = new LinkedHashMap<String, Object>();
+        properties.put("cell", h3.h3ToString(aggregate.cell));
+        properties.put("count", aggregate.count);
+        for (int i = 0; i < fields.size(); i++) {
+            var stats = new LinkedHashMap<String, Object>();
+            long n = aggregate.values[i];
+            stats.put("count", n);
+            stats.put("sum", aggregate.sums[i]);
+            stats.put("min", n > 0 ? aggregate.mins[i] : null);
+            stats.put("max", n > 0 ? aggregate.maxs[i] : null);
+            stats.put("mean", n > 0 ? aggregate.sums[i] / n : null);
+            properties.put(fields.get(i), stats);
+        }
+
+        var feature = new LinkedHashMap<String, Object>();
+        feature.put("type", "Feature");
+        feature.put("id", properties.get("cell"));
+        feature.put("geometry", Map.of("type", "Polygon", "coordinates", List.of(ring)));
+        feature.put("properties", properties);
+        return feature;
+    }
+
+    private static Envelope envelopeOf(List<LatLng> boundary) {
+        var envelope = new Envelope();
+        for (LatLng vertex : boundary) {
+            envelope.expandToInclude(vertex.lng, vertex.lat);
+        }
+        return envelope;
+    }
+
+    /** Count and per-field statistics of one cell; mutable only while a block loads. */
+    private static final class Aggregate {
+        final long cell;
+        final long[] values;
+        final double[] sums;
+        final double[] mins;
+        final double[] maxs;
+        long count;
+
+        Aggregate(long cell, int fields) {
+            this.cell = cell;
+            this.values = new long[fields];
+            this.sums = new double[fields];
+            this.mins = new double[fields];
+            this.maxs = new double[fields];
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        }
+
+        void add(Aggregate other) {
+            count += other.count;
+            for (int i = 0; i < values.length; i++) {
+                values[i] += other.values[i];
+                sums[i] += other.sums[i];
+                mins[i] = Math.min(mins[i], other.mins[i]);
+                maxs[i] = Math.max(maxs[i], other.maxs[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package live.omnisource.tessera.tiles;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Vector tiles for web maps: {@code /tiles/{workspace:datastore:layer}/{z}/{x}/{y}.mvt}.
+ *
+ * <p>Tiles are sent gzip-encoded as stored when the client accepts it, and must be
+ * revalidated against their ETag, since ingest can change them at any time. Empty
+ * tiles answer 204.</p>
+ */
+@RestController
+public class VectorTileController {
+
+    private static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
+    private final VectorTileService tiles;
+
+    public VectorTileController(VectorTileService tiles) {
+        this.tiles = tiles;
+    }
+
+    @GetMapping("/tiles/{layer}/{z}/{x}/{y}.mvt")
+    public ResponseEntity<byte[]> tile(@PathVariable String layer,
+                                       @PathVariable int z, @PathVariable int x, @PathVariable int y,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                                       String acceptEncoding,
+                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                       String ifNoneMatch) {
+        VectorTileService.Tile tile = tiles.tile(layer, z, x, y);
+        var cacheControl = CacheControl.noCache().cachePublic();
+
+        if (tile.etag().equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tile.etag()).cacheControl(cacheControl).build();
+        }
+        if (tile.empty()) {
+            return ResponseEntity.noContent().eTag(tile.etag()).cacheControl(cacheControl).build();
+        }
+
+        var response = ResponseEntity.ok()
+                .contentType(MVT)
+                .eTag(tile.etag())
+                .cacheControl(cacheControl)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(tile.gzipped());
+        }
+        return response.body(gunzip(tile.gzipped()));
+    }
+
+    private static byte[] gunzip(byte[] gzipped) {
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
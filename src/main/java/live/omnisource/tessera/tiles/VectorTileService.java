@@ -0,0 +1,323 @@
+package live.omnisource.tessera.tiles;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import live.omnisource.tessera.exceptions.DataStoreValidationException;
+import live.omnisource.tessera.exceptions.TileNotFoundException;
+import live.omnisource.tessera.filestore.FileStoreLayout;
+import live.omnisource.tessera.filestore.FileStoreService;
+import live.omnisource.tessera.layer.LayerService;
+import live.omnisource.tessera.layer.dto.LayerDto;
+import live.omnisource.tessera.layer.dto.LayerRecord;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Envelope;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Mapbox Vector Tiles of synced layers, rendered by PostGIS and cached on disk.
+ *
+ * <p>A layer is addressed as {@code workspace:datastore:layer} and resolves to the
+ * external source and table its sync writes to. Tiles hold the latest version of
+ * each feature, clipped with {@code ST_AsMVTGeom}, and are stored gzip-compressed
+ * under {@code cache/tiles/{sourceId}/{z}/{x}/{y}.mvt.gz}; the ETag is a hash of
+ * the stored bytes.</p>
+ *
+ * <p>Ingest removes only the tiles an event can have changed: its envelope, and
+ * the envelope of the versions it replaced (features that moved), are mapped to
+ * tile ranges at every zoom, widened by the render buffer. A render that overlaps
+ * an ingest of its source is served but not stored, or removed again when the
+ * ingest lands while it is being written, so a tile computed from the old rows
+ * never outlives the invalidation.</p>
+ */
+@Slf4j
+@Service
+public class VectorTileService {
+
+    public static final int MAX_ZOOM = 22;
+    private static final int EXTENT = 4096;
+    private static final int BUFFER = 64;
+    private static final double MAX_LAT = 85.0511287798066;
+    private static final long LAYER_CACHE_SECONDS = 60;
+
+    private static final String TILE_SQL = """
+            WITH bounds AS (
+                SELECT ST_TileEnvelope(:z, :x, :y) AS tile,
+                       ST_Transform(ST_TileEnvelope(:z, :x, :y, margin => :margin), 4326) AS area
+            ), mvt AS (
+                SELECT ST_AsMVTGeom(ST_Transform(f.geometry, 3857), bounds.tile, :extent, :buffer, true) AS geom,
+                       f.id, f.external_id, f.updated_at::text AS updated_at, f.attributes
+                FROM tessera.geo_features f, bounds
+                WHERE f.source_id = :sourceId::uuid
+                  AND f.source_table = :sourceTable
+                  AND f.geometry && bounds.area
+                  AND NOT EXISTS (
+                    SELECT 1 FROM tessera.geo_features n
+                    WHERE n.external_id = f.external_id
+                      AND n.source_id = f.source_id
+                      AND n.source_table = f.source_table
+                      AND n.id > f.id)
+            )
+            SELECT ST_AsMVT(mvt, :layer, :extent, 'geom', 'id') FROM mvt WHERE geom IS NOT NULL
+            """;
+
+    /** A tile as stored: gzip-compressed MVT, empty when the tile has no features. */
+    public record Tile(byte[] gzipped, String etag) {
+
+        public boolean empty() {
+            return gzipped.length == 0;
+        }
+    }
+
+    private record TileLayer(String name, UUID sourceId, String sourceTable) {}
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final FeatureDeltaQuery deltaQuery;
+    private final FileStoreService fileStoreService;
+    private final LayerService layerService;
+    private final Executor taskExecutor;
+    private final Cache<String, TileLayer> layers = CacheBuilder.newBuilder()
+            .expireAfterWrite(LAYER_CACHE_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    /** Bumped on every ingest of a source; renders started before a bump are not stored. */
+    private final ConcurrentHashMap<UUID, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    public VectorTileService(NamedParameterJdbcTemplate jdbcTemplate,
+                             FeatureDeltaQuery deltaQuery,
+                             FileStoreService fileStoreService,
+                             LayerService layerService,
+                             Executor taskExecutor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.deltaQuery = deltaQuery;
+        this.fileStoreService = fileStoreService;
+        this.layerService = layerService;
+        this.taskExecutor = taskExecutor;
+    }
+
+    public Tile tile(String layerName, int z, int x, int y) {
+        if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+            throw new TileNotFoundException("No tile " + z + "/" + x + "/" + y);
+        }
+        TileLayer layer = resolve(layerName);
+        Path file = tilePath(layer.sourceId(), z, x, y);
+        try {
+            byte[] stored = Files.readAllBytes(file);
+            return new Tile(stored, etag(stored));
+        } catch (NoSuchFileException e) {
+            // Not cached yet
+        } catch (IOException e) {
+            log.warn("Unreadable cached tile {}: {}", file, e.getMessage());
+        }
+
+        AtomicLong current = generation(layer.sourceId());
+        long generation = current.get();
+        byte[] gzipped = gzip(render(layer, z, x, y));
+        if (current.get() == generation) {
+            store(file, gzipped);
+            // An ingest between the check and the move may have swept this tile already
+            if (current.get() != generation) {
+                discard(file);
+            }
+        }
+        return new Tile(gzipped, etag(gzipped));
+    }
+
+    @EventListener
+    public void onFeatureIngested(FeatureIngestEvent event) {
+        if (event.sourceId() == null) return;
+        generation(event.sourceId()).incrementAndGet();
+        taskExecutor.execute(() -> invalidate(event));
+    }
+
+    private void invalidate(FeatureIngestEvent event) {
+        Path sourceDir = fileStoreService.resolve(FileStoreLayout.CACHE, "tiles", event.sourceId().toString());
+        if (!Files.isDirectory(sourceDir)) return;
+        try {
+            if (event.envelope() == null) {
+                deleteTree(sourceDir);
+                return;
+            }
+            int removed = removeTiles(sourceDir, event.envelope());
+            Envelope replaced = deltaQuery.fetchReplacedExtent(event);
+            if (replaced != null && !event.envelope().covers(replaced)) {
+                removed += removeTiles(sourceDir, replaced);
+            }
+            log.debug("Ingest on {} invalidated {} cached tiles", event.sourceId(), removed);
+        } catch (Exception e) {
+            // A partial invalidation must not leave stale tiles behind
+            log.warn("Tile invalidation failed for {}, dropping its cache: {}", event.sourceId(), e.getMessage());
+            try {
+                deleteTree(sourceDir);
+            } catch (IOException ex) {
+                log.warn("Failed to drop tile cache {}: {}", sourceDir, ex.getMessage());
+            }
+        }
+    }
+
+    /** Deletes the cached tiles of every zoom whose buffered area intersects {@code envelope}. */
+    private int removeTiles(Path sourceDir, Envelope envelope) throws IOException {
+        int removed = 0;
+        for (int z = 0; z <= MAX_ZOOM; z++) {
+            Path zoomDir = sourceDir.resolve(Integer.toString(z));
+            if (!Files.isDirectory(zoomDir)) continue;
+
+            int n = 1 << z;
+            double margin = (double) BUFFER / EXTENT;
+            int x0 = Math.clamp((long) Math.floor(tileX(envelope.getMinX(), n) - margin), 0, n - 1);
+            int x1 = Math.clamp((long) Math.floor(tileX(envelope.getMaxX(), n) + margin), 0, n - 1);
+            // Tile rows count southwards
+            int y0 = Math.clamp((long) Math.floor(tileY(envelope.getMaxY(), n) - margin), 0, n - 1);
+            int y1 = Math.clamp((long) Math.floor(tileY(envelope.getMinY(), n) + margin), 0, n - 1);
+
+            // Walk what is cached rather than the range, which is huge at high zooms
+            try (Stream<Path> columns = Files.list(zoomDir)) {
+                for (Path column : columns.toList()) {
+                    int x = parseIndex(column.getFileName().toString());
+                    if (x < x0 || x > x1) continue;
+                    try (Stream<Path> tiles = Files.list(column)) {
+                        for (Path tile : tiles.toList()) {
+                            int y = parseIndex(tile.getFileName().toString());
+                            if (y >= y0 && y <= y1 && Files.deleteIfExists(tile)) removed++;
+                        }
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    private byte[] render(TileLayer layer, int z, int x, int y) {
+        var params = Map.<String, Object>of(
+                "z", z, "x", x, "y", y,
+                "margin", (double) BUFFER / EXTENT,
+                "extent", EXTENT,
+                "buffer", BUFFER,
+                "sourceId", layer.sourceId().toString(),
+                "sourceTable", layer.sourceTable(),
+                "layer", layer.name());
+        byte[] mvt = jdbcTemplate.queryForObject(TILE_SQL, params, byte[].class);
+        return mvt != null ? mvt : new byte[0];
+    }
+
+    private TileLayer resolve(String name) {
+        TileLayer cached = layers.getIfPresent(name);
+        if (cached != null) return cached;
+
+        String[] parts = name.split(":");
+        if (parts.length != 3) {
+            throw new TileNotFoundException("Tile layers are named workspace:datastore:layer, got " + name);
+        }
+        LayerRecord record;
+        try {
+            record = layerService.getLayer(new LayerDto(parts[0], parts[1], parts[2]));
+        } catch (DataStoreValidationException e) {
+            throw new TileNotFoundException("Layer not found: " + name);
+        }
+        // Sync registers the layer as an external source named workspace/datastore/layer
+        List<UUID> sourceIds = jdbcTemplate.queryForList(
+                "SELECT id FROM tessera.external_sources WHERE name = :name",
+                Map.of("name", String.join("/", parts)), UUID.class);
+        if (sourceIds.isEmpty()) {
+            throw new TileNotFoundException("Layer " + name + " has not been synced");
+        }
+
+        var layer = new TileLayer(parts[2], sourceIds.getFirst(),
+                record.sourceSchema() + "." + record.sourceTable());
+        layers.put(name, layer);
+        return layer;
+    }
+
+    private Path tilePath(UUID sourceId, int z, int x, int y) {
+        return fileStoreService.resolve(FileStoreLayout.CACHE, "tiles", sourceId.toString(),
+                Integer.toString(z), Integer.toString(x), y + ".mvt.gz");
+    }
+
+    /** Written without fsync: the cache can be rebuilt, it only has to never be torn. */
+    private static void store(Path file, byte[] bytes) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debug("Failed to cache tile {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static void discard(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Failed to remove cached tile {}: {}", file, e.getMessage());
+        }
+    }
+
+    private AtomicLong generation(UUID sourceId) {
+        return generations.computeIfAbsent(sourceId, k -> new AtomicLong());
+    }
+
+    private static byte[] gzip(byte[] mvt) {
+        if (mvt.length == 0) return mvt;
+        var out = new ByteArrayOutputStream(mvt.length / 2 + 64);
+        try (var gzip = new GZIPOutputStream(out)) {
+            gzip.write(mvt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String etag(byte[] bytes) {
+        return "\"" + Hashing.murmur3_128().hashBytes(bytes) + "\"";
+    }
+
+    private static double tileX(double lon, int n) {
+        return (lon + 180.0) / 360.0 * n;
+    }
+
+    private static double tileY(double lat, int n) {
+        double rad = Math.toRadians(Math.clamp(lat, -MAX_LAT, MAX_LAT));
+        return (1 - Math.log(Math.tan(rad) + 1 / Math.cos(rad)) / Math.PI) / 2 * n;
+    }
+
+    /** Leading integer of a cache entry name; -1 for anything else, such as temp files. */
+    private static int parseIndex(String fileName) {
+        int end = fileName.indexOf('.');
+        try {
+            return Integer.parseInt(end < 0 ? fileName : fileName.substring(0, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+SET search_path TO tessera, public;
+
+-- ── Delta cursor indexes ──────────────────────────────────────────────────
+-- Stream catch-up and REST polling page with a composite (updated_at, id)
+-- keyset. Every row of an ingest batch shares one updated_at, so the id is
+-- needed to break ties at a page boundary.
+CREATE INDEX idx_geo_features_upd_id     ON geo_features (updated_at, id);
+CREATE INDEX idx_geo_features_src_upd_id ON geo_features (source_id, source_table, updated_at, id);
+
+-- Superseded by idx_geo_features_upd_id (same leading column).
+DROP INDEX IF EXISTS idx_geo_features_upd;
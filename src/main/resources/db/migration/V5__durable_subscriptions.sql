@@ -0,0 +1,26 @@
+SET search_path TO tessera, public;
+
+-- ── Durable stream subscriptions ──────────────────────────────────────────
+-- A named subscription's definition and the last cursor its client acknowledged,
+-- so it can be resumed on any node with an exact catch-up. Rows not seen for
+-- ttl_seconds are removed by the cleanup job.
+CREATE TABLE stream_subscriptions (
+    name             TEXT PRIMARY KEY,
+    source_id        UUID,
+    source_table     TEXT,
+    bbox_min_x       DOUBLE PRECISION,
+    bbox_min_y       DOUBLE PRECISION,
+    bbox_max_x       DOUBLE PRECISION,
+    bbox_max_y       DOUBLE PRECISION,
+    filter           TEXT,
+    fields           TEXT,
+    cells            TEXT[],
+    cell_resolution  INT,
+    acked_updated_at TIMESTAMPTZ NOT NULL,
+    acked_id         BIGINT NOT NULL,
+    ttl_seconds      INT NOT NULL,
+    created_at       TIMESTAMPTZ NOT NULL DEFAULT now(),
+    last_seen_at     TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+CREATE INDEX idx_stream_subscriptions_seen ON stream_subscriptions (last_seen_at);
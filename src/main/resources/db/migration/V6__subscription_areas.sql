@@ -0,0 +1,8 @@
+SET search_path TO tessera, public;
+
+-- ── Durable subscription areas ────────────────────────────────────────────
+-- Polygon or corridor restriction of a durable subscription: the GeoJSON as the
+-- client sent it and the corridor half-width; the buffered area is rebuilt on resume.
+ALTER TABLE stream_subscriptions
+    ADD COLUMN area_geojson  TEXT,
+    ADD COLUMN area_buffer_m DOUBLE PRECISION;
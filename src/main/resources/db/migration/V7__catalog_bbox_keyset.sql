@@ -0,0 +1,47 @@
+SET search_path TO tessera, public;
+
+-- ── features.by_bbox: keyset instead of OFFSET ────────────────────────────
+-- Pages continue from the last row's (updated_at, id) rather than skipping
+-- :offset rows, so a deep page costs the same as the first and rows ingested
+-- in between do not shift later pages. features.by_bbox returns the first
+-- page; features.by_bbox.after the ones after it, and requires both values of
+-- the last row, so the row comparison is always bound and stays an index seek
+-- under a generic plan.
+UPDATE query_catalog
+SET query_sql = 'SELECT f.id, f.external_id, f.source_table,
+          ST_AsGeoJSON(f.geometry)::jsonb AS geometry,
+          f.attributes, f.updated_at
+    FROM tessera.geo_features f
+    WHERE ST_Intersects(f.geometry, ST_MakeEnvelope(:minLon, :minLat, :maxLon, :maxLat, 4326))
+     AND (:sourceId IS NULL OR f.source_id = :sourceId::uuid)
+    ORDER BY f.updated_at DESC, f.id DESC
+    LIMIT :limit',
+    param_schema = '{"type":"object","properties":{"minLon":{"type":"number"},"minLat":{"type":"number"},
+    "maxLon":{"type":"number"},"maxLat":{"type":"number"},
+    "sourceId":{"type":"string","nullable":true},
+    "limit":{"type":"integer","default":1000}}}'::jsonb,
+    updated_at = now()
+WHERE name = 'features.by_bbox';
+
+INSERT INTO query_catalog (name, description, category, query_sql, param_schema, is_streaming, tags) VALUES
+
+    ('features.by_bbox.after',
+    'Next page of features.by_bbox, after the (updated_at, id) of the last row returned',
+    'STATIC',
+    'SELECT f.id, f.external_id, f.source_table,
+          ST_AsGeoJSON(f.geometry)::jsonb AS geometry,
+          f.attributes, f.updated_at
+    FROM tessera.geo_features f
+    WHERE ST_Intersects(f.geometry, ST_MakeEnvelope(:minLon, :minLat, :maxLon, :maxLat, 4326))
+     AND (:sourceId IS NULL OR f.source_id = :sourceId::uuid)
+     AND (f.updated_at, f.id) < (:afterUpdatedAt, :afterId)
+    ORDER BY f.updated_at DESC, f.id DESC
+    LIMIT :limit',
+    '{"type":"object","properties":{"minLon":{"type":"number"},"minLat":{"type":"number"},
+    "maxLon":{"type":"number"},"maxLat":{"type":"number"},
+    "sourceId":{"type":"string","nullable":true},
+    "limit":{"type":"integer","default":1000},
+    "afterUpdatedAt":{"type":"string","format":"date-time"},
+    "afterId":{"type":"integer"}}}'::jsonb,
+    false,
+    ARRAY['spatial','bbox']);
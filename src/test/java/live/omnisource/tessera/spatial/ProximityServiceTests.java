@@ -0,0 +1,139 @@
+package live.omnisource.tessera.spatial;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.uber.h3core.H3Core;
+import live.omnisource.tessera.config.ApplicationProperties;
+import live.omnisource.tessera.exceptions.StreamSubscriptionValidationException;
+import live.omnisource.tessera.stream.FeatureDeltaQuery;
+import live.omnisource.tessera.stream.StreamFeature;
+import live.omnisource.tessera.stream.StreamSubscription;
+import live.omnisource.tessera.stream.h3.IndexedResolutions;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProximityServiceTests {
+
+    private static final double LAT = 52.52;
+    private static final double LON = 13.405;
+
+    private final H3Core h3 = newH3();
+    private final StreamSubscription query = new StreamSubscription(
+            "q", StreamSubscription.Protocol.REST_POLL, null, null, null, null);
+
+    @Test
+    void widensTheDiskUntilItHoldsK() {
+        var features = new FakeFeatures(Map.of(300.0, 1L, 900.0, 2L, 3_000.0, 3L));
+        var service = new ProximityService(features, h3, resolutions(7, 9, 11));
+
+        List<StreamFeature> nearest = service.nearest(query, LAT, LON, 2, 50_000);
+
+        assertThat(features.radii).containsExactly(250.0, 1_000.0);
+        assertThat(nearest).extracting(StreamFeature::id).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void stopsWideningAtTheMaximum() {
+        var features = new FakeFeatures(Map.of(300.0, 1L, 900.0, 2L, 3_000.0, 3L));
+        var service = new ProximityService(features, h3, resolutions(7, 9, 11));
+
+        List<StreamFeature> nearest = service.nearest(query, LAT, LON, 5, 2_000);
+
+        assertThat(features.radii).containsExactly(250.0, 1_000.0, 2_000.0);
+        assertThat(nearest).extracting(StreamFeature::id).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void searchesNothingBeforeAnyResolutionIsIndexed() {
+        var features = new FakeFeatures(Map.of(300.0, 1L));
+        var service = new ProximityService(features, h3, resolutions());
+
+        assertThat(service.nearest(query, LAT, LON, 1, 50_000)).isEmpty();
+        assertThat(features.radii).isEmpty();
+    }
+
+    @Test
+    void coversTheRadiusAtTheFinestResolutionThatFits() {
+        var service = new ProximityService(new FakeFeatures(Map.of()), h3, resolutions(7, 9, 11));
+
+        assertCovers(service.cover(LAT, LON, 100), 11, 100);
+        assertCovers(service.cover(LAT, LON, 5_000), 7, 5_000);
+    }
+
+    @Test
+    void rejectsARadiusNoResolutionFits() {
+        var service = new ProximityService(new FakeFeatures(Map.of()), h3, resolutions(7, 9, 11));
+
+        assertThatThrownBy(() -> service.cover(LAT, LON, 500_000))
+                .isInstanceOf(StreamSubscriptionValidationException.class)
+                .hasMessageContaining("too large");
+    }
+
+    /** Points just inside the radius in eight directions all fall in the cover. */
+    private void assertCovers(ProximityService.Cover cover, int resolution, double meters) {
+        assertThat(cover.resolution()).isEqualTo(resolution);
+        double reach = meters * 0.99;
+        double dLat = reach / 111_195;
+        double dLon = reach / (111_195 * Math.cos(Math.toRadians(LAT)));
+        double diagonal = Math.sqrt(0.5);
+        double[][] offsets = {{1, 0}, {-1, 0}, {0, 1}, {0, -1},
+                {diagonal, diagonal}, {diagonal, -diagonal}, {-diagonal, diagonal}, {-diagonal, -diagonal}};
+        for (double[] offset : offsets) {
+            long cell = h3.latLngToCell(LAT + offset[0] * dLat, LON + offset[1] * dLon, resolution);
+            assertThat(cover.ranges()).anySatisfy(range ->
+                    assertThat(cell >= range[0] && cell <= range[1]).isTrue());
+        }
+    }
+
+    private static IndexedResolutions resolutions(Integer... populated) {
+        var h3 = new ApplicationProperties.H3Properties(List.of(3, 5, 7, 9, 11), 10_000, true);
+        var properties = new ApplicationProperties(h3, null, null, null, null, null);
+        return new IndexedResolutions(null, properties) {
+            @Override
+            public List<Integer> populated() {
+                return List.of(populated);
+            }
+        };
+    }
+
+    private static H3Core newH3() {
+        try {
+            return H3Core.newInstance();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Features at fixed distances from the search point; records each radius searched. */
+    private static final class FakeFeatures extends FeatureDeltaQuery {
+        final List<Double> radii = new ArrayList<>();
+        private final TreeMap<Double, Long> byDistance;
+
+        FakeFeatures(Map<Double, Long> byDistance) {
+            super(new NamedParameterJdbcTemplate(new SimpleDriverDataSource()), null, new ObjectMapper());
+            this.byDistance = new TreeMap<>(byDistance);
+        }
+
+        @Override
+        public List<StreamFeature> fetchWithin(StreamSubscription sub, int resolution, List<long[]> cellRanges,
+                                               double lat, double lon, double meters, int limit) {
+            radii.add(meters);
+            return byDistance.headMap(meters, true).values().stream()
+                    .limit(limit)
+                    .map(id -> new StreamFeature(id, UUID.randomUUID(), "public.a", "ext-" + id, Instant.EPOCH,
+                            null, null, null, Map.of("id", id)))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package live.omnisource.tessera.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeliveryThrottleTests {
+
+    private static final UUID SOURCE = UUID.fromString("6f1c2a0e-3b7d-4c59-9e21-0a4b5c6d7e8f");
+    private static final Instant BASE = Instant.parse("2026-03-01T12:00:00Z");
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void sendsTheFirstBatchAtOnceAndHoldsTheNextUntilTheIntervalElapses() {
+        var throttle = new DeliveryThrottle(new DeliveryPolicy(1, Duration.ZERO, false), 100);
+
+        assertThat(offer(throttle, 0, version(1, "a"))).isNotNull();
+        assertThat(offer(throttle, SECOND / 2, version(2, "b"))).isNull();
+        assertThat(throttle.flushIfDue(SECOND - 1)).isNull();
+        assertThat(throttle.hasPending()).isTrue();
+
+        StreamDelivery due = throttle.flushIfDue(SECOND);
+        assertThat(ids(due)).containsExactly(2L);
+        assertThat(due.resumeToken()).isEqualTo(token(2));
+        assertThat(throttle.hasPending()).isFalse();
+    }
+
+    @Test
+    void keepsTheLatestVersionAtTheLatestPosition() {
+        var throttle = new DeliveryThrottle(new DeliveryPolicy(0, Duration.ofSeconds(1), true), 100);
+        offer(throttle, 0, version(1, "a"));
+
+        offer(throttle, 1, version(2, "a"), version(3, "b"));
+        offer(throttle, 2, version(4, "c"), version(5, "a"));
+        StreamDelivery delivery = throttle.flushIfDue(SECOND);
+
+        assertThat(ids(delivery)).containsExactly(3L, 4L, 5L);
+        assertThat(delivery.resumeToken()).isEqualTo(token(5));
+    }
+
+    @Test
+    void keepsEveryVersionWithoutConflation() {
+        var throttle = new DeliveryThrottle(new DeliveryPolicy(0, Duration.ofSeconds(1), false), 100);
+        offer(throttle, 0, version(1, "a"));
+
+        offer(throttle, 1, version(2, "a"), version(3, "a"));
+
+        assertThat(ids(throttle.flushIfDue(SECOND))).containsExactly(2L, 3L);
+    }
+
+    @Test
+    void flushesAFullBufferAheadOfTheInterval() {
+        var throttle = new DeliveryThrottle(new DeliveryPolicy(0, Duration.ofSeconds(10), false), 3);
+        offer(throttle, 0, version(1, "a"));
+
+        assertThat(offer(throttle, 1, version(2, "b"), version(3, "c"))).isNull();
+        StreamDelivery overflow = offer(throttle, 2, version(4, "d"), version(5, "e"));
+
+        assertThat(ids(overflow)).containsExactly(2L, 3L, 4L, 5L);
+        assertThat(overflow.resumeToken()).isEqualTo(token(5));
+        assertThat(throttle.overflows()).isEqualTo(1);
+        assertThat(throttle.hasPending()).isFalse();
+        // The forced flush restarts the interval
+        assertThat(offer(throttle, 3, version(6, "f"))).isNull();
+    }
+
+    private static StreamDelivery offer(DeliveryThrottle throttle, long nowNanos, StreamFeature... features) {
+        var rows = new ArrayList<Map<String, Object>>();
+        for (StreamFeature feature : features) rows.add(feature.row());
+        return throttle.offer(List.of(features), rows, token(features[features.length - 1].id()), nowNanos);
+    }
+
+    private static StreamFeature version(long id, String externalId) {
+        return new StreamFeature(id, SOURCE, "public.a", externalId, BASE.plusSeconds(id),
+                null, null, null, Map.of("id", id));
+    }
+
+    private static ResumeToken token(long id) {
+        return ResumeToken.ofCursor(new StreamCursor(BASE.plusSeconds(id), id));
+    }
+
+    private static List<Long> ids(StreamDelivery delivery) {
+        return delivery.features().stream().map(row -> (Long) row.get("id")).toList();
+    }
+}
@@ -0,0 +1,56 @@
+package live.omnisource.tessera.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FeaturePageTokenTests {
+
+    private static final FeaturePageToken TOKEN = new FeaturePageToken(
+            new StreamCursor(Instant.parse("2026-03-01T12:00:00.123456Z"), 42),
+            new StreamCursor(Instant.parse("2026-02-27T08:30:00.000001Z"), 7));
+
+    @Test
+    void roundTripsBothPositions() {
+        String encoded = TOKEN.encode();
+
+        assertThat(encoded).matches("[A-Za-z0-9_-]{43}");
+        assertThat(FeaturePageToken.parse(encoded)).isEqualTo(TOKEN);
+    }
+
+    @Test
+    void roundTripsAnAsOfReadFromAnInstant() {
+        var token = new FeaturePageToken(StreamCursor.after(Instant.parse("2026-03-01T12:00:00Z")),
+                new StreamCursor(Instant.parse("2026-03-01T11:00:00Z"), Long.MAX_VALUE - 1));
+
+        assertThat(FeaturePageToken.parse(token.encode())).isEqualTo(token);
+    }
+
+    @Test
+    void rejectsAStreamCursor() {
+        String cursor = TOKEN.asOf().encode();
+
+        assertThatThrownBy(() -> FeaturePageToken.parse(cursor))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Malformed page token");
+    }
+
+    @Test
+    void rejectsTrailingBytes() {
+        String longer = TOKEN.encode() + "AAAAAAAAAAA";
+
+        assertThatThrownBy(() -> FeaturePageToken.parse(longer))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Malformed page token");
+    }
+
+    @Test
+    void rejectsSomethingThatIsNotBase64() {
+        assertThatThrownBy(() -> FeaturePageToken.parse("page=2"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Malformed page token");
+    }
+}
@@ -0,0 +1,144 @@
+package live.omnisource.tessera.stream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GeoJsonFeatureWriterTests {
+
+    @Test
+    void writesAFeature() throws Exception {
+        var row = row(7, "POINT (13.405 52.52)", "{\"name\":\"Mitte\",\"speed\":12.5}");
+
+        assertThat(write(row, 6)).isEqualTo("""
+                {"type":"Feature","id":7,"geometry":{"type":"Point","coordinates":[13.405,52.52]},\
+                "properties":{"external_id":"ext-7","source_id":"6f1c2a0e-3b7d-4c59-9e21-0a4b5c6d7e8f",\
+                "source_table":"public.vehicles","updated_at":"2026-03-01T12:00:00.123456Z",\
+                "attributes":{"name":"Mitte","speed":12.5}}}""");
+    }
+
+    @Test
+    void roundsCoordinatesToThePrecision() throws Exception {
+        var row = row(1, "LINESTRING (13.40512345 52.52000049, -3.1234567 -0.0000004)", null);
+
+        assertThat(write(row, 6)).contains("\"coordinates\":[[13.405123,52.52],[-3.123457,-0.0]]");
+        assertThat(write(row, 2)).contains("\"coordinates\":[[13.41,52.52],[-3.12,-0.0]]");
+    }
+
+    @Test
+    void keepsZWhenPresent() throws Exception {
+        var row = row(1, "POINT Z (1.5 2.5 100.1234567)", null);
+
+        assertThat(write(row, 3)).contains("\"coordinates\":[1.5,2.5,100.123]");
+    }
+
+    @Test
+    void writesPolygonsWithTheirHoles() throws Exception {
+        var row = row(1, "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 2 4, 4 4, 2 2))", null);
+
+        assertThat(write(row, 6)).contains("{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[0.0,0.0],[10.0,0.0],[10.0,10.0],[0.0,10.0],[0.0,0.0]],"
+                + "[[2.0,2.0],[2.0,4.0],[4.0,4.0],[2.0,2.0]]]}");
+    }
+
+    @Test
+    void writesOneArrayPerPart() throws Exception {
+        var row = row(1, "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))", null);
+
+        assertThat(write(row, 6)).contains("{\"type\":\"MultiLineString\",\"coordinates\":"
+                + "[[[0.0,0.0],[1.0,1.0]],[[2.0,2.0],[3.0,3.0]]]}");
+    }
+
+    @Test
+    void nestsGeometryCollections() throws Exception {
+        var row = row(1, "GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1))", null);
+
+        assertThat(write(row, 6)).contains("{\"type\":\"GeometryCollection\",\"geometries\":["
+                + "{\"type\":\"Point\",\"coordinates\":[1.0,2.0]},"
+                + "{\"type\":\"LineString\",\"coordinates\":[[0.0,0.0],[1.0,1.0]]}]}");
+    }
+
+    @Test
+    void writesEmptyGeometries() throws Exception {
+        assertThat(write(row(1, "POINT EMPTY", null), 6))
+                .contains("\"geometry\":{\"type\":\"Point\",\"coordinates\":[]}");
+        assertThat(write(row(1, "POLYGON EMPTY", null), 6))
+                .contains("\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[]}");
+    }
+
+    @Test
+    void writesNullsForMissingColumns() throws Exception {
+        var row = row(1, null, null);
+        row.put("updated_at", null);
+
+        assertThat(write(row, 6))
+                .contains("\"geometry\":null")
+                .contains("\"updated_at\":null")
+                .contains("\"attributes\":null");
+    }
+
+    @Test
+    void rejectsUnreadableGeometry() {
+        var row = row(3, null, null);
+        row.put("wkb", new byte[]{1, 2, 3});
+
+        assertThatThrownBy(() -> write(row, 6))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Feature 3");
+    }
+
+    private static Map<String, Object> row(long id, String wkt, String attributes) {
+        var row = new HashMap<String, Object>();
+        row.put("id", id);
+        row.put("wkb", wkt != null ? wkb(wkt) : null);
+        row.put("external_id", "ext-" + id);
+        row.put("source_id", "6f1c2a0e-3b7d-4c59-9e21-0a4b5c6d7e8f");
+        row.put("source_table", "public.vehicles");
+        row.put("updated_at", Timestamp.from(Instant.parse("2026-03-01T12:00:00.123456Z")));
+        row.put("attributes", attributes);
+        return row;
+    }
+
+    private static byte[] wkb(String wkt) {
+        try {
+            Geometry geometry = new WKTReader().read(wkt);
+            return new WKBWriter(wkt.contains(" Z ") ? 3 : 2).write(geometry);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static String write(Map<String, Object> row, int precision) throws SQLException, IOException {
+        var json = new StringWriter();
+        try (JsonGenerator out = new JsonFactory().createGenerator(json)) {
+            new GeoJsonFeatureWriter(out, precision).write(resultSet(row));
+        }
+        return json.toString();
+    }
+
+    /** The getters the writer uses, over one row keyed by column label. */
+    private static ResultSet resultSet(Map<String, Object> row) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getLong", "getBytes", "getString", "getTimestamp" -> row.get((String) args[0]);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
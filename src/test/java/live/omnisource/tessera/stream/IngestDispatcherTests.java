@@ -0,0 +1,98 @@
+package live.omnisource.tessera.stream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import live.omnisource.tessera.stream.event.FeatureIngestEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestDispatcherTests {
+
+    private static final UUID SOURCE = UUID.fromString("6f1c2a0e-3b7d-4c59-9e21-0a4b5c6d7e8f");
+    private static final Instant BASE = Instant.parse("2026-03-01T12:00:00Z");
+
+    private final RecordingBroker broker = new RecordingBroker();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final IngestDispatcher dispatcher = new IngestDispatcher(broker, ReplayBufferTests.properties(8), registry);
+
+    @AfterEach
+    void stop() {
+        broker.release.countDown();
+        dispatcher.destroy();
+    }
+
+    @Test
+    void mergesAdjacentRangesQueuedBehindABusyLane() throws Exception {
+        dispatcher.onFeatureIngested(event(1, 10, new Envelope(0, 1, 0, 1)));
+        broker.awaitCalls(1);
+        dispatcher.onFeatureIngested(event(11, 20, new Envelope(2, 3, 2, 3)));
+        dispatcher.onFeatureIngested(event(21, 25, new Envelope(-1, 0, -1, 0)));
+        broker.release.countDown();
+
+        broker.awaitCalls(2);
+        FeatureIngestEvent merged = broker.received.get(1);
+        assertThat(merged.minFeatureId()).isEqualTo(11);
+        assertThat(merged.maxFeatureId()).isEqualTo(25);
+        assertThat(merged.featureCount()).isEqualTo(15);
+        assertThat(merged.envelope()).isEqualTo(new Envelope(-1, 3, -1, 3));
+        assertThat(merged.maxUpdatedAt()).isEqualTo(BASE.plusSeconds(25));
+        assertThat(registry.get("tessera.stream.dispatch.coalesced").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void keepsRangesWithAGapApart() throws Exception {
+        dispatcher.onFeatureIngested(event(1, 10, null));
+        broker.awaitCalls(1);
+        // Ids 21-30 went to another table of the source, or arrive through another node's event
+        dispatcher.onFeatureIngested(event(11, 20, null));
+        dispatcher.onFeatureIngested(event(31, 40, null));
+        broker.release.countDown();
+
+        broker.awaitCalls(3);
+        assertThat(broker.received).extracting(FeatureIngestEvent::minFeatureId).containsExactly(1L, 11L, 31L);
+        assertThat(broker.received).extracting(FeatureIngestEvent::maxFeatureId).containsExactly(10L, 20L, 40L);
+        assertThat(registry.get("tessera.stream.dispatch.coalesced").counter().count()).isZero();
+    }
+
+    private static FeatureIngestEvent event(long minId, long maxId, Envelope envelope) {
+        return new FeatureIngestEvent(SOURCE, "public.a", (int) (maxId - minId + 1), envelope,
+                minId, maxId, BASE.plusSeconds(minId), BASE.plusSeconds(maxId));
+    }
+
+    /** Records what reaches the broker and holds the first fan-out until released. */
+    private static final class RecordingBroker extends StreamBroker {
+        final List<FeatureIngestEvent> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        RecordingBroker() {
+            super(null, null, null, Runnable::run, null, ReplayBufferTests.properties(8));
+        }
+
+        @Override
+        public void onFeatureIngested(FeatureIngestEvent event) {
+            received.add(event);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitCalls(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(received).hasSizeGreaterThanOrEqualTo(count);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package live.omnisource.tessera.stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedLayerSnapshotTests {
+
+    private static final UUID SOURCE = UUID.fromString("6f1c2a0e-3b7d-4c59-9e21-0a4b5c6d7e8f");
+    private static final StreamCursor WATERMARK = new StreamCursor(Instant.parse("2026-03-01T12:00:00.123456Z"), 42);
+
+    /** Header, ids, updated, bounds and centers of two rows: where the offsets column starts. */
+    private static final long OFFSETS_OF_TWO_ROWS = 64 + 2 * (8 + 8 + 32 + 16);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsRowsAndHeader() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+
+        var snapshot = MappedLayerSnapshot.open(file, SOURCE);
+
+        assertThat(snapshot.count()).isEqualTo(2);
+        assertThat(snapshot.sourceId()).isEqualTo(SOURCE);
+        assertThat(snapshot.watermark()).isEqualTo(WATERMARK);
+        assertThat(snapshot.id(0)).isEqualTo(7);
+        assertThat(snapshot.id(1)).isEqualTo(9);
+        assertThat(snapshot.envelope(1)).isEqualTo(new Envelope(-3.5, -1.25, 40.0, 41.5));
+        assertThat(snapshot.key(0)).containsExactly("public.roads", "road-1");
+        assertThat(snapshot.row(0)).isEqualTo(rows().get(0));
+        assertThat(snapshot.row(1)).isEqualTo(rows().get(1));
+    }
+
+    @Test
+    void roundTripsAnEmptyLayer() throws IOException {
+        Path file = dir.resolve("empty.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, List.of());
+
+        var snapshot = MappedLayerSnapshot.open(file, SOURCE);
+
+        assertThat(snapshot.count()).isZero();
+        assertThat(snapshot.watermark()).isEqualTo(WATERMARK);
+    }
+
+    @Test
+    void leavesNoTemporaryFilesBehind() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+
+    @Test
+    void rejectsAFileCutInItsPayload() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+        truncate(file, Files.size(file) - 10);
+
+        assertThatThrownBy(() -> MappedLayerSnapshot.open(file, SOURCE))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsAFileCutInItsColumns() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+        truncate(file, OFFSETS_OF_TWO_ROWS);
+
+        assertThatThrownBy(() -> MappedLayerSnapshot.open(file, SOURCE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Truncated");
+    }
+
+    @Test
+    void rejectsAFileShorterThanItsHeader() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        Files.write(file, new byte[20]);
+
+        assertThatThrownBy(() -> MappedLayerSnapshot.open(file, SOURCE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Truncated");
+    }
+
+    @Test
+    void rejectsOffsetsGoingBackwards() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+        // The second row's payload now starts before the first one's
+        overwriteLong(file, OFFSETS_OF_TWO_ROWS + 8, 0);
+
+        assertThatThrownBy(() -> MappedLayerSnapshot.open(file, SOURCE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Corrupt row offsets");
+    }
+
+    @Test
+    void rejectsOffsetsPastTheEnd() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+        overwriteLong(file, OFFSETS_OF_TWO_ROWS + 8, Long.MAX_VALUE);
+
+        assertThatThrownBy(() -> MappedLayerSnapshot.open(file, SOURCE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Corrupt row offsets");
+    }
+
+    @Test
+    void rejectsAnotherSourcesSnapshot() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+
+        assertThatThrownBy(() -> MappedLayerSnapshot.open(file, UUID.randomUUID()))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("belongs to source");
+    }
+
+    @Test
+    void rejectsAnUnknownFormat() throws IOException {
+        Path file = dir.resolve("layer.snap");
+        MappedLayerSnapshot.write(file, SOURCE, WATERMARK, rows());
+        overwriteLong(file, 0, 0x1234_5678L);
+
+        assertThatThrownBy(() -> MappedLayerSnapshot.open(file, SOURCE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Not a version");
+    }
+
+    private static List<MappedLayerSnapshot.Row> rows() {
+        return List.of(
+                new MappedLayerSnapshot.Row(7, Instant.parse("2026-03-01T11:59:00.000001Z"),
+                        new Envelope(10.0, 10.0, 50.0, 50.0), 50.0, 10.0,
+                        "public.roads", "road-1", "Point",
+                        "{\"type\":\"Point\",\"coordinates\":[10.0,50.0]}", "{\"name\":\"Straße\"}"),
+                new MappedLayerSnapshot.Row(9, Instant.parse("2026-03-01T12:00:00.123456Z"),
+                        new Envelope(-3.5, -1.25, 40.0, 41.5), 40.75, -2.375,
+                        "public.roads", "road-2", "LineString",
+                        "{\"type\":\"LineString\",\"coordinates\":[[-3.5,40.0],[-1.25,41.5]]}", null));
+    }
+
+    private static void truncate(Path file, long size) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private static void overwriteLong(Path file, long position, long value) throws IOException {
+        var bytes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).flip();
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(bytes, position);
+        }
+    }
+}
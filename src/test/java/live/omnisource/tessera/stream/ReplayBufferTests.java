@@ -0,0 +1,141 @@
+package live.omnisource.tessera.stream;
+
+import live.omnisource.tessera.config.ApplicationProperties;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplayBufferTests {
+
+    private static final UUID SOURCE = UUID.fromString("6f1c2a0e-3b7d-4c59-9e21-0a4b5c6d7e8f");
+    private static final Envelope AREA = new Envelope(0, 1, 0, 1);
+
+    /** Later than the buffer's start, so cursor resumes are covered; microseconds, as stored. */
+    private final Instant base = Instant.now().plusSeconds(60).truncatedTo(ChronoUnit.MICROS);
+
+    private final StreamSubscription subscription = new StreamSubscription(
+            "sub", StreamSubscription.Protocol.SSE, null, null, null, null);
+
+    @Test
+    void resumesByItsOwnSequenceEvenAcrossCursorOrder() {
+        var buffer = new ReplayBuffer(properties(8));
+        StreamBatch first = append(buffer, "public.a", feature(1, 10), feature(2, 10));
+        // Committed after the first batch, by a writer of another table that started earlier
+        StreamBatch second = append(buffer, "public.b", feature(3, 5));
+
+        var replay = buffer.replay(subscription, ResumeToken.parse(tokenAfter(first).encode()));
+
+        assertThat(replay).isPresent();
+        assertThat(replay.get()).containsExactly(second);
+    }
+
+    @Test
+    void resumesAForeignSequenceByCursor() {
+        var buffer = new ReplayBuffer(properties(8));
+        append(buffer, "public.a", feature(1, 10));
+        append(buffer, "public.a", feature(2, 20), feature(3, 30));
+        StreamBatch third = append(buffer, "public.a", feature(4, 40));
+
+        // Same source, a sequence this ring also issued, but another node's epoch
+        var token = new ResumeToken(SOURCE, third.epoch() + 1, 1, cursor(2, 20));
+        var replay = buffer.replay(subscription, token);
+
+        assertThat(replay).isPresent();
+        assertThat(ids(replay.get())).containsExactly(3L, 4L);
+    }
+
+    @Test
+    void resumesATokenWithoutEpochByCursor() {
+        var buffer = new ReplayBuffer(properties(8));
+        append(buffer, "public.a", feature(1, 10));
+        append(buffer, "public.a", feature(2, 20));
+
+        var token = ResumeToken.parse(SOURCE + ":99:" + cursor(1, 10).encode());
+        var replay = buffer.replay(subscription, token);
+
+        assertThat(token.epoch()).isZero();
+        assertThat(replay).isPresent();
+        assertThat(ids(replay.get())).containsExactly(2L);
+    }
+
+    @Test
+    void fallsBackOnceTheNextBatchWasEvicted() {
+        var buffer = new ReplayBuffer(properties(2));
+        StreamBatch first = append(buffer, "public.a", feature(1, 10));
+        StreamBatch second = append(buffer, "public.a", feature(2, 20));
+        append(buffer, "public.a", feature(3, 30));
+        append(buffer, "public.a", feature(4, 40));
+
+        assertThat(buffer.replay(subscription, tokenAfter(first))).isEmpty();
+        assertThat(buffer.replay(subscription, ResumeToken.ofCursor(cursor(1, 10)))).isEmpty();
+        assertThat(buffer.replay(subscription, tokenAfter(second))).isPresent();
+        assertThat(buffer.replay(subscription, ResumeToken.ofCursor(cursor(2, 20)))).isPresent();
+    }
+
+    @Test
+    void fallsBackAcrossABatchThatWasNotRecorded() {
+        var buffer = new ReplayBuffer(properties(8));
+        StreamBatch first = append(buffer, "public.a", feature(1, 10));
+        buffer.skip(SOURCE, base.plusMillis(20));
+        StreamBatch third = append(buffer, "public.a", feature(3, 30));
+
+        assertThat(buffer.replay(subscription, tokenAfter(first))).isEmpty();
+        assertThat(buffer.replay(subscription, ResumeToken.ofCursor(cursor(1, 10)))).isEmpty();
+        assertThat(buffer.replay(subscription, tokenAfter(third)).orElseThrow()).isEmpty();
+    }
+
+    @Test
+    void fallsBackForPositionsBeforeItStarted() {
+        var buffer = new ReplayBuffer(properties(8));
+        append(buffer, "public.a", feature(1, 10));
+
+        var token = ResumeToken.ofCursor(StreamCursor.after(Instant.now().minusSeconds(60)));
+
+        assertThat(buffer.replay(subscription, token)).isEmpty();
+    }
+
+    @Test
+    void leavesOutOtherSources() {
+        var buffer = new ReplayBuffer(properties(8));
+        StreamBatch first = append(buffer, "public.a", feature(1, 10));
+        buffer.append(UUID.randomUUID(), "public.a", AREA, List.of(feature(2, 20)));
+        var scoped = new StreamSubscription("scoped", StreamSubscription.Protocol.SSE, SOURCE, null, null, null);
+
+        assertThat(buffer.replay(scoped, tokenAfter(first)).orElseThrow()).isEmpty();
+        assertThat(ids(buffer.replay(subscription, tokenAfter(first)).orElseThrow())).containsExactly(2L);
+    }
+
+    private StreamBatch append(ReplayBuffer buffer, String table, StreamFeature... features) {
+        return buffer.append(SOURCE, table, AREA, List.of(features));
+    }
+
+    private static ResumeToken tokenAfter(StreamBatch batch) {
+        return new ResumeToken(batch.sourceId(), batch.epoch(), batch.sequence(), batch.lastCursor());
+    }
+
+    private StreamCursor cursor(long id, long millis) {
+        return new StreamCursor(base.plusMillis(millis), id);
+    }
+
+    private StreamFeature feature(long id, long millis) {
+        return new StreamFeature(id, SOURCE, "public.a", "ext-" + id, base.plusMillis(millis),
+                AREA, null, null, Map.of("id", id));
+    }
+
+    private static List<Long> ids(List<StreamBatch> batches) {
+        return batches.stream().flatMap(b -> b.features().stream()).map(StreamFeature::id).toList();
+    }
+
+    static ApplicationProperties properties(int replayCapacity) {
+        var stream = new ApplicationProperties.StreamProperties(replayCapacity, 300, false, "tessera_feature_ingest",
+                10_000, 1000, 256, 5000, 200_000, 60, 604_800, 60_000, List.of(), 268_435_456, 7);
+        return new ApplicationProperties(null, null, null, stream, null, null);
+    }
+}
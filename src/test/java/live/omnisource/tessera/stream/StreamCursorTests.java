@@ -0,0 +1,62 @@
+package live.omnisource.tessera.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StreamCursorTests {
+
+    private static final Instant BATCH = Instant.parse("2026-03-01T12:00:00.123456Z");
+
+    @Test
+    void roundTripsThroughItsToken() {
+        var cursor = new StreamCursor(BATCH, 42);
+
+        String token = cursor.encode();
+
+        assertThat(token).matches("[A-Za-z0-9_-]{22}");
+        assertThat(StreamCursor.parse(token)).isEqualTo(cursor);
+    }
+
+    @Test
+    void roundTripsInstantsBeforeTheEpoch() {
+        var cursor = new StreamCursor(Instant.parse("1969-07-20T20:17:40.000001Z"), 0);
+
+        assertThat(StreamCursor.parse(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void readsAnInstantAsEverythingUpToIt() {
+        var cursor = StreamCursor.parse("2026-03-01T12:00:00.123456789Z");
+
+        assertThat(cursor).isEqualTo(StreamCursor.after(BATCH));
+        assertThat(cursor.id()).isEqualTo(Long.MAX_VALUE);
+        assertThat(new StreamCursor(BATCH, 1_000_000).isAfter(cursor)).isFalse();
+        assertThat(new StreamCursor(BATCH.plusNanos(1_000), 1).isAfter(cursor)).isTrue();
+    }
+
+    @Test
+    void ordersByTimestampThenId() {
+        var first = new StreamCursor(BATCH, 9);
+        var second = new StreamCursor(BATCH, 10);
+        var third = new StreamCursor(BATCH.plusSeconds(1), 1);
+
+        assertThat(second.isAfter(first)).isTrue();
+        assertThat(third.isAfter(second)).isTrue();
+        assertThat(first.isAfter(first)).isFalse();
+        assertThat(first.isAfter(third)).isFalse();
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        assertThatThrownBy(() -> StreamCursor.parse("not a cursor"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Malformed stream cursor");
+        assertThatThrownBy(() -> StreamCursor.parse("AAAAAAAAAAA"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Malformed stream cursor");
+    }
+}
@@ -0,0 +1,93 @@
+package live.omnisource.tessera.stream.filter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * In-memory evaluation. Expected values are what PostgreSQL gives for the SQL
+ * {@link FilterSql} renders, with {@code null} standing for UNKNOWN.
+ */
+class FilterNodeTests {
+
+    private static final Map<String, Object> VEHICLE = attributes(
+            "status", "ACTIVE",
+            "speed", 42,
+            "load", 12.5,
+            "moving", true,
+            "driver", null,
+            "code", "10");
+
+    @Test
+    void comparesNumbersRegardlessOfScale() {
+        assertThat(eval("speed > 20")).isTrue();
+        assertThat(eval("speed = 42.0")).isTrue();
+        assertThat(eval("load >= 12.5")).isTrue();
+        assertThat(eval("load < 1.25e1")).isFalse();
+        assertThat(eval("speed IN (1, 42)")).isTrue();
+    }
+
+    @Test
+    void comparesStringsByCodePoint() {
+        // Matches COLLATE "C": upper case sorts before lower case
+        assertThat(eval("status < 'active'")).isTrue();
+        assertThat(eval("status > 'ACTIV'")).isTrue();
+        assertThat(eval("status IN ('IDLE', 'ACTIVE')")).isTrue();
+    }
+
+    @Test
+    void comparesBooleans() {
+        assertThat(eval("moving = true")).isTrue();
+        assertThat(eval("moving != true")).isFalse();
+    }
+
+    @Test
+    void missingAttributesAreUnknown() {
+        assertThat(eval("heading > 1")).isNull();
+        assertThat(eval("driver = 'x'")).isNull();
+        assertThat(eval("heading IN (1, 2)")).isNull();
+    }
+
+    @Test
+    void otherJsonTypesAreUnknown() {
+        // The typed accessor yields NULL when jsonb_typeof differs from the literal's type
+        assertThat(eval("code = 10")).isNull();
+        assertThat(eval("speed = '42'")).isNull();
+        assertThat(eval("moving = 1")).isNull();
+        assertThat(eval("status = true")).isNull();
+    }
+
+    @Test
+    void unknownPropagatesLikeSql() {
+        assertThat(eval("NOT heading > 1")).isNull();
+        assertThat(eval("heading > 1 AND speed > 20")).isNull();
+        assertThat(eval("heading > 1 AND speed > 100")).isFalse();
+        assertThat(eval("heading > 1 OR speed > 20")).isTrue();
+        assertThat(eval("heading > 1 OR speed > 100")).isNull();
+        assertThat(eval("heading NOT IN (1, 2)")).isNull();
+    }
+
+    @Test
+    void nullChecksAreNeverUnknown() {
+        assertThat(eval("driver IS NULL")).isTrue();
+        assertThat(eval("heading IS NULL")).isTrue();
+        assertThat(eval("speed IS NULL")).isFalse();
+        assertThat(eval("driver IS NOT NULL")).isFalse();
+        assertThat(eval("status IS NOT NULL")).isTrue();
+    }
+
+    private static Boolean eval(String filter) {
+        return FilterParser.parse(filter).evaluate(VEHICLE);
+    }
+
+    private static Map<String, Object> attributes(Object... pairs) {
+        var map = new HashMap<String, Object>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put((String) pairs[i], pairs[i + 1]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,113 @@
+package live.omnisource.tessera.stream.filter;
+
+import live.omnisource.tessera.exceptions.StreamFilterException;
+import live.omnisource.tessera.stream.filter.FilterNode.And;
+import live.omnisource.tessera.stream.filter.FilterNode.Compare;
+import live.omnisource.tessera.stream.filter.FilterNode.In;
+import live.omnisource.tessera.stream.filter.FilterNode.IsNull;
+import live.omnisource.tessera.stream.filter.FilterNode.Not;
+import live.omnisource.tessera.stream.filter.FilterNode.Op;
+import live.omnisource.tessera.stream.filter.FilterNode.Or;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FilterParserTests {
+
+    @Test
+    void parsesComparisons() {
+        assertThat(FilterParser.parse("speed > 20")).isEqualTo(new Compare("speed", Op.GT, new BigDecimal("20")));
+        assertThat(FilterParser.parse("speed <= -1.5e2")).isEqualTo(new Compare("speed", Op.LE, new BigDecimal("-1.5e2")));
+        assertThat(FilterParser.parse("status = 'ACTIVE'")).isEqualTo(new Compare("status", Op.EQ, "ACTIVE"));
+        assertThat(FilterParser.parse("status <> 'x'")).isEqualTo(new Compare("status", Op.NE, "x"));
+        assertThat(FilterParser.parse("status != 'x'")).isEqualTo(new Compare("status", Op.NE, "x"));
+        assertThat(FilterParser.parse("moving = TRUE")).isEqualTo(new Compare("moving", Op.EQ, Boolean.TRUE));
+        assertThat(FilterParser.parse("moving != false")).isEqualTo(new Compare("moving", Op.NE, Boolean.FALSE));
+    }
+
+    @Test
+    void andBindsTighterThanOr() {
+        var a = new Compare("a", Op.EQ, new BigDecimal("1"));
+        var b = new Compare("b", Op.EQ, new BigDecimal("2"));
+        var c = new Compare("c", Op.EQ, new BigDecimal("3"));
+
+        assertThat(FilterParser.parse("a = 1 OR b = 2 AND c = 3")).isEqualTo(new Or(a, new And(b, c)));
+        assertThat(FilterParser.parse("(a = 1 OR b = 2) AND c = 3")).isEqualTo(new And(new Or(a, b), c));
+        assertThat(FilterParser.parse("a = 1 and b = 2 and c = 3")).isEqualTo(new And(new And(a, b), c));
+    }
+
+    @Test
+    void parsesNegation() {
+        var a = new Compare("a", Op.EQ, new BigDecimal("1"));
+
+        assertThat(FilterParser.parse("NOT a = 1")).isEqualTo(new Not(a));
+        assertThat(FilterParser.parse("NOT NOT a = 1")).isEqualTo(new Not(new Not(a)));
+        assertThat(FilterParser.parse("kind NOT IN ('a', 'b')"))
+                .isEqualTo(new Not(new In("kind", List.of("a", "b"))));
+    }
+
+    @Test
+    void parsesInAndNullChecks() {
+        assertThat(FilterParser.parse("lane IN (1, 2, 3)")).isEqualTo(new In("lane",
+                List.of(new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("3"))));
+        assertThat(FilterParser.parse("driver IS NULL")).isEqualTo(new IsNull("driver", false));
+        assertThat(FilterParser.parse("driver is not null")).isEqualTo(new IsNull("driver", true));
+    }
+
+    @Test
+    void unquotesKeysAndLiterals() {
+        assertThat(FilterParser.parse("\"max speed\" > 1"))
+                .isEqualTo(new Compare("max speed", Op.GT, new BigDecimal("1")));
+        assertThat(FilterParser.parse("\"and\" = 'O''Brien'")).isEqualTo(new Compare("and", Op.EQ, "O'Brien"));
+        assertThat(FilterParser.parse("\"say \"\"hi\"\"\" = ''"))
+                .isEqualTo(new Compare("say \"hi\"", Op.EQ, ""));
+    }
+
+    @Test
+    void rejectsMalformedFilters() {
+        assertRejected("status = 'ACTIVE", "Unterminated quote");
+        assertRejected("speed > ", "Expected a literal");
+        assertRejected("speed 20", "Expected comparison");
+        assertRejected("(speed > 20", "Expected ')'");
+        assertRejected("speed > 20)", "Unexpected ')'");
+        assertRejected("speed ! 20", "Unexpected '!'");
+        assertRejected("speed > 1.2.3", "Invalid number");
+        assertRejected("speed > 20 ;", "Unexpected ';'");
+        assertRejected("driver IS 'x'", "Expected NULL");
+    }
+
+    @Test
+    void rejectsReservedWordsAsKeys() {
+        assertRejected("null = 1", "Expected attribute name");
+        assertRejected("AND = 1", "Expected attribute name");
+    }
+
+    @Test
+    void rejectsOrderingOnBooleans() {
+        assertRejected("moving > true", "Booleans only support");
+    }
+
+    @Test
+    void rejectsMixedInLists() {
+        assertRejected("lane IN (1, 'two')", "mixes literal types");
+    }
+
+    @Test
+    void boundsLengthAndDepth() {
+        assertRejected("a = '" + "x".repeat(FilterParser.MAX_LENGTH) + "'", "exceeds");
+        assertRejected("(".repeat(40) + "a = 1" + ")".repeat(40), "nested too deeply");
+        assertRejected("NOT ".repeat(40) + "a = 1", "nested too deeply");
+        assertThat(FilterParser.parse("(".repeat(20) + "a = 1" + ")".repeat(20)))
+                .isEqualTo(new Compare("a", Op.EQ, new BigDecimal("1")));
+    }
+
+    private static void assertRejected(String filter, String message) {
+        assertThatThrownBy(() -> FilterParser.parse(filter))
+                .isInstanceOf(StreamFilterException.class)
+                .hasMessageContaining(message);
+    }
+}
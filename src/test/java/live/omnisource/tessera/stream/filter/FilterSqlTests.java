@@ -0,0 +1,114 @@
+package live.omnisource.tessera.stream.filter;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SQL rendering. Each shape is the SQL counterpart of the in-memory rule covered
+ * in {@link FilterNodeTests}: the typed accessor is NULL for other JSON types,
+ * strings compare in the "C" collation and null checks treat JSON null as missing.
+ */
+class FilterSqlTests {
+
+    private static final String NUMBER_0 =
+            "(CASE WHEN jsonb_typeof(f.attributes -> :filter0) = 'number' THEN (f.attributes ->> :filter0)::numeric END)";
+
+    @Test
+    void rendersTypedComparisons() {
+        var params = new HashMap<String, Object>();
+
+        assertThat(render("speed > 20", params)).isEqualTo(NUMBER_0 + " > CAST(:filter1 AS numeric)");
+        assertThat(params).containsEntry("filter0", "speed");
+        assertThat(params).containsEntry("filter1", new BigDecimal("20"));
+    }
+
+    @Test
+    void rendersStringsInTheCCollation() {
+        var params = new HashMap<String, Object>();
+
+        assertThat(render("status < 'b'", params)).isEqualTo(
+                "(CASE WHEN jsonb_typeof(f.attributes -> :filter0) = 'string' THEN f.attributes ->> :filter0 END)"
+                        + " COLLATE \"C\" < CAST(:filter1 AS text)");
+        assertThat(params).containsEntry("filter1", "b");
+    }
+
+    @Test
+    void rendersBooleans() {
+        var params = new HashMap<String, Object>();
+
+        assertThat(render("moving <> true", params)).isEqualTo(
+                "(CASE WHEN jsonb_typeof(f.attributes -> :filter0) = 'boolean' THEN (f.attributes ->> :filter0)::boolean END)"
+                        + " <> CAST(:filter1 AS boolean)");
+        assertThat(params).containsEntry("filter1", Boolean.TRUE);
+    }
+
+    @Test
+    void rendersInLists() {
+        var params = new HashMap<String, Object>();
+
+        assertThat(render("lane NOT IN (1, 2)", params)).isEqualTo(
+                "(NOT " + NUMBER_0 + " IN (CAST(:filter1 AS numeric), CAST(:filter2 AS numeric)))");
+        assertThat(params).containsEntry("filter2", new BigDecimal("2"));
+    }
+
+    @Test
+    void rendersNullChecksOverJsonNull() {
+        var params = new HashMap<String, Object>();
+
+        assertThat(render("driver IS NOT NULL", params))
+                .isEqualTo("(COALESCE(jsonb_typeof(f.attributes -> :filter0), 'null') <> 'null')");
+        assertThat(params).containsEntry("filter0", "driver");
+    }
+
+    @Test
+    void keepsGroupingExplicit() {
+        var params = new HashMap<String, Object>();
+
+        String sql = render("a = 1 OR b = 2 AND c = 3", params);
+
+        assertThat(sql).startsWith("(" + NUMBER_0 + " = CAST(:filter1 AS numeric) OR (");
+        assertThat(sql).contains(" AND ");
+        assertThat(params).hasSize(6);
+    }
+
+    @Test
+    void bindsEveryKeyAndLiteral() {
+        var params = new HashMap<String, Object>();
+
+        String sql = render("\"x'); DROP TABLE t; --\" = 'y''; --'", params);
+
+        assertThat(sql).doesNotContain("DROP", "y'");
+        assertThat(params).containsEntry("filter0", "x'); DROP TABLE t; --");
+        assertThat(params).containsEntry("filter1", "y'; --");
+    }
+
+    @Test
+    void probesTheGinIndexForTopLevelEqualities() {
+        var params = new HashMap<String, Object>();
+
+        String sql = FeatureFilter.compile("status = 'ACTIVE' AND speed > 20").toSql(params);
+
+        assertThat(sql).contains(" AND f.attributes @> jsonb_build_object(:filter4, CAST(:filter5 AS text)))");
+        assertThat(params).containsEntry("filter4", "status");
+        assertThat(params).containsEntry("filter5", "ACTIVE");
+    }
+
+    @Test
+    void skipsTheProbeUnderOrAndNot() {
+        var params = new HashMap<String, Object>();
+
+        String sql = FeatureFilter.compile("status = 'ACTIVE' OR NOT kind = 'bus'").toSql(params);
+
+        assertThat(sql).doesNotContain("@>");
+    }
+
+    private static String render(String filter, HashMap<String, Object> params) {
+        var sql = new FilterSql(params);
+        FilterParser.parse(filter).appendSql(sql);
+        return sql.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package live.omnisource.tessera.stream.h3;
+
+import com.uber.h3core.H3Core;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CellRangesTests {
+
+    private final H3Core h3 = newH3();
+
+    @Test
+    void coversEveryDescendant() {
+        long cell = h3.latLngToCell(52.52, 13.405, 5);
+
+        long[] range = CellRanges.descendants(h3, cell, 8);
+
+        List<Long> children = h3.cellToChildren(cell, 8);
+        assertThat(children).hasSize(343);
+        for (long child : children) {
+            assertThat(child >= range[0] && child <= range[1]).isTrue();
+        }
+        assertThat(range[0]).isEqualTo(children.stream().mapToLong(Long::longValue).min().orElseThrow());
+        assertThat(range[1]).isEqualTo(children.stream().mapToLong(Long::longValue).max().orElseThrow());
+    }
+
+    @Test
+    void excludesDescendantsOfOtherCells() {
+        long cell = h3.latLngToCell(52.52, 13.405, 5);
+
+        long[] range = CellRanges.descendants(h3, cell, 8);
+
+        for (long neighbour : h3.gridDisk(cell, 2)) {
+            if (neighbour == cell) continue;
+            for (long child : h3.cellToChildren(neighbour, 8)) {
+                assertThat(child >= range[0] && child <= range[1]).isFalse();
+            }
+        }
+    }
+
+    @Test
+    void coversThePentagonsDescendants() {
+        long pentagon = h3.getPentagons(4).iterator().next();
+
+        long[] range = CellRanges.descendants(h3, pentagon, 6);
+
+        for (long child : h3.cellToChildren(pentagon, 6)) {
+            assertThat(child >= range[0] && child <= range[1]).isTrue();
+        }
+    }
+
+    @Test
+    void isTheCellItselfAtItsOwnResolution() {
+        long cell = h3.latLngToCell(-33.87, 151.21, 7);
+
+        assertThat(CellRanges.descendants(h3, cell, 7)).containsExactly(cell, cell);
+    }
+
+    private static H3Core newH3() {
+        try {
+            return H3Core.newInstance();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}